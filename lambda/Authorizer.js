@@ -3,36 +3,46 @@
 
 const common = require("./Common.js");
 let tenantSettingsCache = {}; // Defined outside the function globally
+let revocationCache = new Map(); // The revoked sessions of each tenant, kept for RevocationCacheTTLSeconds
 
 // This handler will check if the given tenant id and session id are valid.
 // The tenant and session id are given via the query string parameter from the client.
 // The session id is short lived and is removed either by the end user deleting it when done
 // or by a time to live (TTL) timeout from DynamoBD
-exports.handler = async function(event, context) {
+// A request with the session token returned by Session is checked against the token's signature and the tenant's
+// cached revocations rather than the session table, or against the session table once the token has expired. Without a
+// token the session table is read as before, unless the stack requires tokens with SessionTokensRequired.
+// The time taken to decide is recorded as AuthorizerLatency, per tenant for tenants which exist.
+exports.handler = common.withMetrics("Authorizer", async function(event, context) {
+    let start = Date.now();
+    let policy = await authorize(event);
+    let tenantId = policy.context.tenantId;
+    let allowed = policy.policyDocument && policy.policyDocument.Statement[0].Effect == 'Allow';
+    let dimension = tenantId in tenantSettingsCache ? tenantId : undefined;
+    common.putLatency(dimension, "AuthorizerLatency", Date.now() - start);
+    common.putCount(dimension, allowed ? "AuthorizerAllowed" : "AuthorizerDenied", 1);
+    return policy;
+});
+
+let authorize = async function(event) {
     //console.log('Received event:', JSON.stringify(event, null, 2));
+    let token = common.getSessionToken(event);
+    if (token) {
+        return authorizeToken(event, token);
+    }
+    if (process.env.SessionTokensRequired == "true") {
+        return common.generateDeny(event.methodArn, event);
+    }
     let dynamo = common.createDynamoDBClient(event);
     let tenantId = common.getTenantId(event);
     let sessionId = common.getSessionId(event);
     try {
-        let response;
-        // Check the local tenant cache to improve loading time and reduce calls to the DynamoBD database.
-        if (tenantId in tenantSettingsCache) {
-            response = tenantSettingsCache[tenantId];
-        } else {
-            response = await dynamo.get({ "TableName": process.env.TenantTableName, "Key": { tenantId: tenantId } }).promise();
-            if (!response || !response.Item || !response.Item.tenantId) {
-                console.log(tenantId + " tenant not found");
-                return common.generateDeny(event.methodArn, event);
-            }
-            tenantSettingsCache[tenantId] = response;
+        let tenantSettings = await getTenantSettings(dynamo, tenantId);
+        if (!tenantSettings) {
+            return common.generateDeny(event.methodArn, event);
         }
-        let tenantSettings = response.Item;
 
-        // Check if session exists
-        // A session Id is short lived and is removed from DynamoDB via TTL. A sessionId must be created prior to trying to connect a websocket
-        response = await dynamo.get({ "TableName": process.env.SessionTableName, "Key": { tenantId: tenantId, sessionId: sessionId } }).promise();
-        if (!response || !response.Item) {
-            console.log("Tenant: " + tenantId + " Session: " + sessionId + " not found: " + JSON.stringify(response, null, 2));
+        if (!await sessionExists(dynamo, tenantId, sessionId)) {
             return common.generateDeny(event.methodArn, event);
         }
 
@@ -42,4 +52,86 @@ exports.handler = async function(event, context) {
         console.error(err);
         return common.generateDeny(event.methodArn, event);
     }
-}
\ No newline at end of file
+}
+
+// Check if session exists
+// A session Id is short lived and is removed from DynamoDB via TTL. A sessionId must be created prior to trying to connect a websocket
+let sessionExists = async function(dynamo, tenantId, sessionId) {
+    let response = await dynamo.get({ "TableName": process.env.SessionTableName, "Key": { tenantId: tenantId, sessionId: sessionId } }).promise();
+    if (!response || !response.Item) {
+        console.log("Tenant: " + tenantId + " Session: " + sessionId + " not found: " + JSON.stringify(response, null, 2));
+        return false;
+    }
+    return true;
+}
+
+// The token proves the session was created for the tenant, so rather than reading the session table the session must
+// not have been deleted since the token was issued. Any tenantId and sessionId on the query string must match the token.
+// The token's exp is the session's sessionTTL when it was issued, which messages keep moving forward, so once a token
+// has expired the session table is read as for a connect without a token.
+let authorizeToken = async function(event, token) {
+    let tenantId = common.getTenantId(event);
+    let sessionId = common.getSessionId(event);
+    try {
+        let claims = await common.verifySessionToken(token, true);
+        if (!claims || (tenantId && tenantId != claims.tenantId) || (sessionId && sessionId != claims.sessionId)) {
+            console.log("Tenant: " + tenantId + " Session: " + sessionId + " invalid session token");
+            return common.generateDeny(event.methodArn, event);
+        }
+        // The authorizer context and the tenant scoped client take the tenant and session from the token
+        let verified = { methodArn: event.methodArn, queryStringParameters: { tenantId: claims.tenantId, sessionId: claims.sessionId } };
+        let dynamo = common.createDynamoDBClient(verified);
+        let tenantSettings = await getTenantSettings(dynamo, claims.tenantId);
+        if (!tenantSettings) {
+            return common.generateDeny(event.methodArn, verified);
+        }
+        if (claims.exp <= common.seconds_since_epoch()) {
+            if (!await sessionExists(dynamo, claims.tenantId, claims.sessionId)) {
+                return common.generateDeny(event.methodArn, verified);
+            }
+            return common.generateAllow(event.methodArn, verified, tenantSettings);
+        }
+        let revoked = await getRevokedSessions(dynamo, claims.tenantId);
+        if (revoked.has(claims.sessionId) && claims.iat <= revoked.get(claims.sessionId)) {
+            console.log("Tenant: " + claims.tenantId + " Session: " + claims.sessionId + " revoked");
+            return common.generateDeny(event.methodArn, verified);
+        }
+        return common.generateAllow(event.methodArn, verified, tenantSettings);
+    }
+    catch (err) {
+        console.error(err);
+        return common.generateDeny(event.methodArn, event);
+    }
+}
+
+// Check the local tenant cache to improve loading time and reduce calls to the DynamoBD database.
+// Returns undefined if the tenant does not exist.
+let getTenantSettings = async function(dynamo, tenantId) {
+    if (tenantId in tenantSettingsCache) {
+        common.putCount(undefined, "TenantCacheHits", 1);
+        return tenantSettingsCache[tenantId].Item;
+    }
+    common.putCount(undefined, "TenantCacheMisses", 1);
+    let response = await dynamo.get({ "TableName": process.env.TenantTableName, "Key": { tenantId: tenantId } }).promise();
+    if (!response || !response.Item || !response.Item.tenantId) {
+        console.log(tenantId + " tenant not found");
+        return undefined;
+    }
+    tenantSettingsCache[tenantId] = response;
+    return response.Item;
+}
+
+// A tenant's revocations are read at most once per RevocationCacheTTLSeconds, so a session deleted within that time
+// of a connect can still be connected to
+let getRevokedSessions = async function(dynamo, tenantId) {
+    let cached = revocationCache.get(tenantId);
+    if (cached && cached.expires > Date.now()) {
+        return cached.revoked;
+    }
+    let revoked = await common.getRevokedSessions(dynamo, tenantId);
+    if (revocationCache.size >= 1000) {
+        revocationCache.delete(revocationCache.keys().next().value);
+    }
+    revocationCache.set(tenantId, { revoked: revoked, expires: Date.now() + (Number(process.env.RevocationCacheTTLSeconds) || 5) * 1000 });
+    return revoked;
+}
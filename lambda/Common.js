@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: MIT-0
 
 const AWS = require("aws-sdk");
+const crypto = require("crypto");
 
 exports.secondsPerMinute = 60;
 
@@ -25,15 +26,140 @@ exports.getSessionId = function(event) {
     return undefined;
 }
 
+// Hot path metrics are collected for the life of the invocation and written as CloudWatch embedded metric format (EMF)
+// log lines when the handler returns, see withMetrics. They carry a Function dimension, and per tenant metrics are also
+// published without the TenantId dimension, the same metrics as the Java handlers publish, see MetricsLogger.
+const metricsNamespace = "WebSocketRateLimit";
+// CloudWatch accepts at most 100 values of a metric in one EMF document
+const maxMetricValues = 100;
+let metricDocuments = new Map();
+
+// Records a latency in milliseconds, kept as individual values so CloudWatch can report percentiles of them.
+// Leave tenantId undefined for metrics of the whole function.
+exports.putLatency = function(tenantId, name, millis) {
+    let document = metricDocument(tenantId, undefined);
+    (document.latencies[name] = document.latencies[name] || []).push(millis);
+}
+
+exports.putCount = function(tenantId, name, count) {
+    let document = metricDocument(tenantId, undefined);
+    document.counts[name] = (document.counts[name] || 0) + count;
+}
+
+// Requests rejected by one of the rate limits, limitType names the limit, for example TENANT_PER_MINUTE
+exports.putThrottles = function(tenantId, limitType, count) {
+    let document = metricDocument(tenantId, limitType);
+    document.counts.Throttles = (document.counts.Throttles || 0) + count;
+}
+
+let metricDocument = function(tenantId, limitType) {
+    let key = JSON.stringify([tenantId, limitType]);
+    if (!metricDocuments.has(key)) {
+        metricDocuments.set(key, { tenantId: tenantId, limitType: limitType, latencies: {}, counts: {} });
+    }
+    return metricDocuments.get(key);
+}
+
+// Writes the metrics recorded since the last flush with the given Function dimension
+exports.flushMetrics = function(functionName) {
+    let timestamp = Date.now();
+    for (const document of metricDocuments.values()) {
+        let dimensions = ["Function"];
+        let line = { Function: functionName };
+        if (document.tenantId !== undefined) {
+            dimensions.push("TenantId");
+            line.TenantId = document.tenantId;
+        }
+        if (document.limitType !== undefined) {
+            dimensions.push("LimitType");
+            line.LimitType = document.limitType;
+        }
+        let dimensionSets = [dimensions];
+        if (document.tenantId !== undefined) {
+            dimensionSets.push(dimensions.filter(dimension => dimension != "TenantId"));
+        }
+        let lines = Math.max(1, ...Object.values(document.latencies).map(values => Math.ceil(values.length / maxMetricValues)));
+        for (let l = 0; l < lines; l++) {
+            let metrics = [];
+            let values = {};
+            if (l == 0) {
+                for (const [name, count] of Object.entries(document.counts)) {
+                    metrics.push({ Name: name, Unit: "Count" });
+                    values[name] = count;
+                }
+            }
+            for (const [name, latencies] of Object.entries(document.latencies)) {
+                if (latencies.length > l * maxMetricValues) {
+                    metrics.push({ Name: name, Unit: "Milliseconds" });
+                    values[name] = latencies.slice(l * maxMetricValues, (l + 1) * maxMetricValues);
+                }
+            }
+            console.log(JSON.stringify(Object.assign({
+                _aws: {
+                    Timestamp: timestamp,
+                    CloudWatchMetrics: [{ Namespace: metricsNamespace, Dimensions: dimensionSets, Metrics: metrics }]
+                }
+            }, line, values)));
+        }
+    }
+    metricDocuments.clear();
+}
+
+// Wraps a handler so the metrics it recorded are written however it returns
+exports.withMetrics = function(functionName, handler) {
+    return async function(event, context) {
+        try {
+            return await handler(event, context);
+        } finally {
+            exports.flushMetrics(functionName);
+        }
+    };
+}
+
+// Every AWS SDK call is timed from validation to completion, including its retries, and recorded as DynamoDBLatency,
+// STSLatency, PostToConnectionLatency or DeleteConnectionLatency. Calls the service throttled are also counted.
+// DynamoDB calls are recorded per tenant for clients created for an authorized tenant, see createDynamoDBClient.
+const sdkMetricNames = { dynamodb: "DynamoDB", sts: "STS" };
+AWS.events.on("validate", function(request) {
+    request.metricsStart = Date.now();
+});
+AWS.events.on("complete", function(response) {
+    let request = response.request;
+    if (request.metricsStart === undefined) {
+        return;
+    }
+    let service = request.service;
+    let name = sdkMetricNames[service.serviceIdentifier] || request.operation.charAt(0).toUpperCase() + request.operation.slice(1);
+    exports.putLatency(service.metricsTenantId, name + "Latency", Date.now() - request.metricsStart);
+    if (response.error && (response.error.statusCode == 429 || (service.throttledError && service.throttledError(response.error)))) {
+        exports.putCount(service.metricsTenantId, name + "Throttles", 1);
+    }
+});
+
+// Clients are kept per tenant for the life of the Lambda container so warm invocations reuse the assumed role
+// credentials instead of calling sts:AssumeRole every time. The credentials refresh themselves shortly before they expire.
+const maxPooledDynamoDBClients = 100;
+let dynamoDBClients = new Map();
+
+let isAuthorized = function(event) {
+    return Boolean(event.requestContext && event.requestContext.authorizer && event.requestContext.authorizer.tenantId);
+}
+
 // During the creation of the DynamoBD connection the tenant Id is added as the transitive tag key
 // to make sure we can only access data for this specific tenant
 exports.createDynamoDBClient = function(event) {
+    let tenantId = exports.getTenantId(event);
+    if (dynamoDBClients.has(tenantId)) {
+        exports.putCount(undefined, "ClientPoolHits", 1);
+        return dynamoDBClients.get(tenantId);
+    }
+    exports.putCount(undefined, "ClientPoolMisses", 1);
     var credentials = new AWS.ChainableTemporaryCredentials({
         params: {
             RoleArn: process.env.RoleArn,
             Tags: [{
                 Key: "tenantId",
-                Value: exports.getTenantId(event)
+                Value: tenantId
             }],
             TransitiveTagKeys: [
                 "tenantId"
@@ -45,9 +171,235 @@ exports.createDynamoDBClient = function(event) {
             SessionToken: AWS.config.credentials.SessionToken
         }
     });
-    return new AWS.DynamoDB.DocumentClient(new AWS.Config({
+    let service = new AWS.DynamoDB({
         credentials: credentials
-    }));
+    });
+    // Tenant Ids only come from the authorizer context once a request is authorized, until then the tenant may not
+    // exist and the calls are recorded for the function
+    service.metricsTenantId = isAuthorized(event) ? tenantId : undefined;
+    let client = new AWS.DynamoDB.DocumentClient({ service: service });
+    if (dynamoDBClients.size >= maxPooledDynamoDBClients) {
+        // Maps iterate in insertion order so this drops the oldest tenant
+        dynamoDBClients.delete(dynamoDBClients.keys().next().value);
+    }
+    dynamoDBClients.set(tenantId, client);
+    return client;
+}
+
+// Session tokens let the authorizer accept a session without reading the session table, the same tokens as the Java
+// handlers issue, see session/SessionTokens. A token is an HS256 JSON Web Token binding the tenantId and sessionId to
+// when it was issued and expires. It is signed with a key derived from the SessionTokenSecretArn secret for each day,
+// so the key rotates without any coordination, and tokens signed with the previous day's key are still accepted.
+const sessionTokenKeyPeriodSeconds = 24 * 60 * 60;
+const acceptedSessionTokenKeyPeriods = 2;
+const sessionTokenSecretTTLMillis = 5 * 60 * 1000;
+let sessionTokenSecret;
+
+exports.getSessionToken = function(event) {
+    return event.queryStringParameters && event.queryStringParameters.token ? event.queryStringParameters.token : undefined;
+}
+
+// The secret is kept for five minutes so a replaced secret is picked up by warm containers
+let getSessionTokenSecret = async function() {
+    if (!process.env.SessionTokenSecretArn) {
+        return undefined;
+    }
+    if (!sessionTokenSecret || sessionTokenSecret.expires < Date.now()) {
+        let response = await new AWS.SecretsManager().getSecretValue({ SecretId: process.env.SessionTokenSecretArn }).promise();
+        sessionTokenSecret = { value: response.SecretString, expires: Date.now() + sessionTokenSecretTTLMillis };
+    }
+    return sessionTokenSecret.value;
+}
+
+let toBase64Url = function(buffer) {
+    return buffer.toString("base64").replace(/=+$/, "").replace(/\+/g, "-").replace(/\//g, "_");
+}
+
+let fromBase64Url = function(text) {
+    return Buffer.from(text.replace(/-/g, "+").replace(/_/g, "/"), "base64");
+}
+
+let signSessionToken = function(secret, period, signed) {
+    let key = crypto.createHmac("sha256", secret).update("session-token-key:" + period).digest();
+    return crypto.createHmac("sha256", key).update(signed).digest();
+}
+
+// Returns a token for the session which expires ttl seconds from now, or undefined if session tokens are not configured
+exports.issueSessionToken = async function(tenantId, sessionId, ttl) {
+    let secret = await getSessionTokenSecret();
+    if (!secret) {
+        return undefined;
+    }
+    let now = exports.seconds_since_epoch();
+    let period = Math.floor(now / sessionTokenKeyPeriodSeconds);
+    let signed = toBase64Url(Buffer.from(JSON.stringify({ alg: "HS256", typ: "JWT", kid: String(period) }))) + "." +
+        toBase64Url(Buffer.from(JSON.stringify({ tenantId: tenantId, sessionId: sessionId, iat: now, exp: now + ttl })));
+    return signed + "." + toBase64Url(signSessionToken(secret, period, signed));
+}
+
+// Returns the token's claims if it was signed with one of the accepted keys and has not expired, or with allowExpired
+// whether or not it has expired, otherwise undefined.
+// Only the exact header issueSessionToken writes is accepted, which rules out alg "none" and every other algorithm.
+exports.verifySessionToken = async function(token, allowExpired) {
+    let secret = await getSessionTokenSecret();
+    let parts = token ? token.split(".") : [];
+    if (!secret || parts.length != 3) {
+        return undefined;
+    }
+    let header = /^\{"alg":"HS256","typ":"JWT","kid":"(\d{1,15})"\}$/.exec(fromBase64Url(parts[0]).toString("utf8"));
+    if (!header) {
+        return undefined;
+    }
+    let now = exports.seconds_since_epoch();
+    let period = Number(header[1]);
+    let current = Math.floor(now / sessionTokenKeyPeriodSeconds);
+    // A function whose clock is slightly ahead may already sign with the next period's key
+    if (period > current + 1 || period <= current - acceptedSessionTokenKeyPeriods) {
+        return undefined;
+    }
+    let expected = signSessionToken(secret, period, parts[0] + "." + parts[1]);
+    let signature = fromBase64Url(parts[2]);
+    if (signature.length != expected.length || !crypto.timingSafeEqual(signature, expected)) {
+        return undefined;
+    }
+    let claims;
+    try {
+        claims = JSON.parse(fromBase64Url(parts[1]).toString("utf8"));
+    } catch (err) {
+        return undefined;
+    }
+    if (!claims || typeof claims.tenantId != "string" || typeof claims.sessionId != "string"
+        || !Number.isInteger(claims.iat) || !Number.isInteger(claims.exp) || (!allowExpired && claims.exp <= now)) {
+        return undefined;
+    }
+    return claims;
+}
+
+// Revoked session tokens are kept in a single limit table item per tenant with an r#<sessionId> map of when the
+// session was revoked and until when its tokens could be valid, the same as DynamoDBSessionStore.revoke
+const revokedPrefix = "r#";
+const maxRemovedRevocations = 50;
+
+let revocationKey = function(tenantId) {
+    return { tenantId: tenantId, key: tenantId + ":revoked" };
+}
+
+exports.revokeSession = async function(dynamo, tenantId, sessionId, tokenTTL) {
+    let now = exports.seconds_since_epoch();
+    let until = now + tokenTTL;
+    let names = { "#r": revokedPrefix + sessionId };
+    let removed = [];
+    let itemTTL = until + 1;
+    // Revocations whose tokens have all expired are dropped by the same update so the item stays small
+    let response = await dynamo.get({ "TableName": process.env.LimitTableName, "Key": revocationKey(tenantId) }).promise();
+    for (let [name, revocation] of Object.entries(response && response.Item ? response.Item : {})) {
+        if (!name.startsWith(revokedPrefix) || name == names["#r"] || !revocation || revocation.until === undefined) {
+            continue;
+        }
+        if (revocation.until < now && removed.length < maxRemovedRevocations) {
+            names["#s" + removed.length] = name;
+            removed.push("#s" + removed.length);
+        } else {
+            itemTTL = Math.max(itemTTL, revocation.until + 1);
+        }
+    }
+    return dynamo.update({
+        "TableName": process.env.LimitTableName,
+        "Key": revocationKey(tenantId),
+        "UpdateExpression": "set #r = :revocation, itemTTL = :ttl" + (removed.length > 0 ? " REMOVE " + removed.join(", ") : ""),
+        "ExpressionAttributeNames": names,
+        "ExpressionAttributeValues": { ":revocation": { at: now, until: until }, ":ttl": itemTTL }
+    }).promise();
+}
+
+// Returns a Map of the tenant's revoked sessions to the time they were revoked, tokens issued at or before it are revoked
+exports.getRevokedSessions = async function(dynamo, tenantId) {
+    let now = exports.seconds_since_epoch();
+    let revoked = new Map();
+    let response = await dynamo.get({ "TableName": process.env.LimitTableName, "Key": revocationKey(tenantId) }).promise();
+    for (let [name, revocation] of Object.entries(response && response.Item ? response.Item : {})) {
+        if (name.startsWith(revokedPrefix) && revocation && revocation.until >= now) {
+            revoked.set(name.substring(revokedPrefix.length), revocation.at);
+        }
+    }
+    return revoked;
+}
+
+// Sheds requests before they call a dependency while it is slow, the same way as LoadShedder.java: slow or failed
+// calls cut the share of requests admitted, which grows back over LoadSheddingRecoverySeconds, every tenant also has
+// a share of its own, and the tier decides how much of the share a tenant gets so BASIC tenants are shed first.
+// The latency target is twice the usual latency within <dependency>MinTargetMillis and <dependency>MaxTargetMillis.
+// Returns null when LoadShedding is false.
+const minLoadShare = 0.02;
+const tierShareBands = { BASIC: [0.5, 1], STANDARD: [0.2, 0.5], PREMIUM: [0, 0.2] };
+
+exports.createLoadShedder = function(dependency, minTargetMillis, maxTargetMillis) {
+    if (process.env.LoadShedding == "false") {
+        return null;
+    }
+    let minTarget = parseInt(process.env[dependency + "MinTargetMillis"] || minTargetMillis);
+    let maxTarget = Math.max(minTarget, parseInt(process.env[dependency + "MaxTargetMillis"] || maxTargetMillis));
+    let recoveryMillis = Math.max(1, 1000 * parseInt(process.env.LoadSheddingRecoverySeconds || 10));
+    let newShare = () => ({ share: 1, updated: 0, decreased: -Infinity, calls: 0, baseline: NaN, slowTenantId: null, credit: 0 });
+    let dependencyShare = newShare();
+    let tenantShares = new Map();
+    let tenantShare = function(tenantId) {
+        if (!tenantShares.has(tenantId)) {
+            tenantShares.set(tenantId, newShare());
+        }
+        return tenantShares.get(tenantId);
+    };
+    let current = function(share, now) {
+        share.share = Math.min(1, share.share + Math.max(0, now - share.updated) / recoveryMillis);
+        share.updated = now;
+        return share.share;
+    };
+    // One tenant's slow calls only cut the dependency's share once another tenant's are slow too
+    let record = function(share, now, millis, failed, tenantId) {
+        current(share, now);
+        if (share.calls++ == 0) {
+            return; // A new container's first call also sets up the connection
+        }
+        let target = isNaN(share.baseline) ? maxTarget : Math.max(minTarget, Math.min(maxTarget, 2 * share.baseline));
+        if (!failed && millis <= target) {
+            share.baseline = isNaN(share.baseline) ? millis : share.baseline + (millis - share.baseline) * 0.05;
+            return;
+        }
+        let previous = share.slowTenantId;
+        share.slowTenantId = tenantId;
+        if (tenantId != null && (previous == null || previous == tenantId)) {
+            return;
+        }
+        // Calls which were in flight when the share was last cut do not cut it again
+        if (now - millis < share.decreased) {
+            return;
+        }
+        share.share = Math.max(minLoadShare, share.share * (failed ? 0.5 : Math.max(0.1, Math.min(0.5, target / Math.max(1, millis)))));
+        share.decreased = now;
+    };
+    return {
+        // tier is the tenant's tier from the authorizer context, STANDARD when it is missing
+        tryAdmit: function(tenantId, tier) {
+            let now = Date.now();
+            let share = Math.min(current(dependencyShare, now), current(tenantShare(tenantId), now));
+            let band = tierShareBands[String(tier).trim().toUpperCase()] || tierShareBands.STANDARD;
+            let tenant = tenantShare(tenantId);
+            tenant.credit = Math.min(1, tenant.credit + Math.max(0, Math.min(1, (share - band[0]) / (band[1] - band[0]))));
+            if (tenant.credit < 1) {
+                return false;
+            }
+            tenant.credit -= 1;
+            return true;
+        },
+        // tenantId is null for calls made for no tenant in particular
+        record: function(tenantId, millis, failed) {
+            let now = Date.now();
+            record(dependencyShare, now, millis, failed, tenantId);
+            if (tenantId != null) {
+                record(tenantShare(tenantId), now, millis, failed, null);
+            }
+        }
+    };
 }
 
 // Update the limit table by incrementing the itemCount field by 1 for the specified key/current min combo
@@ -66,6 +418,144 @@ exports.incrementLimitTablePerMinute = function(dynamo, tenantId, keyStart, keyM
     return dynamo.update(updateParams).promise();
 }
 
+// The connections of each session are items of the connection table keyed by tenantId#sessionId and the connectionId.
+// API Gateway closes a connection after two hours, so an item whose $disconnect never arrived expires an hour later.
+const connectionTTLSeconds = 3 * 60 * 60;
+// The connection Ids of recently used sessions, kept by the container with the membershipVersion of the session item
+// they were read at. Every connect and disconnect increments the version, so they are read again once it changes.
+const maxCachedConnections = 100000;
+const membershipCache = new Map();
+let cachedConnections = 0;
+
+exports.connectionSession = function(tenantId, sessionId) {
+    return tenantId + "#" + sessionId;
+}
+
+// The connection table item added in the same transaction as the session's connectionCount is incremented
+exports.connectionItem = function(tenantId, sessionId, connectionId) {
+    let connectedAt = exports.seconds_since_epoch();
+    return { session: exports.connectionSession(tenantId, sessionId), connectionId: connectionId, tenantId: tenantId, connectedAt: connectedAt, itemTTL: connectedAt + connectionTTLSeconds };
+}
+
+// Reads every page of the session's connection Ids, only those connected by connectedBefore if it is given
+exports.queryConnections = async function(dynamo, tenantId, sessionId, connectedBefore) {
+    let params = {
+        "TableName": process.env.ConnectionTableName,
+        "KeyConditionExpression": "#session = :session",
+        "ExpressionAttributeNames": { "#session": "session" },
+        "ExpressionAttributeValues": { ":session": exports.connectionSession(tenantId, sessionId) },
+        "ProjectionExpression": "connectionId",
+        "ConsistentRead": true
+    };
+    if (connectedBefore !== undefined) {
+        params.FilterExpression = "connectedAt <= :connectedBefore";
+        params.ExpressionAttributeValues[":connectedBefore"] = connectedBefore;
+    }
+    let connectionIds = [];
+    do {
+        let response = await dynamo.query(params).promise();
+        response.Items.forEach(item => connectionIds.push(item.connectionId));
+        params.ExclusiveStartKey = response.LastEvaluatedKey;
+    } while (params.ExclusiveStartKey);
+    return connectionIds;
+}
+
+// The connection Ids of a session given its item, those of the connectionIds set of sessions created before the
+// connection table followed by those of the connection table, which are only read if the membershipVersion has
+// changed since they were cached
+exports.getSessionConnections = async function(dynamo, tenantId, sessionId, item) {
+    let legacy = item && item.connectionIds ? item.connectionIds.values : [];
+    let version = item && item.membershipVersion ? item.membershipVersion : 0;
+    if (version == 0) {
+        return legacy;
+    }
+    let key = exports.connectionSession(tenantId, sessionId);
+    let cached = membershipCache.get(key);
+    let connectionIds;
+    if (cached && cached.version == version) {
+        // Moved to the end so the least recently used sessions are evicted first
+        membershipCache.delete(key);
+        membershipCache.set(key, cached);
+        connectionIds = cached.connectionIds;
+    } else {
+        connectionIds = await exports.queryConnections(dynamo, tenantId, sessionId);
+        if (cached) {
+            membershipCache.delete(key);
+            cachedConnections -= cached.connectionIds.length;
+        }
+        if (connectionIds.length <= maxCachedConnections) {
+            membershipCache.set(key, { version: version, connectionIds: connectionIds });
+            cachedConnections += connectionIds.length;
+            for (const [eldestKey, eldest] of membershipCache) {
+                if (cachedConnections <= maxCachedConnections) {
+                    break;
+                }
+                membershipCache.delete(eldestKey);
+                cachedConnections -= eldest.connectionIds.length;
+            }
+        }
+    }
+    return legacy.length == 0 ? connectionIds : legacy.concat(connectionIds);
+}
+
+// A session is refreshed once less than SessionRefreshPercent (80) of its sessionTTL is left, so a session whose
+// messages keep coming is written at most once every fifth of its sessionTTL and one which goes quiet lasts at least
+// 80% of it. 100 writes the sessionTTL for every message, returning the old item, as before.
+const sessionRefreshFraction = parseInt(process.env.SessionRefreshPercent || "80") / 100;
+
+// Returns the session's connection Ids, reading the session item and only writing its sessionTTL once it is due
+// rather than for every message, which would make a write and a MODIFY stream record per message. The write is
+// conditional on the sessionTTL still being due, so of the consumers which read it at the same time only one
+// refreshes it, and a session which has been deleted is not created again.
+exports.touchSession = async function(dynamo, tenantId, sessionId, sessionTTL) {
+    let key = { tenantId: tenantId, sessionId: sessionId };
+    if (sessionRefreshFraction >= 1) {
+        let results = await dynamo.update({
+            "TableName": process.env.SessionTableName,
+            "Key": key,
+            "UpdateExpression": "set sessionTTL = :ttl",
+            "ExpressionAttributeValues": {
+                ":ttl": (exports.seconds_since_epoch() + parseInt(sessionTTL))
+            },
+            "ReturnValues": "ALL_OLD"
+        }).promise();
+        return exports.getSessionConnections(dynamo, tenantId, sessionId, results.Attributes);
+    }
+    // Strongly consistent, as the update returning the item was, so a connection which has just been added is
+    // broadcast to by the next message
+    let response = await dynamo.get({
+        "TableName": process.env.SessionTableName,
+        "Key": key,
+        "ProjectionExpression": "sessionTTL, membershipVersion, connectionIds",
+        "ConsistentRead": true
+    }).promise();
+    if (!response.Item) {
+        return [];
+    }
+    let now = exports.seconds_since_epoch();
+    let refreshBefore = now + Math.floor(parseInt(sessionTTL) * sessionRefreshFraction);
+    if (!(response.Item.sessionTTL >= refreshBefore)) {
+        try {
+            await dynamo.update({
+                "TableName": process.env.SessionTableName,
+                "Key": key,
+                "UpdateExpression": "set sessionTTL = :ttl",
+                "ConditionExpression": "sessionTTL < :refreshBefore",
+                "ExpressionAttributeValues": {
+                    ":ttl": now + parseInt(sessionTTL),
+                    ":refreshBefore": refreshBefore
+                }
+            }).promise();
+        } catch (err) {
+            if (err.code != 'ConditionalCheckFailedException') {
+                throw err;
+            }
+            // Already refreshed, or gone, in which case the next message finds it gone
+        }
+    }
+    return exports.getSessionConnections(dynamo, tenantId, sessionId, response.Item);
+}
+
 exports.seconds_since_epoch = function() {
     return Math.floor(Date.now() / 1000);
 }
@@ -114,7 +604,81 @@ let generatePolicy = function(effect, resource, event, tenantSettings) {
         sessionTTL: tenantSettings ? tenantSettings.sessionTTL : -1,
         messagesPerMinute: tenantSettings ? tenantSettings.messagesPerMinute : -1
     };
+    if (tenantSettings) {
+        // Which tenants WebsocketConnect.js sheds first while DynamoDB is slow
+        authResponse.context.tier = tenantSettings.tier || "STANDARD";
+        // The same context packed into the single attribute the queue routes send
+        authResponse.context.ctx = exports.encodeAuthorizerContext(authResponse.context);
+    }
     return authResponse;
 }
+// The authorizer context a queued message carries in its single binary ctx attribute, the same layout as
+// AuthorizerContext.java: a version byte of 1, the tenantId and sessionId as a varint byte length followed by their
+// UTF-8 bytes, then the settings below as zigzag varints. Decoders ignore bytes after the fields they know.
+const authorizerContextVersion = 1;
+const authorizerContextSettings = ["sessionPerMinute", "tenantPerMinute", "tenantConnections", "connectionsPerSession", "sessionTTL", "messagesPerMinute"];
+
+// Returns the context base64 encoded, as the queue route's request template passes it to SQS
+exports.encodeAuthorizerContext = function(context) {
+    let bytes = [authorizerContextVersion];
+    for (let name of ["tenantId", "sessionId"]) {
+        let value = Buffer.from(String(context[name]), "utf8");
+        pushVarint(bytes, value.length);
+        bytes.push(...value);
+    }
+    for (let name of authorizerContextSettings) {
+        let value = Number(context[name]);
+        pushVarint(bytes, value >= 0 ? value * 2 : -value * 2 - 1);
+    }
+    return Buffer.from(bytes).toString("base64");
+}
+
+// Returns the context of a ctx attribute's base64 binaryValue, or undefined if it is of another version or invalid
+exports.decodeAuthorizerContext = function(base64) {
+    let bytes = Buffer.from(base64, "base64");
+    let reader = { position: 1 };
+    if (bytes.length < 1 || bytes[0] != authorizerContextVersion) {
+        return undefined;
+    }
+    let context = {};
+    for (let name of ["tenantId", "sessionId"]) {
+        let length = readVarint(bytes, reader);
+        if (length === undefined || reader.position + length > bytes.length) {
+            return undefined;
+        }
+        context[name] = bytes.toString("utf8", reader.position, reader.position + length);
+        reader.position += length;
+    }
+    for (let name of authorizerContextSettings) {
+        let value = readVarint(bytes, reader);
+        if (value === undefined) {
+            return undefined;
+        }
+        context[name] = value % 2 == 0 ? value / 2 : -(value + 1) / 2;
+    }
+    return context;
+}
+
+// Varints are written with arithmetic rather than bitwise operators, which only work on 32 bits
+let pushVarint = function(bytes, value) {
+    while (value >= 128) {
+        bytes.push(value % 128 + 128);
+        value = Math.floor(value / 128);
+    }
+    bytes.push(value);
+}
+
+let readVarint = function(bytes, reader) {
+    let value = 0;
+    for (let scale = 1; reader.position < bytes.length; scale *= 128) {
+        let b = bytes[reader.position++];
+        value += (b & 0x7F) * scale;
+        if (b < 128) {
+            return value;
+        }
+    }
+    return undefined;
+}
+
 exports.generateAllow = function(resource, event, tenantSettings) { return generatePolicy('Allow', resource, event, tenantSettings); }
 exports.generateDeny = function(resource, event) { return generatePolicy('Deny', resource, event, null); }
\ No newline at end of file
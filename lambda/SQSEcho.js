@@ -4,25 +4,24 @@
 const AWS = require("aws-sdk");
 const common = require("./Common.js");
 const apig = new AWS.ApiGatewayManagementApi({ endpoint: process.env.ApiGatewayEndpoint });
+const dynamoDBShedder = common.createLoadShedder("DynamoDB", 50, 500);
+const postShedder = common.createLoadShedder("PostToConnection", 100, 1000);
 
 // This handler will iterate the event records from the SQS queue and send a response message back to each
 // connection associated with the session. This keeps all session connections in sync across multiple web browser windows/tabs.
-exports.handler = async (event, context) => {
+// Messages over the tenant's limit are recorded as Throttles with the MESSAGES_PER_MINUTE limit type.
+// While DynamoDB or postToConnection is slow messages are answered with a throttle response without their checks and
+// recorded with the OVERLOADED limit type. Queued messages do not carry the tenant's tier, so every tenant is shed as
+// a STANDARD tenant here.
+exports.handler = common.withMetrics("SQSEcho", async (event, context) => {
     //console.log("Event: ", JSON.stringify(event, null, 2));
     if (event.Records) {
         for (let r = 0; r < event.Records.length; r++) {
-            let recordEvent = {
-                requestContext: {
-                    authorizer: {
-                        tenantId: event.Records[r].messageAttributes.tenantId.stringValue,
-                        sessionId: event.Records[r].messageAttributes.sessionId.stringValue,
-                        messagesPerMinute: event.Records[r].messageAttributes.messagesPerMinute.stringValue,
-                        sessionTTL: event.Records[r].messageAttributes.sessionTTL.stringValue
-                    }
-                },
-                connectionId: event.Records[r].messageAttributes.connectionId.stringValue,
-                requestId: event.Records[r].messageAttributes.requestId.stringValue,
-                body: event.Records[r].body
+            let recordEvent = toRecordEvent(event.Records[r]);
+            if (!recordEvent) {
+                // Retrying a message without the authorizer context would block its message group forever
+                console.log("Message: " + event.Records[r].messageId + " is missing its attributes");
+                continue;
             }
             let queueName = event.Records[r].eventSourceARN.substring(event.Records[r].eventSourceARN.indexOf("tenant-"), event.Records[r].eventSourceARN.length);
             try {
@@ -32,32 +31,28 @@ exports.handler = async (event, context) => {
                 let tenantId = common.getTenantId(recordEvent);
                 let sessionId = common.getSessionId(recordEvent);
                 let dynamo = common.createDynamoDBClient(recordEvent);
-                // Update and check the total number of messages per minute per tenant
-                let updateResponse = await common.incrementLimitTablePerMinute(dynamo, tenantId, tenantId, "minutemsg");
-                if (!updateResponse || updateResponse.Attributes.itemCount > recordEvent.requestContext.authorizer.messagesPerMinute) {
+                let tier = "STANDARD";
+                if ((dynamoDBShedder && !dynamoDBShedder.tryAdmit(tenantId, tier)) || (postShedder && !postShedder.tryAdmit(tenantId, tier))) {
+                    console.log("Tenant: " + tenantId + " shed while overloaded");
+                    common.putThrottles(tenantId, "OVERLOADED", 1);
+                    await post(connectionId, common.createMessageThrottleResponse(connectionId, requestId));
+                    continue;
+                }
+                // Update and check the total number of messages per minute per tenant, then read the session's connections, refreshing it when due
+                let connectionIds = await timed(dynamoDBShedder, tenantId, () => admit(dynamo, recordEvent, tenantId, sessionId));
+                if (!connectionIds) {
                     console.log("Tenant: " + tenantId + " message rate limit hit");
-                    await apig.postToConnection({ ConnectionId: connectionId, Data: common.createMessageThrottleResponse(connectionId, requestId) }).promise();
+                    common.putThrottles(tenantId, "MESSAGES_PER_MINUTE", 1);
+                    await post(connectionId, common.createMessageThrottleResponse(connectionId, requestId));
                     continue;
                 }
-
-                let updateParams = {
-                    "TableName": process.env.SessionTableName,
-                    "Key": { tenantId: tenantId, sessionId: sessionId },
-                    "UpdateExpression": "set sessionTTL = :ttl",
-                    "ExpressionAttributeValues": {
-                        ":ttl": (Math.floor(+new Date() / 1000) + parseInt(recordEvent.requestContext.authorizer.sessionTTL))
-                    },
-                    "ReturnValues": "ALL_OLD"
-                };
-                let results = await dynamo.update(updateParams).promise();
-                let connectionIds = results.Attributes.connectionIds.values;
                 for (let x = 0; x < connectionIds.length; x++) {
                     if (connectionIds[x] != connectionId) {
-                        await apig.postToConnection({ ConnectionId: connectionIds[x], Data: `${body}` }).promise();
+                        await post(connectionIds[x], `${body}`);
                     }
                 }
                 for (let x = 0; x < connectionIds.length; x++) {
-                    await apig.postToConnection({ ConnectionId: connectionIds[x], Data: common.createEchoResponse(tenantId, sessionId, connectionIds[x], body, queueName) }).promise();
+                    await post(connectionIds[x], common.createEchoResponse(tenantId, sessionId, connectionIds[x], body, queueName));
                 }
             }
             catch (err) {
@@ -70,4 +65,67 @@ exports.handler = async (event, context) => {
         statusCode: 200
     };
     return response;
-};
+});
+
+// Returns the session's connections, or null if the message is over the tenant's limit
+let admit = async function(dynamo, recordEvent, tenantId, sessionId) {
+    let updateResponse = await common.incrementLimitTablePerMinute(dynamo, tenantId, tenantId, "minutemsg");
+    if (!updateResponse || updateResponse.Attributes.itemCount > recordEvent.requestContext.authorizer.messagesPerMinute) {
+        return null;
+    }
+    return common.touchSession(dynamo, tenantId, sessionId, recordEvent.requestContext.authorizer.sessionTTL);
+}
+
+let post = function(connectionId, data) {
+    return timed(postShedder, null, () => apig.postToConnection({ ConnectionId: connectionId, Data: data }).promise());
+}
+
+// Times a call for a load shedder. A call which failed with a throttle or another error worth retrying counts as a
+// failed one, a connection which is gone does not.
+let timed = async function(shedder, tenantId, call) {
+    let start = Date.now();
+    let failed = false;
+    try {
+        return await call();
+    } catch (err) {
+        failed = !!err.retryable || err.statusCode == 429;
+        throw err;
+    } finally {
+        if (shedder) {
+            shedder.record(tenantId, Date.now() - start, failed);
+        }
+    }
+}
+
+// Messages carry either the binary ctx attribute with the connectionId and the requestId in the deduplication Id,
+// or the original layout of one string attribute per setting. Returns undefined if the context is missing or invalid.
+let toRecordEvent = function(record) {
+    let attributes = record.messageAttributes || {};
+    let authorizer;
+    if (attributes.ctx && attributes.ctx.binaryValue) {
+        authorizer = common.decodeAuthorizerContext(attributes.ctx.binaryValue);
+    } else if (attributes.tenantId && attributes.sessionId) {
+        authorizer = {
+            tenantId: attributes.tenantId.stringValue,
+            sessionId: attributes.sessionId.stringValue,
+            messagesPerMinute: attributes.messagesPerMinute.stringValue,
+            sessionTTL: attributes.sessionTTL.stringValue
+        };
+    }
+    if (!authorizer || !attributes.connectionId) {
+        return undefined;
+    }
+    return {
+        requestContext: {
+            authorizer: {
+                tenantId: authorizer.tenantId,
+                sessionId: authorizer.sessionId,
+                messagesPerMinute: authorizer.messagesPerMinute,
+                sessionTTL: authorizer.sessionTTL
+            }
+        },
+        connectionId: attributes.connectionId.stringValue,
+        requestId: attributes.requestId ? attributes.requestId.stringValue : (record.attributes || {}).MessageDeduplicationId,
+        body: record.body
+    };
+}
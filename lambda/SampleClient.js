@@ -15,6 +15,8 @@ const sessionUrl = "{{sessionUrl}}";
 const tenantUrl = "{{tenantUrl}}";
 const websocketUrl = "{{WssUrl}}";
 let connection;
+// The signed session token returned when the session was created, the authorizer checks it without the session table
+let sessionToken;
 let msgNumber = 1;
 const messageNumberTemplate = "{{msgNumber}}";
 
@@ -38,6 +40,7 @@ clearLogButton.addEventListener("click", () => {
 
 window.onload = function() {
     sessionId.value = getCookie("sessionuuid");
+    sessionToken = getCookie("sessiontoken");
     loadTenants();
 };
 
@@ -113,6 +116,8 @@ createSessionButton.addEventListener("click", () => {
         else { // show the result
             addCommunication("Created session " + uuid, xhr);
             setCookie("sessionuuid", uuid, 1);
+            sessionToken = JSON.parse(xhr.response).token || "";
+            setCookie("sessiontoken", sessionToken, 1);
         }
     };
 
@@ -138,7 +143,9 @@ deleteSessionButton.addEventListener("click", () => {
         else { // show the result
             addCommunication("Deleted session " + uuid, xhr);
             setCookie("sessionuuid", "", 1);
+            setCookie("sessiontoken", "", 1);
             sessionId.value = "";
+            sessionToken = "";
         }
     };
 
@@ -153,7 +160,8 @@ connectButton.addEventListener("click", () => {
     }
     else {
         addCommunication("Connecting", undefined);
-        connection = new WebSocket(websocketUrl + "?tenantId=" + tenantId.value + "&sessionId=" + sessionId.value);
+        connection = new WebSocket(websocketUrl + "?tenantId=" + tenantId.value + "&sessionId=" + sessionId.value
+            + (sessionToken ? "&token=" + encodeURIComponent(sessionToken) : ""));
         connectButton.innerHTML = "Disconnect";
         connection.onopen = (event) => {
             addCommunication("Connected", event);
@@ -5,7 +5,8 @@ const common = require("./Common.js");
 
 // This handler is used to create a session id for a given tenant id. This session id is required when creating a websocket connection.
 // A session time-to-live (TTL) is set for each session based on the tenant settings.
-exports.handler = async(event, context) => {
+// When the stack configures session tokens PUT also returns a signed token for the session and DELETE revokes it.
+exports.handler = common.withMetrics("Session", async(event, context) => {
     //console.log('Received event:', JSON.stringify(event, null, 2));
 
     try {
@@ -35,6 +36,11 @@ exports.handler = async(event, context) => {
                 "ReturnValues": "UPDATED_NEW"
             };
             let body = await dynamo.update(params).promise();
+            // A signed token the authorizer accepts without reading the session table, when session tokens are configured
+            let token = await common.issueSessionToken(tenantId, sessionId, response.Item.sessionTTL);
+            if (token) {
+                body.token = token;
+            }
             return {statusCode: 200, headers: {"Content-Type": "application/json"}, body: JSON.stringify(body)};
         } else if (event.requestContext.http.method == "DELETE") {
             let params = {
@@ -42,6 +48,10 @@ exports.handler = async(event, context) => {
                 "Key": { tenantId: tenantId, sessionId: sessionId }
             };
             let body = await dynamo.delete(params).promise();
+            if (process.env.SessionTokenSecretArn) {
+                // The tokens issued so far are checked without the session table, and last at most the tenant's sessionTTL
+                await common.revokeSession(dynamo, tenantId, sessionId, response.Item.sessionTTL);
+            }
             return {statusCode: 200, headers: {"Content-Type": "application/json"}, body: JSON.stringify(body)};
         }
     }
@@ -49,4 +59,4 @@ exports.handler = async(event, context) => {
         console.error(err);
         return { statusCode: 400, headers: { "Content-Type": "application/json" }, body: JSON.stringify(err.message) };
     }
-};
+});
@@ -2,28 +2,118 @@
 // SPDX-License-Identifier: MIT-0
 
 const AWS = require("aws-sdk");
+const common = require("./Common.js");
 const apig = new AWS.ApiGatewayManagementApi({ endpoint: process.env.ApiGatewayEndpoint });
 
-// This handler is used to disconnect any remaining websocket connections for a given session when the time to live (TTL) expires
-exports.handler = async function(event, context) {
+// The number of deleteConnection calls made at the same time
+const maxConcurrentDeletes = 32;
+// Markers recording that an expiry has been counted outlive the 24 hours for which the stream keeps records
+const expiryMarkerTTLSeconds = 2 * 24 * 60 * 60;
+
+// This handler is used to disconnect any remaining websocket connections for a given session when the time to live (TTL) expires.
+// A session's connections are those of the connection table which connected by its sessionTTL, as a connection made
+// later would have extended it, together with the connectionIds set of sessions created before the connection table.
+// The connections of every session in the batch are disconnected concurrently and then counted off the tenant's total
+// connections, which their $disconnect no longer does as the session has already been removed, and removed from the
+// connection table.
+exports.handler = common.withMetrics("SessionTTL", async function(event, context) {
     //console.log(JSON.stringify(event));
+    let sessions = [];
     for (let x = 0; x < event.Records.length; x++) {
         const record = event.Records[x];
         if (record.userIdentity && record.userIdentity.principalId && record.userIdentity.type && record.userIdentity.principalId == "dynamodb.amazonaws.com" && record.userIdentity.type == "Service") {
-            if (record.eventName == 'REMOVE' && record.dynamodb && record.dynamodb.OldImage && record.dynamodb.OldImage.connectionIds) {
-                let connectionIds = record.dynamodb.OldImage.connectionIds.SS;
-                for (let y = 0; y < connectionIds.length; y++) {
-                    const connectionId = connectionIds[y];
-                    //console.log("SessionTTL Removing ConnectionId: " + connectionId);
-                    try {
-                        await apig.deleteConnection({ ConnectionId: connectionId }).promise();
-                    }
-                    catch (err) {
+            if (record.eventName == 'REMOVE' && record.dynamodb && record.dynamodb.OldImage) {
+                const oldImage = record.dynamodb.OldImage;
+                sessions.push({
+                    eventId: record.eventID,
+                    tenantId: oldImage.tenantId.S,
+                    sessionId: oldImage.sessionId.S,
+                    expiresAt: oldImage.sessionTTL ? parseInt(oldImage.sessionTTL.N) : undefined,
+                    legacyConnectionIds: oldImage.connectionIds ? oldImage.connectionIds.SS : []
+                });
+            }
+        }
+    }
+    await Promise.all(sessions.map(async session => {
+        session.registeredConnectionIds = (await common.queryConnections(createDynamoDBClient(session), session.tenantId, session.sessionId, session.expiresAt))
+            .filter(connectionId => !session.legacyConnectionIds.includes(connectionId));
+        session.connectionIds = session.legacyConnectionIds.concat(session.registeredConnectionIds);
+    }));
+    let connectionIds = sessions.flatMap(session => session.connectionIds);
+    let next = 0;
+    let workers = [];
+    for (let w = 0; w < Math.min(maxConcurrentDeletes, connectionIds.length); w++) {
+        workers.push((async () => {
+            while (next < connectionIds.length) {
+                const connectionId = connectionIds[next++];
+                //console.log("SessionTTL Removing ConnectionId: " + connectionId);
+                try {
+                    await apig.deleteConnection({ ConnectionId: connectionId }).promise();
+                }
+                catch (err) {
+                    if (err.code != 'GoneException') {
                         console.error(err);
                     }
-                };
+                }
             }
-        }
+        })());
     }
+    await Promise.all(workers);
+    await Promise.all(sessions.map(session => releaseConnections(session)
+        .then(() => removeConnections(session))
+        .catch(err => console.error(err))));
     return { statusCode: 200 };
-};
+});
+
+let createDynamoDBClient = function(session) {
+    return common.createDynamoDBClient({ requestContext: { authorizer: { tenantId: session.tenantId } } });
+}
+
+// Counts the session's connections off the tenant's total connections. The marker item written in the same
+// transaction stops a record which is processed again from counting them off twice.
+async function releaseConnections(session) {
+    if (session.connectionIds.length == 0) {
+        return;
+    }
+    let dynamo = createDynamoDBClient(session);
+    let markerParams = {
+        "TableName": process.env.LimitTableName,
+        "Item": { tenantId: session.tenantId, key: session.tenantId + ":expired:" + session.eventId, itemTTL: common.seconds_since_epoch() + expiryMarkerTTLSeconds },
+        "ConditionExpression": "attribute_not_exists(tenantId)"
+    };
+    let updateConnectCountParams = {
+        "TableName": process.env.LimitTableName,
+        "Key": { tenantId: session.tenantId, key: session.tenantId },
+        "UpdateExpression": "set itemCount = if_not_exists(itemCount, :zero) - :dec",
+        "ExpressionAttributeValues": {":dec": session.connectionIds.length, ":zero": 0},
+        "ReturnValues": "NONE"
+    };
+    try {
+        await dynamo.transactWrite({TransactItems: [{Put: markerParams}, {Update: updateConnectCountParams}]}).promise();
+    } catch (err) {
+        if (err.code == 'TransactionCanceledException' && err.message.includes('ConditionalCheckFailed')) {
+            return; // already counted
+        }
+        throw err;
+    }
+}
+
+// Removes the session's connections from the connection table once they have been counted off. Any left after the
+// retries are removed by the connection table's TTL.
+async function removeConnections(session) {
+    let dynamo = createDynamoDBClient(session);
+    for (let from = 0; from < session.registeredConnectionIds.length; from += 25) {
+        let requestItems = {
+            [process.env.ConnectionTableName]: session.registeredConnectionIds.slice(from, from + 25).map(connectionId => ({
+                DeleteRequest: { Key: { session: common.connectionSession(session.tenantId, session.sessionId), connectionId: connectionId } }
+            }))
+        };
+        for (let attempt = 0; attempt < 5 && Object.keys(requestItems).length > 0; attempt++) {
+            if (attempt > 0) {
+                await new Promise(resolve => setTimeout(resolve, Math.random() * (10 << attempt)));
+            }
+            let response = await dynamo.batchWrite({ RequestItems: requestItems }).promise();
+            requestItems = response.UnprocessedItems || {};
+        }
+    }
+}
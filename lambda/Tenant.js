@@ -6,7 +6,7 @@ const common = require("./Common.js");
 // This handler is just a sample helper to fetch the current tenant ids from the database.
 // In a production system the tenant id would typically be known to the user and a list would not be
 // available as a public endpoint.
-exports.handler = async(event, context) => {
+exports.handler = common.withMetrics("Tenant", async(event, context) => {
     //console.log('Received event:', JSON.stringify(event, null, 2));
 
     try {
@@ -23,4 +23,4 @@ exports.handler = async(event, context) => {
         console.error(err);
         return { statusCode: 400, headers: { "Content-Type": "application/json" }, body: JSON.stringify(err.message) };
     }
-}
+});
@@ -0,0 +1,136 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+const AWS = require("aws-sdk");
+const readline = require("readline");
+
+const s3 = new AWS.S3();
+const dynamo = new AWS.DynamoDB({ maxRetries: 10 });
+// BatchWriteItem takes at most 25 items
+const batchSize = 25;
+const maxInFlight = 8;
+const maxAttempts = 8;
+
+// Seeds the tenant table from the tenant catalog, which the stack uploads as an asset of one tenant table item in
+// DynamoDB JSON per line, see TenantCatalog. A tenant which is already in the table is left as it is, as the stack has
+// always seeded its tenants, so changes made through the Tenant API are kept, unless its catalog item has changed
+// since the previous catalog. Changed items are written 25 at a time with BatchWriteItem, at most maxInFlight batches
+// at once, and the items DynamoDB leaves unprocessed are retried with an exponential backoff. Every other item is
+// written with a conditional PutItem, except the items which are the same as in the previous catalog, which are
+// skipped. When the catalog is updated the tenants which are no longer in it are deleted. Deleting the resource leaves
+// the tenants, which are removed together with the table.
+exports.handler = async(event) => {
+    console.log(JSON.stringify({ RequestType: event.RequestType, ResourceProperties: event.ResourceProperties }));
+    let properties = event.ResourceProperties;
+    if (event.RequestType == "Create" || event.RequestType == "Update") {
+        // The previous catalog's items by tenantId, as the JSON they were written with
+        let previous = new Map();
+        let old = event.OldResourceProperties;
+        if (event.RequestType == "Update" && old.TableName == properties.TableName && old.Key != properties.Key) {
+            for await (const item of readItems(old.Bucket, old.Key)) {
+                previous.set(item.tenantId.S, JSON.stringify(item));
+            }
+        }
+        let tenantIds = new Set();
+        let unchanged = 0;
+        let written = await writeAll(properties.TableName, readItems(properties.Bucket, properties.Key), (item) => {
+            let tenantId = item.tenantId.S;
+            let before = previous.get(tenantId);
+            tenantIds.add(tenantId);
+            if (before === undefined) {
+                return { PutIfAbsent: item };
+            }
+            if (before == JSON.stringify(item)) {
+                unchanged++;
+                return null;
+            }
+            return { PutRequest: { Item: item } };
+        });
+        let removed = [...previous.keys()].filter((tenantId) => !tenantIds.has(tenantId));
+        let deleted = await writeAll(properties.TableName, removed, (tenantId) => {
+            return { DeleteRequest: { Key: { tenantId: { S: tenantId } } } };
+        });
+        console.log(JSON.stringify({ written: written, unchanged: unchanged, deleted: deleted }));
+    }
+    return { PhysicalResourceId: properties.TableName + "_catalog" };
+};
+
+async function* readItems(bucket, key) {
+    let lines = readline.createInterface({ input: s3.getObject({ Bucket: bucket, Key: key }).createReadStream(), crlfDelay: Infinity });
+    for await (const line of lines) {
+        if (line.trim() != "") {
+            yield JSON.parse(line);
+        }
+    }
+}
+
+// Sends the request toRequest makes of each item, skipping nulls, and returns how many were sent. A PutIfAbsent
+// request is sent on its own as a conditional PutItem, since BatchWriteItem does not take conditions, and the others
+// are sent in batches.
+async function writeAll(tableName, items, toRequest) {
+    let inFlight = new Set();
+    let failure = null;
+    let count = 0;
+    let batch = [];
+    let submit = async(send) => {
+        let write = send()
+            .catch((err) => { failure = failure || err; })
+            .finally(() => inFlight.delete(write));
+        inFlight.add(write);
+        if (inFlight.size >= maxInFlight) {
+            await Promise.race(inFlight);
+        }
+        if (failure) {
+            throw failure;
+        }
+    };
+    for await (const item of items) {
+        let request = toRequest(item);
+        if (request) {
+            count++;
+            if (request.PutIfAbsent) {
+                await submit(() => putIfAbsent(tableName, request.PutIfAbsent));
+            } else {
+                batch.push(request);
+            }
+        }
+        if (batch.length == batchSize) {
+            let requests = batch;
+            await submit(() => batchWrite(tableName, requests));
+            batch = [];
+        }
+    }
+    if (batch.length > 0) {
+        let requests = batch;
+        await submit(() => batchWrite(tableName, requests));
+    }
+    await Promise.all(inFlight);
+    if (failure) {
+        throw failure;
+    }
+    return count;
+}
+
+// Writes the item unless its tenant is already in the table. Throttled writes are retried by the client.
+async function putIfAbsent(tableName, item) {
+    try {
+        await dynamo.putItem({ TableName: tableName, Item: item, ConditionExpression: "attribute_not_exists(tenantId)" }).promise();
+    } catch (err) {
+        if (err.code != "ConditionalCheckFailedException") {
+            throw err;
+        }
+    }
+}
+
+async function batchWrite(tableName, requests) {
+    for (let attempt = 0; requests.length > 0; attempt++) {
+        if (attempt == maxAttempts) {
+            throw new Error(requests.length + " tenant catalog items were still unprocessed after " + maxAttempts + " attempts");
+        }
+        if (attempt > 0) {
+            await new Promise((resolve) => setTimeout(resolve, Math.random() * Math.min(5000, 50 * Math.pow(2, attempt))));
+        }
+        let result = await dynamo.batchWriteItem({ RequestItems: { [tableName]: requests } }).promise();
+        requests = (result.UnprocessedItems && result.UnprocessedItems[tableName]) || [];
+    }
+}
@@ -2,26 +2,39 @@
 // SPDX-License-Identifier: MIT-0
 
 const common = require("./Common.js");
+const shedder = common.createLoadShedder("DynamoDB", 100, 1000);
 
-exports.handler = async function(event, context) {
+// Rejected connections are recorded as Throttles with the limit which rejected them as the LimitType.
+// While the checks are slow connections are rejected before them, lowest tiers first, with the OVERLOADED LimitType.
+exports.handler = common.withMetrics("WebSocketConnect", async function(event, context) {
     //console.log('Received event:', JSON.stringify(event, null, 2));
 
     if (event.requestContext.routeKey == '$connect') {
         let dynamo = common.createDynamoDBClient(event);
         let tenantId = common.getTenantId(event);
         let sessionId = common.getSessionId(event);
+        if (shedder && !shedder.tryAdmit(tenantId, event.requestContext.authorizer.tier)) {
+            console.log("Tenant: " + tenantId + " shed while DynamoDB is overloaded");
+            common.putThrottles(tenantId, "OVERLOADED", 1);
+            return { statusCode: 429 };
+        }
+        let start = Date.now();
+        let failed = false;
         try {
             // Check if we are over the number of connections allowed per tenant
             let response = await dynamo.get({ "TableName": process.env.LimitTableName, "Key": { tenantId: tenantId, key: tenantId } }).promise();
             if (response && response.Item && response.Item.itemCount && response.Item.itemCount >= event.requestContext.authorizer.tenantConnections) {
                 console.log("Tenant " + tenantId + " over tenant total limit");
+                common.putThrottles(tenantId, "TENANT_CONNECTIONS", 1);
                 return { statusCode: 429 };
             }
 
             // Check if we are over the number of connections allowed per tenant session
             response = await dynamo.get({ "TableName": process.env.SessionTableName, "Key": { tenantId: tenantId, sessionId: sessionId } }).promise();
-            if (response && response.Item && response.Item.connectionIds && response.Item.connectionIds.values.length >= event.requestContext.authorizer.connectionsPerSession) {
+            let sessionConnections = response && response.Item ? (response.Item.connectionCount || 0) + (response.Item.connectionIds ? response.Item.connectionIds.values.length : 0) : 0;
+            if (sessionConnections >= event.requestContext.authorizer.connectionsPerSession) {
                 console.log("Tenant: " + tenantId + " Session: " + sessionId + " over session total limit");
+                common.putThrottles(tenantId, "SESSION_CONNECTIONS", 1);
                 return { statusCode: 429 };
             }
 
@@ -29,6 +42,7 @@ exports.handler = async function(event, context) {
             let updateResponse = await common.incrementLimitTablePerMinute(dynamo, tenantId, tenantId, "minute");
             if (!updateResponse || updateResponse.Attributes.itemCount > event.requestContext.authorizer.tenantPerMinute) {
                 console.log("Tenant: " + tenantId + " over limit per minute");
+                common.putThrottles(tenantId, "TENANT_PER_MINUTE", 1);
                 return { statusCode: 429 };
             }
 
@@ -36,20 +50,25 @@ exports.handler = async function(event, context) {
             updateResponse = await common.incrementLimitTablePerMinute(dynamo, tenantId,tenantId + ":" + sessionId, "minute");
             if (!updateResponse || updateResponse.Attributes.itemCount > event.requestContext.authorizer.sessionPerMinute) {
                 console.log(tenantId + "-" + sessionId + " over session per minute limit");
+                common.putThrottles(tenantId, "SESSION_PER_MINUTE", 1);
                 return { statusCode: 429 };
             }
 
-            // Update the session and limit table with the current connection Ids and counts now that we have passed all other checks
+            // Add the connection to the connection table and update the session and limit table counts now that we have passed all other checks
             var updateConnectIdParams = {
                 "TableName": process.env.SessionTableName,
                 "Key": { tenantId: tenantId, sessionId: sessionId },
-                "UpdateExpression": "set sessionTTL = :ttl ADD connectionIds :c",
+                "UpdateExpression": "set sessionTTL = :ttl ADD connectionCount :one, membershipVersion :one",
                 "ExpressionAttributeValues": {
                     ":ttl": (Math.floor(+new Date() / 1000) + parseInt(event.requestContext.authorizer.sessionTTL)),
-                    ":c": dynamo.createSet([event.requestContext.connectionId])
+                    ":one": 1
                 },
                 "ReturnValues": "NONE"
             };
+            var putConnectionParams = {
+                "TableName": process.env.ConnectionTableName,
+                "Item": common.connectionItem(tenantId, sessionId, event.requestContext.connectionId)
+            };
             var updateConnectCountParams = {
                 "TableName": process.env.LimitTableName,
                 "Key": { tenantId: tenantId, key: tenantId },
@@ -57,14 +76,20 @@ exports.handler = async function(event, context) {
                 "ExpressionAttributeValues": { ":inc": 1, ":zero": 0 },
                 "ReturnValues": "NONE"
             };
-            await dynamo.transactWrite({ TransactItems: [ { Update: updateConnectIdParams }, { Update: updateConnectCountParams } ] }).promise();
+            await dynamo.transactWrite({ TransactItems: [ { Update: updateConnectIdParams }, { Put: putConnectionParams }, { Update: updateConnectCountParams } ] }).promise();
         }
         catch (err) {
             console.error(err);
+            failed = true;
             return { statusCode: 1011 }; // return server error code
         }
+        finally {
+            if (shedder) {
+                shedder.record(tenantId, Date.now() - start, failed);
+            }
+        }
         return { statusCode: 200 };
     }
 
     return { statusCode: 200 };
-};
\ No newline at end of file
+});
\ No newline at end of file
@@ -3,9 +3,10 @@
 
 const common = require("./Common.js");
 
-// This handler will remove the current connection from the sessions connectionId set
-// and decrement the total number of connections for this tenant
-exports.handler = async function(event, context) {
+// This handler will remove the current connection from the connection table and the session's connection count
+// and decrement the total number of connections for this tenant. A connection which is no longer in the session,
+// for example because the session expired and SessionTTL has already counted it off, is left alone.
+exports.handler = common.withMetrics("WebSocketDisconnect", async function(event, context) {
     //console.log('Received event:', JSON.stringify(event, null, 2));
 
     if (event.requestContext.routeKey == '$disconnect') {
@@ -13,27 +14,59 @@ exports.handler = async function(event, context) {
             let dynamo = common.createDynamoDBClient(event);
             let tenantId = common.getTenantId(event);
             let sessionId = common.getSessionId(event);
+            let connectionId = event.requestContext.connectionId;
+            let deleteConnectionParams = {
+                "TableName": process.env.ConnectionTableName,
+                "Key": { session: common.connectionSession(tenantId, sessionId), connectionId: connectionId },
+                "ConditionExpression": "attribute_exists(connectionId)"
+            };
+            let updateSessionParams = {
+                "TableName": process.env.SessionTableName,
+                "Key": {tenantId: tenantId, sessionId: sessionId},
+                "UpdateExpression": "ADD connectionCount :dec, membershipVersion :one",
+                "ConditionExpression": "attribute_exists(sessionId) AND connectionCount > :zero",
+                "ExpressionAttributeValues": {":dec": -1, ":one": 1, ":zero": 0},
+                "ReturnValues": "NONE"
+            };
+            try {
+                await dynamo.transactWrite({TransactItems: [{Delete: deleteConnectionParams}, {Update: updateSessionParams}, {Update: updateConnectCountParams(tenantId)}]}).promise();
+                return { statusCode: 200 };
+            } catch (err) {
+                // The reasons are listed in the order of the items. A connection of a session created before the
+                // connection table is not in it but in the session's connectionIds set.
+                if (!(err.code == 'TransactionCanceledException' && /\[ConditionalCheckFailed,/.test(err.message))) {
+                    throw err;
+                }
+            }
             let deleteConnectIdParams = {
                 "TableName": process.env.SessionTableName,
                 "Key": {tenantId: tenantId, sessionId: sessionId},
                 "UpdateExpression": "DELETE connectionIds :c",
+                "ConditionExpression": "contains(connectionIds, :id)",
                 "ExpressionAttributeValues": {
-                    ":c": dynamo.createSet([event.requestContext.connectionId])
+                    ":c": dynamo.createSet([connectionId]),
+                    ":id": connectionId
                 },
                 "ReturnValues": "NONE"
             };
-            let updateConnectCountParams = {
-                "TableName": process.env.LimitTableName,
-                "Key": { tenantId: tenantId, key: tenantId },
-                "UpdateExpression": "set itemCount = if_not_exists(itemCount, :zero) - :dec",
-                "ExpressionAttributeValues": {":dec": 1, ":zero": 0},
-                "ReturnValues": "NONE"
-            };
-            await dynamo.transactWrite({TransactItems: [{Update: deleteConnectIdParams}, {Update: updateConnectCountParams}]}).promise();
+            await dynamo.transactWrite({TransactItems: [{Update: deleteConnectIdParams}, {Update: updateConnectCountParams(tenantId)}]}).promise();
         } catch (err) {
+            if (err.code == 'TransactionCanceledException' && err.message.includes('ConditionalCheckFailed')) {
+                return { statusCode: 200 };
+            }
             console.error(err);
             return {statusCode: 1011}; // return server error code
         }
     }
     return { statusCode: 200 };
+});
+
+let updateConnectCountParams = function(tenantId) {
+    return {
+        "TableName": process.env.LimitTableName,
+        "Key": { tenantId: tenantId, key: tenantId },
+        "UpdateExpression": "set itemCount = if_not_exists(itemCount, :zero) - :dec",
+        "ExpressionAttributeValues": {":dec": 1, ":zero": 0},
+        "ReturnValues": "NONE"
+    };
 }
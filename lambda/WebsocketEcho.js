@@ -25,17 +25,7 @@ exports.handler = async function(event, context) {
                 return {statusCode: 429};
             }
 
-            var updateParams = {
-                "TableName": process.env.SessionTableName,
-                "Key": {tenantId: tenantId, sessionId: sessionId},
-                "UpdateExpression": "set sessionTTL = :ttl",
-                "ExpressionAttributeValues": {
-                    ":ttl": (Math.floor(+new Date() / 1000) + parseInt(event.requestContext.authorizer.sessionTTL))
-                },
-                "ReturnValues": "ALL_OLD"
-            };
-            let results = await dynamo.update(updateParams).promise();
-            let connectionIds = results.Attributes.connectionIds.values;
+            let connectionIds = await common.touchSession(dynamo, tenantId, sessionId, event.requestContext.authorizer.sessionTTL);
             for (var x = 0; x < connectionIds.length; x++) {
                 if (connectionIds[x] != connectionId) {
                     await apig.postToConnection({ConnectionId: connectionIds[x], Data: `${body}`}).promise();
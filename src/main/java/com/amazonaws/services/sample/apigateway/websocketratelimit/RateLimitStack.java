@@ -3,33 +3,102 @@
 
 package com.amazonaws.services.sample.apigateway.websocketratelimit;
 
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
 import software.amazon.awscdk.*;
-import software.amazon.awscdk.customresources.AwsCustomResource;
-import software.amazon.awscdk.customresources.AwsCustomResourcePolicy;
-import software.amazon.awscdk.customresources.AwsSdkCall;
-import software.amazon.awscdk.customresources.PhysicalResourceId;
+import software.amazon.awscdk.customresources.Provider;
 import software.amazon.awscdk.services.apigatewayv2.*;
 import software.amazon.awscdk.services.apigatewayv2.alpha.*;
 import software.amazon.awscdk.services.apigatewayv2.alpha.HttpMethod;
 import software.amazon.awscdk.services.apigatewayv2.integrations.alpha.HttpLambdaIntegration;
 import software.amazon.awscdk.services.apigatewayv2.integrations.alpha.WebSocketLambdaIntegration;
+import software.amazon.awscdk.services.cloudwatch.Alarm;
+import software.amazon.awscdk.services.cloudwatch.ComparisonOperator;
+import software.amazon.awscdk.services.cloudwatch.Dashboard;
+import software.amazon.awscdk.services.cloudwatch.GraphWidget;
+import software.amazon.awscdk.services.cloudwatch.IMetric;
+import software.amazon.awscdk.services.cloudwatch.MathExpression;
+import software.amazon.awscdk.services.cloudwatch.Metric;
+import software.amazon.awscdk.services.cloudwatch.TreatMissingData;
 import software.amazon.awscdk.services.dynamodb.*;
+import software.amazon.awscdk.services.ec2.GatewayVpcEndpointAwsService;
+import software.amazon.awscdk.services.ec2.GatewayVpcEndpointOptions;
+import software.amazon.awscdk.services.ec2.Port;
+import software.amazon.awscdk.services.ec2.SecurityGroup;
+import software.amazon.awscdk.services.ec2.SubnetSelection;
+import software.amazon.awscdk.services.ec2.SubnetType;
+import software.amazon.awscdk.services.ec2.Vpc;
+import software.amazon.awscdk.services.elasticache.CfnServerlessCache;
+import software.amazon.awscdk.services.elasticache.CfnUser;
+import software.amazon.awscdk.services.elasticache.CfnUserGroup;
 import software.amazon.awscdk.services.iam.*;
 import software.amazon.awscdk.services.lambda.Runtime;
 import software.amazon.awscdk.services.lambda.*;
 import software.amazon.awscdk.services.lambda.eventsources.DynamoEventSource;
 import software.amazon.awscdk.services.lambda.eventsources.SqsEventSource;
+import software.amazon.awscdk.services.s3.assets.Asset;
+import software.amazon.awscdk.services.secretsmanager.Secret;
+import software.amazon.awscdk.services.secretsmanager.SecretStringGenerator;
 import software.amazon.awscdk.services.sqs.DeduplicationScope;
 import software.amazon.awscdk.services.sqs.FifoThroughputLimit;
 import software.amazon.awscdk.services.sqs.Queue;
 import software.constructs.Construct;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 public class RateLimitStack extends Stack {
+    // Functions named in this context value, for example cdk deploy -c javaHandlers=Authorizer, are deployed using the
+    // Java handlers packaged by mvn package instead of the Node.js handlers in the lambda directory
+    public static final String JAVA_HANDLERS_CONTEXT = "javaHandlers";
+    public static final String JAVA_HANDLER_JAR_CONTEXT = "javaHandlerJar";
+    // The Java handlers are deployed with SnapStart unless this context value is false, for example -c snapStart=false
+    public static final String SNAP_START_CONTEXT = "snapStart";
+    // Session issues signed session tokens which the authorizer checks without reading the session table, see
+    // session/SessionTokens. The authorizer also accepts tenantId and sessionId without a token unless this context
+    // value is required, for example -c sessionTokens=required, and off leaves tokens out altogether.
+    public static final String SESSION_TOKENS_CONTEXT = "sessionTokens";
+    public static final String SESSION_TOKENS_REQUIRED = "required";
+    public static final String SESSION_TOKENS_OFF = "off";
+    // The tenants are read from this catalog file, tenants.jsonl unless given, for example -c tenantCatalog=tenants.csv,
+    // see TenantCatalog. Silo tenants are deployed tenantsPerStack to a nested stack, or all in this stack with 0.
+    public static final String TENANT_CATALOG_CONTEXT = "tenantCatalog";
+    public static final String TENANTS_PER_STACK_CONTEXT = "tenantsPerStack";
+    private static final String DEFAULT_TENANT_CATALOG = "tenants.jsonl";
+    // A silo tenant takes up to 9 resources, its SQSEcho function, version and alias, their roles and policies, its
+    // queue and event source, which keeps a nested stack of 50 well below the 500 resources of a CloudFormation stack
+    private static final int DEFAULT_TENANTS_PER_STACK = 50;
+    // The rate limiters' counters are kept in the limit table unless this context value is redis, for example
+    // -c limitStore=redis, which keeps them in an ElastiCache serverless cache the WebSocketConnect and SQSEcho
+    // functions reach from a VPC, see limit/RedisLimitStore. Only the Java handlers support it. Every catalog tenant
+    // gets a Redis user of its own which only its table role may connect as, so tenants added later through the Tenant
+    // API are not admitted. The tenant connection counts stay in the limit table.
+    public static final String LIMIT_STORE_CONTEXT = "limitStore";
+    public static final String LIMIT_STORE_REDIS = "redis";
+    // ElastiCache user Ids are unique within the account and region, begin with a letter and are letters, digits and
+    // single hyphens, and a user group holds at most 100 users, one of them the disabled default user
+    private static final String REDIS_USER_PREFIX = "rl-";
+    private static final Pattern REDIS_TENANT_ID = Pattern.compile("[A-Za-z0-9]+(-[A-Za-z0-9]+)*");
+    private static final int MAX_REDIS_TENANTS = 99;
+    private static final String DEFAULT_JAVA_HANDLER_JAR = "target/websocket-rate-limit-lambda.jar";
+    private static final String JAVA_HANDLER_PACKAGE = "com.amazonaws.services.sample.apigateway.websocketratelimit.handler.";
+    // The Function dimension the handlers publish their metrics with, the same for the Java and Node.js handlers
+    private static final List<String> METRIC_FUNCTIONS = List.of("Authorizer", "WebSocketConnect", "WebSocketDisconnect", "Session", "Tenant", "SQSEcho", "SessionTTL");
+    private static final List<String> CONNECT_LIMIT_TYPES = List.of("TENANT_CONNECTIONS", "SESSION_CONNECTIONS", "TENANT_PER_MINUTE", "SESSION_PER_MINUTE");
+
     private Table tenantTable;
     private Table sessionTable;
+    private Table connectionTable;
     private Table limitTable;
     private Function sessionTTLLambda;
     private Function sampleClientFunction;
@@ -42,6 +111,12 @@ public class RateLimitStack extends Stack {
     private HttpApi sessionApi;
     private CfnAuthorizer authorizer;
     private WebSocketStage stage;
+    private final Map<Function, Alias> liveAliases = new HashMap<>();
+    private Vpc limitStoreVpc;
+    private SecurityGroup limitStoreClients;
+    // The functions which check the rate limits and the roles their tenant scoped credentials are assumed from
+    private final Map<Function, Role> limitStoreFunctions = new LinkedHashMap<>();
+    private final List<String> limitStoreTenants = new ArrayList<>();
 
     public RateLimitStack(final Construct scope, final String id) {
         this(scope, id, null);
@@ -52,7 +127,9 @@ public class RateLimitStack extends Stack {
 
         createTenantDynamoDBTable();
         createSessionDynamoDBTable();
+        createConnectionDynamoDBTable();
         createLimitDynamoDBTable();
+        createLimitStoreNetwork();
         createSessionTTLLambda();
         createSampleClientLambda();
         createSessionLambda();
@@ -68,7 +145,9 @@ public class RateLimitStack extends Stack {
         createStage();
         createAPIGatewaySessionAndSample();
         setupAPIGatewayLambdaFunctions();
-        addSampleTenantIds();
+        addTenants();
+        createLimitCache();
+        createDashboardAndAlarms();
         createOutputs();
     }
 
@@ -106,6 +185,27 @@ public class RateLimitStack extends Stack {
         sessionTable.autoScaleWriteCapacity(esp).scaleOnUtilization(UtilizationScalingProps.builder().targetUtilizationPercent(70).build());
     }
 
+    // The connections of each session, one item per connection keyed by tenantId#sessionId and the connectionId, so a
+    // session's connections are read with a Query rather than held in a set on the session item. The itemTTL removes
+    // connections whose $disconnect never arrived once API Gateway can no longer have them open.
+    private void createConnectionDynamoDBTable() {
+        connectionTable = Table.Builder.create(this, "ConnectionTable")
+                .removalPolicy(RemovalPolicy.DESTROY)
+                .partitionKey(Attribute.builder()
+                        .name("session")
+                        .type(AttributeType.STRING)
+                        .build())
+                .sortKey(Attribute.builder()
+                        .name("connectionId")
+                        .type(AttributeType.STRING)
+                        .build())
+                .timeToLiveAttribute("itemTTL")
+                .build();
+        EnableScalingProps esp = EnableScalingProps.builder().maxCapacity(10).minCapacity(1).build();
+        connectionTable.autoScaleReadCapacity(esp).scaleOnUtilization(UtilizationScalingProps.builder().targetUtilizationPercent(70).build());
+        connectionTable.autoScaleWriteCapacity(esp).scaleOnUtilization(UtilizationScalingProps.builder().targetUtilizationPercent(70).build());
+    }
+
     private void createLimitDynamoDBTable() {
         limitTable = Table.Builder.create(this, "LimitTable")
                 .removalPolicy(RemovalPolicy.DESTROY)
@@ -125,12 +225,36 @@ public class RateLimitStack extends Stack {
     }
 
     private void createSessionTTLLambda() {
-        sessionTTLLambda = Function.Builder.create(this, "SessionTTLLambda")
-                .runtime(Runtime.NODEJS_14_X)
-                .code(Code.fromAsset("lambda"))
-                .handler("SessionTTL.handler")
-                .events(List.of(DynamoEventSource.Builder.create(sessionTable).startingPosition(StartingPosition.LATEST).build()))
-                .build();
+        boolean javaHandler = useJavaHandler("SessionTTL");
+        sessionTTLLambda = javaHandler
+                ? snapStart(javaFunction("SessionTTLLambda", "SessionTTLHandler")
+                        .timeout(Duration.seconds(60))
+                        .environment(Map.of("MaxConcurrentDeletes", "32"))
+                        .build())
+                : Function.Builder.create(this, "SessionTTLLambda")
+                        .runtime(Runtime.NODEJS_14_X)
+                        .code(Code.fromAsset("lambda"))
+                        .handler("SessionTTL.handler")
+                        .timeout(Duration.seconds(60))
+                        .build();
+        // Only the deletions made by TTL invoke the function, and they are read in batches of up to 100 records by up
+        // to 4 concurrent invocations per stream shard so a mass expiry after a deployment drains quickly. A failing
+        // batch is split in half to isolate the failing record, and the Java handler reports the first record it
+        // could not process so only the records from there on are retried.
+        invocationTarget(sessionTTLLambda).addEventSource(DynamoEventSource.Builder.create(sessionTable)
+                .startingPosition(StartingPosition.LATEST)
+                .batchSize(100)
+                .maxBatchingWindow(Duration.seconds(1))
+                .parallelizationFactor(4)
+                .bisectBatchOnError(true)
+                .retryAttempts(10)
+                .reportBatchItemFailures(javaHandler)
+                .filters(List.of(FilterCriteria.filter(Map.of(
+                        "eventName", FilterRule.isEqual("REMOVE"),
+                        "userIdentity", Map.of(
+                                "type", FilterRule.isEqual("Service"),
+                                "principalId", FilterRule.isEqual("dynamodb.amazonaws.com"))))))
+                .build());
     }
 
     private void createSampleClientLambda() {
@@ -142,6 +266,10 @@ public class RateLimitStack extends Stack {
     }
 
     private void createSessionLambda() {
+        if (useJavaHandler("Session")) {
+            sessionFunction = snapStart(javaFunction("Session", "SessionHandler").build());
+            return;
+        }
         sessionFunction = Function.Builder.create(this, "Session")
                 .runtime(Runtime.NODEJS_14_X)
                 .code(Code.fromAsset("lambda"))
@@ -150,6 +278,10 @@ public class RateLimitStack extends Stack {
     }
 
     private void createTenantLambda() {
+        if (useJavaHandler("Tenant")) {
+            tenantFunction = snapStart(javaFunction("Tenant", "TenantHandler").build());
+            return;
+        }
         tenantFunction = Function.Builder.create(this, "Tenant")
                 .runtime(Runtime.NODEJS_14_X)
                 .code(Code.fromAsset("lambda"))
@@ -159,6 +291,13 @@ public class RateLimitStack extends Stack {
 
 
     private void createWebSocketConnectLambda() {
+        if (useJavaHandler("WebSocketConnect")) {
+            // Admits connections with a single conditional transaction
+            webSocketConnectFunction = snapStart(inLimitStoreVpc(javaFunction("WebSocketConnect", "WebSocketConnectHandler")
+                    .timeout(Duration.seconds(10)))
+                    .build());
+            return;
+        }
         webSocketConnectFunction = Function.Builder.create(this, "WebSocketConnect")
                 .runtime(Runtime.NODEJS_14_X)
                 .code(Code.fromAsset("lambda"))
@@ -167,15 +306,27 @@ public class RateLimitStack extends Stack {
     }
 
     private void createWebSocketDisconnectLambda() {
-        webSocketDisconnectFunction = Function.Builder.create(this, "WebSocketDisconnect")
-                .runtime(Runtime.NODEJS_14_X)
-                .code(Code.fromAsset("lambda"))
-                .handler("WebSocketDisconnect.handler")
-                .build();
+        webSocketDisconnectFunction = useJavaHandler("WebSocketDisconnect")
+                ? snapStart(javaFunction("WebSocketDisconnect", "WebSocketDisconnectHandler").build())
+                : Function.Builder.create(this, "WebSocketDisconnect")
+                        .runtime(Runtime.NODEJS_14_X)
+                        .code(Code.fromAsset("lambda"))
+                        .handler("WebSocketDisconnect.handler")
+                        .build();
         sessionTable.grantReadWriteData(webSocketDisconnectFunction);
+        connectionTable.grantReadWriteData(webSocketDisconnectFunction);
     }
 
     private void createAuthorizerLambda() {
+        if (useJavaHandler("Authorizer")) {
+            authorizerFunction = snapStart(javaFunction("Authorizer", "AuthorizerHandler")
+                    .environment(Map.of(
+                            "TenantCacheMaxSize", "1000",
+                            "TenantCacheTTLSeconds", "60",
+                            "TenantCacheNegativeTTLSeconds", "10"))
+                    .build());
+            return;
+        }
         authorizerFunction = Function.Builder.create(this, "Authorizer")
                 .runtime(Runtime.NODEJS_14_X)
                 .code(Code.fromAsset("lambda"))
@@ -183,6 +334,59 @@ public class RateLimitStack extends Stack {
                 .build();
     }
 
+    private boolean useJavaHandler(String functionName) {
+        Object javaHandlers = getNode().tryGetContext(JAVA_HANDLERS_CONTEXT);
+        if (javaHandlers == null) {
+            return false;
+        }
+        for (String name : javaHandlers.toString().split(",")) {
+            if (name.trim().equals(functionName) || name.trim().equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Code javaHandlerCode() {
+        Object jar = getNode().tryGetContext(JAVA_HANDLER_JAR_CONTEXT);
+        return Code.fromAsset(jar != null ? jar.toString() : DEFAULT_JAVA_HANDLER_JAR);
+    }
+
+    private Function.Builder javaFunction(String id, String handlerClass) {
+        return javaFunction(this, id, handlerClass);
+    }
+
+    private Function.Builder javaFunction(Construct scope, String id, String handlerClass) {
+        return Function.Builder.create(scope, id)
+                .runtime(Runtime.JAVA_11)
+                .code(javaHandlerCode())
+                .handler(JAVA_HANDLER_PACKAGE + handlerClass + "::handleRequest")
+                .memorySize(1024);
+    }
+
+    // With SnapStart Lambda initializes a published version once, runs the handler's priming hooks and snapshots the
+    // execution environment, and new environments resume from the snapshot instead of starting the JVM and loading the
+    // handler. SnapStart only applies to published versions, so API Gateway and the event sources invoke the function
+    // through a live alias of its latest version, see invocationTarget.
+    private Function snapStart(Function function) {
+        if ("false".equals(String.valueOf(getNode().tryGetContext(SNAP_START_CONTEXT)))) {
+            return function;
+        }
+        ((CfnFunction) function.getNode().getDefaultChild()).setSnapStart(CfnFunction.SnapStartProperty.builder()
+                .applyOn("PublishedVersions")
+                .build());
+        liveAliases.put(function, Alias.Builder.create(Stack.of(function), function.getNode().getId() + "LiveAlias")
+                .aliasName("live")
+                .version(function.getCurrentVersion())
+                .build());
+        return function;
+    }
+
+    private IFunction invocationTarget(Function function) {
+        Alias alias = liveAliases.get(function);
+        return alias != null ? alias : function;
+    }
+
     private void createAPIGatewayWebSocket() {
         // Create a websocket API endpoint with routing to our echo lambda
         // We do not create the connect route at this point due to the authorizer not being enabled for the WebSocketRouteOptions
@@ -190,7 +394,7 @@ public class RateLimitStack extends Stack {
         api = WebSocketApi.Builder.create(this, "WebSocketAPIGateway")
                 .apiName("WebSocketRateLimitSample")
                 .description("Rate limit websocket connections using a Lambda Authorizer.")
-                .disconnectRouteOptions(WebSocketRouteOptions.builder().integration(new WebSocketLambdaIntegration("WebSocketAPIGatewayDisconnectRoute",webSocketDisconnectFunction)).build())
+                .disconnectRouteOptions(WebSocketRouteOptions.builder().integration(new WebSocketLambdaIntegration("WebSocketAPIGatewayDisconnectRoute", invocationTarget(webSocketDisconnectFunction))).build())
                 .build();
     }
 
@@ -207,10 +411,17 @@ public class RateLimitStack extends Stack {
                                         .build()))
                         .build()))
                 .build();
+        // Messages carry the authorizer context packed into the single binary ctx attribute, see AuthorizerContext, and
+        // the requestId as their deduplication Id. Connections authorized before the authorizer added ctx to its
+        // context send the original layout of one string attribute per setting.
         String requestTemplateItem = "";
         requestTemplateItem += "Action=SendMessage";
         requestTemplateItem += "&MessageGroupId=$context.authorizer.tenantId:$context.authorizer.sessionId";
         requestTemplateItem += "&MessageDeduplicationId=$context.requestId";
+        requestTemplateItem += "#if(\"$!context.authorizer.ctx\" != \"\")";
+        requestTemplateItem += "&MessageAttribute.1.Name=ctx&MessageAttribute.1.Value.BinaryValue=$util.urlEncode($context.authorizer.ctx)&MessageAttribute.1.Value.DataType=Binary";
+        requestTemplateItem += "&MessageAttribute.2.Name=connectionId&MessageAttribute.2.Value.StringValue=$context.connectionId&MessageAttribute.2.Value.DataType=String";
+        requestTemplateItem += "#{else}";
         requestTemplateItem += "&MessageAttribute.1.Name=tenantId&MessageAttribute.1.Value.StringValue=$context.authorizer.tenantId&MessageAttribute.1.Value.DataType=String";
         requestTemplateItem += "&MessageAttribute.2.Name=sessionId&MessageAttribute.2.Value.StringValue=$context.authorizer.sessionId&MessageAttribute.2.Value.DataType=String";
         requestTemplateItem += "&MessageAttribute.3.Name=connectionId&MessageAttribute.3.Value.StringValue=$context.connectionId&MessageAttribute.3.Value.DataType=String";
@@ -221,6 +432,7 @@ public class RateLimitStack extends Stack {
         requestTemplateItem += "&MessageAttribute.8.Name=sessionTTL&MessageAttribute.8.Value.StringValue=$context.authorizer.sessionTTL&MessageAttribute.8.Value.DataType=String";
         requestTemplateItem += "&MessageAttribute.9.Name=tenantConnections&MessageAttribute.9.Value.StringValue=$context.authorizer.tenantConnections&MessageAttribute.9.Value.DataType=String";
         requestTemplateItem += "&MessageAttribute.10.Name=messagesPerMinute&MessageAttribute.10.Value.StringValue=$context.authorizer.messagesPerMinute&MessageAttribute.10.Value.DataType=String";
+        requestTemplateItem += "#{end}";
         requestTemplateItem += "&MessageBody=$input.json('$')";
         CfnIntegration integration = CfnIntegration.Builder.create(this, nameExt + "Integration")
                 .apiId(api.getApiId())
@@ -250,9 +462,12 @@ public class RateLimitStack extends Stack {
 
     private void createAuthorizer() {
         authorizer = CfnAuthorizer.Builder.create(this, "RateLimitAuthorizer")
-                .identitySource(List.of("route.request.querystring.tenantId", "route.request.querystring.sessionId"))
+                // API Gateway denies a connect without every identity source, and the token carries the tenant and session
+                .identitySource(SESSION_TOKENS_REQUIRED.equals(sessionTokens())
+                        ? List.of("route.request.querystring.token")
+                        : List.of("route.request.querystring.tenantId", "route.request.querystring.sessionId"))
                 .authorizerType("REQUEST")
-                .authorizerUri("arn:aws:apigateway:" + getRegion() + ":lambda:path/2015-03-31/functions/" + authorizerFunction.getFunctionArn() + "/invocations")
+                .authorizerUri("arn:aws:apigateway:" + getRegion() + ":lambda:path/2015-03-31/functions/" + invocationTarget(authorizerFunction).getFunctionArn() + "/invocations")
                 .apiId(api.getApiId())
                 .name("RateLimitAuthorizer")
                 .build();
@@ -262,7 +477,7 @@ public class RateLimitStack extends Stack {
         CfnIntegration integration = CfnIntegration.Builder.create(this, "ConnectLambdaIntegration")
                 .integrationType("AWS_PROXY")
                 .integrationMethod("POST")
-                .integrationUri("arn:aws:apigateway:" + getRegion() + ":lambda:path/2015-03-31/functions/" + webSocketConnectFunction.getFunctionArn() + "/invocations")
+                .integrationUri("arn:aws:apigateway:" + getRegion() + ":lambda:path/2015-03-31/functions/" + invocationTarget(webSocketConnectFunction).getFunctionArn() + "/invocations")
                 .apiId(api.getApiId())
                 .build();
 
@@ -290,8 +505,8 @@ public class RateLimitStack extends Stack {
                 .description("Creates and removes sessions and loads sample client")
                 .createDefaultStage(false)
                 .build();
-        HttpLambdaIntegration sessionLambdaIntegration = new HttpLambdaIntegration("SessionLambdaIntegration", sessionFunction);
-        HttpLambdaIntegration tenantLambdaIntegration = new HttpLambdaIntegration("TenantLambdaIntegration", tenantFunction);
+        HttpLambdaIntegration sessionLambdaIntegration = new HttpLambdaIntegration("SessionLambdaIntegration", invocationTarget(sessionFunction));
+        HttpLambdaIntegration tenantLambdaIntegration = new HttpLambdaIntegration("TenantLambdaIntegration", invocationTarget(tenantFunction));
         HttpLambdaIntegration sampleClientLambdaIntegration = new HttpLambdaIntegration("SampleClientLambdaIntegration", sampleClientFunction);
         sessionApi.addRoutes(AddRoutesOptions.builder()
                 .methods(List.of(HttpMethod.PUT))
@@ -326,6 +541,7 @@ public class RateLimitStack extends Stack {
         setupWebSocketFunction(sessionTTLLambda, sessionTTLLambdaTableRole, null, true, true);
         Role webSocketConnectFunctionTableRole = Role.Builder.create(this, "WebSocketConnectFunctionTableRole").assumedBy(new SessionTagsPrincipal(webSocketConnectFunction.getRole())).build();
         setupWebSocketFunction(webSocketConnectFunction, webSocketConnectFunctionTableRole, "/*/$connect", true);
+        limitStoreFunctions.put(webSocketConnectFunction, webSocketConnectFunctionTableRole);
         Role webSocketDisconnectFunctionTableRole = Role.Builder.create(this, "WebSocketDisconnectFunctionTableRole").assumedBy(new SessionTagsPrincipal(webSocketDisconnectFunction.getRole())).build();
         setupWebSocketFunction(webSocketDisconnectFunction, webSocketDisconnectFunctionTableRole, "/*/$disconnect", true);
         Role authorizerFunctionTableRole = Role.Builder.create(this, "AuthorizerFunctionTableRole").assumedBy(new SessionTagsPrincipal(authorizerFunction.getRole())).build();
@@ -334,12 +550,42 @@ public class RateLimitStack extends Stack {
         setupWebSocketFunction(sessionFunction, sessionFunctionTableRole,null, false);
         Role tenantFunctionTableRole = Role.Builder.create(this, "TenantFunctionTableRole").assumedBy(new SessionTagsPrincipal(tenantFunction.getRole())).build();
         setupWebSocketFunction(tenantFunction, tenantFunctionTableRole,null, false, false);
+        setupSessionTokens();
 
         sampleClientFunction.addEnvironment("WssUrl", stage.getUrl());
         sampleClientFunction.addEnvironment("SessionUrl", sessionApi.getApiEndpoint() + "/production/session");
         sampleClientFunction.addEnvironment("TenantUrl", sessionApi.getApiEndpoint() + "/production/tenant");
     }
 
+    private String sessionTokens() {
+        Object sessionTokens = getNode().tryGetContext(SESSION_TOKENS_CONTEXT);
+        return sessionTokens == null ? "optional" : sessionTokens.toString();
+    }
+
+    // The session token signing secret is generated by Secrets Manager and read only by the functions which issue and
+    // verify tokens. Replacing its value invalidates every token issued with the previous one.
+    private void setupSessionTokens() {
+        if (SESSION_TOKENS_OFF.equals(sessionTokens())) {
+            return;
+        }
+        Secret secret = Secret.Builder.create(this, "SessionTokenSecret")
+                .description("Signs the session tokens issued by the Session function")
+                .removalPolicy(RemovalPolicy.DESTROY)
+                .generateSecretString(SecretStringGenerator.builder()
+                        .passwordLength(64)
+                        .excludePunctuation(true)
+                        .build())
+                .build();
+        for (Function function : List.of(sessionFunction, authorizerFunction)) {
+            function.addEnvironment("SessionTokenSecretArn", secret.getSecretArn());
+            secret.grantRead(function);
+        }
+        authorizerFunction.addEnvironment("RevocationCacheTTLSeconds", "5");
+        if (SESSION_TOKENS_REQUIRED.equals(sessionTokens())) {
+            authorizerFunction.addEnvironment("SessionTokensRequired", "true");
+        }
+    }
+
     private void setupWebSocketFunction(Function function, Role tableRole, String permissionEndpoint, boolean includePostPolicy) {
         setupWebSocketFunction(function, tableRole, permissionEndpoint, includePostPolicy, false);
     }
@@ -348,6 +594,7 @@ public class RateLimitStack extends Stack {
         function.addEnvironment("ApiGatewayEndpoint", stage.getUrl().replace("wss://", ""));
         function.addEnvironment("TenantTableName", tenantTable.getTableName());
         function.addEnvironment("SessionTableName", sessionTable.getTableName());
+        function.addEnvironment("ConnectionTableName", connectionTable.getTableName());
         function.addEnvironment("LimitTableName", limitTable.getTableName());
         if (includePostPolicy) {
             function.addToRolePolicy(PolicyStatement.Builder.create()
@@ -370,7 +617,7 @@ public class RateLimitStack extends Stack {
                     .build());
         }
         if (permissionEndpoint != null) {
-            function.addPermission("APIGatewayConnect", Permission.builder()
+            invocationTarget(function).addPermission("APIGatewayConnect", Permission.builder()
                     .action("lambda:InvokeFunction")
                     .principal(ServicePrincipal.Builder.create("apigateway.amazonaws.com").build())
                     .sourceArn("arn:aws:execute-api:" + getRegion() + ":" + getAccount() + ":" + api.getApiId() + permissionEndpoint)
@@ -385,73 +632,366 @@ public class RateLimitStack extends Stack {
         tableRole.grantAssumeRole(function.getRole());
         tenantTable.grantReadData(tableRole).getPrincipalStatement().addCondition("ForAllValues:StringEquals", Map.of("dynamodb:LeadingKeys", List.of("${aws:PrincipalTag/tenantId}")));
         sessionTable.grantReadWriteData(tableRole).getPrincipalStatement().addCondition("ForAllValues:StringEquals", Map.of("dynamodb:LeadingKeys", List.of("${aws:PrincipalTag/tenantId}")));
+        connectionTable.grantReadWriteData(tableRole).getPrincipalStatement().addCondition("ForAllValues:StringLike", Map.of("dynamodb:LeadingKeys", List.of("${aws:PrincipalTag/tenantId}#*")));
         limitTable.grantReadWriteData(tableRole).getPrincipalStatement().addCondition("ForAllValues:StringLike", Map.of("dynamodb:LeadingKeys", List.of("${aws:PrincipalTag/tenantId}*")));
     }
 
-    private void addSampleTenantIds() {
-        addSampleTenantId("a5a82459-3f18-4ecd-89a6-2d13af314751", "60", "5", "2", "10", "200", "60", 1);
-        addSampleTenantId("9175b21a-332a-4a7a-a72d-9184ad7186c0", "120", "10", "5", "100", "300","600",2);
-        addSampleTenantId("31a2e8c6-1826-11ec-9621-0242ac130002", "180", "30", "10", "1000", "300","6000",3);
-        Function sqsEchoFunction = createSQSEchoLambda("Pooled");
-        createSQSFifoQueuePerTenant("Pooled", sqsEchoFunction);
-    }
-
-    private void addSampleTenantId(String tenantId, String tenantPerMinute, String sessionPerMinute, String connectionsPerSession, String tenantConnections, String sessionTTL, String messagesPerMinute, int index) {
-        AwsSdkCall initializeData = AwsSdkCall.builder()
-                .service("DynamoDB")
-                .action("putItem")
-                .physicalResourceId(PhysicalResourceId.of(tenantTable.getTableName() + "_initialization" + index))
-                .parameters(Map.ofEntries(
-                        Map.entry("TableName", tenantTable.getTableName()),
-                        Map.entry("Item", Map.ofEntries(
-                                Map.entry("tenantId", Map.of("S", tenantId)),
-                                Map.entry("tenantPerMinute", Map.of("N", tenantPerMinute)),
-                                Map.entry("sessionPerMinute", Map.of("N", sessionPerMinute)),
-                                Map.entry("connectionsPerSession", Map.of("N", connectionsPerSession)),
-                                Map.entry("tenantConnections", Map.of("N", tenantConnections)),
-                                Map.entry("sessionTTL", Map.of("N", sessionTTL)),
-                                Map.entry("messagesPerMinute", Map.of("N", messagesPerMinute))
-                        )),
-                        Map.entry("ConditionExpression", "attribute_not_exists(tenantId)")
-                ))
+    private boolean useRedisLimitStore() {
+        return LIMIT_STORE_REDIS.equals(String.valueOf(getNode().tryGetContext(LIMIT_STORE_CONTEXT)));
+    }
+
+    // The functions which check the rate limits run in the private subnets of a VPC of their own, which reach DynamoDB
+    // through a gateway endpoint and everything else, STS, API Gateway and CloudWatch Logs, through a NAT gateway
+    private void createLimitStoreNetwork() {
+        if (!useRedisLimitStore()) {
+            return;
+        }
+        if (!useJavaHandler("WebSocketConnect") || !useJavaHandler("SQSEcho")) {
+            throw new IllegalArgumentException("-c " + LIMIT_STORE_CONTEXT + "=" + LIMIT_STORE_REDIS
+                    + " needs the Java WebSocketConnect and SQSEcho handlers, for example -c " + JAVA_HANDLERS_CONTEXT + "=WebSocketConnect,SQSEcho");
+        }
+        limitStoreVpc = Vpc.Builder.create(this, "LimitStoreVpc")
+                .maxAzs(2)
+                .natGateways(1)
+                .gatewayEndpoints(Map.of("DynamoDB", GatewayVpcEndpointOptions.builder()
+                        .service(GatewayVpcEndpointAwsService.DYNAMODB)
+                        .build()))
                 .build();
+        limitStoreClients = SecurityGroup.Builder.create(this, "LimitStoreClients")
+                .vpc(limitStoreVpc)
+                .description("The functions which check the rate limits")
+                .build();
+    }
+
+    private Function.Builder inLimitStoreVpc(Function.Builder function) {
+        if (limitStoreVpc == null) {
+            return function;
+        }
+        return function
+                .vpc(limitStoreVpc)
+                .vpcSubnets(SubnetSelection.builder().subnetType(SubnetType.PRIVATE_WITH_EGRESS).build())
+                .securityGroups(List.of(limitStoreClients));
+    }
 
-        AwsCustomResource tableInitializationResource = AwsCustomResource.Builder.create(this, "TenantSampleDataTableInitializationResource" + index)
-                .policy(AwsCustomResourcePolicy.fromStatements(List.of(
-                        PolicyStatement.Builder.create()
-                                .effect(Effect.ALLOW)
-                                .actions(List.of("dynamodb:PutItem"))
-                                .resources(List.of(tenantTable.getTableArn()))
-                                .build()
-                )))
-                .onCreate(initializeData)
+    private void addLimitStoreTenant(String tenantId) {
+        if (!REDIS_TENANT_ID.matcher(tenantId).matches()) {
+            throw new IllegalArgumentException("Tenant " + tenantId + " cannot have a Redis user, with -c " + LIMIT_STORE_CONTEXT + "="
+                    + LIMIT_STORE_REDIS + " tenant Ids are letters and digits separated by single hyphens");
+        }
+        if (limitStoreTenants.size() == MAX_REDIS_TENANTS) {
+            throw new IllegalArgumentException("-c " + LIMIT_STORE_CONTEXT + "=" + LIMIT_STORE_REDIS + " supports at most "
+                    + MAX_REDIS_TENANTS + " tenants, the users of one ElastiCache user group");
+        }
+        limitStoreTenants.add(tenantId);
+    }
+
+    // The serverless cache only accepts TLS connections from users of its user group. The default user every group needs
+    // is disabled, and each tenant's user authenticates with IAM and may only run the commands of RedisLimitStore on
+    // keys starting with its tenantId/. Only the tenant scoped credentials of a table role, whose session is tagged with
+    // the tenantId, may connect as rl-<tenantId>, the same ${aws:PrincipalTag/tenantId} the LeadingKeys conditions use.
+    private void createLimitCache() {
+        if (limitStoreVpc == null) {
+            return;
+        }
+        String cacheName = getStackName().toLowerCase() + "-limits";
+        List<String> userIds = new ArrayList<>();
+        userIds.add(CfnUser.Builder.create(this, "LimitCacheDefaultUser")
+                .engine("redis")
+                .userId(cacheName + "-default")
+                .userName("default")
+                .accessString("off -@all")
+                .noPasswordRequired(true)
+                .build()
+                .getRef());
+        for (String tenantId : limitStoreTenants) {
+            userIds.add(CfnUser.Builder.create(this, "LimitCacheUser" + tenantId)
+                    .engine("redis")
+                    .userId(REDIS_USER_PREFIX + tenantId)
+                    .userName(REDIS_USER_PREFIX + tenantId)
+                    .accessString("on ~" + tenantId + "/* -@all +get +set +incrby +expireat +eval +evalsha")
+                    .authenticationMode(Map.of("Type", "iam"))
+                    .build()
+                    .getRef());
+        }
+        CfnUserGroup userGroup = CfnUserGroup.Builder.create(this, "LimitCacheUserGroup")
+                .engine("redis")
+                .userGroupId(cacheName)
+                .userIds(userIds)
+                .build();
+        SecurityGroup cacheSecurityGroup = SecurityGroup.Builder.create(this, "LimitCacheSecurityGroup")
+                .vpc(limitStoreVpc)
+                .description("The rate limit counters cache")
+                .allowAllOutbound(false)
                 .build();
-        tableInitializationResource.getNode().addDependency(tenantTable);
-        Function sqsEchoFunction = createSQSEchoLambda(tenantId);
-        createSQSFifoQueuePerTenant(tenantId, sqsEchoFunction);
+        cacheSecurityGroup.addIngressRule(limitStoreClients, Port.tcpRange(6379, 6380), "Redis from the functions which check the rate limits");
+        CfnServerlessCache cache = CfnServerlessCache.Builder.create(this, "LimitCache")
+                .engine("redis")
+                .majorEngineVersion("7")
+                .serverlessCacheName(cacheName)
+                .description("The rate limiters' counters, see RedisLimitStore")
+                .userGroupId(userGroup.getRef())
+                .securityGroupIds(List.of(cacheSecurityGroup.getSecurityGroupId()))
+                .subnetIds(limitStoreVpc.selectSubnets(SubnetSelection.builder().subnetType(SubnetType.PRIVATE_WITH_EGRESS).build()).getSubnetIds())
+                .build();
+        for (Map.Entry<Function, Role> entry : limitStoreFunctions.entrySet()) {
+            Function function = entry.getKey();
+            function.addEnvironment("LimitStore", LIMIT_STORE_REDIS);
+            function.addEnvironment("RedisEndpoint", cache.getAtt("Endpoint.Address").toString());
+            function.addEnvironment("RedisPort", cache.getAtt("Endpoint.Port").toString());
+            function.addEnvironment("RedisCacheName", cacheName);
+            function.addEnvironment("RedisUserPrefix", REDIS_USER_PREFIX);
+            entry.getValue().addToPolicy(PolicyStatement.Builder.create()
+                    .actions(List.of("elasticache:Connect"))
+                    .resources(List.of(
+                            cache.getAttrArn(),
+                            formatArn(ArnComponents.builder()
+                                    .service("elasticache")
+                                    .resource("user")
+                                    .resourceName(REDIS_USER_PREFIX + "${aws:PrincipalTag/tenantId}")
+                                    .arnFormat(ArnFormat.COLON_RESOURCE_NAME)
+                                    .build())))
+                    .build());
+        }
+    }
+
+    // The catalog is streamed once: each tenant's item is written to the asset the TenantCatalogSeed function
+    // seeds the tenant table from, and each silo tenant gets its queue and SQSEcho function in the current nested stack
+    private void addTenants() {
+        Object catalogContext = getNode().tryGetContext(TENANT_CATALOG_CONTEXT);
+        Path catalogPath = Paths.get(catalogContext != null ? catalogContext.toString() : DEFAULT_TENANT_CATALOG);
+        Object tenantsPerStackContext = getNode().tryGetContext(TENANTS_PER_STACK_CONTEXT);
+        int tenantsPerStack = tenantsPerStackContext != null ? Integer.parseInt(tenantsPerStackContext.toString()) : DEFAULT_TENANTS_PER_STACK;
+        Path items;
+        try {
+            items = Files.createTempDirectory("tenant-catalog").resolve("tenant-items.jsonl");
+            int siloTenants = 0;
+            Construct siloScope = this;
+            try (TenantCatalog catalog = TenantCatalog.open(catalogPath);
+                 BufferedWriter out = Files.newBufferedWriter(items, StandardCharsets.UTF_8)) {
+                for (TenantCatalog.Tenant tenant = catalog.next(); tenant != null; tenant = catalog.next()) {
+                    out.write(tenant.toItemJson());
+                    out.write('\n');
+                    if (limitStoreVpc != null) {
+                        addLimitStoreTenant(tenant.getTenantId());
+                    }
+                    if (!tenant.isSilo()) {
+                        continue;
+                    }
+                    if (tenantsPerStack > 0 && siloTenants % tenantsPerStack == 0) {
+                        siloScope = new NestedStack(this, "SiloTenants" + (siloTenants / tenantsPerStack));
+                    }
+                    Function sqsEchoFunction = createSQSEchoLambda(siloScope, tenant.getTenantId());
+                    createSQSFifoQueuePerTenant(siloScope, tenant.getTenantId(), sqsEchoFunction);
+                    siloTenants++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the tenant catalog " + catalogPath, e);
+        }
+        seedTenantTable(items);
+        Function sqsEchoFunction = createSQSEchoLambda(this, "Pooled");
+        createSQSFifoQueuePerTenant(this, "Pooled", sqsEchoFunction);
+        items.toFile().deleteOnExit();
+        items.getParent().toFile().deleteOnExit();
     }
 
-    private Function createSQSEchoLambda(String tenantId) {
-        Function function = Function.Builder.create(this, "SQSEcho" + tenantId)
+    // A single custom resource writes the tenants which are not in the table yet or whose catalog item has changed, and
+    // deletes the tenants which are no longer in the catalog, see TenantCatalogSeed.js. The asset's key changes with its
+    // content so the seeding only runs again when the catalog has changed.
+    private void seedTenantTable(Path items) {
+        Asset catalogAsset = Asset.Builder.create(this, "TenantCatalogAsset")
+                .path(items.toString())
+                .build();
+        Function seedFunction = Function.Builder.create(this, "TenantCatalogSeed")
                 .runtime(Runtime.NODEJS_14_X)
                 .code(Code.fromAsset("lambda"))
-                .handler("SQSEcho.handler")
+                .handler("TenantCatalogSeed.handler")
+                .timeout(Duration.minutes(15))
+                .build();
+        catalogAsset.grantRead(seedFunction);
+        tenantTable.grantWriteData(seedFunction);
+        Provider provider = Provider.Builder.create(this, "TenantCatalogSeedProvider")
+                .onEventHandler(seedFunction)
+                .build();
+        CustomResource.Builder.create(this, "TenantCatalogSeedResource")
+                .serviceToken(provider.getServiceToken())
+                .properties(Map.of(
+                        "TableName", tenantTable.getTableName(),
+                        "Bucket", catalogAsset.getS3BucketName(),
+                        "Key", catalogAsset.getS3ObjectKey()))
                 .build();
+    }
+
+    private Function createSQSEchoLambda(Construct scope, String tenantId) {
+        Function function = useJavaHandler("SQSEcho")
+                ? snapStart(inLimitStoreVpc(javaFunction(scope, "SQSEcho" + tenantId, "SQSEchoHandler")
+                        .timeout(Duration.seconds(20))
+                        .environment("Pooled".equals(tenantId)
+                                // The tenants of the pooled queue take turns weighted by their tier, see FairScheduler
+                                ? Map.of("MaxInFlightPosts", "32", "FairScheduling", "true", "MaxInFlightGroups", "8", "MaxTenantInFlightPercent", "50")
+                                : Map.of("MaxInFlightPosts", "32")))
+                        .build())
+                : Function.Builder.create(scope, "SQSEcho" + tenantId)
+                        .runtime(Runtime.NODEJS_14_X)
+                        .code(Code.fromAsset("lambda"))
+                        .handler("SQSEcho.handler")
+                        .build();
         Tags.of(function).add("tenantId", tenantId);
-        Role lambdaTableRole = Role.Builder.create(this, "SQSEcho" + tenantId + "TableRole").assumedBy(new SessionTagsPrincipal(function.getRole())).build();
+        Role lambdaTableRole = Role.Builder.create(scope, "SQSEcho" + tenantId + "TableRole").assumedBy(new SessionTagsPrincipal(function.getRole())).build();
         setupWebSocketFunction(function, lambdaTableRole, null, true);
+        limitStoreFunctions.put(function, lambdaTableRole);
         return function;
     }
 
-    private void createSQSFifoQueuePerTenant(String tenantId, Function sqsEchoFunction) {
-        Queue tenantQueue = Queue.Builder.create(this, "TenantQueue" + tenantId)
+    private void createSQSFifoQueuePerTenant(Construct scope, String tenantId, Function sqsEchoFunction) {
+        Queue tenantQueue = Queue.Builder.create(scope, "TenantQueue" + tenantId)
                 .fifo(true)
                 .fifoThroughputLimit(FifoThroughputLimit.PER_MESSAGE_GROUP_ID)
                 .deduplicationScope(DeduplicationScope.MESSAGE_GROUP)
                 .queueName("tenant-" + tenantId + ".fifo")
                 .build();
         Tags.of(tenantQueue).add("tenantId", tenantId);
-        sqsEchoFunction.addEventSource(SqsEventSource.Builder.create(tenantQueue).enabled(true).build());
+        // The Java handler reports the messages it could not echo so only those are retried
+        invocationTarget(sqsEchoFunction).addEventSource(SqsEventSource.Builder.create(tenantQueue)
+                .enabled(true)
+                .reportBatchItemFailures(useJavaHandler("SQSEcho"))
+                .build());
+    }
+
+    // The handlers publish their hot path metrics as embedded metric format log lines, see MetricsLogger and
+    // Common.js withMetrics. The dashboard shows them for every function and tenant, the alarms watch the totals.
+    private void createDashboardAndAlarms() {
+        Dashboard dashboard = Dashboard.Builder.create(this, "RateLimitDashboard").build();
+        dashboard.addWidgets(
+                graph("Authorizer decision latency (ms)",
+                        List.of(metric("AuthorizerLatency", "Authorizer", "p50"), metric("AuthorizerLatency", "Authorizer", "p99")),
+                        List.of(metric("AuthorizerAllowed", "Authorizer", "Sum"), metric("AuthorizerDenied", "Authorizer", "Sum"))),
+                graph("Authorizer p99 latency by tenant (ms)",
+                        List.of(search("{" + MetricsLogger.NAMESPACE + ",Function,TenantId} Function=\"Authorizer\" MetricName=\"AuthorizerLatency\"", "p99")),
+                        List.of()));
+        dashboard.addWidgets(
+                graph("DynamoDB p99 latency (ms)", perFunction("DynamoDBLatency", "p99"), List.of()),
+                graph("STS AssumeRole p99 latency (ms)", perFunction("STSLatency", "p99"), List.of()));
+        dashboard.addWidgets(
+                graph("postToConnection and deleteConnection latency (ms)",
+                        List.of(metric("PostToConnectionLatency", "SQSEcho", "p50"), metric("PostToConnectionLatency", "SQSEcho", "p99"),
+                                metric("DeleteConnectionLatency", "SessionTTL", "p99")),
+                        List.of(metric("PostToConnectionThrottles", "SQSEcho", "Sum"), metric("DeleteConnectionThrottles", "SessionTTL", "Sum"))),
+                graph("Cache hit rate (%)",
+                        List.of(hitRate("TenantCache", "Authorizer"), hitRate("TenantCache", "WebSocketConnect"), hitRate("TenantCache", "SQSEcho"),
+                                hitRate("ClientPool", "Authorizer")),
+                        List.of()));
+        dashboard.addWidgets(
+                graph("Throttles by limit type", throttlesByLimitType(), List.of()),
+                graph("Throttles by tenant",
+                        List.of(search("{" + MetricsLogger.NAMESPACE + ",Function,LimitType,TenantId} MetricName=\"Throttles\"", "Sum")),
+                        List.of()));
+
+        alarm("AuthorizerLatencyAlarm", "The p99 authorizer decision latency is over 500ms",
+                metric("AuthorizerLatency", "Authorizer", "p99"), 500, 3);
+        alarm("DynamoDBLatencyAlarm", "The p99 DynamoDB latency of the connect handler is over 100ms",
+                metric("DynamoDBLatency", "WebSocketConnect", "p99"), 100, 5);
+        alarm("PostToConnectionLatencyAlarm", "The p99 postToConnection latency is over 500ms",
+                metric("PostToConnectionLatency", "SQSEcho", "p99"), 500, 5);
+        alarm("PostToConnectionThrottlesAlarm", "API Gateway is throttling the echo posts",
+                metric("PostToConnectionThrottles", "SQSEcho", "Sum"), 10, 5);
+        // Requests over a tenant's limits are expected, a sustained rate of them means a tenant has outgrown its limits
+        Map<String, IMetric> connectThrottles = new LinkedHashMap<>();
+        for (String limitType : CONNECT_LIMIT_TYPES) {
+            connectThrottles.put("t" + connectThrottles.size(), throttles("WebSocketConnect", limitType));
+        }
+        alarm("ConnectThrottlesAlarm", "Over 100 connections a minute are rejected by the rate limits",
+                MathExpression.Builder.create()
+                        .expression("FILL(t0, 0) + FILL(t1, 0) + FILL(t2, 0) + FILL(t3, 0)")
+                        .usingMetrics(connectThrottles)
+                        .label("Connect throttles")
+                        .period(Duration.minutes(1))
+                        .build(),
+                100, 5);
+    }
+
+    private static Metric metric(String name, String function, String statistic) {
+        return Metric.Builder.create()
+                .namespace(MetricsLogger.NAMESPACE)
+                .metricName(name)
+                .dimensionsMap(Map.of(MetricsLogger.FUNCTION, function))
+                .statistic(statistic)
+                .period(Duration.minutes(1))
+                .label(function + " " + name + " " + statistic)
+                .build();
+    }
+
+    private static Metric throttles(String function, String limitType) {
+        return Metric.Builder.create()
+                .namespace(MetricsLogger.NAMESPACE)
+                .metricName(MetricsLogger.THROTTLES)
+                .dimensionsMap(Map.of(MetricsLogger.FUNCTION, function, MetricsLogger.LIMIT_TYPE, limitType))
+                .statistic("Sum")
+                .period(Duration.minutes(1))
+                .label(limitType)
+                .build();
+    }
+
+    private static List<IMetric> perFunction(String name, String statistic) {
+        List<IMetric> metrics = new ArrayList<>();
+        for (String function : METRIC_FUNCTIONS) {
+            metrics.add(metric(name, function, statistic));
+        }
+        return metrics;
+    }
+
+    private static List<IMetric> throttlesByLimitType() {
+        List<IMetric> metrics = new ArrayList<>();
+        for (String limitType : CONNECT_LIMIT_TYPES) {
+            metrics.add(throttles("WebSocketConnect", limitType));
+        }
+        metrics.add(throttles("SQSEcho", "MESSAGES_PER_MINUTE"));
+        return metrics;
+    }
+
+    // The hits and misses are counted per invocation, the ids only need to be unique within a widget
+    private static MathExpression hitRate(String cache, String function) {
+        String id = (cache + function).toLowerCase();
+        return MathExpression.Builder.create()
+                .expression("100 * " + id + "h / (" + id + "h + " + id + "m)")
+                .usingMetrics(Map.of(
+                        id + "h", metric(cache + "Hits", function, "Sum"),
+                        id + "m", metric(cache + "Misses", function, "Sum")))
+                .label(function + " " + cache)
+                .period(Duration.minutes(1))
+                .build();
+    }
+
+    // A line per tenant, however many tenants there are
+    private static MathExpression search(String query, String statistic) {
+        return MathExpression.Builder.create()
+                .expression("SEARCH('" + query + "', '" + statistic + "', 60)")
+                .usingMetrics(Map.of())
+                .label("")
+                .period(Duration.minutes(1))
+                .build();
+    }
+
+    private static GraphWidget graph(String title, List<IMetric> left, List<IMetric> right) {
+        return GraphWidget.Builder.create()
+                .title(title)
+                .left(left)
+                .right(right)
+                .width(12)
+                .height(6)
+                .build();
+    }
+
+    private void alarm(String id, String description, IMetric metric, double threshold, int periods) {
+        Alarm.Builder.create(this, id)
+                .alarmDescription(description)
+                .metric(metric)
+                .threshold(threshold)
+                .evaluationPeriods(periods)
+                .datapointsToAlarm(periods)
+                .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                .treatMissingData(TreatMissingData.NOT_BREACHING)
+                .build();
     }
 
     private void createOutputs() {
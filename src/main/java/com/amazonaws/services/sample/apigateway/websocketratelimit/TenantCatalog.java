@@ -0,0 +1,172 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Reads the tenants the stack deploys from a catalog file one tenant at a time, so a catalog of any size is never
+// held in memory. A file ending in .csv has a header line naming the columns and one tenant per line after it, without
+// quoted values. Any other file is JSON Lines, one JSON object per tenant. Blank lines and lines starting with # are
+// skipped. Every column except silo becomes an attribute of the tenant's item in the tenant table: the numeric
+// settings as numbers and the rest as strings. silo, true unless it is false, gives the tenant its own FIFO queue and
+// SQSEcho function.
+public final class TenantCatalog implements Closeable {
+    public static final String SILO = "silo";
+    private static final Set<String> NUMBERS = Set.of("tenantPerMinute", "sessionPerMinute", "connectionsPerSession", "tenantConnections",
+            "sessionTTL", "messagesPerMinute", "limitShards", "leaseSize");
+    // Silo tenant Ids name a queue, tenant-<tenantId>.fifo of at most 80 characters, and the constructs of the tenant
+    private static final Pattern SILO_TENANT_ID = Pattern.compile("[A-Za-z0-9_-]{1,69}");
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Path path;
+    private final BufferedReader reader;
+    private final boolean csv;
+    private final Set<String> tenantIds = new HashSet<>();
+    private String[] columns;
+    private int line;
+
+    private TenantCatalog(final Path path, final BufferedReader reader, final boolean csv) {
+        this.path = path;
+        this.reader = reader;
+        this.csv = csv;
+    }
+
+    public static TenantCatalog open(Path path) throws IOException {
+        return new TenantCatalog(path, Files.newBufferedReader(path, StandardCharsets.UTF_8),
+                path.getFileName().toString().toLowerCase().endsWith(".csv"));
+    }
+
+    // Returns the next tenant, or null at the end of the catalog
+    public Tenant next() throws IOException {
+        for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+            line++;
+            String trimmed = text.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if (csv && columns == null) {
+                columns = trimmed.split(",", -1);
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = columns[i].trim();
+                }
+                continue;
+            }
+            return tenant(csv ? fromCsv(trimmed) : fromJson(trimmed));
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private ObjectNode fromCsv(String text) {
+        String[] values = text.split(",", -1);
+        if (values.length != columns.length) {
+            throw invalid("has " + values.length + " values for " + columns.length + " columns");
+        }
+        ObjectNode tenant = JSON.createObjectNode();
+        for (int i = 0; i < values.length; i++) {
+            if (!values[i].trim().isEmpty()) {
+                tenant.put(columns[i], values[i].trim());
+            }
+        }
+        return tenant;
+    }
+
+    private ObjectNode fromJson(String text) {
+        JsonNode tenant;
+        try {
+            tenant = JSON.readTree(text);
+        } catch (JsonProcessingException e) {
+            throw invalid("is not JSON: " + e.getOriginalMessage());
+        }
+        if (!tenant.isObject()) {
+            throw invalid("is not a JSON object");
+        }
+        return (ObjectNode) tenant;
+    }
+
+    private Tenant tenant(ObjectNode values) {
+        String tenantId = values.path("tenantId").asText("");
+        if (tenantId.isEmpty()) {
+            throw invalid("has no tenantId");
+        }
+        if (!tenantIds.add(tenantId)) {
+            throw invalid("repeats tenant " + tenantId);
+        }
+        boolean silo = !"false".equalsIgnoreCase(values.path(SILO).asText("true"));
+        if (silo && !SILO_TENANT_ID.matcher(tenantId).matches()) {
+            throw invalid("has a silo tenantId which is not 1 to 69 letters, digits, - or _");
+        }
+        // The item in the DynamoDB JSON BatchWriteItem takes
+        ObjectNode item = JSON.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = values.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            JsonNode value = field.getValue();
+            if (SILO.equals(name) || value.isNull()) {
+                continue;
+            }
+            if (NUMBERS.contains(name)) {
+                String number = value.asText().trim();
+                if (!number.matches("\\d{1,15}")) {
+                    throw invalid("has " + name + " " + number + " which is not a whole number");
+                }
+                item.putObject(name).put("N", number);
+            } else if (value.isValueNode()) {
+                item.putObject(name).put("S", value.asText());
+            } else {
+                throw invalid("has " + name + " which is not a single value");
+            }
+        }
+        return new Tenant(tenantId, silo, item);
+    }
+
+    private IllegalArgumentException invalid(String problem) {
+        return new IllegalArgumentException("Line " + line + " of the tenant catalog " + path + " " + problem);
+    }
+
+    public static final class Tenant {
+        private final String tenantId;
+        private final boolean silo;
+        private final ObjectNode item;
+
+        private Tenant(final String tenantId, final boolean silo, final ObjectNode item) {
+            this.tenantId = tenantId;
+            this.silo = silo;
+            this.item = item;
+        }
+
+        public String getTenantId() {
+            return tenantId;
+        }
+
+        public boolean isSilo() {
+            return silo;
+        }
+
+        // The tenant table item as one line of DynamoDB JSON
+        public String toItemJson() {
+            return item.toString();
+        }
+    }
+}
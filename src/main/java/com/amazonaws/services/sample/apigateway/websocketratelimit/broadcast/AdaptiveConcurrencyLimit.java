@@ -0,0 +1,62 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+// An additive increase, multiplicative decrease limit on the number of calls in flight. Every limit's worth of
+// successful calls raises the limit by one, a call which was pushed back halves it. Calls which were already in
+// flight when the limit was halved are likely to be pushed back too, so the limit is only halved again once they
+// have all completed.
+public class AdaptiveConcurrencyLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    private int limit;
+    private int inFlight;
+    private int successes;
+    private int awaitingAfterDecrease;
+
+    public AdaptiveConcurrencyLimit(final int minLimit, final int initialLimit, final int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    // Returns a permit which was not used for a call
+    public synchronized void cancel() {
+        inFlight--;
+    }
+
+    public synchronized void release(boolean pushedBack) {
+        inFlight--;
+        boolean sentBeforeDecrease = awaitingAfterDecrease > 0;
+        if (sentBeforeDecrease) {
+            awaitingAfterDecrease--;
+        }
+        if (pushedBack) {
+            successes = 0;
+            if (!sentBeforeDecrease) {
+                limit = Math.max(minLimit, limit / 2);
+                awaitingAfterDecrease = inFlight;
+            }
+        } else if (++successes >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+            successes = 0;
+        }
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
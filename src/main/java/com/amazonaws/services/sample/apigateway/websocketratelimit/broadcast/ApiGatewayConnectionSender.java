@@ -0,0 +1,50 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.LimitExceededException;
+
+// Sends through the API Gateway management API of the websocket stage. The client should be built with
+// AwsRetryStrategy.doNotRetry() so throttled and failed posts come back to the Broadcaster, which retries them
+// with a jittered backoff without holding a thread and lowers its concurrency while API Gateway pushes back.
+// Connections are closed with DeleteConnection, whose failures are mapped the same way.
+public class ApiGatewayConnectionSender implements ConnectionSender, ConnectionCloser {
+    private final ApiGatewayManagementApiClient apig;
+
+    public ApiGatewayConnectionSender(final ApiGatewayManagementApiClient apig) {
+        this.apig = apig;
+    }
+
+    @Override
+    public SendResult send(String connectionId, SdkBytes data) {
+        return call(() -> apig.postToConnection(builder -> builder.connectionId(connectionId).data(data)));
+    }
+
+    @Override
+    public SendResult close(String connectionId) {
+        return call(() -> apig.deleteConnection(builder -> builder.connectionId(connectionId)));
+    }
+
+    private static SendResult call(Runnable request) {
+        try {
+            request.run();
+            return SendResult.SENT;
+        } catch (GoneException e) {
+            return SendResult.GONE;
+        } catch (SdkServiceException e) {
+            if (e instanceof LimitExceededException || e.isThrottlingException() || e.statusCode() >= 500) {
+                return SendResult.RETRY;
+            }
+            throw e;
+        } catch (SdkClientException e) {
+            // Connection failures and timeouts
+            return SendResult.RETRY;
+        }
+    }
+}
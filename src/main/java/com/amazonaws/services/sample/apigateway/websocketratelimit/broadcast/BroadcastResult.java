@@ -0,0 +1,32 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import java.util.List;
+
+// The outcome of a completed broadcast
+public final class BroadcastResult {
+    private final int connections;
+    private final List<String> goneConnectionIds;
+    private final long fanOutNanos;
+
+    public BroadcastResult(final int connections, final List<String> goneConnectionIds, final long fanOutNanos) {
+        this.connections = connections;
+        this.goneConnectionIds = goneConnectionIds;
+        this.fanOutNanos = fanOutNanos;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    // Connections which no longer existed and were removed from the session
+    public List<String> getGoneConnectionIds() {
+        return goneConnectionIds;
+    }
+
+    public long getFanOutNanos() {
+        return fanOutNanos;
+    }
+}
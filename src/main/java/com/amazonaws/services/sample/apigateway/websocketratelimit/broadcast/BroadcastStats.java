@@ -0,0 +1,79 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the broadcasts of a Broadcaster. The fan-out latency of a broadcast is the time from its start until
+// every connection has received its payloads, including the time spent waiting for a concurrency permit or a retry.
+public class BroadcastStats {
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder gone = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    void recordBroadcast(long nanos, int connectionCount) {
+        fanOutLatency.record(nanos);
+        broadcasts.increment();
+        connections.add(connectionCount);
+    }
+
+    void recordSend() {
+        sends.increment();
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordGone() {
+        gone.increment();
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    public LatencyHistogram getFanOutLatency() {
+        return fanOutLatency;
+    }
+
+    public long getBroadcastCount() {
+        return broadcasts.sum();
+    }
+
+    public long getConnectionCount() {
+        return connections.sum();
+    }
+
+    // Posts made to API Gateway, including retries
+    public long getSendCount() {
+        return sends.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getGoneCount() {
+        return gone.sum();
+    }
+
+    // Sends which failed or were still pushed back after the last attempt
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("broadcasts=%d connections=%d sends=%d retries=%d gone=%d failures=%d fanOut p50=%.2fms p99=%.2fms p99.9=%.2fms",
+                getBroadcastCount(), getConnectionCount(), getSendCount(), getRetryCount(), getGoneCount(), getFailureCount(),
+                fanOutLatency.getPercentileMillis(50), fanOutLatency.getPercentileMillis(99), fanOutLatency.getPercentileMillis(99.9));
+    }
+}
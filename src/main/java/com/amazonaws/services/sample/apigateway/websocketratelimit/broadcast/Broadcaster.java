@@ -0,0 +1,175 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Sends payloads to the connections of a session concurrently. Sends are queued and run on the executor while the
+// adaptive concurrency limit allows, so the number of posts in flight follows how much API Gateway accepts rather
+// than a fixed number. Posts which are throttled or fail transiently are queued again after an exponential backoff
+// with full jitter, at most maxAttempts times, and lower the concurrency limit. Waiting for a retry does not hold
+// a thread. Connections API Gateway reports as gone are removed from the session with a single update once the
+// broadcast has completed.
+public class Broadcaster {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(25);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(1);
+
+    private final Queue<Send> waiting = new ConcurrentLinkedQueue<>();
+    private final BroadcastStats stats = new BroadcastStats();
+    private final ConnectionSender sender;
+    private final SessionStore sessions;
+    private final Executor executor;
+    private final AdaptiveConcurrencyLimit concurrency;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final BiConsumer<String, Throwable> log;
+
+    // The executor should have at least maxInFlight threads
+    public Broadcaster(final ConnectionSender sender, final SessionStore sessions, final Executor executor, final int maxInFlight, final BiConsumer<String, Throwable> log) {
+        this(sender, sessions, executor, new AdaptiveConcurrencyLimit(1, maxInFlight, maxInFlight),
+                DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF, log);
+    }
+
+    public Broadcaster(final ConnectionSender sender, final SessionStore sessions, final Executor executor, final AdaptiveConcurrencyLimit concurrency,
+                       final int maxAttempts, final Duration baseBackoff, final Duration maxBackoff, final BiConsumer<String, Throwable> log) {
+        this.sender = sender;
+        this.sessions = sessions;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.log = log;
+    }
+
+    // Sends every connection its payloads in order, stopping early if the connection is gone. The connections are
+    // sent to concurrently. Fails if a payload could not be sent to a connection which still exists.
+    public CompletableFuture<BroadcastResult> broadcast(String tenantId, String sessionId, List<String> connectionIds,
+                                                        Function<String, List<SdkBytes>> payloads) {
+        long start = System.nanoTime();
+        List<String> gone = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<?>[] deliveries = new CompletableFuture<?>[connectionIds.size()];
+        for (int i = 0; i < deliveries.length; i++) {
+            String connectionId = connectionIds.get(i);
+            deliveries[i] = deliver(connectionId, payloads.apply(connectionId), 0).thenAccept(delivered -> {
+                if (!delivered) {
+                    gone.add(connectionId);
+                }
+            });
+        }
+        return CompletableFuture.allOf(deliveries).thenApply(ignored -> {
+            if (!gone.isEmpty()) {
+                try {
+                    sessions.removeStaleConnections(tenantId, sessionId, gone);
+                } catch (RuntimeException e) {
+                    // The connections' $disconnect removes them as well, the broadcast itself has succeeded
+                    log.accept("Removing gone connections " + gone + " from session " + sessionId + " failed", e);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            stats.recordBroadcast(nanos, connectionIds.size());
+            return new BroadcastResult(connectionIds.size(), gone, nanos);
+        });
+    }
+
+    public BroadcastStats getStats() {
+        return stats;
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrency.getLimit();
+    }
+
+    // Completes with false if the connection is gone
+    private CompletableFuture<Boolean> deliver(String connectionId, List<SdkBytes> payloads, int index) {
+        if (index == payloads.size()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        Send send = new Send(connectionId, payloads.get(index));
+        enqueue(send);
+        return send.result.thenCompose(result -> result == SendResult.GONE
+                ? CompletableFuture.completedFuture(false)
+                : deliver(connectionId, payloads, index + 1));
+    }
+
+    private void enqueue(Send send) {
+        waiting.add(send);
+        drain();
+    }
+
+    // Starts waiting sends while permits are available. A permit taken after another thread emptied the queue is
+    // handed back and the queue checked again, so a send queued meanwhile is not left waiting.
+    private void drain() {
+        while (!waiting.isEmpty() && concurrency.tryAcquire()) {
+            Send send = waiting.poll();
+            if (send == null) {
+                concurrency.cancel();
+                continue;
+            }
+            executor.execute(send);
+        }
+    }
+
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private final class Send implements Runnable {
+        private final CompletableFuture<SendResult> result = new CompletableFuture<>();
+        private final String connectionId;
+        private final SdkBytes data;
+        private int attempts;
+
+        private Send(final String connectionId, final SdkBytes data) {
+            this.connectionId = connectionId;
+            this.data = data;
+        }
+
+        @Override
+        public void run() {
+            SendResult outcome;
+            try {
+                stats.recordSend();
+                outcome = sender.send(connectionId, data);
+            } catch (RuntimeException e) {
+                concurrency.release(false);
+                stats.recordFailure();
+                result.completeExceptionally(e);
+                drain();
+                return;
+            }
+            concurrency.release(outcome == SendResult.RETRY);
+            if (outcome != SendResult.RETRY) {
+                if (outcome == SendResult.GONE) {
+                    stats.recordGone();
+                }
+                result.complete(outcome);
+            } else if (++attempts < maxAttempts) {
+                stats.recordRetry();
+                CompletableFuture.delayedExecutor(backoffNanos(attempts), TimeUnit.NANOSECONDS).execute(() -> enqueue(this));
+            } else {
+                stats.recordFailure();
+                result.completeExceptionally(new IllegalStateException("Sending to connection " + connectionId + " was still throttled after " + attempts + " attempts"));
+            }
+            drain();
+        }
+    }
+}
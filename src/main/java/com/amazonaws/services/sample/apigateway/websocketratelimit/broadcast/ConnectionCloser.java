@@ -0,0 +1,11 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+// Closes a single websocket connection from the backend. SENT means the connection was closed and GONE that it
+// had already been closed, RETRY is returned for throttled and transient failures. Failures which are not worth
+// retrying are thrown.
+public interface ConnectionCloser {
+    SendResult close(String connectionId);
+}
@@ -0,0 +1,29 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.nio.charset.StandardCharsets;
+
+// A payload which only differs per connection by a single value, such as the connectionId of an echo response.
+// The parts before and after the value are encoded once, so each connection only costs a copy of the bytes.
+public final class ConnectionPayload {
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    public ConnectionPayload(final String prefix, final String suffix) {
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public SdkBytes forValue(String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[prefix.length + encoded.length + suffix.length];
+        System.arraycopy(prefix, 0, data, 0, prefix.length);
+        System.arraycopy(encoded, 0, data, prefix.length, encoded.length);
+        System.arraycopy(suffix, 0, data, prefix.length + encoded.length, suffix.length);
+        return SdkBytes.fromByteArrayUnsafe(data);
+    }
+}
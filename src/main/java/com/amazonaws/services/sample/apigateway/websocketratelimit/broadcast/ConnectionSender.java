@@ -0,0 +1,12 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+// Sends a message to a single websocket connection. The data is already serialized so a payload shared by many
+// connections is only encoded once. Failures which are not worth retrying are thrown.
+public interface ConnectionSender {
+    SendResult send(String connectionId, SdkBytes data);
+}
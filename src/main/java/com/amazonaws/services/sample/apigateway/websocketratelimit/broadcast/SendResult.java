@@ -0,0 +1,13 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+// The outcome of a single post to a connection
+public enum SendResult {
+    SENT,
+    // The connection no longer exists, API Gateway's 410 Gone response
+    GONE,
+    // Throttled (429) or a transient failure, worth sending again after a backoff
+    RETRY
+}
@@ -0,0 +1,46 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.cache;
+
+// A point in time snapshot of the counters kept by a LoadingCache
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long evictionCount;
+
+    public CacheStats(final long hitCount, final long missCount, final long loadCount, final long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.evictionCount = evictionCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    // Misses that waited on a load already running for the same key are not counted as loads
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hitCount + " misses=" + missCount + " loads=" + loadCount + " evictions=" + evictionCount;
+    }
+}
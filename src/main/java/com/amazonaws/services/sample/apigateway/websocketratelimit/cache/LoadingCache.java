@@ -0,0 +1,154 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// A size bounded, least recently used cache whose entries expire after a fixed time to live.
+// A loader result of null is cached as a negative entry with its own, usually shorter, time to live so
+// repeated lookups of unknown keys do not reach the backing store on every call.
+// Concurrent misses for the same key share a single call to the loader. Loader exceptions are not cached.
+public class LoadingCache<K, V> {
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final Function<K, V> loader;
+    private final Clock clock;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LoadingCache(final int maximumSize, final Duration ttl, final Duration negativeTtl, final Function<K, V> loader) {
+        this(maximumSize, ttl, negativeTtl, Clock.systemUTC(), loader);
+    }
+
+    public LoadingCache(final int maximumSize, final Duration ttl, final Duration negativeTtl, final Clock clock, final Function<K, V> loader) {
+        this.loader = loader;
+        this.clock = clock;
+        this.ttlMillis = ttl.toMillis();
+        this.negativeTtlMillis = negativeTtl.toMillis();
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, LoadingCache.Entry<V>> eldest) {
+                if (size() > maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns the cached value, loading it if missing or expired. Returns null for keys the loader could not find.
+    public V get(K key) {
+        Entry<V> entry = lookup(key);
+        if (entry != null) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            // Another caller may have finished loading between our lookup and claiming the load
+            entry = lookup(key);
+            V value;
+            if (entry != null) {
+                value = entry.value;
+            } else {
+                loads.increment();
+                value = loader.apply(key);
+                put(key, value);
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    // Returns the cached value without loading it or counting a hit or miss, or null if it is missing or expired
+    public V getIfPresent(K key) {
+        Entry<V> entry = lookup(key);
+        return entry != null ? entry.value : null;
+    }
+
+    public void put(K key, V value) {
+        long expiresAt = clock.millis() + (value == null ? negativeTtlMillis : ttlMillis);
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, expiresAt));
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), loads.sum(), evictions.sum());
+    }
+
+    private Entry<V> lookup(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= clock.millis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(final V value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
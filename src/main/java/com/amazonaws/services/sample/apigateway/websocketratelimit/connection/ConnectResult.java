@@ -0,0 +1,29 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.connection;
+
+// The outcome of a connection attempt, either admitted or the limit which rejected it
+public enum ConnectResult {
+    ADMITTED("admitted"),
+    TENANT_CONNECTIONS("over tenant total limit"),
+    SESSION_CONNECTIONS("over session total limit"),
+    TENANT_PER_MINUTE("over limit per minute"),
+    SESSION_PER_MINUTE("over session per minute limit"),
+    // Shed without checking the limits while DynamoDB is slow, see LoadShedder
+    OVERLOADED("shed while DynamoDB is overloaded");
+
+    private final String description;
+
+    ConnectResult(final String description) {
+        this.description = description;
+    }
+
+    public boolean isAdmitted() {
+        return this == ADMITTED;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.connection;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiter;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.overload.LoadShedder;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+
+// The connect and disconnect logic of WebsocketConnect.js and WebsocketDisconnect.js.
+// A connection is checked against the tenant's total connections, the session's connections and the per minute
+// connection rates of the tenant and the session, in that order, before it is added to the session.
+// With a TransactionalAdmission the tenants it supports are checked and admitted in a single transaction instead.
+// With a LoadShedder connections are rejected as OVERLOADED before any of the checks while they are slow, and how long
+// the checks take is what tells it they are.
+public class ConnectionManager {
+    private final RateLimiters limiters;
+    private final SessionStore sessions;
+    private final TransactionalAdmission transactional;
+    private final LoadShedder shedder;
+
+    public ConnectionManager(final RateLimiters limiters, final SessionStore sessions) {
+        this(limiters, sessions, null);
+    }
+
+    public ConnectionManager(final RateLimiters limiters, final SessionStore sessions, final TransactionalAdmission transactional) {
+        this(limiters, sessions, transactional, null);
+    }
+
+    // shedder is null to always check the limits
+    public ConnectionManager(final RateLimiters limiters, final SessionStore sessions, final TransactionalAdmission transactional,
+                             final LoadShedder shedder) {
+        this.limiters = limiters;
+        this.sessions = sessions;
+        this.transactional = transactional;
+        this.shedder = shedder;
+    }
+
+    public ConnectResult connect(TenantSettings tenantSettings, String sessionId, String connectionId) {
+        if (shedder == null) {
+            return admit(tenantSettings, sessionId, connectionId);
+        }
+        String tenantId = tenantSettings.getTenantId();
+        if (!shedder.tryAdmit(tenantId)) {
+            return ConnectResult.OVERLOADED;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ConnectResult result = admit(tenantSettings, sessionId, connectionId);
+            failed = false;
+            return result;
+        } finally {
+            shedder.record(tenantId, System.nanoTime() - start, failed);
+        }
+    }
+
+    private ConnectResult admit(TenantSettings tenantSettings, String sessionId, String connectionId) {
+        if (transactional != null && transactional.supports(tenantSettings)) {
+            return transactional.connect(tenantSettings, sessionId, connectionId);
+        }
+        String tenantId = tenantSettings.getTenantId();
+        if (sessions.getTenantConnections(tenantId) >= tenantSettings.getTenantConnections()) {
+            return ConnectResult.TENANT_CONNECTIONS;
+        }
+        if (sessions.getConnectionCount(tenantId, sessionId) >= tenantSettings.getConnectionsPerSession()) {
+            return ConnectResult.SESSION_CONNECTIONS;
+        }
+        RateLimiter limiter = limiters.forAlgorithm(tenantSettings.getRateLimitAlgorithm());
+        if (!limiter.tryAcquire(tenantId, tenantId + ":minute", tenantSettings.getTenantPerMinute())) {
+            return ConnectResult.TENANT_PER_MINUTE;
+        }
+        if (!limiter.tryAcquire(tenantId, tenantId + ":" + sessionId + ":minute", tenantSettings.getSessionPerMinute())) {
+            return ConnectResult.SESSION_PER_MINUTE;
+        }
+        sessions.addConnection(tenantId, sessionId, connectionId, tenantSettings.getSessionTTL());
+        return ConnectResult.ADMITTED;
+    }
+
+    public void disconnect(String tenantId, String sessionId, String connectionId) {
+        sessions.removeConnection(tenantId, sessionId, connectionId);
+    }
+}
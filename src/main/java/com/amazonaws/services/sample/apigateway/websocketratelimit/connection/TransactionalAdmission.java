@@ -0,0 +1,206 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.connection;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Admits a connection with a single TransactWriteItems call instead of the two reads and three writes of
+// WebsocketConnect.js. The transaction increments the tenant's total connections, the session's connection count
+// and the tenant and session per minute counters, each on the condition that it is below its limit, and adds the
+// connection to the connection table. Either every write is made or, when a limit has been reached, none is, so a rejected connection leaves no
+// partial increments behind and concurrent connects cannot both pass a check which only one of them fits.
+// The cancellation reasons of a rejected transaction are in the order of its items, which gives the limit that was
+// hit. Transactions cancelled by a concurrent transaction on the same items, as happens when many connections to
+// one session arrive together, are retried after a jittered backoff.
+// A condition can only check a single item, so tenants whose counters are sharded, or whose per minute limits use an
+// algorithm other than the fixed window, are admitted by ConnectionManager's separate checks instead.
+public class TransactionalAdmission {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(10);
+    private static final long WINDOW_SECONDS = 60;
+    // The limit each transaction item enforces, in the order of the items
+    private static final ConnectResult[] REJECTIONS = {
+            ConnectResult.TENANT_CONNECTIONS,
+            ConnectResult.SESSION_CONNECTIONS,
+            ConnectResult.TENANT_PER_MINUTE,
+            ConnectResult.SESSION_PER_MINUTE
+    };
+
+    private final LongAdder retries = new LongAdder();
+    private final Function<String, DynamoDbClient> clients;
+    private final String sessionTableName;
+    private final String connectionTableName;
+    private final String limitTableName;
+    private final Clock clock;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+
+    public TransactionalAdmission(final Function<String, DynamoDbClient> clients, final String sessionTableName, final String connectionTableName,
+                                  final String limitTableName) {
+        this(clients, sessionTableName, connectionTableName, limitTableName, Clock.systemUTC(), DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF);
+    }
+
+    public TransactionalAdmission(final Function<String, DynamoDbClient> clients, final String sessionTableName, final String connectionTableName,
+                                  final String limitTableName, final Clock clock, final int maxAttempts, final Duration baseBackoff) {
+        this.clients = clients;
+        this.sessionTableName = sessionTableName;
+        this.connectionTableName = connectionTableName;
+        this.limitTableName = limitTableName;
+        this.clock = clock;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffNanos = baseBackoff.toNanos();
+    }
+
+    public boolean supports(TenantSettings tenantSettings) {
+        return tenantSettings.getRateLimitAlgorithm() == RateLimitAlgorithm.FIXED_WINDOW && tenantSettings.getLimitShards() <= 1;
+    }
+
+    public ConnectResult connect(TenantSettings tenantSettings, String sessionId, String connectionId) {
+        // A limit of zero or less rejects every connection, which a condition on a missing item would not
+        long[] limits = {
+                tenantSettings.getTenantConnections(),
+                tenantSettings.getConnectionsPerSession(),
+                tenantSettings.getTenantPerMinute(),
+                tenantSettings.getSessionPerMinute()
+        };
+        for (int i = 0; i < limits.length; i++) {
+            if (limits[i] <= 0) {
+                return REJECTIONS[i];
+            }
+        }
+        TransactWriteItemsRequest request = request(tenantSettings, sessionId, connectionId);
+        DynamoDbClient client = clients.apply(tenantSettings.getTenantId());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                client.transactWriteItems(request);
+                return ConnectResult.ADMITTED;
+            } catch (TransactionCanceledException e) {
+                ConnectResult rejection = rejection(e);
+                if (rejection != null) {
+                    return rejection;
+                }
+                if (attempt >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+                retries.increment();
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    // Transactions made again after a conflict or throttling, for tests and benchmarks
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    TransactWriteItemsRequest request(TenantSettings tenantSettings, String sessionId, String connectionId) {
+        String tenantId = tenantSettings.getTenantId();
+        long now = clock.millis() / 1000;
+        long windowStart = now / WINDOW_SECONDS * WINDOW_SECONDS;
+        AttributeValue windowTTL = number(windowStart + WINDOW_SECONDS + 1);
+        return TransactWriteItemsRequest.builder().transactItems(
+                TransactWriteItem.builder().update(update -> update
+                        .tableName(limitTableName)
+                        .key(limitKey(tenantId, tenantId))
+                        .updateExpression("set itemCount = if_not_exists(itemCount, :zero) + :one")
+                        .conditionExpression("attribute_not_exists(itemCount) OR itemCount < :max")
+                        .expressionAttributeValues(Map.of(
+                                ":zero", number(0),
+                                ":one", number(1),
+                                ":max", number(tenantSettings.getTenantConnections()))))
+                        .build(),
+                TransactWriteItem.builder().update(update -> update
+                        .tableName(sessionTableName)
+                        .key(Map.of(
+                                "tenantId", AttributeValue.builder().s(tenantId).build(),
+                                "sessionId", AttributeValue.builder().s(sessionId).build()))
+                        .updateExpression("set sessionTTL = :ttl ADD connectionCount :one, membershipVersion :one")
+                        .conditionExpression("attribute_not_exists(connectionCount) OR connectionCount < :max")
+                        .expressionAttributeValues(Map.of(
+                                ":ttl", number(now + tenantSettings.getSessionTTL()),
+                                ":one", number(1),
+                                ":max", number(tenantSettings.getConnectionsPerSession()))))
+                        .build(),
+                perMinute(tenantId, tenantId + ":minute:" + windowStart, tenantSettings.getTenantPerMinute(), windowTTL),
+                perMinute(tenantId, tenantId + ":" + sessionId + ":minute:" + windowStart, tenantSettings.getSessionPerMinute(), windowTTL),
+                // Last, as it has no condition and so no limit in REJECTIONS
+                TransactWriteItem.builder().put(put -> put
+                        .tableName(connectionTableName)
+                        .item(DynamoDBSessionStore.connectionItem(tenantId, sessionId, connectionId, now)))
+                        .build())
+                .build();
+    }
+
+    private TransactWriteItem perMinute(String tenantId, String key, long limit, AttributeValue windowTTL) {
+        return TransactWriteItem.builder().update(update -> update
+                .tableName(limitTableName)
+                .key(limitKey(tenantId, key))
+                .updateExpression("set itemCount = if_not_exists(itemCount, :zero) + :one, itemTTL = :ttl")
+                .conditionExpression("attribute_not_exists(itemCount) OR itemCount < :max")
+                .expressionAttributeValues(Map.of(
+                        ":zero", number(0),
+                        ":one", number(1),
+                        ":max", number(limit),
+                        ":ttl", windowTTL)))
+                .build();
+    }
+
+    // The first limit whose condition failed, or null if the transaction was cancelled for another reason
+    static ConnectResult rejection(TransactionCanceledException e) {
+        if (!e.hasCancellationReasons()) {
+            return null;
+        }
+        List<CancellationReason> reasons = e.cancellationReasons();
+        for (int i = 0; i < Math.min(reasons.size(), REJECTIONS.length); i++) {
+            if ("ConditionalCheckFailed".equals(reasons.get(i).code())) {
+                return REJECTIONS[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRetryable(TransactionCanceledException e) {
+        return e.hasCancellationReasons() && e.cancellationReasons().stream().anyMatch(reason ->
+                "TransactionConflict".equals(reason.code())
+                        || "ThrottlingError".equals(reason.code())
+                        || "ProvisionedThroughputExceeded".equals(reason.code()));
+    }
+
+    private void backoff(int attempt, TransactionCanceledException e) {
+        long ceiling = baseBackoffNanos << Math.min(attempt - 1, 20);
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static Map<String, AttributeValue> limitKey(String tenantId, String key) {
+        return Map.of(
+                "tenantId", AttributeValue.builder().s(tenantId).build(),
+                "key", AttributeValue.builder().s(key).build());
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+}
@@ -0,0 +1,51 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.credentials;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the sts:AssumeRole calls made by the tenant credential providers of a pool
+public class CredentialsRefreshStats {
+    private final LatencyStats refreshLatency = new LatencyStats();
+    private final LongAdder blockingRefreshes = new LongAdder();
+    private final LongAdder asyncRefreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    void recordRefresh(long nanos, boolean async) {
+        refreshLatency.record(nanos);
+        if (async) {
+            asyncRefreshes.increment();
+        } else {
+            blockingRefreshes.increment();
+        }
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    public LatencyStats getRefreshLatency() {
+        return refreshLatency;
+    }
+
+    // Refreshes a caller had to wait for, either the first use of a tenant or credentials which were about to expire
+    public long getBlockingRefreshCount() {
+        return blockingRefreshes.sum();
+    }
+
+    public long getAsyncRefreshCount() {
+        return asyncRefreshes.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "blocking=" + getBlockingRefreshCount() + " async=" + getAsyncRefreshCount() + " failures=" + getFailureCount() + " latency " + refreshLatency;
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.credentials;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+
+import java.time.Duration;
+
+// Presigns the token a user of an ElastiCache serverless cache with IAM authentication sends as the password of its
+// AUTH: a connect request for that user signed with the caller's credentials and valid for 15 minutes, which is only
+// checked when the connection is made. Signed with a tenant's scoped credentials, whose role only allows
+// elasticache:Connect as the user of the session's tenantId tag, no tenant can authenticate as another's user.
+public final class ElastiCacheAuthToken {
+    public static final Duration EXPIRY = Duration.ofMinutes(15);
+    private static final AwsV4HttpSigner SIGNER = AwsV4HttpSigner.create();
+
+    private ElastiCacheAuthToken() {
+    }
+
+    public static String generate(String cacheName, String userId, String region, AwsCredentialsProvider credentials) {
+        SdkHttpRequest request = SdkHttpRequest.builder()
+                .method(SdkHttpMethod.GET)
+                .protocol("http")
+                .host(cacheName)
+                .encodedPath("/")
+                .putRawQueryParameter("Action", "connect")
+                .putRawQueryParameter("User", userId)
+                .putRawQueryParameter("ResourceType", "ServerlessCache")
+                .build();
+        SdkHttpRequest signed = SIGNER.sign(builder -> builder
+                .identity(credentials.resolveCredentials())
+                .request(request)
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, "elasticache")
+                .putProperty(AwsV4HttpSigner.REGION_NAME, region)
+                .putProperty(AwsV4HttpSigner.AUTH_LOCATION, AwsV4HttpSigner.AuthLocation.QUERY_STRING)
+                .putProperty(AwsV4HttpSigner.EXPIRATION_DURATION, EXPIRY))
+                .request();
+        return signed.getUri().toString().substring("http://".length());
+    }
+}
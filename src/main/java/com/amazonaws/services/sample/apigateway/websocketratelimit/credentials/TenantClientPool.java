@@ -0,0 +1,80 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.credentials;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.CacheStats;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.LoadingCache;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.sts.StsClient;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+// Keeps one tenant scoped credential provider and DynamoDB client per tenant for the life of the Lambda container
+// so warm invocations skip sts:AssumeRole entirely. Entries are keyed by tenantId and a client is only ever built
+// with credentials tagged for its own tenant, so the LeadingKeys isolation of the table roles is unchanged.
+// The least recently used tenants are dropped once maximumSize tenants are pooled.
+public class TenantClientPool {
+    public static final Duration DEFAULT_PREFETCH = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_STALE = Duration.ofMinutes(1);
+
+    // Pooled entries do not expire by age, the providers refresh their own credentials
+    private static final Duration ENTRY_TTL = Duration.ofDays(1);
+
+    private final LoadingCache<String, TenantClients> clients;
+    private final CredentialsRefreshStats refreshStats = new CredentialsRefreshStats();
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tenant-credentials-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TenantClientPool(final StsClient sts, final String roleArn, final int maximumSize, final Function<AwsCredentialsProvider, DynamoDbClient> dynamoDbFactory) {
+        this(sts, roleArn, maximumSize, DEFAULT_PREFETCH, DEFAULT_STALE, Clock.systemUTC(), dynamoDbFactory);
+    }
+
+    public TenantClientPool(final StsClient sts, final String roleArn, final int maximumSize, final Duration prefetch, final Duration stale,
+                            final Clock clock, final Function<AwsCredentialsProvider, DynamoDbClient> dynamoDbFactory) {
+        this.clients = new LoadingCache<>(maximumSize, ENTRY_TTL, Duration.ZERO, clock, tenantId -> {
+            TenantCredentialsProvider credentials = new TenantCredentialsProvider(sts, roleArn, tenantId, clock, prefetch, stale, refreshExecutor, refreshStats);
+            return new TenantClients(credentials, dynamoDbFactory.apply(credentials));
+        });
+    }
+
+    public DynamoDbClient dynamoDb(String tenantId) {
+        return clients.get(tenantId).dynamoDb;
+    }
+
+    public AwsCredentialsProvider credentials(String tenantId) {
+        return clients.get(tenantId).credentials;
+    }
+
+    // Drops every pooled tenant so the next call assumes the role again, for example in an execution environment
+    // restored from a SnapStart snapshot whose credentials were assumed before the snapshot was taken
+    public void invalidateAll() {
+        clients.invalidateAll();
+    }
+
+    public CacheStats getPoolStats() {
+        return clients.stats();
+    }
+
+    public CredentialsRefreshStats getRefreshStats() {
+        return refreshStats;
+    }
+
+    private static final class TenantClients {
+        private final AwsCredentialsProvider credentials;
+        private final DynamoDbClient dynamoDb;
+
+        private TenantClients(final AwsCredentialsProvider credentials, final DynamoDbClient dynamoDb) {
+            this.credentials = credentials;
+            this.dynamoDb = dynamoDb;
+        }
+    }
+}
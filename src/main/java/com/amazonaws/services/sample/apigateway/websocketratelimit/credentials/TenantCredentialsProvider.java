@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.credentials;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.Credentials;
+import software.amazon.awssdk.services.sts.model.Tag;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Assumes the table role with the tenantId session tag, marked as transitive, so that the dynamodb:LeadingKeys
+// conditions on the role only allow access to this tenant's items.
+// Credentials are reused until they are close to expiring. Inside the prefetch window a single background refresh
+// is started while callers keep using the current credentials, callers only block when the credentials are
+// missing or within the stale window of their expiry.
+public class TenantCredentialsProvider implements AwsCredentialsProvider {
+    private final StsClient sts;
+    private final String roleArn;
+    private final String tenantId;
+    private final Clock clock;
+    private final long prefetchMillis;
+    private final long staleMillis;
+    private final Executor refreshExecutor;
+    private final CredentialsRefreshStats stats;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Session current;
+
+    public TenantCredentialsProvider(final StsClient sts, final String roleArn, final String tenantId, final Clock clock, final Duration prefetch,
+                                     final Duration stale, final Executor refreshExecutor, final CredentialsRefreshStats stats) {
+        this.sts = sts;
+        this.roleArn = roleArn;
+        this.tenantId = tenantId;
+        this.clock = clock;
+        this.prefetchMillis = prefetch.toMillis();
+        this.staleMillis = stale.toMillis();
+        this.refreshExecutor = refreshExecutor;
+        this.stats = stats;
+    }
+
+    @Override
+    public AwsCredentials resolveCredentials() {
+        Session session = current;
+        if (session == null || clock.millis() >= session.expiresAt - staleMillis) {
+            synchronized (this) {
+                session = current;
+                if (session == null || clock.millis() >= session.expiresAt - staleMillis) {
+                    session = refresh(false);
+                }
+            }
+        } else if (clock.millis() >= session.expiresAt - prefetchMillis && refreshing.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        refresh(true);
+                    } catch (RuntimeException e) {
+                        // The next caller retries, blocking once the credentials become stale
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+            }
+        }
+        return session.credentials;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    private Session refresh(boolean async) {
+        long start = System.nanoTime();
+        try {
+            Credentials credentials = sts.assumeRole(builder -> builder
+                    .roleArn(roleArn)
+                    .roleSessionName(roleSessionName(tenantId))
+                    .tags(List.of(Tag.builder().key("tenantId").value(tenantId).build()))
+                    .transitiveTagKeys("tenantId"))
+                    .credentials();
+            Session session = new Session(
+                    AwsSessionCredentials.create(credentials.accessKeyId(), credentials.secretAccessKey(), credentials.sessionToken()),
+                    credentials.expiration().toEpochMilli());
+            current = session;
+            stats.recordRefresh(System.nanoTime() - start, async);
+            return session;
+        } catch (RuntimeException e) {
+            stats.recordFailure();
+            throw e;
+        }
+    }
+
+    // Role session names only allow a limited character set and 64 characters
+    static String roleSessionName(String tenantId) {
+        String name = "tenant-" + tenantId.replaceAll("[^\\w+=,.@-]", "");
+        return name.length() > 64 ? name.substring(0, 64) : name;
+    }
+
+    private static final class Session {
+        private final AwsCredentials credentials;
+        private final long expiresAt;
+
+        private Session(final AwsCredentials credentials, final long expiresAt) {
+            this.credentials = credentials;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
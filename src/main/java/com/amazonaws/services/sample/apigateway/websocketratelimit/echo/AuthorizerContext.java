@@ -0,0 +1,255 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+// The authorizer context a queued message carries in its single binary ctx attribute, in place of one string
+// attribute per setting. The authorizer encodes it once per connection into its context, base64 encoded, and the
+// queue route's request template passes it on. The layout of version 1 is
+//   version (1 byte) | tenantId | sessionId | sessionPerMinute | tenantPerMinute | tenantConnections
+//   | connectionsPerSession | sessionTTL | messagesPerMinute
+// where the strings are a varint byte length followed by their UTF-8 bytes and the numbers are zigzag varints, so
+// the -1 of a missing setting takes a single byte. Later settings are appended to the end and decoders ignore bytes
+// after the fields they know, so only an incompatible layout needs a new version. Lambda/Common.js encodes and
+// SQSEcho.js decodes the same layout.
+// An instance is meant to be reused: encode writes into the given buffer and decode reads the buffer without
+// changing its position and keeps the previous tenantId and sessionId strings if their bytes are the same, so
+// neither allocates for the messages of a session after the first. An instance is not safe to share between threads.
+public final class AuthorizerContext {
+    public static final String ATTRIBUTE = "ctx";
+    public static final byte VERSION = 1;
+    // The longest varint of a long is 10 bytes
+    private static final int MAX_VARINT_LENGTH = 10;
+    private static final int NUMBERS = 6;
+
+    private final Reader reader = new Reader();
+    private final StringField tenantId = new StringField();
+    private final StringField sessionId = new StringField();
+    private long sessionPerMinute;
+    private long tenantPerMinute;
+    private long tenantConnections;
+    private long connectionsPerSession;
+    private long sessionTTL;
+    private long messagesPerMinute;
+
+    public AuthorizerContext set(String tenantId, String sessionId, long sessionPerMinute, long tenantPerMinute, long tenantConnections,
+                                 long connectionsPerSession, long sessionTTL, long messagesPerMinute) {
+        this.tenantId.set(tenantId);
+        this.sessionId.set(sessionId);
+        this.sessionPerMinute = sessionPerMinute;
+        this.tenantPerMinute = tenantPerMinute;
+        this.tenantConnections = tenantConnections;
+        this.connectionsPerSession = connectionsPerSession;
+        this.sessionTTL = sessionTTL;
+        this.messagesPerMinute = messagesPerMinute;
+        return this;
+    }
+
+    // The most bytes encode can write, enough for the buffer given to it
+    public int maxEncodedLength() {
+        return 1 + tenantId.maxEncodedLength() + sessionId.maxEncodedLength() + NUMBERS * MAX_VARINT_LENGTH;
+    }
+
+    // Writes the context at the buffer's position and advances it. Returns the number of bytes written.
+    public int encode(ByteBuffer out) {
+        int start = out.position();
+        out.put(VERSION);
+        tenantId.encode(out);
+        sessionId.encode(out);
+        putVarint(out, zigzag(sessionPerMinute));
+        putVarint(out, zigzag(tenantPerMinute));
+        putVarint(out, zigzag(tenantConnections));
+        putVarint(out, zigzag(connectionsPerSession));
+        putVarint(out, zigzag(sessionTTL));
+        putVarint(out, zigzag(messagesPerMinute));
+        return out.position() - start;
+    }
+
+    // The value of the authorizer's ctx context entry
+    public String encodeBase64() {
+        ByteBuffer out = ByteBuffer.allocate(maxEncodedLength());
+        encode(out);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(out.array(), out.position()));
+    }
+
+    // Reads a context from the buffer's remaining bytes without changing its position. Returns false, leaving this
+    // context in an unspecified state, if the bytes are of another version or not a valid context.
+    public boolean decode(ByteBuffer in) {
+        reader.reset(in);
+        if (reader.remaining() < 1 || reader.bytes[reader.position++] != VERSION || !tenantId.decode(reader) || !sessionId.decode(reader)) {
+            return false;
+        }
+        sessionPerMinute = reader.zigzagVarint();
+        tenantPerMinute = reader.zigzagVarint();
+        tenantConnections = reader.zigzagVarint();
+        connectionsPerSession = reader.zigzagVarint();
+        sessionTTL = reader.zigzagVarint();
+        messagesPerMinute = reader.zigzagVarint();
+        return reader.valid;
+    }
+
+    public boolean decodeBase64(String base64) {
+        try {
+            return decode(ByteBuffer.wrap(Base64.getDecoder().decode(base64)));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public String getTenantId() {
+        return tenantId.value;
+    }
+
+    public String getSessionId() {
+        return sessionId.value;
+    }
+
+    public long getSessionPerMinute() {
+        return sessionPerMinute;
+    }
+
+    public long getTenantPerMinute() {
+        return tenantPerMinute;
+    }
+
+    public long getTenantConnections() {
+        return tenantConnections;
+    }
+
+    public long getConnectionsPerSession() {
+        return connectionsPerSession;
+    }
+
+    public long getSessionTTL() {
+        return sessionTTL;
+    }
+
+    public long getMessagesPerMinute() {
+        return messagesPerMinute;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // The decode position, kept apart from the buffer's own so a buffer shared with the caller is left as it was.
+    // A heap buffer is read through its array, other buffers are first copied to a scratch array kept for the next.
+    private static final class Reader {
+        private byte[] scratch = new byte[0];
+        private byte[] bytes;
+        private int position;
+        private int limit;
+        private long value;
+        private boolean valid;
+
+        private void reset(ByteBuffer in) {
+            if (in.hasArray()) {
+                bytes = in.array();
+                position = in.arrayOffset() + in.position();
+                limit = in.arrayOffset() + in.limit();
+            } else {
+                int length = in.remaining();
+                if (scratch.length < length) {
+                    scratch = new byte[length];
+                }
+                for (int i = 0; i < length; i++) {
+                    scratch[i] = in.get(in.position() + i);
+                }
+                bytes = scratch;
+                position = 0;
+                limit = length;
+            }
+            valid = true;
+        }
+
+        private int remaining() {
+            return limit - position;
+        }
+
+        // Reads a varint into value, false if it is truncated or longer than a long
+        private boolean varint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    return false;
+                }
+                byte b = bytes[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    value = result;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Returns 0 and marks the read invalid if the varint is truncated or too long
+        private long zigzagVarint() {
+            if (!valid || !varint()) {
+                valid = false;
+                return 0;
+            }
+            return unzigzag(value);
+        }
+    }
+
+    // A string together with its UTF-8 bytes, so encoding does not convert it again and decoding can tell whether the
+    // bytes are those of the string it already holds
+    private static final class StringField {
+        private String value;
+        private byte[] bytes = new byte[0];
+        private int length;
+
+        private void set(String value) {
+            this.value = value;
+            byte[] encoded = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            this.bytes = encoded;
+            this.length = encoded.length;
+        }
+
+        private int maxEncodedLength() {
+            return MAX_VARINT_LENGTH + length;
+        }
+
+        private void encode(ByteBuffer out) {
+            putVarint(out, length);
+            out.put(bytes, 0, length);
+        }
+
+        private boolean decode(Reader reader) {
+            if (!reader.varint() || reader.value < 0 || reader.value > reader.remaining()) {
+                return false;
+            }
+            int decodedLength = (int) reader.value;
+            int start = reader.position;
+            reader.position += decodedLength;
+            if (value != null && Arrays.equals(bytes, 0, length, reader.bytes, start, reader.position)) {
+                return true;
+            }
+            if (bytes.length < decodedLength) {
+                bytes = new byte[decodedLength];
+            }
+            System.arraycopy(reader.bytes, start, bytes, 0, decodedLength);
+            length = decodedLength;
+            value = new String(bytes, 0, decodedLength, StandardCharsets.UTF_8);
+            return true;
+        }
+    }
+}
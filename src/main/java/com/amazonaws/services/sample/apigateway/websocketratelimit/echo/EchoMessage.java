@@ -0,0 +1,73 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+// A message received on a tenant queue together with the authorizer context it was sent with
+public final class EchoMessage {
+    private final String messageId;
+    private final String messageGroupId;
+    private final String tenantId;
+    private final String sessionId;
+    private final String connectionId;
+    private final String requestId;
+    private final String body;
+    private final long messagesPerMinute;
+    private final long sessionTTL;
+    private final String queue;
+
+    public EchoMessage(final String messageId, final String messageGroupId, final String tenantId, final String sessionId, final String connectionId,
+                       final String requestId, final String body, final long messagesPerMinute, final long sessionTTL, final String queue) {
+        this.messageId = messageId;
+        this.messageGroupId = messageGroupId;
+        this.tenantId = tenantId;
+        this.sessionId = sessionId;
+        this.connectionId = connectionId;
+        this.requestId = requestId;
+        this.body = body;
+        this.messagesPerMinute = messagesPerMinute;
+        this.sessionTTL = sessionTTL;
+        this.queue = queue;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    // The FIFO message group, tenantId:sessionId, within which messages must be echoed in order
+    public String getMessageGroupId() {
+        return messageGroupId;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public long getMessagesPerMinute() {
+        return messagesPerMinute;
+    }
+
+    public long getSessionTTL() {
+        return sessionTTL;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+}
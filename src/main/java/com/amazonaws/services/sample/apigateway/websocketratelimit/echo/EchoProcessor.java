@@ -0,0 +1,193 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.Broadcaster;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionPayload;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.overload.LoadShedder;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Echoes a batch of queued messages back to every connection of their sessions.
+// Messages are grouped by their FIFO message group. Each group makes a single rate limit increment for all of its
+// messages and a single session touch, which also returns the session's connections. Groups are processed
+// concurrently and each message is sent to all connections concurrently, with the number of sends in flight
+// bounded by the executor. Within a group a message is only sent once every send of the previous message has
+// completed so each connection receives the group's messages in order.
+// Messages over the tenant's limit are recorded as Throttles with the MESSAGES_PER_MINUTE limit type.
+// With a FairScheduler the groups are started in the order it gives the tenants turns rather than in the order they
+// arrived, and a group holds its slot until its last message has been sent.
+// With LoadShedders in front of DynamoDB and postToConnection a group is answered with throttle responses, without its
+// rate limit increment or session touch, while either is slow, and recorded as Throttles with the OVERLOADED limit
+// type. The DynamoDB shedder is told how long each group's increment and touch took, the postToConnection shedder
+// learns from the sender, see SQSEchoHandler.
+public class EchoProcessor {
+    public static final String MESSAGES_PER_MINUTE = "MESSAGES_PER_MINUTE";
+
+    private final RateLimiters limiters;
+    private final Function<String, RateLimitAlgorithm> algorithms;
+    private final SessionStore sessions;
+    private final Broadcaster broadcaster;
+    private final Executor executor;
+    // Given the failure, or null for the messages which are not errors
+    private final BiConsumer<String, Throwable> log;
+    private final MetricsLogger metrics;
+    private final FairScheduler scheduler;
+    private final LoadShedder dynamoDB;
+    private final LoadShedder posts;
+
+    public EchoProcessor(final RateLimiters limiters, final Function<String, RateLimitAlgorithm> algorithms, final SessionStore sessions,
+                         final Broadcaster broadcaster, final Executor executor, final BiConsumer<String, Throwable> log, final MetricsLogger metrics) {
+        this(limiters, algorithms, sessions, broadcaster, executor, log, metrics, null);
+    }
+
+    // scheduler is null to start every group at once
+    public EchoProcessor(final RateLimiters limiters, final Function<String, RateLimitAlgorithm> algorithms, final SessionStore sessions,
+                         final Broadcaster broadcaster, final Executor executor, final BiConsumer<String, Throwable> log, final MetricsLogger metrics,
+                         final FairScheduler scheduler) {
+        this(limiters, algorithms, sessions, broadcaster, executor, log, metrics, scheduler, null, null);
+    }
+
+    // dynamoDB and posts are null to never shed
+    public EchoProcessor(final RateLimiters limiters, final Function<String, RateLimitAlgorithm> algorithms, final SessionStore sessions,
+                         final Broadcaster broadcaster, final Executor executor, final BiConsumer<String, Throwable> log, final MetricsLogger metrics,
+                         final FairScheduler scheduler, final LoadShedder dynamoDB, final LoadShedder posts) {
+        this.limiters = limiters;
+        this.algorithms = algorithms;
+        this.sessions = sessions;
+        this.broadcaster = broadcaster;
+        this.executor = executor;
+        this.log = log;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.dynamoDB = dynamoDB;
+        this.posts = posts;
+    }
+
+    // Returns the Ids of the messages which were not echoed and should be retried. Once a message in a group fails
+    // every following message of that group is returned as well so the queue redelivers them in order.
+    public List<String> process(List<EchoMessage> messages) {
+        Map<String, List<EchoMessage>> groups = new LinkedHashMap<>();
+        for (EchoMessage message : messages) {
+            groups.computeIfAbsent(message.getMessageGroupId(), group -> new ArrayList<>()).add(message);
+        }
+        List<CompletableFuture<List<String>>> results = new ArrayList<>(groups.size());
+        for (List<EchoMessage> group : groups.values()) {
+            results.add(scheduler == null
+                    ? processGroup(group)
+                    : scheduler.submit(group.get(0).getTenantId(), group.size(), () -> processGroup(group)));
+        }
+        List<String> failed = new ArrayList<>();
+        for (CompletableFuture<List<String>> result : results) {
+            failed.addAll(result.join());
+        }
+        return failed;
+    }
+
+    private CompletableFuture<List<String>> processGroup(List<EchoMessage> group) {
+        AtomicInteger completed = new AtomicInteger();
+        return CompletableFuture.supplyAsync(() -> admit(group), executor)
+                .thenCompose(admission -> {
+                    CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+                    for (int i = 0; i < group.size(); i++) {
+                        EchoMessage message = group.get(i);
+                        boolean allowed = i < admission.granted;
+                        previous = previous
+                                .thenCompose(ignored -> allowed ? broadcast(message, admission.connectionIds) : throttle(message))
+                                .thenRun(completed::incrementAndGet);
+                    }
+                    return previous;
+                })
+                .handle((ignored, error) -> {
+                    if (error == null) {
+                        return Collections.<String>emptyList();
+                    }
+                    log.accept("Message group " + group.get(0).getMessageGroupId() + " failed", error);
+                    List<String> failed = new ArrayList<>();
+                    for (EchoMessage message : group.subList(completed.get(), group.size())) {
+                        failed.add(message.getMessageId());
+                    }
+                    return failed;
+                });
+    }
+
+    // Update and check the total number of messages per minute per tenant for the whole group at once
+    private Admission admit(List<EchoMessage> group) {
+        EchoMessage first = group.get(0);
+        String tenantId = first.getTenantId();
+        if ((dynamoDB != null && !dynamoDB.tryAdmit(tenantId)) || (posts != null && !posts.tryAdmit(tenantId))) {
+            log.accept("Tenant: " + tenantId + " shed while overloaded", null);
+            metrics.putThrottles(tenantId, LoadShedder.OVERLOADED, group.size());
+            return new Admission(0, Collections.emptyList());
+        }
+        if (dynamoDB == null) {
+            return check(group);
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Admission admission = check(group);
+            failed = false;
+            return admission;
+        } finally {
+            dynamoDB.record(tenantId, System.nanoTime() - start, failed);
+        }
+    }
+
+    private Admission check(List<EchoMessage> group) {
+        EchoMessage first = group.get(0);
+        String tenantId = first.getTenantId();
+        long granted = limiters.forAlgorithm(algorithms.apply(tenantId))
+                .tryAcquire(tenantId, tenantId + ":minutemsg", group.size(), first.getMessagesPerMinute());
+        if (granted < group.size()) {
+            log.accept("Tenant: " + tenantId + " message rate limit hit", null);
+            metrics.putThrottles(tenantId, MESSAGES_PER_MINUTE, group.size() - granted);
+        }
+        List<String> connectionIds = granted > 0
+                ? sessions.touch(tenantId, first.getSessionId(), first.getSessionTTL())
+                : Collections.emptyList();
+        return new Admission(granted, connectionIds);
+    }
+
+    private CompletableFuture<Void> throttle(EchoMessage message) {
+        SdkBytes response = SdkBytes.fromUtf8String(EchoResponses.createMessageThrottleResponse(message.getConnectionId(), message.getRequestId()));
+        return broadcaster.broadcast(message.getTenantId(), message.getSessionId(), List.of(message.getConnectionId()), connectionId -> List.of(response))
+                .thenRun(() -> { });
+    }
+
+    // The other connections receive the original body followed by the echo response, the sender only the echo response.
+    // The body and the parts of the echo response which are the same for every connection are encoded once.
+    private CompletableFuture<Void> broadcast(EchoMessage message, List<String> connectionIds) {
+        SdkBytes body = SdkBytes.fromUtf8String(message.getBody());
+        ConnectionPayload echo = EchoResponses.createEchoPayload(message.getTenantId(), message.getSessionId(), message.getBody(), message.getQueue());
+        return broadcaster.broadcast(message.getTenantId(), message.getSessionId(), connectionIds, connectionId -> connectionId.equals(message.getConnectionId())
+                        ? List.of(EchoResponses.forConnection(echo, connectionId))
+                        : List.of(body, EchoResponses.forConnection(echo, connectionId)))
+                .thenRun(() -> { });
+    }
+
+    private static final class Admission {
+        private final long granted;
+        private final List<String> connectionIds;
+
+        private Admission(final long granted, final List<String> connectionIds) {
+            this.granted = granted;
+            this.connectionIds = connectionIds;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionPayload;
+import software.amazon.awssdk.core.SdkBytes;
+
+// The response payloads of Common.js createMessageThrottleResponse and createEchoResponse
+public final class EchoResponses {
+    private EchoResponses() {
+    }
+
+    public static String createMessageThrottleResponse(String connectionId, String requestId) {
+        return "{\"message\":\"Too Many Requests\",\"connectionId\":" + quote(connectionId) + ",\"requestId\":" + quote(requestId) + "}";
+    }
+
+    // The message is the JSON body API Gateway placed on the queue with $input.json('$') and is embedded as is
+    public static String createEchoResponse(String tenantId, String sessionId, String connectionId, String message, String queue) {
+        StringBuilder response = new StringBuilder(message.length() + 200)
+                .append("{\"message\":").append(message)
+                .append(",\"tenantId\":").append(quote(tenantId))
+                .append(",\"sessionId\":").append(quote(sessionId))
+                .append(",\"connectionId\":").append(quote(connectionId));
+        if (queue != null) {
+            response.append(",\"queue\":").append(quote(queue));
+        }
+        return response.append('}').toString();
+    }
+
+    // The echo response of every connection of a session encoded once, apply forConnection for each connection
+    public static ConnectionPayload createEchoPayload(String tenantId, String sessionId, String message, String queue) {
+        String prefix = "{\"message\":" + message
+                + ",\"tenantId\":" + quote(tenantId)
+                + ",\"sessionId\":" + quote(sessionId)
+                + ",\"connectionId\":";
+        return new ConnectionPayload(prefix, (queue != null ? ",\"queue\":" + quote(queue) : "") + "}");
+    }
+
+    public static SdkBytes forConnection(ConnectionPayload payload, String connectionId) {
+        return payload.forValue(quote(connectionId));
+    }
+
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+// Shares the work of a consumer between tenants with deficit round-robin, so a tenant sending far more messages than
+// the others on a pooled queue only delays its own messages. At most maxInFlight tasks run at once. While more are
+// waiting the tenants with waiting tasks take turns, and each turn adds quantum times the tenant's weight to the
+// tenant's deficit, which pays for the cost of the tasks started. A tenant holds at most maxTenantShare of the
+// maxInFlight slots, at least one, even when no other tenant is waiting, so a burst from one tenant still leaves
+// room for the others to start as soon as their messages arrive.
+// Each tenant's tasks are started in the order they were submitted.
+public class FairScheduler {
+    public static final int DEFAULT_QUANTUM = 10;
+    public static final double DEFAULT_MAX_TENANT_SHARE = 0.5;
+
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    // The tenants with waiting tasks, the first one has the turn
+    private final Queue<Tenant> active = new ArrayDeque<>();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final int maxInFlight;
+    private final int maxTenantInFlight;
+    private final int quantum;
+    private final ToIntFunction<String> weights;
+    private int inFlight;
+
+    public FairScheduler(final int maxInFlight, final double maxTenantShare, final ToIntFunction<String> weights) {
+        this(maxInFlight, maxTenantShare, DEFAULT_QUANTUM, weights);
+    }
+
+    public FairScheduler(final int maxInFlight, final double maxTenantShare, final int quantum, final ToIntFunction<String> weights) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxTenantInFlight = Math.max(1, Math.min(this.maxInFlight, (int) (this.maxInFlight * maxTenantShare)));
+        this.quantum = Math.max(1, quantum);
+        this.weights = weights;
+    }
+
+    // Starts the work once it is the tenant's turn. The task holds its slot until the returned future completes.
+    // cost is the amount of the tenant's deficit the task uses, for example its number of messages.
+    public <T> CompletableFuture<T> submit(String tenantId, int cost, Supplier<CompletableFuture<T>> work) {
+        Task<T> task = new Task<>(tenantId, Math.max(1, cost), work);
+        synchronized (this) {
+            Tenant tenant = tenants.computeIfAbsent(tenantId, Tenant::new);
+            if (tenant.waiting.isEmpty()) {
+                active.add(tenant);
+            }
+            tenant.waiting.add(task);
+        }
+        drain();
+        return task.result;
+    }
+
+    public int getMaxTenantInFlight() {
+        return maxTenantInFlight;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    // Starts tasks while slots are free. A task completing on the starting thread asks for another round rather than
+    // draining recursively, and only one thread drains at a time.
+    private void drain() {
+        if (drainRequests.getAndIncrement() > 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            for (Task<?> task = next(); task != null; task = next()) {
+                task.start();
+            }
+            requests = drainRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private synchronized Task<?> next() {
+        // Once every active tenant has been passed over for holding its share, none of them can start a task
+        int capped = 0;
+        while (inFlight < maxInFlight && capped < active.size()) {
+            Tenant tenant = active.peek();
+            if (tenant.inFlight >= maxTenantInFlight) {
+                // Passing over a tenant at its share does not give it a turn, so it cannot save up a deficit
+                tenant.hasTurn = false;
+                active.add(active.remove());
+                capped++;
+                continue;
+            }
+            capped = 0;
+            if (!tenant.hasTurn) {
+                tenant.hasTurn = true;
+                tenant.deficit += (long) quantum * Math.max(1, weights.applyAsInt(tenant.tenantId));
+            }
+            Task<?> task = tenant.waiting.peek();
+            if (task.cost > tenant.deficit) {
+                tenant.hasTurn = false;
+                active.add(active.remove());
+                continue;
+            }
+            tenant.waiting.remove();
+            tenant.deficit -= task.cost;
+            tenant.inFlight++;
+            inFlight++;
+            if (tenant.waiting.isEmpty()) {
+                // A tenant which has nothing waiting does not keep its deficit for later
+                active.remove();
+                tenant.hasTurn = false;
+                tenant.deficit = 0;
+            }
+            return task;
+        }
+        return null;
+    }
+
+    private synchronized void release(String tenantId) {
+        inFlight--;
+        Tenant tenant = tenants.get(tenantId);
+        if (--tenant.inFlight == 0 && tenant.waiting.isEmpty()) {
+            tenants.remove(tenantId);
+        }
+    }
+
+    private static final class Tenant {
+        private final Queue<Task<?>> waiting = new ArrayDeque<>();
+        private final String tenantId;
+        private long deficit;
+        private boolean hasTurn;
+        private int inFlight;
+
+        private Tenant(final String tenantId) {
+            this.tenantId = tenantId;
+        }
+    }
+
+    private final class Task<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final String tenantId;
+        private final int cost;
+        private final Supplier<CompletableFuture<T>> work;
+
+        private Task(final String tenantId, final int cost, final Supplier<CompletableFuture<T>> work) {
+            this.tenantId = tenantId;
+            this.cost = cost;
+            this.work = work;
+        }
+
+        private void start() {
+            CompletableFuture<T> started;
+            try {
+                started = work.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            started.whenComplete((value, error) -> {
+                release(tenantId);
+                drain();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.expiry;
+
+import java.util.List;
+
+// A session item DynamoDB TTL has deleted, taken from the old image of its stream record. The Id identifies the
+// deletion, the stream record's event Id, and is used to count the connections off only once. The connection Ids are
+// those of the item's connectionIds set, which only sessions created before the connection table have, and expiresAt
+// is the item's sessionTTL, which tells its connections in the connection table from those of a later session.
+public class ExpiredSession {
+    private final String id;
+    private final String tenantId;
+    private final String sessionId;
+    private final List<String> connectionIds;
+    private final long expiresAt;
+
+    public ExpiredSession(final String id, final String tenantId, final String sessionId, final List<String> connectionIds) {
+        this(id, tenantId, sessionId, connectionIds, Long.MAX_VALUE);
+    }
+
+    public ExpiredSession(final String id, final String tenantId, final String sessionId, final List<String> connectionIds, final long expiresAt) {
+        this.id = id;
+        this.tenantId = tenantId;
+        this.sessionId = sessionId;
+        this.connectionIds = connectionIds;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public List<String> getConnectionIds() {
+        return connectionIds;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
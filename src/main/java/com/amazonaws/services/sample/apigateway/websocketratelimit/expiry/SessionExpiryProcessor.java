@@ -0,0 +1,135 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.expiry;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionCloser;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+// The logic of SessionTTL.js for a whole batch of stream records at once. The connections of every expired session
+// in the batch are closed concurrently on the executor, so its number of threads bounds the DeleteConnection calls
+// in flight. Calls which are throttled or fail transiently are made again after an exponential backoff with full
+// jitter, at most maxAttempts times, without holding a thread while waiting.
+// A session's connections are those of the expired item's connectionIds set together with its rows in the
+// connection table. Once all of them are closed they are counted off the tenant's total connections and their rows
+// removed. A session whose connections could not all be closed is not counted off and is returned as failed for
+// Lambda to retry, so the total never drops below the connections which are still open.
+public class SessionExpiryProcessor {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(50);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(2);
+
+    private final SessionExpiryStats stats = new SessionExpiryStats();
+    private final ConnectionCloser closer;
+    private final SessionStore sessions;
+    private final Executor executor;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final BiConsumer<String, Throwable> log;
+
+    public SessionExpiryProcessor(final ConnectionCloser closer, final SessionStore sessions, final Executor executor, final BiConsumer<String, Throwable> log) {
+        this(closer, sessions, executor, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF, log);
+    }
+
+    public SessionExpiryProcessor(final ConnectionCloser closer, final SessionStore sessions, final Executor executor, final int maxAttempts,
+                                  final Duration baseBackoff, final Duration maxBackoff, final BiConsumer<String, Throwable> log) {
+        this.closer = closer;
+        this.sessions = sessions;
+        this.executor = executor;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.log = log;
+    }
+
+    // Returns the Ids of the sessions which could not be processed, in the order they were given
+    public List<String> process(List<ExpiredSession> expired) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(expired.size());
+        for (ExpiredSession session : expired) {
+            results.add(CompletableFuture.supplyAsync(() -> connections(session), executor)
+                    .thenCompose(connectionIds -> {
+                        CompletableFuture<?>[] closes = new CompletableFuture<?>[connectionIds.size()];
+                        for (int i = 0; i < closes.length; i++) {
+                            closes[i] = close(connectionIds.get(i), 1);
+                        }
+                        return CompletableFuture.allOf(closes).thenApplyAsync(ignored -> release(session, connectionIds), executor);
+                    })
+                    .exceptionally(e -> {
+                        stats.recordFailure();
+                        log.accept("Session: " + session.getSessionId() + " of tenant: " + session.getTenantId() + " was not closed", e);
+                        return false;
+                    }));
+        }
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).join()) {
+                failed.add(expired.get(i).getId());
+            }
+        }
+        stats.recordBatch(System.nanoTime() - start, expired.size());
+        return failed;
+    }
+
+    public SessionExpiryStats getStats() {
+        return stats;
+    }
+
+    // The connections of the item's set followed by those only in the connection table
+    private List<String> connections(ExpiredSession session) {
+        Set<String> connectionIds = new LinkedHashSet<>(session.getConnectionIds());
+        connectionIds.addAll(sessions.getExpiredConnections(session.getTenantId(), session.getSessionId(), session.getExpiresAt()));
+        return new ArrayList<>(connectionIds);
+    }
+
+    private boolean release(ExpiredSession session, List<String> connectionIds) {
+        long connections = connectionIds.size();
+        if (sessions.releaseExpiredConnections(session.getTenantId(), session.getId(), connections)) {
+            stats.recordReleased(connections);
+        }
+        // Removed even when a previous attempt counted them off, as that attempt may have failed before removing them
+        List<String> registered = connectionIds.subList(Math.min(session.getConnectionIds().size(), connectionIds.size()), connectionIds.size());
+        if (!registered.isEmpty()) {
+            sessions.removeExpiredConnections(session.getTenantId(), session.getSessionId(), registered);
+        }
+        return true;
+    }
+
+    private CompletableFuture<Void> close(String connectionId, int attempt) {
+        return CompletableFuture.supplyAsync(() -> {
+            stats.recordDelete();
+            return closer.close(connectionId);
+        }, executor).thenCompose(result -> {
+            if (result == SendResult.GONE) {
+                stats.recordGone();
+            }
+            if (result != SendResult.RETRY) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (attempt >= maxAttempts) {
+                throw new IllegalStateException("Closing connection " + connectionId + " was still throttled after " + attempt + " attempts");
+            }
+            stats.recordRetry();
+            Executor delayed = CompletableFuture.delayedExecutor(backoffNanos(attempt), TimeUnit.NANOSECONDS, executor);
+            return CompletableFuture.runAsync(() -> { }, delayed).thenCompose(ignored -> close(connectionId, attempt + 1));
+        });
+    }
+
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.expiry;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the batches of a SessionExpiryProcessor. The batch latency is the time from receiving a batch until
+// every connection in it has been closed and counted off.
+public class SessionExpiryStats {
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LongAdder sessions = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder gone = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    void recordBatch(long nanos, int sessionCount) {
+        batchLatency.record(nanos);
+        sessions.add(sessionCount);
+    }
+
+    void recordDelete() {
+        deletes.increment();
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordGone() {
+        gone.increment();
+    }
+
+    void recordReleased(long connections) {
+        released.add(connections);
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    public long getSessionCount() {
+        return sessions.sum();
+    }
+
+    // DeleteConnection calls made to API Gateway, including retries
+    public long getDeleteCount() {
+        return deletes.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    // Connections which had already closed
+    public long getGoneCount() {
+        return gone.sum();
+    }
+
+    // Connections counted off their tenant's total connections
+    public long getReleasedCount() {
+        return released.sum();
+    }
+
+    // Sessions left for Lambda to retry
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sessions=%d deletes=%d retries=%d gone=%d released=%d failures=%d batch p50=%.2fms p99=%.2fms p99.9=%.2fms",
+                getSessionCount(), getDeleteCount(), getRetryCount(), getGoneCount(), getReleasedCount(), getFailureCount(),
+                batchLatency.getPercentileMillis(50), batchLatency.getPercentileMillis(99), batchLatency.getPercentileMillis(99.9));
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionAuthorizer;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionToken;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokenAuthorizer;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokens;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+
+import java.time.Duration;
+import java.util.Map;
+
+// The Java implementation of Authorizer.js. This handler will check if the given tenant id and session id are valid.
+// Tenant settings come from the cache shared by the Java handlers, see Common.getTenantSettings.
+// Session tokens are checked by a SessionTokenAuthorizer, configured by SessionTokensRequired and
+// RevocationCacheTTLSeconds (5).
+public class AuthorizerHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+    private static final DynamoDBSessionStore SESSIONS = new DynamoDBSessionStore(Common::dynamoDBClient, System.getenv("SessionTableName"),
+            System.getenv("ConnectionTableName"), System.getenv("LimitTableName"));
+    private static final SessionTokenAuthorizer TOKEN_AUTHORIZER = new SessionTokenAuthorizer(Common::getTenantSettings, SESSIONS, SESSIONS,
+            Duration.ofSeconds(Common.intEnv("RevocationCacheTTLSeconds", 5)), message -> Common.log(message, null));
+
+    static {
+        Priming.register("Authorizer", () -> {
+            Priming.primeSessions(SESSIONS);
+            Priming.primeSessionTokens();
+        });
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+        long start = System.nanoTime();
+        String methodArn = (String) event.get("methodArn");
+        String tenantId = Common.getTenantId(event);
+        String sessionId = Common.getSessionId(event);
+        String token = Common.getSessionToken(event);
+        TenantSettings tenantSettings = null;
+        try {
+            if (token != null) {
+                SessionToken claims = verify(token, tenantId, sessionId, context);
+                if (claims != null) {
+                    tenantId = claims.getTenantId();
+                    sessionId = claims.getSessionId();
+                    tenantSettings = authorize(claims, context);
+                }
+            } else if (!Common.sessionTokensRequired()) {
+                tenantSettings = authorize(tenantId, sessionId, context);
+            }
+            if (tenantSettings == null) {
+                return Common.generateDeny(methodArn, tenantId, sessionId);
+            }
+            return Common.generateAllow(methodArn, tenantId, sessionId, tenantSettings);
+        } finally {
+            String dimension = Common.knownTenantId(tenantId);
+            Common.METRICS.putLatency(dimension, "AuthorizerLatency", System.nanoTime() - start);
+            Common.METRICS.putCount(dimension, tenantSettings != null ? "AuthorizerAllowed" : "AuthorizerDenied", 1);
+            Common.flushMetrics("Authorizer");
+        }
+    }
+
+    // Returns the tenant's settings if the tenant and session exist, or null to deny the request
+    private static TenantSettings authorize(String tenantId, String sessionId, Context context) {
+        if (tenantId == null || sessionId == null) {
+            return null;
+        }
+        try {
+            return new SessionAuthorizer(Common::getTenantSettings, SESSIONS, context.getLogger()::log).authorize(tenantId, sessionId);
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return null;
+        }
+    }
+
+    // Returns the token's claims if it is signed, expired or not, and names the same tenant and session as any tenantId
+    // and sessionId on the query string, otherwise null to deny the request
+    private static SessionToken verify(String token, String tenantId, String sessionId, Context context) {
+        try {
+            SessionTokens sessionTokens = Common.sessionTokens();
+            SessionToken claims = sessionTokens != null ? sessionTokens.verifySignature(token) : null;
+            if (claims == null || (tenantId != null && !tenantId.equals(claims.getTenantId()))
+                    || (sessionId != null && !sessionId.equals(claims.getSessionId()))) {
+                context.getLogger().log("Tenant: " + tenantId + " Session: " + sessionId + " invalid session token");
+                return null;
+            }
+            return claims;
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return null;
+        }
+    }
+
+    private static TenantSettings authorize(SessionToken claims, Context context) {
+        try {
+            return TOKEN_AUTHORIZER.authorize(claims);
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.LoadingCache;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.credentials.ElastiCacheAuthToken;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.credentials.TenantClientPool;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.credentials.TenantCredentialsProvider;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.AuthorizerContext;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.DynamoDBLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RedisConnection;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RedisConnectionPool;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RedisLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ShardedLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.CacheMetrics;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsInterceptor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.overload.LoadShedder;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokens;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantTier;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.Tag;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The Java counterpart of lambda/Common.js shared by the Java handlers
+public final class Common {
+    public static final long SECONDS_PER_MINUTE = 60;
+
+    static final SdkHttpClient HTTP_CLIENT = UrlConnectionHttpClient.create();
+    // The metrics of the container, written as EMF log lines at the end of every invocation, see flushMetrics
+    static final MetricsLogger METRICS = new MetricsLogger(System.out::println);
+    private static final CacheMetrics TENANT_CACHE_METRICS = new CacheMetrics("TenantCache");
+    private static final CacheMetrics CLIENT_POOL_METRICS = new CacheMetrics("ClientPool");
+
+    private Common() {
+    }
+
+    // Encapsulating the two ways in which we can access a tenant Id depending on if the system has already been authorized
+    public static String getTenantId(Map<String, Object> event) {
+        return getIdentity(event, "tenantId");
+    }
+
+    // Encapsulating the two ways in which we can access a session Id depending on if the system has already been authorized
+    public static String getSessionId(Map<String, Object> event) {
+        return getIdentity(event, "sessionId");
+    }
+
+    // The signed session token returned when the session was created, see SessionTokens, only ever on the query string
+    @SuppressWarnings("unchecked")
+    public static String getSessionToken(Map<String, Object> event) {
+        Object queryStringParameters = event.get("queryStringParameters");
+        if (queryStringParameters instanceof Map && ((Map<String, Object>) queryStringParameters).get("token") != null) {
+            return ((Map<String, Object>) queryStringParameters).get("token").toString();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String getIdentity(Map<String, Object> event, String name) {
+        Object requestContext = event.get("requestContext");
+        if (requestContext instanceof Map) {
+            Object authorizer = ((Map<String, Object>) requestContext).get("authorizer");
+            if (authorizer instanceof Map && ((Map<String, Object>) authorizer).get(name) != null) {
+                return ((Map<String, Object>) authorizer).get(name).toString();
+            }
+        }
+        Object queryStringParameters = event.get("queryStringParameters");
+        if (queryStringParameters instanceof Map && ((Map<String, Object>) queryStringParameters).get(name) != null) {
+            return ((Map<String, Object>) queryStringParameters).get(name).toString();
+        }
+        return null;
+    }
+
+    // Returns a DynamoDB client using credentials for the table role with the tenant Id added as the transitive tag key
+    // to make sure we can only access data for this specific tenant. Clients are pooled per tenant across invocations.
+    public static DynamoDbClient dynamoDBClient(String tenantId) {
+        return Clients.POOL.dynamoDb(tenantId);
+    }
+
+    public static TenantClientPool tenantClientPool() {
+        return Clients.POOL;
+    }
+
+    // Created on first use so that classes using the other helpers do not need a region configured.
+    // Every call to STS and DynamoDB is timed and recorded under the tenant it was made for.
+    private static final class Clients {
+        private static final TenantClientPool POOL = new TenantClientPool(
+                StsClient.builder()
+                        .httpClient(HTTP_CLIENT)
+                        .overrideConfiguration(builder -> builder.addExecutionInterceptor(new MetricsInterceptor(METRICS, "STS", request -> knownTenantId(assumedTenantId(request)))))
+                        .build(),
+                System.getenv("RoleArn"),
+                intEnv("TenantClientPoolMaxSize", 100),
+                credentials -> {
+                    String tenantId = ((TenantCredentialsProvider) credentials).getTenantId();
+                    return DynamoDbClient.builder()
+                            .httpClient(HTTP_CLIENT)
+                            .credentialsProvider(credentials)
+                            .overrideConfiguration(builder -> builder.addExecutionInterceptor(new MetricsInterceptor(METRICS, "DynamoDB", request -> knownTenantId(tenantId))))
+                            .build();
+                });
+    }
+
+    // The store of the rate limiters' counters, the limit table with each tenant's counters spread over its limit
+    // shards, or with LimitStore redis the ElastiCache cache at RedisEndpoint, see RedisLimitStore
+    public static LimitStore limitStore() {
+        if (!redisLimitStore()) {
+            return new ShardedLimitStore(new DynamoDBLimitStore(Common::dynamoDBClient, System.getenv("LimitTableName")), Common::getLimitShards);
+        }
+        return new RedisLimitStore(Redis.POOL::get);
+    }
+
+    // Whether the stack's limitStore=redis context moved the rate limiters' counters out of the limit table
+    static boolean redisLimitStore() {
+        return "redis".equals(System.getenv("LimitStore"));
+    }
+
+    static void closeRedisConnections() {
+        if (redisLimitStore()) {
+            Redis.POOL.closeAll();
+        }
+    }
+
+    // Each tenant connects as its own user, RedisUserPrefix followed by the tenantId, whose IAM authentication token is
+    // signed with the tenant's scoped credentials from the client pool. Created on first use like the clients.
+    private static final class Redis {
+        private static final RedisConnectionPool POOL = new RedisConnectionPool(intEnv("RedisConnectionPoolMaxSize", 100), tenantId -> {
+            String userId = System.getenv("RedisUserPrefix") + tenantId;
+            return new RedisConnection(System.getenv("RedisEndpoint"), intEnv("RedisPort", 6379), true, userId,
+                    () -> ElastiCacheAuthToken.generate(System.getenv("RedisCacheName"), userId, System.getenv("AWS_REGION"), Clients.POOL.credentials(tenantId)),
+                    intEnv("RedisTimeoutMillis", 1000));
+        });
+    }
+
+    // Returns the issuer and verifier of session tokens when the stack gives the function SessionTokenSecretArn, or null
+    // if session tokens are not configured. The secret is read with the function's own role and kept for
+    // SessionTokenSecretTTLSeconds so a replaced secret is picked up by warm containers.
+    public static SessionTokens sessionTokens() {
+        String secretArn = System.getenv("SessionTokenSecretArn");
+        return secretArn == null || secretArn.isEmpty() ? null : SessionTokenSecret.CACHE.get(secretArn);
+    }
+
+    // Whether the authorizer only accepts session tokens, set by the stack's sessionTokens=required context
+    static boolean sessionTokensRequired() {
+        return "true".equals(System.getenv("SessionTokensRequired"));
+    }
+
+    private static final class SessionTokenSecret {
+        private static final SecretsManagerClient CLIENT = SecretsManagerClient.builder().httpClient(HTTP_CLIENT).build();
+        private static final LoadingCache<String, SessionTokens> CACHE = new LoadingCache<>(
+                1,
+                Duration.ofSeconds(intEnv("SessionTokenSecretTTLSeconds", 300)),
+                Duration.ofSeconds(intEnv("SessionTokenSecretTTLSeconds", 300)),
+                secretArn -> new SessionTokens(CLIENT.getSecretValue(builder -> builder.secretId(secretArn)).secretString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Tenant Ids come from the query string before a request is authorized, so only tenants in the tenant settings
+    // cache are used as a metric dimension and the calls made for unknown tenants are recorded for the function
+    static String knownTenantId(String tenantId) {
+        return tenantId != null && TenantSettingsCache.CACHE.getIfPresent(tenantId) != null ? tenantId : null;
+    }
+
+    private static String assumedTenantId(SdkRequest request) {
+        if (request instanceof AssumeRoleRequest) {
+            for (Tag tag : ((AssumeRoleRequest) request).tags()) {
+                if ("tenantId".equals(tag.key())) {
+                    return tag.value();
+                }
+            }
+        }
+        return null;
+    }
+
+    // Writes the metrics recorded since the previous invocation, with the hits and misses of the tenant settings cache
+    // and the tenant client pool, under the given function name. Called by every handler when it returns.
+    static void flushMetrics(String function) {
+        TENANT_CACHE_METRICS.record(METRICS, TenantSettingsCache.CACHE.stats());
+        CLIENT_POOL_METRICS.record(METRICS, Clients.POOL.getPoolStats());
+        METRICS.flush(function);
+    }
+
+    // Drops the metrics recorded so far, for example by the calls made while priming a handler
+    static void discardMetrics() {
+        TENANT_CACHE_METRICS.record(METRICS, TenantSettingsCache.CACHE.stats());
+        CLIENT_POOL_METRICS.record(METRICS, Clients.POOL.getPoolStats());
+        METRICS.clear();
+    }
+
+    // Tenant settings are kept in a bounded cache for TenantCacheTTLSeconds so changes to the tenant table are picked
+    // up by warm containers, and unknown tenants are remembered for TenantCacheNegativeTTLSeconds so they do not
+    // cause a tenant table read on every attempt. Returns null if the tenant does not exist.
+    public static TenantSettings getTenantSettings(String tenantId) {
+        return TenantSettingsCache.CACHE.get(tenantId);
+    }
+
+    public static RateLimitAlgorithm getRateLimitAlgorithm(String tenantId) {
+        TenantSettings tenantSettings = getTenantSettings(tenantId);
+        return tenantSettings != null ? tenantSettings.getRateLimitAlgorithm() : RateLimitAlgorithm.FIXED_WINDOW;
+    }
+
+    public static int getLimitShards(String tenantId) {
+        TenantSettings tenantSettings = getTenantSettings(tenantId);
+        return tenantSettings != null ? tenantSettings.getLimitShards() : 1;
+    }
+
+    public static long getLeaseSize(String tenantId) {
+        TenantSettings tenantSettings = getTenantSettings(tenantId);
+        return tenantSettings != null ? tenantSettings.getLeaseSize() : 0;
+    }
+
+    public static int getTierWeight(String tenantId) {
+        return getTier(tenantId).getWeight();
+    }
+
+    public static TenantTier getTier(String tenantId) {
+        TenantSettings tenantSettings = getTenantSettings(tenantId);
+        return tenantSettings != null ? tenantSettings.getTier() : TenantTier.STANDARD;
+    }
+
+    // The load shedder in front of a dependency, with its latency target from <dependency>MinTargetMillis and
+    // <dependency>MaxTargetMillis, or null when LoadShedding is false
+    static LoadShedder loadShedder(String dependency, int minTargetMillis, int maxTargetMillis) {
+        if ("false".equals(System.getenv("LoadShedding"))) {
+            return null;
+        }
+        return new LoadShedder(Common::getTier,
+                Duration.ofMillis(intEnv(dependency + "MinTargetMillis", minTargetMillis)),
+                Duration.ofMillis(intEnv(dependency + "MaxTargetMillis", maxTargetMillis)),
+                Duration.ofSeconds(intEnv("LoadSheddingRecoverySeconds", 10)));
+    }
+
+    // Loads the settings of up to TenantCacheMaxSize tenants into the tenant settings cache with a single scan of the
+    // tenant table, listed the same way as Tenant.js does. Returns the settings loaded.
+    static List<TenantSettings> primeTenantSettings() {
+        List<TenantSettings> tenants = new ArrayList<>();
+        for (Map<String, AttributeValue> item : dynamoDBClient(Priming.NO_TENANT)
+                .scan(builder -> builder
+                        .tableName(System.getenv("TenantTableName"))
+                        .limit(intEnv("TenantCacheMaxSize", 1000)))
+                .items()) {
+            TenantSettings tenantSettings = TenantSettings.fromItem(item);
+            if (tenantSettings != null) {
+                TenantSettingsCache.CACHE.put(tenantSettings.getTenantId(), tenantSettings);
+                tenants.add(tenantSettings);
+            }
+        }
+        return tenants;
+    }
+
+    static final class TenantSettingsCache {
+        static final LoadingCache<String, TenantSettings> CACHE = new LoadingCache<>(
+                intEnv("TenantCacheMaxSize", 1000),
+                Duration.ofSeconds(intEnv("TenantCacheTTLSeconds", 60)),
+                Duration.ofSeconds(intEnv("TenantCacheNegativeTTLSeconds", 10)),
+                TenantSettingsCache::load);
+
+        private static TenantSettings load(String tenantId) {
+            return TenantSettings.fromItem(dynamoDBClient(tenantId)
+                    .getItem(builder -> builder
+                            .tableName(System.getenv("TenantTableName"))
+                            .key(Map.of("tenantId", AttributeValue.builder().s(tenantId).build())))
+                    .item());
+        }
+    }
+
+    // A fixed pool of daemon threads so an idle pool never keeps a frozen Lambda container busy
+    public static ExecutorService newFixedThreadPool(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static long secondsSinceEpoch() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    public static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    // Logs through the runtime's logger, which unlike an invocation's logger can be handed to the components shared
+    // between invocations, at INFO, or at ERROR with the stack trace of the failure when there is one
+    static void log(String message, Throwable failure) {
+        if (failure == null) {
+            LambdaRuntime.getLogger().log(message, LogLevel.INFO);
+            return;
+        }
+        StringWriter stackTrace = new StringWriter();
+        failure.printStackTrace(new PrintWriter(stackTrace));
+        LambdaRuntime.getLogger().log(message + ": " + stackTrace, LogLevel.ERROR);
+    }
+
+    // A policy is generated with an effect (Allow/Deny) and the context is filled
+    // with the tenant and session information
+    private static Map<String, Object> generatePolicy(String effect, String resource, String tenantId, String sessionId, TenantSettings tenantSettings) {
+        Map<String, Object> authResponse = new HashMap<>();
+        authResponse.put("principalId", "anonymous");
+        if (effect != null && resource != null) {
+            authResponse.put("policyDocument", Map.of(
+                    "Version", "2012-10-17",
+                    "Statement", List.of(Map.of(
+                            "Action", "execute-api:Invoke",
+                            "Effect", effect,
+                            "Resource", resource))));
+        }
+        Map<String, Object> context = new HashMap<>();
+        // API Gateway drops context entries with a null value so they are left out rather than failing the response
+        if (tenantId != null) {
+            context.put("tenantId", tenantId);
+        }
+        if (sessionId != null) {
+            context.put("sessionId", sessionId);
+        }
+        context.put("sessionPerMinute", tenantSettings != null ? tenantSettings.getSessionPerMinute() : -1);
+        context.put("tenantPerMinute", tenantSettings != null ? tenantSettings.getTenantPerMinute() : -1);
+        context.put("tenantConnections", tenantSettings != null ? tenantSettings.getTenantConnections() : -1);
+        context.put("connectionsPerSession", tenantSettings != null ? tenantSettings.getConnectionsPerSession() : -1);
+        context.put("sessionTTL", tenantSettings != null ? tenantSettings.getSessionTTL() : -1);
+        context.put("messagesPerMinute", tenantSettings != null ? tenantSettings.getMessagesPerMinute() : -1);
+        if (tenantSettings != null) {
+            // Which tenants WebsocketConnect.js sheds first while DynamoDB is slow
+            context.put(TenantTier.TENANT_ATTRIBUTE, tenantSettings.getTier().name());
+            // The same context packed into the single attribute the queue routes send, see AuthorizerContext
+            context.put(AuthorizerContext.ATTRIBUTE, new AuthorizerContext().set(tenantId, sessionId, tenantSettings.getSessionPerMinute(),
+                    tenantSettings.getTenantPerMinute(), tenantSettings.getTenantConnections(), tenantSettings.getConnectionsPerSession(),
+                    tenantSettings.getSessionTTL(), tenantSettings.getMessagesPerMinute()).encodeBase64());
+        }
+        authResponse.put("context", context);
+        return authResponse;
+    }
+
+    public static Map<String, Object> generateAllow(String resource, String tenantId, String sessionId, TenantSettings tenantSettings) {
+        return generatePolicy("Allow", resource, tenantId, sessionId, tenantSettings);
+    }
+
+    public static Map<String, Object> generateDeny(String resource, String tenantId, String sessionId) {
+        return generatePolicy("Deny", resource, tenantId, sessionId, null);
+    }
+}
@@ -0,0 +1,92 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses.quote;
+
+// Writes DynamoDB items as the plain JSON the Node.js DocumentClient returns them as, for the response bodies of the
+// Java Session and Tenant handlers. The Lambda package has no JSON library so the items are written directly.
+// Sets are written as arrays.
+final class ItemJson {
+    private ItemJson() {
+    }
+
+    static String items(List<Map<String, AttributeValue>> items) {
+        StringBuilder json = new StringBuilder("[");
+        for (Map<String, AttributeValue> item : items) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            item(json, item);
+        }
+        return json.append(']').toString();
+    }
+
+    static String item(Map<String, AttributeValue> item) {
+        return item(new StringBuilder(), item).toString();
+    }
+
+    private static StringBuilder item(StringBuilder json, Map<String, AttributeValue> item) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append(quote(attribute.getKey())).append(':');
+            value(json, attribute.getValue());
+        }
+        return json.append('}');
+    }
+
+    private static void value(StringBuilder json, AttributeValue value) {
+        if (value.s() != null) {
+            json.append(quote(value.s()));
+        } else if (value.n() != null) {
+            json.append(value.n());
+        } else if (value.bool() != null) {
+            json.append(value.bool());
+        } else if (value.b() != null) {
+            json.append(quote(Base64.getEncoder().encodeToString(value.b().asByteArray())));
+        } else if (value.hasSs()) {
+            strings(json, value.ss(), true);
+        } else if (value.hasNs()) {
+            strings(json, value.ns(), false);
+        } else if (value.hasL()) {
+            json.append('[');
+            for (int i = 0; i < value.l().size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                value(json, value.l().get(i));
+            }
+            json.append(']');
+        } else if (value.hasM()) {
+            item(json, value.m());
+        } else {
+            json.append("null");
+        }
+    }
+
+    private static void strings(StringBuilder json, Collection<String> values, boolean quoted) {
+        json.append('[');
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append(quoted ? quote(value) : value);
+        }
+        json.append(']');
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+import com.amazonaws.services.lambda.runtime.logging.LogLevel;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokens;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Primes a Java handler before Lambda SnapStart takes the snapshot of its initialized execution environment. Every
+// environment restored from the snapshot starts with what the primer loaded, the classes and SDK clients of the
+// request path, the table role credentials and the tenant settings, so the first request after a cold start does not
+// pay for them. Primers only read, they never change a tenant's counters or sessions.
+// After a restore the pooled tenant credentials are dropped, since they were assumed before the snapshot and would
+// otherwise be shared by every restored environment, as are any Redis connections, and tenant settings older than
+// TenantCacheTTLSeconds are read again as usual. Without SnapStart the hooks never run and the handlers initialize as before.
+public final class Priming implements Resource {
+    // The tenantId the tenant table is listed with, the same as Tenant.js
+    static final String NO_TENANT = "none";
+    // A connection Id API Gateway does not know, posting to or deleting it changes nothing
+    static final String NO_CONNECTION = "priming";
+
+    // CRaC only keeps weak references to the resources registered with it
+    private static final List<Priming> RESOURCES = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final Runnable primer;
+
+    private Priming(final String name, final Runnable primer) {
+        this.name = name;
+        this.primer = primer;
+    }
+
+    public static void register(String name, Runnable primer) {
+        Priming priming = new Priming(name, primer);
+        RESOURCES.add(priming);
+        Core.getGlobalContext().register(priming);
+    }
+
+    // Loads the tenant settings and reads a session which does not exist with the first tenant's scoped client, which
+    // assumes the table role and makes the same GetItem call the request paths of most handlers start with
+    static void primeSessions(SessionStore sessions) {
+        List<TenantSettings> tenants = Common.primeTenantSettings();
+        if (!tenants.isEmpty()) {
+            TenantSettings tenant = tenants.get(0);
+            sessions.getConnections(tenant.getTenantId(), "priming");
+            Common.generateAllow("priming", tenant.getTenantId(), "priming", tenant);
+        }
+    }
+
+    // Reads the session token secret and issues and verifies a token, when the function is configured for them
+    static void primeSessionTokens() {
+        SessionTokens sessionTokens = Common.sessionTokens();
+        if (sessionTokens != null) {
+            sessionTokens.verify(sessionTokens.issue(NO_TENANT, "priming", 60));
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        // There is no invocation context while the snapshot is taken
+        LambdaLogger logger = LambdaRuntime.getLogger();
+        long start = System.nanoTime();
+        try {
+            primer.run();
+            // The calls made while priming are not requests, and would otherwise be published by the first invocation
+            Common.discardMetrics();
+            logger.log(name + " primed in " + (System.nanoTime() - start) / 1_000_000 + "ms", LogLevel.INFO);
+        } catch (RuntimeException e) {
+            // A snapshot taken without priming still works, its first requests just take longer
+            StringWriter stackTrace = new StringWriter();
+            e.printStackTrace(new PrintWriter(stackTrace));
+            logger.log(name + " priming failed: " + stackTrace, LogLevel.ERROR);
+        }
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        Common.tenantClientPool().invalidateAll();
+        Common.closeRedisConnections();
+    }
+}
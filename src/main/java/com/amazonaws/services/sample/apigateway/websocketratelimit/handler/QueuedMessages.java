@@ -0,0 +1,77 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.AuthorizerContext;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+
+import java.util.Map;
+
+// Reads the EchoMessage of a record of a tenant queue. Messages carry either the binary ctx attribute, see
+// AuthorizerContext, with the connectionId attribute and the requestId as the message's deduplication Id, or the
+// original layout of one string attribute per setting, which connections authorized before the ctx attribute send.
+// Kept apart from SQSEchoHandler so it can be used without the handler's clients.
+public final class QueuedMessages {
+    private QueuedMessages() {
+    }
+
+    // Returns null if the record has no valid authorizer context or connectionId. authorizerContext is reused between
+    // the records of a batch.
+    public static EchoMessage toEchoMessage(SQSEvent.SQSMessage record, AuthorizerContext authorizerContext) {
+        Map<String, SQSEvent.MessageAttribute> attributes = record.getMessageAttributes();
+        SQSEvent.MessageAttribute ctx = attributes != null ? attributes.get(AuthorizerContext.ATTRIBUTE) : null;
+        String tenantId;
+        String sessionId;
+        long messagesPerMinute;
+        long sessionTTL;
+        if (ctx != null && ctx.getBinaryValue() != null) {
+            if (!authorizerContext.decode(ctx.getBinaryValue())) {
+                return null;
+            }
+            tenantId = authorizerContext.getTenantId();
+            sessionId = authorizerContext.getSessionId();
+            messagesPerMinute = authorizerContext.getMessagesPerMinute();
+            sessionTTL = authorizerContext.getSessionTTL();
+        } else {
+            tenantId = attribute(attributes, "tenantId");
+            sessionId = attribute(attributes, "sessionId");
+            messagesPerMinute = longAttribute(attributes, "messagesPerMinute");
+            sessionTTL = longAttribute(attributes, "sessionTTL");
+        }
+        String connectionId = attribute(attributes, "connectionId");
+        if (tenantId == null || sessionId == null || connectionId == null) {
+            return null;
+        }
+        Map<String, String> systemAttributes = record.getAttributes();
+        String messageGroupId = systemAttributes != null ? systemAttributes.get("MessageGroupId") : null;
+        String requestId = attribute(attributes, "requestId");
+        if (requestId == null && systemAttributes != null) {
+            requestId = systemAttributes.get("MessageDeduplicationId");
+        }
+        String eventSourceArn = record.getEventSourceArn();
+        String queue = eventSourceArn != null && eventSourceArn.contains("tenant-") ? eventSourceArn.substring(eventSourceArn.indexOf("tenant-")) : null;
+        return new EchoMessage(
+                record.getMessageId(),
+                messageGroupId != null ? messageGroupId : tenantId + ":" + sessionId,
+                tenantId,
+                sessionId,
+                connectionId,
+                requestId,
+                record.getBody(),
+                messagesPerMinute,
+                sessionTTL,
+                queue);
+    }
+
+    private static String attribute(Map<String, SQSEvent.MessageAttribute> attributes, String name) {
+        SQSEvent.MessageAttribute attribute = attributes != null ? attributes.get(name) : null;
+        return attribute != null ? attribute.getStringValue() : null;
+    }
+
+    private static long longAttribute(Map<String, SQSEvent.MessageAttribute> attributes, String name) {
+        String value = attribute(attributes, name);
+        return value == null || value.isEmpty() ? -1 : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ApiGatewayConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.Broadcaster;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.AuthorizerContext;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoProcessor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.FairScheduler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsInterceptor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.overload.LoadShedder;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.MembershipCache;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+
+import java.net.URI;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+// The Java implementation of SQSEcho.js, which echoes each batch with an EchoProcessor. Messages which could not be
+// echoed are returned as batch item failures so only they are retried. Configured by MaxInFlightPosts (32),
+// SessionRefreshPercent (80), FairScheduling with MaxInFlightGroups (8) and MaxTenantInFlightPercent (50), LoadShedding
+// and LimitStore, see Broadcaster, DynamoDBSessionStore, FairScheduler, LoadShedder and Common.limitStore.
+public class SQSEchoHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+    private static final int MAX_IN_FLIGHT_POSTS = Common.intEnv("MaxInFlightPosts", 32);
+    private static final ExecutorService EXECUTOR = Common.newFixedThreadPool("echo", MAX_IN_FLIGHT_POSTS);
+    private static final DynamoDBSessionStore SESSIONS = new DynamoDBSessionStore(Common::dynamoDBClient, System.getenv("SessionTableName"),
+            System.getenv("ConnectionTableName"), System.getenv("LimitTableName"), Common::getLimitShards, Clock.systemUTC(), new MembershipCache(),
+            Common.intEnv("SessionRefreshPercent", 80) / 100.0);
+    // Retries are left to the broadcaster so they do not hold a thread and can adjust its concurrency
+    private static final ApiGatewayConnectionSender SENDER = new ApiGatewayConnectionSender(ApiGatewayManagementApiClient.builder()
+            .httpClient(Common.HTTP_CLIENT)
+            .endpointOverride(URI.create("https://" + System.getenv("ApiGatewayEndpoint")))
+            .overrideConfiguration(builder -> builder
+                    .retryStrategy(AwsRetryStrategy.doNotRetry())
+                    .addExecutionInterceptor(new MetricsInterceptor(Common.METRICS, "PostToConnection", request -> null)))
+            .build());
+    private static final FairScheduler SCHEDULER = "true".equals(System.getenv("FairScheduling"))
+            ? new FairScheduler(Common.intEnv("MaxInFlightGroups", 8), Common.intEnv("MaxTenantInFlightPercent", 50) / 100.0, Common::getTierWeight)
+            : null;
+    private static final LoadShedder POSTS = Common.loadShedder("PostToConnection", 100, 1000);
+    private static final Broadcaster BROADCASTER = new Broadcaster(timed(SENDER, POSTS), SESSIONS, EXECUTOR, MAX_IN_FLIGHT_POSTS, Common::log);
+    private static final EchoProcessor PROCESSOR = new EchoProcessor(
+            new RateLimiters(Common.limitStore(), Common::getLeaseSize),
+            Common::getRateLimitAlgorithm,
+            SESSIONS,
+            BROADCASTER,
+            EXECUTOR,
+            Common::log,
+            Common.METRICS,
+            SCHEDULER,
+            Common.loadShedder("DynamoDB", 50, 500),
+            POSTS);
+
+    static {
+        Priming.register("SQSEcho", () -> {
+            Priming.primeSessions(SESSIONS);
+            PROCESSOR.process(Collections.emptyList());
+            // A post to a connection which does not exist signs, sends and unmarshals a request like any other post
+            SENDER.send(Priming.NO_CONNECTION, EchoResponses.forConnection(EchoResponses.createEchoPayload("priming", "priming", "{}", "priming"), Priming.NO_CONNECTION));
+        });
+    }
+
+    private static ConnectionSender timed(ConnectionSender sender, LoadShedder shedder) {
+        if (shedder == null) {
+            return sender;
+        }
+        return (connectionId, data) -> {
+            long start = System.nanoTime();
+            SendResult result = null;
+            try {
+                result = sender.send(connectionId, data);
+                return result;
+            } finally {
+                shedder.record(null, System.nanoTime() - start, result == null || result == SendResult.RETRY);
+            }
+        };
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        try {
+            return echo(event, context);
+        } finally {
+            Common.flushMetrics("SQSEcho");
+        }
+    }
+
+    private static SQSBatchResponse echo(SQSEvent event, Context context) {
+        List<EchoMessage> messages = new ArrayList<>();
+        AuthorizerContext authorizerContext = new AuthorizerContext();
+        if (event.getRecords() != null) {
+            for (SQSEvent.SQSMessage record : event.getRecords()) {
+                EchoMessage message = QueuedMessages.toEchoMessage(record, authorizerContext);
+                if (message == null) {
+                    // Retrying a message without the authorizer context would block its message group forever
+                    context.getLogger().log("Message: " + record.getMessageId() + " is missing its attributes");
+                    continue;
+                }
+                messages.add(message);
+            }
+        }
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        for (String messageId : PROCESSOR.process(messages)) {
+            failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+        }
+        // The totals since the container started, with the fan-out latency percentiles of its broadcasts
+        context.getLogger().log("Broadcasts: " + BROADCASTER.getStats() + " concurrency=" + BROADCASTER.getConcurrencyLimit());
+        return new SQSBatchResponse(failures);
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokens;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+
+import java.util.Map;
+
+import static com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses.quote;
+
+// The Java implementation of Session.js. PUT creates the session, or extends it, to expire after the tenant's
+// sessionTTL and DELETE removes it. Tenant settings come from the cache shared by the Java handlers.
+// When the stack configures session tokens, PUT also returns a signed token for the session which expires with it, see
+// SessionTokens, and DELETE revokes the tokens issued so far since they are checked without the session table.
+public class SessionHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+    private static final DynamoDBSessionStore SESSIONS = new DynamoDBSessionStore(Common::dynamoDBClient, System.getenv("SessionTableName"),
+            System.getenv("ConnectionTableName"), System.getenv("LimitTableName"));
+
+    static {
+        Priming.register("Session", () -> {
+            Priming.primeSessions(SESSIONS);
+            Priming.primeSessionTokens();
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+        try {
+            String tenantId = Common.getTenantId(event);
+            String sessionId = Common.getSessionId(event);
+            if (tenantId == null || sessionId == null) {
+                return response(400, quote("Invalid request"));
+            }
+            // Check for a valid tenantId
+            TenantSettings tenantSettings = Common.getTenantSettings(tenantId);
+            if (tenantSettings == null) {
+                return response(400, quote("Invalid request"));
+            }
+            Map<String, Object> http = (Map<String, Object>) ((Map<String, Object>) event.get("requestContext")).get("http");
+            Object method = http != null ? http.get("method") : null;
+            if ("PUT".equals(method)) {
+                long sessionTTL = Common.secondsSinceEpoch() + tenantSettings.getSessionTTL();
+                SESSIONS.create(tenantId, sessionId, tenantSettings.getSessionTTL());
+                SessionTokens sessionTokens = Common.sessionTokens();
+                String token = sessionTokens != null ? ",\"token\":" + quote(sessionTokens.issue(tenantId, sessionId, tenantSettings.getSessionTTL())) : "";
+                return response(200, "{\"Attributes\":{\"sessionTTL\":" + sessionTTL + "}" + token + "}");
+            } else if ("DELETE".equals(method)) {
+                SESSIONS.delete(tenantId, sessionId);
+                if (Common.sessionTokens() != null) {
+                    // A token lasts at most the sessionTTL it was issued with
+                    SESSIONS.revoke(tenantId, sessionId, tenantSettings.getSessionTTL());
+                }
+                return response(200, "{}");
+            }
+            return response(400, quote("Invalid request"));
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return response(400, quote(e.getMessage()));
+        } finally {
+            Common.flushMetrics("Session");
+        }
+    }
+
+    static Map<String, Object> response(int statusCode, String body) {
+        return Map.of("statusCode", statusCode, "headers", Map.of("Content-Type", "application/json"), "body", body);
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue;
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.Identity;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ApiGatewayConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.expiry.ExpiredSession;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.expiry.SessionExpiryProcessor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsInterceptor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The Java implementation of SessionTTL.js. The sessions of a whole batch of stream records are closed together by a
+// SessionExpiryProcessor, at most MaxConcurrentDeletes DeleteConnection calls at a time, and their connections are
+// counted off the tenant's total connections in the limit table.
+// Stream batches are retried from the first record reported as failed, so only the first failed record is
+// reported. Closing connections and counting them off are both safe to repeat for the records after it.
+public class SessionTTLHandler implements RequestHandler<DynamodbEvent, StreamsEventResponse> {
+    static {
+        Priming.register("SessionTTL", () -> {
+            Priming.primeSessions(Processor.SESSIONS);
+            Processor.INSTANCE.process(Collections.emptyList());
+            Processor.CLOSER.close(Priming.NO_CONNECTION);
+        });
+    }
+
+    @Override
+    public StreamsEventResponse handleRequest(DynamodbEvent event, Context context) {
+        try {
+            return expire(event, context);
+        } finally {
+            Common.flushMetrics("SessionTTL");
+        }
+    }
+
+    private static StreamsEventResponse expire(DynamodbEvent event, Context context) {
+        List<ExpiredSession> expired = new ArrayList<>();
+        Map<String, String> sequenceNumbers = new HashMap<>();
+        if (event.getRecords() != null) {
+            for (DynamodbEvent.DynamodbStreamRecord record : event.getRecords()) {
+                ExpiredSession session = toExpiredSession(record);
+                if (session != null) {
+                    expired.add(session);
+                    sequenceNumbers.put(session.getId(), record.getDynamodb().getSequenceNumber());
+                }
+            }
+        }
+        List<StreamsEventResponse.BatchItemFailure> failures = new ArrayList<>();
+        List<String> failed = Processor.INSTANCE.process(expired);
+        if (!failed.isEmpty()) {
+            failures.add(new StreamsEventResponse.BatchItemFailure(sequenceNumbers.get(failed.get(0))));
+        }
+        // The totals since the container started, with the latency percentiles of its batches
+        context.getLogger().log("Expired sessions: " + Processor.INSTANCE.getStats());
+        return new StreamsEventResponse(failures);
+    }
+
+    // Created on first use so that toExpiredSession can be used without a region or endpoint configured
+    private static final class Processor {
+        private static final int MAX_CONCURRENT_DELETES = Common.intEnv("MaxConcurrentDeletes", 32);
+        private static final DynamoDBSessionStore SESSIONS = new DynamoDBSessionStore(Common::dynamoDBClient, System.getenv("SessionTableName"),
+                System.getenv("ConnectionTableName"), System.getenv("LimitTableName"), Common::getLimitShards);
+        // Retries are left to the processor so they do not hold a thread
+        private static final ApiGatewayConnectionSender CLOSER = new ApiGatewayConnectionSender(ApiGatewayManagementApiClient.builder()
+                .httpClient(Common.HTTP_CLIENT)
+                .endpointOverride(URI.create("https://" + System.getenv("ApiGatewayEndpoint")))
+                .overrideConfiguration(builder -> builder
+                        .retryStrategy(AwsRetryStrategy.doNotRetry())
+                        .addExecutionInterceptor(new MetricsInterceptor(Common.METRICS, "DeleteConnection", request -> null)))
+                .build());
+        private static final SessionExpiryProcessor INSTANCE = new SessionExpiryProcessor(
+                CLOSER,
+                SESSIONS,
+                Common.newFixedThreadPool("ttl", MAX_CONCURRENT_DELETES),
+                Common::log);
+    }
+
+    // Returns the session of a record for a session item deleted by DynamoDB TTL, or null for any other record
+    public static ExpiredSession toExpiredSession(DynamodbEvent.DynamodbStreamRecord record) {
+        Identity identity = record.getUserIdentity();
+        if (!"REMOVE".equals(record.getEventName()) || identity == null
+                || !"dynamodb.amazonaws.com".equals(identity.getPrincipalId()) || !"Service".equals(identity.getType())
+                || record.getDynamodb() == null || record.getDynamodb().getOldImage() == null) {
+            return null;
+        }
+        Map<String, AttributeValue> oldImage = record.getDynamodb().getOldImage();
+        AttributeValue tenantId = oldImage.get("tenantId");
+        AttributeValue sessionId = oldImage.get("sessionId");
+        if (tenantId == null || sessionId == null) {
+            return null;
+        }
+        AttributeValue connectionIds = oldImage.get("connectionIds");
+        AttributeValue sessionTTL = oldImage.get("sessionTTL");
+        return new ExpiredSession(record.getEventID(), tenantId.getS(), sessionId.getS(),
+                connectionIds != null && connectionIds.getSS() != null ? connectionIds.getSS() : Collections.emptyList(),
+                sessionTTL != null && sessionTTL.getN() != null ? Long.parseLong(sessionTTL.getN()) : Long.MAX_VALUE);
+    }
+}
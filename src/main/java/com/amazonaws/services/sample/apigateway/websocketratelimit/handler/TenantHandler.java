@@ -0,0 +1,44 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+import java.util.Map;
+
+import static com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses.quote;
+
+// The Java implementation of Tenant.js, a sample helper which lists the tenants in the tenant table. In a production
+// system the tenant id would typically be known to the user and a list would not be available as a public endpoint.
+public class TenantHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+    static {
+        Priming.register("Tenant", TenantHandler::scan);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+        try {
+            Map<String, Object> http = (Map<String, Object>) ((Map<String, Object>) event.get("requestContext")).get("http");
+            if (http != null && "GET".equals(http.get("method"))) {
+                return SessionHandler.response(200, scan());
+            }
+            return SessionHandler.response(400, quote("Invalid request"));
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return SessionHandler.response(400, quote(e.getMessage()));
+        } finally {
+            Common.flushMetrics("Tenant");
+        }
+    }
+
+    private static String scan() {
+        ScanResponse response = Common.dynamoDBClient(Priming.NO_TENANT).scan(builder -> builder.tableName(System.getenv("TenantTableName")));
+        return "{\"Items\":" + ItemJson.items(response.items())
+                + ",\"Count\":" + response.count()
+                + ",\"ScannedCount\":" + response.scannedCount() + "}";
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectionManager;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.TransactionalAdmission;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+
+import java.util.Map;
+
+// The Java implementation of WebsocketConnect.js. Tenants using the fixed window algorithm without sharded counters,
+// which is every tenant the Node.js handlers support, are admitted with a single conditional transaction, see
+// TransactionalAdmission. Other tenants are checked one limit at a time by the ConnectionManager.
+// Tenant settings come from the cache shared by the Java handlers rather than the authorizer context so the
+// rate limit algorithm and limit shards are known.
+// Connects are shed by a LoadShedder configured by LoadShedding, DynamoDBMinTargetMillis (100) and
+// DynamoDBMaxTargetMillis (1000).
+public class WebSocketConnectHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+    private static final SessionStore SESSIONS = new DynamoDBSessionStore(Common::dynamoDBClient, System.getenv("SessionTableName"),
+            System.getenv("ConnectionTableName"), System.getenv("LimitTableName"), Common::getLimitShards);
+    private static final ConnectionManager CONNECTIONS = new ConnectionManager(
+            new RateLimiters(Common.limitStore(), Common::getLeaseSize),
+            SESSIONS,
+            // With LimitStore redis the per minute counters are not in the limit table, so every tenant is checked
+            // one limit at a time
+            Common.redisLimitStore() ? null : new TransactionalAdmission(Common::dynamoDBClient, System.getenv("SessionTableName"),
+                    System.getenv("ConnectionTableName"), System.getenv("LimitTableName")),
+            Common.loadShedder("DynamoDB", 100, 1000));
+
+    static {
+        Priming.register("WebSocketConnect", () -> Priming.primeSessions(SESSIONS));
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+        try {
+            return connect(event, context);
+        } finally {
+            Common.flushMetrics("WebSocketConnect");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> connect(Map<String, Object> event, Context context) {
+        Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
+        if (requestContext == null || !"$connect".equals(requestContext.get("routeKey"))) {
+            return Map.of("statusCode", 200);
+        }
+        String tenantId = Common.getTenantId(event);
+        String sessionId = Common.getSessionId(event);
+        try {
+            TenantSettings tenantSettings = Common.getTenantSettings(tenantId);
+            if (tenantSettings == null) {
+                context.getLogger().log("Tenant: " + tenantId + " does not exist");
+                return Map.of("statusCode", 1011);
+            }
+            ConnectResult result = CONNECTIONS.connect(tenantSettings, sessionId, (String) requestContext.get("connectionId"));
+            if (!result.isAdmitted()) {
+                context.getLogger().log("Tenant: " + tenantId + " Session: " + sessionId + " " + result.getDescription());
+                Common.METRICS.putThrottles(tenantId, result.name(), 1);
+                return Map.of("statusCode", 429);
+            }
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return Map.of("statusCode", 1011); // return server error code
+        }
+        return Map.of("statusCode", 200);
+    }
+}
@@ -0,0 +1,46 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+
+import java.util.Map;
+
+// The Java implementation of WebsocketDisconnect.js. The connection is removed from its session and counted off the
+// tenant's total connections only if the session still holds it, see SessionStore.removeConnection.
+public class WebSocketDisconnectHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+    private static final SessionStore SESSIONS = new DynamoDBSessionStore(Common::dynamoDBClient, System.getenv("SessionTableName"),
+            System.getenv("ConnectionTableName"), System.getenv("LimitTableName"), Common::getLimitShards);
+
+    static {
+        Priming.register("WebSocketDisconnect", () -> Priming.primeSessions(SESSIONS));
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> event, Context context) {
+        try {
+            return disconnect(event, context);
+        } finally {
+            Common.flushMetrics("WebSocketDisconnect");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> disconnect(Map<String, Object> event, Context context) {
+        Map<String, Object> requestContext = (Map<String, Object>) event.get("requestContext");
+        if (requestContext == null || !"$disconnect".equals(requestContext.get("routeKey"))) {
+            return Map.of("statusCode", 200);
+        }
+        try {
+            SESSIONS.removeConnection(Common.getTenantId(event), Common.getSessionId(event), (String) requestContext.get("connectionId"));
+        } catch (RuntimeException e) {
+            context.getLogger().log(e.toString());
+            return Map.of("statusCode", 1011); // return server error code
+        }
+        return Map.of("statusCode", 200);
+    }
+}
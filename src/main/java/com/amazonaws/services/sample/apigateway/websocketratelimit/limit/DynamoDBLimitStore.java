@@ -0,0 +1,183 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Stores limits in the limit table using the same tenantId/key items and itemCount/itemTTL attributes as
+// the Node.js handlers so both implementations can share counters. Records are stored as a version number
+// and a list of numbers in the vals attribute.
+// The client is looked up per tenant so each tenant's items are accessed with that tenant's scoped credentials,
+// including the tenantId#n partitions of sharded counters.
+public class DynamoDBLimitStore implements LimitStore {
+    private final Function<String, DynamoDbClient> clients;
+    private final String tableName;
+
+    public DynamoDBLimitStore(final DynamoDbClient dynamo, final String tableName) {
+        this(tenantId -> dynamo, tableName);
+    }
+
+    public DynamoDBLimitStore(final Function<String, DynamoDbClient> clients, final String tableName) {
+        this.clients = clients;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public long increment(String tenantId, String key, long delta, long expiresAt) {
+        Map<String, AttributeValue> attributes = client(tenantId).updateItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, key))
+                .updateExpression("set itemCount = if_not_exists(itemCount, :zero) + :inc, itemTTL = :ttl")
+                .expressionAttributeValues(Map.of(
+                        ":zero", number(0),
+                        ":inc", number(delta),
+                        ":ttl", number(expiresAt)))
+                .returnValues(ReturnValue.UPDATED_NEW))
+                .attributes();
+        return Long.parseLong(attributes.get("itemCount").n());
+    }
+
+    // A single conditional update claims the whole amount while it fits. Otherwise the failed condition returns the
+    // current count so the remainder below max can be claimed with one more update.
+    @Override
+    public long claim(String tenantId, String key, long amount, long max, long expiresAt) {
+        long claim = Math.min(amount, max);
+        while (claim > 0) {
+            Map<String, AttributeValue> values = Map.of(
+                    ":zero", number(0),
+                    ":inc", number(claim),
+                    ":room", number(max - claim),
+                    ":ttl", number(expiresAt));
+            try {
+                client(tenantId).updateItem(builder -> builder
+                        .tableName(tableName)
+                        .key(key(tenantId, key))
+                        .updateExpression("set itemCount = if_not_exists(itemCount, :zero) + :inc, itemTTL = :ttl")
+                        .conditionExpression("attribute_not_exists(itemCount) OR itemCount <= :room")
+                        .expressionAttributeValues(values)
+                        .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD));
+                return claim;
+            } catch (ConditionalCheckFailedException e) {
+                long count = e.hasItem() && e.item().containsKey("itemCount")
+                        ? Long.parseLong(e.item().get("itemCount").n())
+                        : get(tenantId, key);
+                claim = Math.min(claim, max - count);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long get(String tenantId, String key) {
+        GetItemResponse response = client(tenantId).getItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, key))
+                .projectionExpression("itemCount")
+                .consistentRead(true));
+        if (!response.hasItem() || !response.item().containsKey("itemCount")) {
+            return 0;
+        }
+        return Long.parseLong(response.item().get("itemCount").n());
+    }
+
+    // Reads all partitions with one eventually consistent BatchGetItem, half the read cost of the single item reads.
+    // The counters of other shards may therefore miss increments from the last moment.
+    @Override
+    public long getTotal(List<String> tenantIds, String key) {
+        if (tenantIds.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(tenantIds.size());
+        for (String tenantId : tenantIds) {
+            keys.add(key(tenantId, key));
+        }
+        DynamoDbClient dynamo = client(tenantIds.get(0));
+        Map<String, KeysAndAttributes> request = Map.of(tableName, KeysAndAttributes.builder()
+                .keys(keys)
+                .projectionExpression("itemCount")
+                .build());
+        while (!request.isEmpty()) {
+            Map<String, KeysAndAttributes> items = request;
+            BatchGetItemResponse response = dynamo.batchGetItem(builder -> builder.requestItems(items));
+            for (Map<String, AttributeValue> item : response.responses().getOrDefault(tableName, List.of())) {
+                if (item.containsKey("itemCount")) {
+                    total += Long.parseLong(item.get("itemCount").n());
+                }
+            }
+            request = response.unprocessedKeys();
+        }
+        return total;
+    }
+
+    @Override
+    public LimitRecord load(String tenantId, String key) {
+        GetItemResponse response = client(tenantId).getItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, key))
+                .consistentRead(true));
+        if (!response.hasItem() || !response.item().containsKey("version")) {
+            return LimitRecord.EMPTY;
+        }
+        List<AttributeValue> vals = response.item().get("vals").l();
+        long[] values = new long[vals.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Long.parseLong(vals.get(i).n());
+        }
+        return new LimitRecord(Long.parseLong(response.item().get("version").n()), values);
+    }
+
+    @Override
+    public boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt) {
+        List<AttributeValue> vals = new ArrayList<>(values.length);
+        for (long value : values) {
+            vals.add(number(value));
+        }
+        Map<String, AttributeValue> item = new HashMap<>(key(tenantId, key));
+        item.put("version", number(expected.getVersion() + 1));
+        item.put("vals", AttributeValue.builder().l(vals).build());
+        item.put("itemTTL", number(expiresAt));
+        PutItemRequest.Builder request = PutItemRequest.builder().tableName(tableName).item(item);
+        if (expected.isEmpty()) {
+            request.conditionExpression("attribute_not_exists(version)");
+        } else {
+            request.conditionExpression("version = :version")
+                    .expressionAttributeValues(Map.of(":version", number(expected.getVersion())));
+        }
+        try {
+            client(tenantId).putItem(request.build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    private DynamoDbClient client(String tenantId) {
+        return clients.apply(ShardedLimitStore.tenantOf(tenantId));
+    }
+
+    static Map<String, AttributeValue> key(String tenantId, String key) {
+        return Map.of(
+                "tenantId", AttributeValue.builder().s(tenantId).build(),
+                "key", AttributeValue.builder().s(key).build());
+    }
+
+    static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+}
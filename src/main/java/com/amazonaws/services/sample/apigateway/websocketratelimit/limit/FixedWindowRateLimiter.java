@@ -0,0 +1,28 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+
+// Counts requests per calendar window using the same key:{windowStart} items as incrementLimitTablePerMinute.
+// This is the cheapest algorithm, a single write per request, but it lets up to twice the limit through when
+// a burst straddles the boundary between two windows.
+public class FixedWindowRateLimiter implements RateLimiter {
+    private final LimitStore store;
+    private final Clock clock;
+    private final long windowSeconds;
+
+    public FixedWindowRateLimiter(final LimitStore store, final Clock clock, final long windowSeconds) {
+        this.store = store;
+        this.clock = clock;
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public long tryAcquire(String tenantId, String key, long permits, long limit) {
+        long windowStart = clock.millis() / 1000 / windowSeconds * windowSeconds;
+        long count = store.increment(tenantId, key + ":" + windowStart, permits, windowStart + windowSeconds + 1);
+        return Math.max(0, Math.min(permits, limit - (count - permits)));
+    }
+}
@@ -0,0 +1,107 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A process local store used by tests and benchmarks. Expired items are treated as missing, the same as
+// the limit table once DynamoDB TTL has removed them, and are purged periodically as new items are written.
+public class InMemoryLimitStore implements LimitStore {
+    private static final int PURGE_INTERVAL = 4096;
+
+    private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final Clock clock;
+
+    public InMemoryLimitStore() {
+        this(Clock.systemUTC());
+    }
+
+    public InMemoryLimitStore(final Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public long increment(String tenantId, String key, long delta, long expiresAt) {
+        Item item = live(tenantId, key, expiresAt);
+        return item.count.addAndGet(delta);
+    }
+
+    @Override
+    public long claim(String tenantId, String key, long amount, long max, long expiresAt) {
+        Item item = live(tenantId, key, expiresAt);
+        while (true) {
+            long count = item.count.get();
+            long claimed = Math.max(0, Math.min(amount, max - count));
+            if (claimed == 0 || item.count.compareAndSet(count, count + claimed)) {
+                return claimed;
+            }
+        }
+    }
+
+    @Override
+    public long get(String tenantId, String key) {
+        Item item = items.get(id(tenantId, key));
+        return item == null || item.isExpired(now()) ? 0 : item.count.get();
+    }
+
+    @Override
+    public LimitRecord load(String tenantId, String key) {
+        Item item = items.get(id(tenantId, key));
+        return item == null || item.isExpired(now()) ? LimitRecord.EMPTY : item.record;
+    }
+
+    @Override
+    public boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt) {
+        Item item = live(tenantId, key, expiresAt);
+        synchronized (item) {
+            if (item.record.getVersion() != expected.getVersion()) {
+                return false;
+            }
+            item.record = new LimitRecord(expected.getVersion() + 1, values);
+            return true;
+        }
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    // Returns the item for this key, replacing it if it has expired, and extends its expiry
+    private Item live(String tenantId, String key, long expiresAt) {
+        long now = now();
+        if (writes.incrementAndGet() % PURGE_INTERVAL == 0) {
+            items.values().removeIf(item -> item.isExpired(now));
+        }
+        // The expiry is set inside compute, a new item would otherwise look expired to a concurrent writer and be replaced
+        return items.compute(id(tenantId, key), (id, existing) -> {
+            Item item = existing == null || existing.isExpired(now) ? new Item() : existing;
+            if (expiresAt > item.expiresAt) {
+                item.expiresAt = expiresAt;
+            }
+            return item;
+        });
+    }
+
+    private long now() {
+        return clock.millis() / 1000;
+    }
+
+    private static String id(String tenantId, String key) {
+        return tenantId + '\u0000' + key;
+    }
+
+    private static final class Item {
+        private final AtomicLong count = new AtomicLong();
+        private volatile LimitRecord record = LimitRecord.EMPTY;
+        private volatile long expiresAt;
+
+        private boolean isExpired(long now) {
+            return expiresAt < now;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+// Grants requests from a local allowance instead of writing to the store for every request. Each instance, for
+// example a Lambda container, claims a lease of the tenant's leaseSize requests from the same key:{windowStart} counter
+// the fixed window algorithm uses and grants from it without any further store access until it is used up. Leases are
+// only claimed up to the limit, so no more than the limit is let through per window however many instances there are.
+// The error is the unused part of leases held by other instances, at most leaseSize per instance, which may reject
+// requests below the limit until the window ends. A tenant without a leaseSize claims a single request at a time which
+// behaves like the fixed window algorithm.
+// Whatever is left of a lease when its window ends is given back so the counter matches the requests granted.
+public class LeaseRateLimiter implements RateLimiter {
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong releasedWindow = new AtomicLong();
+    private final LimitStore store;
+    private final Clock clock;
+    private final long windowSeconds;
+    private final ToLongFunction<String> leaseSize;
+
+    public LeaseRateLimiter(final LimitStore store, final Clock clock, final long windowSeconds, final ToLongFunction<String> leaseSize) {
+        this.store = store;
+        this.clock = clock;
+        this.windowSeconds = windowSeconds;
+        this.leaseSize = leaseSize;
+    }
+
+    @Override
+    public long tryAcquire(String tenantId, String key, long permits, long limit) {
+        if (limit <= 0) {
+            return 0;
+        }
+        long windowStart = clock.millis() / 1000 / windowSeconds * windowSeconds;
+        long released = releasedWindow.get();
+        if (released < windowStart && releasedWindow.compareAndSet(released, windowStart)) {
+            releaseExpired();
+        }
+        String id = tenantId + '\u0000' + key;
+        Lease lease = leases.get(id);
+        while (lease == null || lease.windowStart < windowStart) {
+            Lease next = new Lease(id, tenantId, key + ":" + windowStart, windowStart, windowStart + windowSeconds + 1);
+            if (lease == null ? leases.putIfAbsent(id, next) == null : leases.replace(id, lease, next)) {
+                if (lease != null) {
+                    release(lease);
+                }
+                lease = next;
+            } else {
+                lease = leases.get(id);
+            }
+        }
+        long granted = lease.take(permits);
+        if (granted == permits) {
+            return granted;
+        }
+        long size = Math.max(0, leaseSize.applyAsLong(tenantId));
+        long needed = permits - granted;
+        long claimed = store.claim(tenantId, lease.windowKey, Math.max(needed, Math.max(1, size)), limit, lease.expiresAt);
+        long used = Math.min(needed, claimed);
+        if (claimed > used && !lease.give(claimed - used)) {
+            // The window ended while claiming, the lease has already been given back
+            store.increment(tenantId, lease.windowKey, used - claimed, lease.expiresAt);
+        }
+        return granted + used;
+    }
+
+    // Gives back what is left of the leases of windows which have ended. This runs on the first request of each
+    // window and also keeps the leases of keys which are no longer used, such as closed sessions, from building up.
+    public void releaseExpired() {
+        long windowStart = clock.millis() / 1000 / windowSeconds * windowSeconds;
+        for (Lease lease : leases.values()) {
+            if (lease.windowStart < windowStart && leases.remove(lease.id, lease)) {
+                release(lease);
+            }
+        }
+    }
+
+    // The number of requests this instance can still grant without claiming, for tests and metrics
+    public long getAllowance(String tenantId, String key) {
+        Lease lease = leases.get(tenantId + '\u0000' + key);
+        return lease != null ? Math.max(0, lease.remaining.get()) : 0;
+    }
+
+    private void release(Lease lease) {
+        long remaining = lease.close();
+        if (remaining > 0) {
+            store.increment(lease.tenantId, lease.windowKey, -remaining, lease.expiresAt);
+        }
+    }
+
+    private static final class Lease {
+        private static final long CLOSED = -1;
+
+        private final AtomicLong remaining = new AtomicLong();
+        private final String id;
+        private final String tenantId;
+        private final String windowKey;
+        private final long windowStart;
+        private final long expiresAt;
+
+        private Lease(final String id, final String tenantId, final String windowKey, final long windowStart, final long expiresAt) {
+            this.id = id;
+            this.tenantId = tenantId;
+            this.windowKey = windowKey;
+            this.windowStart = windowStart;
+            this.expiresAt = expiresAt;
+        }
+
+        // Takes up to permits from the allowance without locking
+        private long take(long permits) {
+            while (true) {
+                long current = remaining.get();
+                long taken = Math.min(permits, current);
+                if (taken <= 0 || remaining.compareAndSet(current, current - taken)) {
+                    return Math.max(0, taken);
+                }
+            }
+        }
+
+        // Adds to the allowance unless the lease has already been given back
+        private boolean give(long permits) {
+            while (true) {
+                long current = remaining.get();
+                if (current == CLOSED) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current + permits)) {
+                    return true;
+                }
+            }
+        }
+
+        private long close() {
+            return Math.max(0, remaining.getAndSet(CLOSED));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+// A versioned list of numbers used by the algorithms which keep more state than a single counter.
+// The version is used by the store for optimistic locking, a version of 0 means the item does not exist yet.
+public final class LimitRecord {
+    public static final LimitRecord EMPTY = new LimitRecord(0, new long[0]);
+
+    private final long version;
+    private final long[] values;
+
+    public LimitRecord(final long version, final long[] values) {
+        this.version = version;
+        this.values = values;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long[] getValues() {
+        return values;
+    }
+
+    public boolean isEmpty() {
+        return version == 0;
+    }
+}
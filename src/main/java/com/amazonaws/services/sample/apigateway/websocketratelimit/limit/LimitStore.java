@@ -0,0 +1,43 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.util.List;
+
+// Storage used by the rate limiters. Every item is addressed by the tenantId and a key within that tenant
+// which maps directly onto the partition and sort key of the limit table.
+// All expiry values are epoch seconds and match the itemTTL attribute of the limit table.
+public interface LimitStore {
+    // Atomically adds delta to the counter and returns the new value
+    long increment(String tenantId, String key, long delta, long expiresAt);
+
+    // Returns the current counter value or 0 if it does not exist
+    long get(String tenantId, String key);
+
+    // Returns the sum of the key's counters in each of the given partitions, for example the shards of a counter
+    default long getTotal(List<String> tenantIds, String key) {
+        long total = 0;
+        for (String tenantId : tenantIds) {
+            total += get(tenantId, key);
+        }
+        return total;
+    }
+
+    // Adds up to amount to the counter without taking it above max and returns how much was added. This version
+    // adds the whole amount and takes back what went over, so concurrent claims may briefly see a higher count
+    // but the total claimed never exceeds max. Stores which support conditional writes claim in one step.
+    default long claim(String tenantId, String key, long amount, long max, long expiresAt) {
+        long count = increment(tenantId, key, amount, expiresAt);
+        long claimed = Math.max(0, Math.min(amount, max - (count - amount)));
+        if (claimed < amount) {
+            increment(tenantId, key, claimed - amount, expiresAt);
+        }
+        return claimed;
+    }
+
+    LimitRecord load(String tenantId, String key);
+
+    // Replaces the record only if it has not changed since expected was loaded
+    boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt);
+}
@@ -0,0 +1,50 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+import java.util.function.ToLongFunction;
+
+// The algorithms a tenant can select through the rateLimitAlgorithm attribute of the tenant table.
+public enum RateLimitAlgorithm {
+    FIXED_WINDOW,
+    SLIDING_WINDOW_LOG,
+    SLIDING_WINDOW_COUNTER,
+    TOKEN_BUCKET,
+    LEASE;
+
+    public static final String TENANT_ATTRIBUTE = "rateLimitAlgorithm";
+
+    // Tenants without the attribute keep the per minute counter behaviour of the original sample
+    public static RateLimitAlgorithm fromTenantSetting(String value) {
+        if (value != null) {
+            for (RateLimitAlgorithm algorithm : values()) {
+                if (algorithm.name().equalsIgnoreCase(value.trim())) {
+                    return algorithm;
+                }
+            }
+        }
+        return FIXED_WINDOW;
+    }
+
+    public RateLimiter create(LimitStore store, Clock clock, long windowSeconds) {
+        return create(store, clock, windowSeconds, tenantId -> 0);
+    }
+
+    // leaseSize is the tenant's leaseSize setting, only used by the lease algorithm
+    public RateLimiter create(LimitStore store, Clock clock, long windowSeconds, ToLongFunction<String> leaseSize) {
+        switch (this) {
+            case SLIDING_WINDOW_LOG:
+                return new SlidingWindowLogRateLimiter(store, clock, windowSeconds);
+            case SLIDING_WINDOW_COUNTER:
+                return new SlidingWindowCounterRateLimiter(store, clock, windowSeconds);
+            case TOKEN_BUCKET:
+                return new TokenBucketRateLimiter(store, clock, windowSeconds);
+            case LEASE:
+                return new LeaseRateLimiter(store, clock, windowSeconds, leaseSize);
+            default:
+                return new FixedWindowRateLimiter(store, clock, windowSeconds);
+        }
+    }
+}
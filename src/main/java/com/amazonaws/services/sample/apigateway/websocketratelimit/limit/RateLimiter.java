@@ -0,0 +1,18 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+// A rate limiter records a single request for the given key and decides if it is within the allowed
+// number of requests per window. The key follows the same format as the Node.js handlers use for the
+// limit table, for example tenantId:minute or tenantId:sessionId:minute, and each algorithm appends its
+// own suffix when it stores state.
+public interface RateLimiter {
+    // Records up to permits requests at once, for example a batch of messages, and returns how many of them
+    // are within the limit. The granted permits are always the first ones of the batch.
+    long tryAcquire(String tenantId, String key, long permits, long limit);
+
+    default boolean tryAcquire(String tenantId, String key, long limit) {
+        return tryAcquire(tenantId, key, 1, limit) == 1;
+    }
+}
@@ -0,0 +1,42 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+// Holds one limiter per algorithm over a shared store so handlers can pick the tenant's algorithm per request
+public class RateLimiters {
+    public static final long SECONDS_PER_MINUTE = 60;
+
+    private final Map<RateLimitAlgorithm, RateLimiter> limiters = new EnumMap<>(RateLimitAlgorithm.class);
+
+    public RateLimiters(final LimitStore store) {
+        this(store, Clock.systemUTC(), SECONDS_PER_MINUTE);
+    }
+
+    public RateLimiters(final LimitStore store, final ToLongFunction<String> leaseSize) {
+        this(store, Clock.systemUTC(), SECONDS_PER_MINUTE, leaseSize);
+    }
+
+    public RateLimiters(final LimitStore store, final Clock clock, final long windowSeconds) {
+        this(store, clock, windowSeconds, tenantId -> 0);
+    }
+
+    public RateLimiters(final LimitStore store, final Clock clock, final long windowSeconds, final ToLongFunction<String> leaseSize) {
+        for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+            limiters.put(algorithm, algorithm.create(store, clock, windowSeconds, leaseSize));
+        }
+    }
+
+    public RateLimiter forAlgorithm(RateLimitAlgorithm algorithm) {
+        return limiters.get(algorithm == null ? RateLimitAlgorithm.FIXED_WINDOW : algorithm);
+    }
+
+    public RateLimiter forTenantSetting(String value) {
+        return forAlgorithm(RateLimitAlgorithm.fromTenantSetting(value));
+    }
+}
@@ -0,0 +1,190 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+// A single connection to a Redis protocol (RESP2) server which sends one command at a time and waits for its reply,
+// enough for the handful of commands RedisLimitStore sends. The connection is made on the first call and, when a
+// user is given, authenticated as that user with the password from the supplier, which for ElastiCache IAM
+// authentication is a freshly presigned token each time. A call that fails on the network closes the connection
+// and throws an UncheckedIOException without retrying, since the command may already have run, and the next call
+// connects again. Replies are returned as a Long, a String, null or a List of those, error replies are thrown as a
+// RedisException.
+public class RedisConnection implements Closeable {
+    private final String host;
+    private final int port;
+    private final boolean tls;
+    private final String user;
+    private final Supplier<String> password;
+    private final int timeoutMillis;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private boolean closed;
+
+    public RedisConnection(final String host, final int port, final boolean tls, final String user, final Supplier<String> password,
+                           final int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+        this.user = user;
+        this.password = password;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public synchronized Object call(String... command) {
+        if (closed) {
+            throw new UncheckedIOException(new IOException("The connection to " + host + ":" + port + " was closed"));
+        }
+        try {
+            if (socket == null) {
+                connect();
+            }
+            write(command);
+            return read();
+        } catch (IOException e) {
+            disconnect();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Closes the connection for good, calls made afterwards fail
+    @Override
+    public synchronized void close() {
+        closed = true;
+        disconnect();
+    }
+
+    private void connect() throws IOException {
+        SocketFactory factory = tls ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
+        Socket connected = factory.createSocket();
+        try {
+            connected.setTcpNoDelay(true);
+            connected.setSoTimeout(timeoutMillis);
+            connected.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket = connected;
+            in = new BufferedInputStream(connected.getInputStream());
+            out = new BufferedOutputStream(connected.getOutputStream());
+            if (user != null) {
+                write(new String[] { "AUTH", user, password.get() });
+                read();
+            }
+        } catch (IOException | RuntimeException e) {
+            disconnect();
+            connected.close();
+            throw e;
+        }
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // The connection is being dropped either way
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    private void write(String[] command) throws IOException {
+        out.write(('*' + Integer.toString(command.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (String argument : command) {
+            byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+            out.write(('$' + Integer.toString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private Object read() throws IOException {
+        int type = in.read();
+        String line = readLine();
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new RedisException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length + 2];
+                if (in.readNBytes(bytes, 0, bytes.length) < bytes.length) {
+                    throw new EOFException("The connection to " + host + ":" + port + " closed mid reply");
+                }
+                return new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    try {
+                        values.add(read());
+                    } catch (RedisException e) {
+                        values.add(e);
+                    }
+                }
+                return values;
+            }
+            case -1:
+                throw new EOFException("The connection to " + host + ":" + port + " was closed by the server");
+            default:
+                throw new IOException("Unexpected reply type " + (char) type + " from " + host + ":" + port);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\r'; c = in.read()) {
+            if (c == -1) {
+                throw new EOFException("The connection to " + host + ":" + port + " closed mid reply");
+            }
+            line.append((char) c);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("Malformed reply from " + host + ":" + port);
+        }
+        return line.toString();
+    }
+
+    // An error reply, such as NOSCRIPT or NOPERM, the connection itself is still usable
+    public static class RedisException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public RedisException(final String message) {
+            super(message);
+        }
+
+        public boolean isNoScript() {
+            return getMessage().startsWith("NOSCRIPT");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Keeps one connection per tenant for the life of the Lambda container, each authenticated as that tenant's user, so
+// warm invocations skip the TLS handshake and AUTH. Once maximumSize tenants are pooled the least recently used
+// tenant's connection is closed.
+public class RedisConnectionPool {
+    private final Map<String, RedisConnection> connections;
+    private final Function<String, RedisConnection> factory;
+
+    public RedisConnectionPool(final int maximumSize, final Function<String, RedisConnection> factory) {
+        this.factory = factory;
+        this.connections = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RedisConnection> eldest) {
+                if (size() <= maximumSize) {
+                    return false;
+                }
+                eldest.getValue().close();
+                return true;
+            }
+        };
+    }
+
+    public synchronized RedisConnection get(String tenantId) {
+        return connections.computeIfAbsent(tenantId, factory);
+    }
+
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    // Closes every pooled connection, for example in an execution environment restored from a SnapStart snapshot
+    // whose connections were made before the snapshot was taken
+    public void closeAll() {
+        List<RedisConnection> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(connections.values());
+            connections.clear();
+        }
+        for (RedisConnection connection : closing) {
+            connection.close();
+        }
+    }
+}
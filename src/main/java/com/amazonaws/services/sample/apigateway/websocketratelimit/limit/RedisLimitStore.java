@@ -0,0 +1,132 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Function;
+
+// Stores limits in a Redis protocol server, such as an ElastiCache serverless cache, instead of the limit table. Every
+// item is the string key tenantId/key, which expires at the same time its itemTTL would, and counters are plain
+// integers. Each write is a Lua script run atomically by the server so an increment and its expiry, or a claim and
+// the check against max, are a single round trip. Records are stored as the version followed by the values,
+// separated by spaces, and replaced by a script which checks the version first.
+// The connection is looked up per tenant so each tenant's keys are accessed as that tenant's own Redis user, whose
+// access string only allows keys starting with tenantId/, the same isolation the LeadingKeys conditions give the
+// limit table. Tenant Ids must not contain /, *, ?, [ or \ so that no tenant's pattern matches another's keys, the
+// stack only creates users for tenant Ids of letters, digits and hyphens.
+// Counters are not sharded, the tenantId#n partitions of ShardedLimitStore only spread DynamoDB partitions.
+public class RedisLimitStore implements LimitStore {
+    static final String INCREMENT = ""
+            + "local count = redis.call('INCRBY', KEYS[1], ARGV[1])\n"
+            + "redis.call('EXPIREAT', KEYS[1], ARGV[2])\n"
+            + "return count\n";
+    static final String CLAIM = ""
+            + "local count = tonumber(redis.call('GET', KEYS[1]) or '0')\n"
+            + "local claim = math.min(tonumber(ARGV[1]), tonumber(ARGV[2]) - count)\n"
+            + "if claim <= 0 then return 0 end\n"
+            + "redis.call('INCRBY', KEYS[1], claim)\n"
+            + "redis.call('EXPIREAT', KEYS[1], ARGV[3])\n"
+            + "return claim\n";
+    static final String COMPARE_AND_SET = ""
+            + "local record = redis.call('GET', KEYS[1])\n"
+            + "local version = record and tonumber(string.match(record, '^%d+')) or 0\n"
+            + "if version ~= tonumber(ARGV[1]) then return 0 end\n"
+            + "redis.call('SET', KEYS[1], ARGV[2], 'EXAT', ARGV[3])\n"
+            + "return 1\n";
+    private static final String INCREMENT_SHA = sha1(INCREMENT);
+    private static final String CLAIM_SHA = sha1(CLAIM);
+    private static final String COMPARE_AND_SET_SHA = sha1(COMPARE_AND_SET);
+
+    private final Function<String, RedisConnection> connections;
+
+    public RedisLimitStore(final RedisConnection connection) {
+        this(tenantId -> connection);
+    }
+
+    public RedisLimitStore(final Function<String, RedisConnection> connections) {
+        this.connections = connections;
+    }
+
+    @Override
+    public long increment(String tenantId, String key, long delta, long expiresAt) {
+        return (Long) eval(tenantId, INCREMENT, INCREMENT_SHA, key(tenantId, key), Long.toString(delta), Long.toString(expiresAt));
+    }
+
+    // A single script claims as much of the amount as fits below max
+    @Override
+    public long claim(String tenantId, String key, long amount, long max, long expiresAt) {
+        return (Long) eval(tenantId, CLAIM, CLAIM_SHA, key(tenantId, key), Long.toString(amount), Long.toString(max), Long.toString(expiresAt));
+    }
+
+    @Override
+    public long get(String tenantId, String key) {
+        Object value = connections.apply(tenantId).call("GET", key(tenantId, key));
+        return value == null ? 0 : Long.parseLong((String) value);
+    }
+
+    @Override
+    public LimitRecord load(String tenantId, String key) {
+        Object value = connections.apply(tenantId).call("GET", key(tenantId, key));
+        if (value == null) {
+            return LimitRecord.EMPTY;
+        }
+        String[] fields = ((String) value).split(" ");
+        long[] values = new long[fields.length - 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Long.parseLong(fields[i + 1]);
+        }
+        return new LimitRecord(Long.parseLong(fields[0]), values);
+    }
+
+    @Override
+    public boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt) {
+        StringBuilder record = new StringBuilder(Long.toString(expected.getVersion() + 1));
+        for (long value : values) {
+            record.append(' ').append(value);
+        }
+        return (Long) eval(tenantId, COMPARE_AND_SET, COMPARE_AND_SET_SHA, key(tenantId, key), Long.toString(expected.getVersion()),
+                record.toString(), Long.toString(expiresAt)) == 1;
+    }
+
+    // Runs the script by its hash, which the server keeps once it has seen the script, and sends the whole script
+    // only when the server does not have it yet
+    private Object eval(String tenantId, String script, String sha, String key, String... args) {
+        RedisConnection connection = connections.apply(tenantId);
+        String[] command = new String[args.length + 4];
+        command[1] = sha;
+        command[2] = "1";
+        command[3] = key;
+        System.arraycopy(args, 0, command, 4, args.length);
+        command[0] = "EVALSHA";
+        try {
+            return connection.call(command);
+        } catch (RedisConnection.RedisException e) {
+            if (!e.isNoScript()) {
+                throw e;
+            }
+        }
+        command[0] = "EVAL";
+        command[1] = script;
+        return connection.call(command);
+    }
+
+    static String key(String tenantId, String key) {
+        return tenantId + "/" + key;
+    }
+
+    static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
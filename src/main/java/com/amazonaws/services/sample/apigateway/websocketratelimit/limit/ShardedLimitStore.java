@@ -0,0 +1,78 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+
+// Spreads each tenant's counters over a number of partitions so a busy tenant is not limited by the write
+// throughput of a single limit table partition. An increment goes to a randomly chosen shard and the counter's
+// value is the sum over all shards. Shard 0 is the tenantId itself and shard n is tenantId#n, which the table
+// role's LeadingKeys condition already allows as it only requires the partition key to start with the tenantId.
+// With a single shard this is the same layout the Node.js handlers use.
+// Records of the sliding window log and token bucket algorithms are replaced as a whole and are not sharded.
+public class ShardedLimitStore implements LimitStore {
+    public static final char SHARD_SEPARATOR = '#';
+
+    private final LimitStore store;
+    private final ToIntFunction<String> shards;
+
+    public ShardedLimitStore(final LimitStore store, final ToIntFunction<String> shards) {
+        this.store = store;
+        this.shards = shards;
+    }
+
+    @Override
+    public long increment(String tenantId, String key, long delta, long expiresAt) {
+        int count = shards.applyAsInt(tenantId);
+        if (count <= 1) {
+            return store.increment(tenantId, key, delta, expiresAt);
+        }
+        int shard = ThreadLocalRandom.current().nextInt(count);
+        long value = store.increment(partition(tenantId, shard), key, delta, expiresAt);
+        List<String> others = new ArrayList<>(count - 1);
+        for (int i = 0; i < count; i++) {
+            if (i != shard) {
+                others.add(partition(tenantId, i));
+            }
+        }
+        return value + store.getTotal(others, key);
+    }
+
+    @Override
+    public long get(String tenantId, String key) {
+        int count = shards.applyAsInt(tenantId);
+        return count <= 1 ? store.get(tenantId, key) : store.getTotal(partitions(tenantId, count), key);
+    }
+
+    @Override
+    public LimitRecord load(String tenantId, String key) {
+        return store.load(tenantId, key);
+    }
+
+    @Override
+    public boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt) {
+        return store.compareAndSet(tenantId, key, expected, values, expiresAt);
+    }
+
+    public static String partition(String tenantId, int shard) {
+        return shard == 0 ? tenantId : tenantId + SHARD_SEPARATOR + shard;
+    }
+
+    public static List<String> partitions(String tenantId, int count) {
+        List<String> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(partition(tenantId, i));
+        }
+        return partitions;
+    }
+
+    // The tenant a shard's partition key belongs to, used to pick the tenant's scoped credentials
+    public static String tenantOf(String partition) {
+        int separator = partition.indexOf(SHARD_SEPARATOR);
+        return separator < 0 ? partition : partition.substring(0, separator);
+    }
+}
@@ -0,0 +1,43 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+
+// Approximates a sliding window by weighting the previous window's count by how much of it still overlaps
+// the last windowSeconds. It keeps the fixed window's storage layout, adding one read per request, and
+// removes most of the boundary burst at the cost of assuming requests were evenly spread in the previous window.
+public class SlidingWindowCounterRateLimiter implements RateLimiter {
+    private final LimitStore store;
+    private final Clock clock;
+    private final long windowSeconds;
+
+    public SlidingWindowCounterRateLimiter(final LimitStore store, final Clock clock, final long windowSeconds) {
+        this.store = store;
+        this.clock = clock;
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public long tryAcquire(String tenantId, String key, long permits, long limit) {
+        long now = clock.millis();
+        long windowMillis = windowSeconds * 1000;
+        long windowStart = now / windowMillis * windowSeconds;
+        // The current window is kept for a second window so the next one can still read it as its previous count
+        String currentKey = key + ":" + windowStart;
+        long before = store.increment(tenantId, currentKey, permits, windowStart + 2 * windowSeconds + 1) - permits;
+        long granted = 0;
+        if (before < limit) {
+            long previous = store.get(tenantId, key + ":" + (windowStart - windowSeconds));
+            double overlap = 1.0 - (double) (now - windowStart * 1000) / windowMillis;
+            long allowance = (long) Math.floor(limit - previous * overlap);
+            granted = Math.max(0, Math.min(permits, allowance - before));
+        }
+        if (granted < permits) {
+            // Rejected requests are taken back out so they do not count against the following window
+            store.increment(tenantId, currentKey, granted - permits, windowStart + 2 * windowSeconds + 1);
+        }
+        return granted;
+    }
+}
@@ -0,0 +1,51 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+import java.util.Arrays;
+
+// Keeps the timestamp of every accepted request in the last windowSeconds and is exact, never allowing more
+// than the limit in any window. The item grows with the limit so it is best suited to low limits such as
+// connections per session.
+public class SlidingWindowLogRateLimiter implements RateLimiter {
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final LimitStore store;
+    private final Clock clock;
+    private final long windowSeconds;
+
+    public SlidingWindowLogRateLimiter(final LimitStore store, final Clock clock, final long windowSeconds) {
+        this.store = store;
+        this.clock = clock;
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public long tryAcquire(String tenantId, String key, long permits, long limit) {
+        String logKey = key + ":log";
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long now = clock.millis();
+            LimitRecord record = store.load(tenantId, logKey);
+            long[] log = record.getValues();
+            long oldest = now - windowSeconds * 1000;
+            int first = 0;
+            while (first < log.length && log[first] <= oldest) {
+                first++;
+            }
+            int remaining = log.length - first;
+            int granted = (int) Math.max(0, Math.min(permits, limit - remaining));
+            if (granted == 0) {
+                return 0;
+            }
+            long[] updated = Arrays.copyOfRange(log, first, log.length + granted);
+            Arrays.fill(updated, remaining, updated.length, now);
+            if (store.compareAndSet(tenantId, logKey, record, updated, now / 1000 + windowSeconds + 1)) {
+                return granted;
+            }
+        }
+        // Too much contention on this key, fail closed the same way the handlers do on a DynamoDB error
+        return 0;
+    }
+}
@@ -0,0 +1,53 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+
+// A bucket holding up to limit tokens which refills at limit tokens per windowSeconds. Bursts up to the limit
+// are allowed and afterwards requests are spread evenly. Rejected requests do not write to the store.
+// Tokens are stored in units of windowSeconds * 1000 per token so that the refill of limit units per
+// millisecond never loses fractions of a token.
+public class TokenBucketRateLimiter implements RateLimiter {
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final LimitStore store;
+    private final Clock clock;
+    private final long windowSeconds;
+
+    public TokenBucketRateLimiter(final LimitStore store, final Clock clock, final long windowSeconds) {
+        this.store = store;
+        this.clock = clock;
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public long tryAcquire(String tenantId, String key, long permits, long limit) {
+        if (limit <= 0) {
+            return 0;
+        }
+        String bucketKey = key + ":bucket";
+        long tokenUnits = windowSeconds * 1000;
+        long capacity = limit * tokenUnits;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long now = clock.millis();
+            LimitRecord record = store.load(tenantId, bucketKey);
+            long tokens = capacity;
+            if (!record.isEmpty()) {
+                long[] values = record.getValues();
+                long elapsed = Math.max(0, now - values[1]);
+                tokens = Math.min(capacity, values[0] + elapsed * limit);
+            }
+            long granted = Math.min(permits, tokens / tokenUnits);
+            if (granted == 0) {
+                return 0;
+            }
+            // An expired bucket is the same as a full one so the item only needs to live for one refill period
+            if (store.compareAndSet(tenantId, bucketKey, record, new long[] { tokens - granted * tokenUnits, now }, now / 1000 + windowSeconds + 1)) {
+                return granted;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,27 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.metrics;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.CacheStats;
+
+// Records the hits and misses of a cache since the previous call as <name>Hits and <name>Misses so CloudWatch can
+// chart its hit rate, the totals kept by the cache itself only grow for the life of the container
+public class CacheMetrics {
+    private final String name;
+    private CacheStats previous = new CacheStats(0, 0, 0, 0);
+
+    public CacheMetrics(final String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(MetricsLogger metrics, CacheStats current) {
+        long hits = current.getHitCount() - previous.getHitCount();
+        long misses = current.getMissCount() - previous.getMissCount();
+        if (hits > 0 || misses > 0) {
+            metrics.putCount(null, name + "Hits", hits);
+            metrics.putCount(null, name + "Misses", misses);
+        }
+        previous = current;
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.metrics;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+import java.util.function.Function;
+
+// Records the latency of every call made by an SDK client as <name>Latency, including its retries, and the calls
+// the service throttled as <name>Throttles. The tenant of a call is taken from its request, or null for the function.
+public class MetricsInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("MetricsStartNanos");
+
+    private final MetricsLogger metrics;
+    private final String name;
+    private final Function<SdkRequest, String> tenantIds;
+
+    public MetricsInterceptor(final MetricsLogger metrics, final String name, final Function<SdkRequest, String> tenantIds) {
+        this.metrics = metrics;
+        this.name = name;
+        this.tenantIds = tenantIds;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        record(context.request(), executionAttributes);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        String tenantId = record(context.request(), executionAttributes);
+        Throwable error = context.exception();
+        if (error instanceof SdkServiceException && ((SdkServiceException) error).isThrottlingException()) {
+            metrics.putCount(tenantId, name + "Throttles", 1);
+        }
+    }
+
+    private String record(SdkRequest request, ExecutionAttributes executionAttributes) {
+        String tenantId = tenantIds.apply(request);
+        Long start = executionAttributes.getAttribute(START_NANOS);
+        if (start != null) {
+            metrics.putLatency(tenantId, name + "Latency", System.nanoTime() - start);
+        }
+        return tenantId;
+    }
+}
@@ -0,0 +1,202 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.metrics;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+// Collects the metrics of a Lambda container and writes them as CloudWatch embedded metric format (EMF) log lines when
+// flushed, which CloudWatch Logs turns into metrics without a PutMetricData call on the request path.
+// Metrics are recorded per tenant, or for the whole function when the tenant is null, and throttles also per limit
+// type. Every metric carries the Function dimension, and per tenant metrics are also published without the TenantId
+// dimension so dashboards and alarms can use the totals of a function. Latencies are kept as individual values so
+// CloudWatch can report percentiles of them, counts are summed until the next flush.
+// Recording is safe from any thread and flush writes one line per tenant and limit type.
+// The handlers record the time the authorizer takes to decide as AuthorizerLatency, with AuthorizerAllowed or
+// AuthorizerDenied, per tenant for tenants which exist, and rejected connections and messages as Throttles with the
+// limit which rejected them, or OVERLOADED when they were shed, as the LimitType. Calls to the AWS services are
+// recorded by the MetricsInterceptor and the caches' hits and misses by CacheMetrics.
+public class MetricsLogger {
+    public static final String NAMESPACE = "WebSocketRateLimit";
+    public static final String FUNCTION = "Function";
+    public static final String TENANT_ID = "TenantId";
+    public static final String LIMIT_TYPE = "LimitType";
+    public static final String THROTTLES = "Throttles";
+    // CloudWatch accepts at most 100 values of a metric in one EMF document
+    static final int MAX_VALUES = 100;
+
+    private final String namespace;
+    private final Consumer<String> out;
+    private final Clock clock;
+    private final ConcurrentMap<Key, Document> documents = new ConcurrentHashMap<>();
+
+    public MetricsLogger(final Consumer<String> out) {
+        this(NAMESPACE, out, Clock.systemUTC());
+    }
+
+    public MetricsLogger(final String namespace, final Consumer<String> out, final Clock clock) {
+        this.namespace = namespace;
+        this.out = out;
+        this.clock = clock;
+    }
+
+    public void putLatency(String tenantId, String name, long nanos) {
+        // Microsecond precision is plenty for calls measured in milliseconds and keeps the log lines short
+        double millis = Math.round(nanos / 1_000.0) / 1_000.0;
+        record(new Key(tenantId, null), document -> document.latencies.computeIfAbsent(name, ignored -> new ArrayList<>()).add(millis));
+    }
+
+    public void putCount(String tenantId, String name, long count) {
+        record(new Key(tenantId, null), document -> document.counts.merge(name, count, Long::sum));
+    }
+
+    // Requests rejected by one of the rate limits, limitType names the limit, for example TENANT_PER_MINUTE
+    public void putThrottles(String tenantId, String limitType, long count) {
+        record(new Key(tenantId, limitType), document -> document.counts.merge(THROTTLES, count, Long::sum));
+    }
+
+    // Drops everything recorded since the last flush, for example the calls made while priming a handler
+    public void clear() {
+        for (Key key : documents.keySet()) {
+            Document document = documents.remove(key);
+            if (document != null) {
+                synchronized (document) {
+                    document.closed = true;
+                }
+            }
+        }
+    }
+
+    // Writes everything recorded since the last flush with the given Function dimension, usually at the end of every
+    // invocation so the metrics are not lost when the container is frozen or shut down
+    public void flush(String function) {
+        long timestamp = clock.millis();
+        for (Key key : documents.keySet()) {
+            Document document = documents.remove(key);
+            if (document == null) {
+                continue;
+            }
+            synchronized (document) {
+                document.closed = true;
+                int lines = 1;
+                for (List<Double> values : document.latencies.values()) {
+                    lines = Math.max(lines, (values.size() + MAX_VALUES - 1) / MAX_VALUES);
+                }
+                for (int line = 0; line < lines; line++) {
+                    out.accept(toJson(function, key, document, line, timestamp));
+                }
+            }
+        }
+    }
+
+    private void record(Key key, Consumer<Document> update) {
+        while (true) {
+            Document document = documents.computeIfAbsent(key, ignored -> new Document());
+            synchronized (document) {
+                // A flush took this document after it was looked up, record into the next one
+                if (!document.closed) {
+                    update.accept(document);
+                    return;
+                }
+            }
+        }
+    }
+
+    // The counts are written with the first line and each line carries the next MAX_VALUES values of every latency
+    private String toJson(String function, Key key, Document document, int line, long timestamp) {
+        Map<String, String> dimensions = new LinkedHashMap<>();
+        dimensions.put(FUNCTION, function);
+        if (key.tenantId != null) {
+            dimensions.put(TENANT_ID, key.tenantId);
+        }
+        if (key.limitType != null) {
+            dimensions.put(LIMIT_TYPE, key.limitType);
+        }
+        StringBuilder definitions = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        if (line == 0) {
+            for (Map.Entry<String, Long> count : document.counts.entrySet()) {
+                append(definitions, count.getKey(), "Count");
+                values.append(',').append(EchoResponses.quote(count.getKey())).append(':').append(count.getValue());
+            }
+        }
+        for (Map.Entry<String, List<Double>> latency : document.latencies.entrySet()) {
+            List<Double> all = latency.getValue();
+            if (all.size() <= line * MAX_VALUES) {
+                continue;
+            }
+            append(definitions, latency.getKey(), "Milliseconds");
+            values.append(',').append(EchoResponses.quote(latency.getKey())).append(":[");
+            List<Double> chunk = all.subList(line * MAX_VALUES, Math.min(all.size(), (line + 1) * MAX_VALUES));
+            for (int i = 0; i < chunk.size(); i++) {
+                values.append(i > 0 ? "," : "").append(chunk.get(i));
+            }
+            values.append(']');
+        }
+        StringBuilder json = new StringBuilder(256 + definitions.length() + values.length())
+                .append("{\"_aws\":{\"Timestamp\":").append(timestamp)
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":").append(EchoResponses.quote(namespace))
+                .append(",\"Dimensions\":[").append(dimensionSet(dimensions.keySet(), null));
+        if (key.tenantId != null) {
+            json.append(',').append(dimensionSet(dimensions.keySet(), TENANT_ID));
+        }
+        json.append("],\"Metrics\":[").append(definitions).append("]}]}");
+        for (Map.Entry<String, String> dimension : dimensions.entrySet()) {
+            json.append(',').append(EchoResponses.quote(dimension.getKey())).append(':').append(EchoResponses.quote(dimension.getValue()));
+        }
+        return json.append(values).append('}').toString();
+    }
+
+    private static void append(StringBuilder definitions, String name, String unit) {
+        if (definitions.length() > 0) {
+            definitions.append(',');
+        }
+        definitions.append("{\"Name\":").append(EchoResponses.quote(name)).append(",\"Unit\":\"").append(unit).append("\"}");
+    }
+
+    private static String dimensionSet(Iterable<String> names, String excluded) {
+        StringBuilder set = new StringBuilder("[");
+        for (String name : names) {
+            if (!name.equals(excluded)) {
+                set.append(set.length() > 1 ? "," : "").append(EchoResponses.quote(name));
+            }
+        }
+        return set.append(']').toString();
+    }
+
+    private static final class Key {
+        private final String tenantId;
+        private final String limitType;
+
+        private Key(final String tenantId, final String limitType) {
+            this.tenantId = tenantId;
+            this.limitType = limitType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Objects.equals(tenantId, ((Key) other).tenantId) && Objects.equals(limitType, ((Key) other).limitType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenantId, limitType);
+        }
+    }
+
+    private static final class Document {
+        private final Map<String, List<Double>> latencies = new LinkedHashMap<>();
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+        private boolean closed;
+    }
+}
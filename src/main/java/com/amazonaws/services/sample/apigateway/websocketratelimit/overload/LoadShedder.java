@@ -0,0 +1,141 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.overload;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantTier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+// Sheds requests before they call a dependency, such as DynamoDB or postToConnection, while the dependency is slow.
+// A Lambda container handles one connect at a time, so rather than limiting the calls in flight this limits the
+// share of requests which are admitted, additive increase, multiplicative decrease: a call slower than the latency
+// target, or one which failed, halves the share, or cuts it in proportion to how far over the target the call was
+// down to a tenth, and the share grows back linearly over the recovery time. Calls which were already in flight when
+// the share was cut are likely to be slow too, so only a slow call which started after the last cut cuts it again.
+// The latency target is twice the average latency of the calls which were not slow, within minTarget and maxTarget,
+// so it follows the dependency's normal latency. The first call recorded, which in a new container also sets up the
+// connection, is left out.
+// Every tenant also has a share of its own from its own calls, so a tenant whose calls are slow, for example on a hot
+// partition, is shed without the others: the dependency's share is only cut by slow calls of two different tenants
+// in a row. A request is admitted against the lower of the two shares, and the tenant's
+// tier decides how much of that share it gets: BASIC tenants are shed first, then STANDARD and PREMIUM tenants last.
+// Shed requests are spread evenly rather than at random so the admitted share is exact.
+// A shed request is answered without calling the dependency, a connect with a 429 and an echo with a throttle response,
+// and recorded as Throttles with the OVERLOADED LimitType. LoadShedding false leaves the shedders out.
+public class LoadShedder {
+    public static final String OVERLOADED = "OVERLOADED";
+    // Even PREMIUM tenants keep a tenth of their requests at the lowest share, which is what finds out the
+    // dependency has recovered before the share has grown back
+    static final double MIN_SHARE = 0.02;
+    private static final double TOLERANCE = 2.0;
+    // The weight of each call in the average latency of the calls which were not slow
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    private final Function<String, TenantTier> tiers;
+    private final Clock clock;
+    private final long minTargetNanos;
+    private final long maxTargetNanos;
+    private final long recoveryMillis;
+    private final Share dependency = new Share();
+    // One entry per tenant seen by the container, which is bounded by the tenants of the tenant table
+    private final ConcurrentMap<String, Share> tenants = new ConcurrentHashMap<>();
+
+    public LoadShedder(final Function<String, TenantTier> tiers, final Duration minTarget, final Duration maxTarget, final Duration recovery) {
+        this(tiers, minTarget, maxTarget, recovery, Clock.systemUTC());
+    }
+
+    public LoadShedder(final Function<String, TenantTier> tiers, final Duration minTarget, final Duration maxTarget, final Duration recovery,
+                       final Clock clock) {
+        this.tiers = tiers;
+        this.clock = clock;
+        this.minTargetNanos = minTarget.toNanos();
+        this.maxTargetNanos = Math.max(minTargetNanos, maxTarget.toNanos());
+        this.recoveryMillis = Math.max(1, recovery.toMillis());
+    }
+
+    // Returns false if the tenant's request should be rejected without calling the dependency
+    public boolean tryAdmit(String tenantId) {
+        long now = clock.millis();
+        double share = dependency.get(now);
+        Share tenant = tenants.computeIfAbsent(tenantId, ignored -> new Share());
+        return tenant.admit(admitted(tiers.apply(tenantId), Math.min(share, tenant.get(now))));
+    }
+
+    // Records a call to the dependency made for the tenant, or for no tenant in particular when it is null
+    public void record(String tenantId, long nanos, boolean failed) {
+        long now = clock.millis();
+        dependency.record(now, nanos, failed, tenantId);
+        if (tenantId != null) {
+            tenants.computeIfAbsent(tenantId, ignored -> new Share()).record(now, nanos, failed, null);
+        }
+    }
+
+    // The share of the requests of STANDARD tenants which are admitted, 1 while the dependency is healthy
+    public double getShare(String tenantId) {
+        long now = clock.millis();
+        Share tenant = tenants.get(tenantId);
+        return Math.min(dependency.get(now), tenant == null ? 1 : tenant.get(now));
+    }
+
+    // The tiers take the share in bands, PREMIUM from 0 to 0.2, STANDARD from 0.2 to 0.5 and BASIC from 0.5 to 1, so
+    // a tier is only shed once every tier below it is shed entirely
+    static double admitted(TenantTier tier, double share) {
+        double lower = tier == TenantTier.BASIC ? 0.5 : tier == TenantTier.STANDARD ? 0.2 : 0;
+        double upper = tier == TenantTier.BASIC ? 1 : tier == TenantTier.STANDARD ? 0.5 : 0.2;
+        return Math.max(0, Math.min(1, (share - lower) / (upper - lower)));
+    }
+
+    private final class Share {
+        private double share = 1;
+        private long updatedMillis;
+        private long decreasedMillis = Long.MIN_VALUE;
+        private long calls;
+        private double baselineNanos = Double.NaN;
+        private String slowTenantId;
+        // Admits a request whenever a whole request's worth has built up
+        private double credit;
+
+        synchronized double get(long now) {
+            share = Math.min(1, share + (double) Math.max(0, now - updatedMillis) / recoveryMillis);
+            updatedMillis = now;
+            return share;
+        }
+
+        synchronized boolean admit(double admitted) {
+            credit = Math.min(1, credit + admitted);
+            if (credit < 1) {
+                return false;
+            }
+            credit -= 1;
+            return true;
+        }
+
+        // tenantId is the tenant of the call, or null if it cannot be the only tenant whose calls are slow
+        synchronized void record(long now, long nanos, boolean failed, String tenantId) {
+            get(now);
+            if (calls++ == 0) {
+                return;
+            }
+            double target = Double.isNaN(baselineNanos) ? maxTargetNanos : Math.max(minTargetNanos, Math.min(maxTargetNanos, TOLERANCE * baselineNanos));
+            if (!failed && nanos <= target) {
+                baselineNanos = Double.isNaN(baselineNanos) ? nanos : baselineNanos + (nanos - baselineNanos) * BASELINE_WEIGHT;
+                return;
+            }
+            String previous = slowTenantId;
+            slowTenantId = tenantId;
+            if (tenantId != null && (previous == null || previous.equals(tenantId))) {
+                return;
+            }
+            if (now - nanos / 1_000_000 < decreasedMillis) {
+                return;
+            }
+            share = Math.max(MIN_SHARE, share * (failed ? 0.5 : Math.max(0.1, Math.min(0.5, target / nanos))));
+            decreasedMillis = now;
+        }
+    }
+}
@@ -0,0 +1,544 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.DynamoDBLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ShardedLimitStore;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+// Sessions stored in the session table, with each connection of a session a row of the connection table, accessed
+// with each tenant's scoped client. A connection row is keyed by the session, tenantId#sessionId, and its
+// connectionId, so a session's connections are one item collection read with a paginated Query and a session holds
+// as many connections as its limit allows rather than as many as fit in the 400 KB of a session item.
+// The session item keeps the connectionCount the per session limit is checked against and a membershipVersion,
+// both updated in the same transaction as the connection row on every connect and disconnect. A touch returns the
+// version with the rest of the item, so the connections are only read again from the connection table when the
+// membership has changed since they were last cached in the MembershipCache.
+// A touch reads the session item and only writes the new sessionTTL once less than the refresh fraction of sessionTTL
+// is left, rather than on every message, which would make a write and a MODIFY stream record per message. The write
+// is conditional on the sessionTTL still being due, so of the consumers which read it at the same time only one
+// refreshes it. A refresh fraction of 1 writes the sessionTTL on every touch, returning the old item, as before.
+// The tenant's total connections are the itemCount of the limit table item keyed by the tenantId, updated in the
+// same transaction as the connection row the same way WebsocketConnect.js and WebsocketDisconnect.js do.
+// Sessions created before the connection table keep their connections in the connectionIds string set of the session
+// item. These are still read and removed, so their connections are accounted for until they disconnect.
+// For tenants with more than one limit shard the count is spread over the tenantId#n partitions, see ShardedLimitStore.
+// Revoked session tokens are kept in a single limit table item per tenant, keyed tenantId:revoked, with an r#<sessionId>
+// map of when the session was revoked and until when its tokens could be valid. Revocations are few and short lived, so
+// one GetItem returns all of a tenant's, and the item is removed by the limit table's TTL once the last one lapses.
+public class DynamoDBSessionStore implements SessionStore, RevocationStore {
+    static final long EXPIRY_MARKER_TTL_SECONDS = 2 * 24 * 60 * 60;
+    // API Gateway closes a WebSocket connection after two hours, so a connection row left behind by a $disconnect
+    // which never arrived is removed by the connection table's TTL an hour after that
+    static final long CONNECTION_TTL_SECONDS = 3 * 60 * 60;
+    static final String REVOKED_PREFIX = "r#";
+    // Keeps the update expression which drops lapsed revocations well within its size limit
+    private static final int MAX_REMOVED_REVOCATIONS = 50;
+    private static final int MAX_BATCH_WRITE = 25;
+    private static final int MAX_BATCH_ATTEMPTS = 5;
+    // A session is refreshed once less than 80% of its sessionTTL is left, so a session whose messages keep coming
+    // is written at most once every fifth of its sessionTTL and one which goes quiet lasts at least 80% of it
+    public static final double DEFAULT_REFRESH_FRACTION = 0.8;
+
+    private final Function<String, DynamoDbClient> clients;
+    private final String tableName;
+    private final String connectionTableName;
+    private final String limitTableName;
+    private final ToIntFunction<String> limitShards;
+    private final LimitStore tenantConnections;
+    private final Clock clock;
+    private final MembershipCache membership;
+    private final double refreshFraction;
+
+    public DynamoDBSessionStore(final Function<String, DynamoDbClient> clients, final String tableName, final String connectionTableName,
+                                final String limitTableName) {
+        this(clients, tableName, connectionTableName, limitTableName, tenantId -> 1);
+    }
+
+    public DynamoDBSessionStore(final Function<String, DynamoDbClient> clients, final String tableName, final String connectionTableName,
+                                final String limitTableName, final ToIntFunction<String> limitShards) {
+        this(clients, tableName, connectionTableName, limitTableName, limitShards, Clock.systemUTC(), new MembershipCache());
+    }
+
+    public DynamoDBSessionStore(final Function<String, DynamoDbClient> clients, final String tableName, final String connectionTableName,
+                                final String limitTableName, final ToIntFunction<String> limitShards, final Clock clock,
+                                final MembershipCache membership) {
+        this(clients, tableName, connectionTableName, limitTableName, limitShards, clock, membership, DEFAULT_REFRESH_FRACTION);
+    }
+
+    public DynamoDBSessionStore(final Function<String, DynamoDbClient> clients, final String tableName, final String connectionTableName,
+                                final String limitTableName, final ToIntFunction<String> limitShards, final Clock clock,
+                                final MembershipCache membership, final double refreshFraction) {
+        this.clients = clients;
+        this.tableName = tableName;
+        this.connectionTableName = connectionTableName;
+        this.limitTableName = limitTableName;
+        this.limitShards = limitShards;
+        this.tenantConnections = new ShardedLimitStore(new DynamoDBLimitStore(clients, limitTableName), limitShards);
+        this.clock = clock;
+        this.membership = membership;
+        this.refreshFraction = refreshFraction;
+    }
+
+    @Override
+    public void create(String tenantId, String sessionId, long sessionTTL) {
+        clients.apply(tenantId).updateItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, sessionId))
+                .updateExpression("set sessionTTL = :ttl")
+                .expressionAttributeValues(Map.of(":ttl", expiry(sessionTTL))));
+    }
+
+    @Override
+    public void delete(String tenantId, String sessionId) {
+        clients.apply(tenantId).deleteItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, sessionId)));
+        membership.invalidate(tenantId, sessionId);
+    }
+
+    @Override
+    public List<String> getConnections(String tenantId, String sessionId) {
+        GetItemResponse response = clients.apply(tenantId).getItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, sessionId)));
+        return response.hasItem() ? connections(tenantId, sessionId, response.item()) : null;
+    }
+
+    @Override
+    public long getConnectionCount(String tenantId, String sessionId) {
+        GetItemResponse response = clients.apply(tenantId).getItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, sessionId))
+                .projectionExpression("connectionCount, connectionIds"));
+        if (!response.hasItem()) {
+            return 0;
+        }
+        AttributeValue legacy = response.item().get("connectionIds");
+        return number(response.item(), "connectionCount") + (legacy == null ? 0 : legacy.ss().size());
+    }
+
+    @Override
+    public List<String> touch(String tenantId, String sessionId, long sessionTTL) {
+        if (refreshFraction >= 1) {
+            return touchEveryTime(tenantId, sessionId, sessionTTL);
+        }
+        DynamoDbClient dynamo = clients.apply(tenantId);
+        // Strongly consistent, as the update returning the item was, so a connection which has just been added is
+        // broadcast to by the next message
+        GetItemResponse response = dynamo.getItem(builder -> builder
+                .tableName(tableName)
+                .key(key(tenantId, sessionId))
+                .projectionExpression("sessionTTL, membershipVersion, connectionIds")
+                .consistentRead(true));
+        if (!response.hasItem()) {
+            membership.invalidate(tenantId, sessionId);
+            return Collections.emptyList();
+        }
+        long refreshBefore = clock.millis() / 1000 + (long) (sessionTTL * refreshFraction);
+        if (number(response.item(), "sessionTTL") < refreshBefore) {
+            try {
+                // The condition fails once another consumer has refreshed the session, and stops a late message from
+                // recreating a session which was deleted or has expired
+                dynamo.updateItem(builder -> builder
+                        .tableName(tableName)
+                        .key(key(tenantId, sessionId))
+                        .updateExpression("set sessionTTL = :ttl")
+                        .conditionExpression("sessionTTL < :refreshBefore")
+                        .expressionAttributeValues(Map.of(
+                                ":ttl", expiry(sessionTTL),
+                                ":refreshBefore", AttributeValue.builder().n(Long.toString(refreshBefore)).build())));
+            } catch (ConditionalCheckFailedException e) {
+                // Already refreshed, or gone, in which case the next message finds it gone
+            }
+        }
+        return connections(tenantId, sessionId, response.item());
+    }
+
+    private List<String> touchEveryTime(String tenantId, String sessionId, long sessionTTL) {
+        try {
+            // The condition stops a late message from recreating a session which was deleted or has expired
+            Map<String, AttributeValue> attributes = clients.apply(tenantId).updateItem(builder -> builder
+                    .tableName(tableName)
+                    .key(key(tenantId, sessionId))
+                    .updateExpression("set sessionTTL = :ttl")
+                    .conditionExpression("attribute_exists(sessionId)")
+                    .expressionAttributeValues(Map.of(":ttl", expiry(sessionTTL)))
+                    .returnValues(ReturnValue.ALL_OLD))
+                    .attributes();
+            return connections(tenantId, sessionId, attributes);
+        } catch (ConditionalCheckFailedException e) {
+            membership.invalidate(tenantId, sessionId);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public void addConnection(String tenantId, String sessionId, String connectionId, long sessionTTL) {
+        clients.apply(tenantId).transactWriteItems(builder -> builder.transactItems(
+                TransactWriteItem.builder().update(update -> update
+                        .tableName(tableName)
+                        .key(key(tenantId, sessionId))
+                        .updateExpression("set sessionTTL = :ttl ADD connectionCount :one, membershipVersion :one")
+                        .expressionAttributeValues(Map.of(
+                                ":ttl", expiry(sessionTTL),
+                                ":one", AttributeValue.builder().n("1").build())))
+                        .build(),
+                TransactWriteItem.builder().put(put -> put
+                        .tableName(connectionTableName)
+                        .item(connectionItem(tenantId, sessionId, connectionId, clock.millis() / 1000)))
+                        .build(),
+                TransactWriteItem.builder().update(updateTenantConnections(tenantId, 1)).build()));
+    }
+
+    @Override
+    public void removeConnection(String tenantId, String sessionId, String connectionId) {
+        try {
+            // The conditions stop the update from recreating a session which has expired, and from counting off a
+            // connection which has already been removed. A session item which DynamoDB TTL deleted and a connect
+            // then recreated has not counted the connections of the deleted one, which are left to SessionTTL.
+            clients.apply(tenantId).transactWriteItems(builder -> builder.transactItems(
+                    TransactWriteItem.builder().delete(delete -> delete
+                            .tableName(connectionTableName)
+                            .key(connectionKey(tenantId, sessionId, connectionId))
+                            .conditionExpression("attribute_exists(connectionId)"))
+                            .build(),
+                    TransactWriteItem.builder().update(update -> update
+                            .tableName(tableName)
+                            .key(key(tenantId, sessionId))
+                            .updateExpression("ADD connectionCount :minus, membershipVersion :one")
+                            .conditionExpression("attribute_exists(sessionId) AND connectionCount > :zero")
+                            .expressionAttributeValues(Map.of(
+                                    ":minus", AttributeValue.builder().n("-1").build(),
+                                    ":one", AttributeValue.builder().n("1").build(),
+                                    ":zero", AttributeValue.builder().n("0").build())))
+                            .build(),
+                    TransactWriteItem.builder().update(updateTenantConnections(tenantId, -1)).build()));
+        } catch (TransactionCanceledException e) {
+            if (!isConditionFailure(e)) {
+                throw e;
+            }
+            // Already accounted for, unless the connection is one of a session created before the connection table,
+            // which has no connection count either
+            if (isConditionFailure(e, 0)) {
+                removeLegacyConnection(tenantId, sessionId, connectionId);
+            }
+        }
+    }
+
+    @Override
+    public void removeStaleConnections(String tenantId, String sessionId, Collection<String> connectionIds) {
+        // Each connection is counted off in its own transaction, only if it was still there, so a $disconnect
+        // which got there first has already counted off its own. A broadcast finds few connections gone at once.
+        for (String connectionId : new LinkedHashSet<>(connectionIds)) {
+            removeConnection(tenantId, sessionId, connectionId);
+        }
+    }
+
+    @Override
+    public List<String> getExpiredConnections(String tenantId, String sessionId, long expiredAt) {
+        // A connection made after the session expired extended it, so a session item DynamoDB TTL deleted had
+        // every one of its connections connected by its sessionTTL, while those of a session item which a connect
+        // created after the deletion connected later
+        return query(tenantId, sessionId, builder -> builder
+                .filterExpression("connectedAt <= :expiredAt")
+                .expressionAttributeValues(Map.of(
+                        ":session", AttributeValue.builder().s(session(tenantId, sessionId)).build(),
+                        ":expiredAt", AttributeValue.builder().n(Long.toString(expiredAt)).build())));
+    }
+
+    @Override
+    public void removeExpiredConnections(String tenantId, String sessionId, Collection<String> connectionIds) {
+        List<String> remaining = new ArrayList<>(new LinkedHashSet<>(connectionIds));
+        for (int from = 0; from < remaining.size(); from += MAX_BATCH_WRITE) {
+            List<WriteRequest> deletes = new ArrayList<>();
+            for (String connectionId : remaining.subList(from, Math.min(remaining.size(), from + MAX_BATCH_WRITE))) {
+                deletes.add(WriteRequest.builder().deleteRequest(delete -> delete.key(connectionKey(tenantId, sessionId, connectionId))).build());
+            }
+            Map<String, List<WriteRequest>> unprocessed = Map.of(connectionTableName, deletes);
+            for (int attempt = 1; !unprocessed.isEmpty(); attempt++) {
+                if (attempt > MAX_BATCH_ATTEMPTS) {
+                    // Left to the connection table's TTL, the connections have already been counted off
+                    return;
+                }
+                if (attempt > 1) {
+                    backoff(attempt);
+                }
+                Map<String, List<WriteRequest>> request = unprocessed;
+                BatchWriteItemResponse response = clients.apply(tenantId).batchWriteItem(builder -> builder.requestItems(request));
+                unprocessed = response.hasUnprocessedItems() ? response.unprocessedItems() : Collections.emptyMap();
+            }
+        }
+    }
+
+    // The session's connections, from the legacy set of the session item and from the connection table unless they
+    // are cached at the membership version of the item
+    private List<String> connections(String tenantId, String sessionId, Map<String, AttributeValue> item) {
+        AttributeValue legacy = item.get("connectionIds");
+        long version = number(item, "membershipVersion");
+        List<String> connectionIds;
+        if (version == 0) {
+            // Nothing has ever been added to the connection table for the session
+            connectionIds = Collections.emptyList();
+        } else {
+            connectionIds = membership.get(tenantId, sessionId, version);
+            if (connectionIds == null) {
+                connectionIds = query(tenantId, sessionId, builder -> builder
+                        .expressionAttributeValues(Map.of(":session", AttributeValue.builder().s(session(tenantId, sessionId)).build())));
+                membership.put(tenantId, sessionId, version, connectionIds);
+            }
+        }
+        if (legacy == null || legacy.ss().isEmpty()) {
+            return connectionIds;
+        }
+        List<String> all = new ArrayList<>(legacy.ss());
+        all.addAll(connectionIds);
+        return all;
+    }
+
+    // Reads every page of the session's connection Ids. The read is strongly consistent so a connection which has
+    // just been added is broadcast to by the next message.
+    private List<String> query(String tenantId, String sessionId, Consumer<QueryRequest.Builder> conditions) {
+        List<String> connectionIds = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryRequest.Builder request = QueryRequest.builder()
+                    .tableName(connectionTableName)
+                    .keyConditionExpression("#session = :session")
+                    .expressionAttributeNames(Map.of("#session", "session"))
+                    .projectionExpression("connectionId")
+                    .consistentRead(true);
+            conditions.accept(request);
+            if (startKey != null) {
+                request.exclusiveStartKey(startKey);
+            }
+            QueryResponse response = clients.apply(tenantId).query(request.build());
+            for (Map<String, AttributeValue> item : response.items()) {
+                connectionIds.add(item.get("connectionId").s());
+            }
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return connectionIds;
+    }
+
+    private void removeLegacyConnection(String tenantId, String sessionId, String connectionId) {
+        try {
+            clients.apply(tenantId).transactWriteItems(builder -> builder.transactItems(
+                    TransactWriteItem.builder().update(update -> update
+                            .tableName(tableName)
+                            .key(key(tenantId, sessionId))
+                            .updateExpression("DELETE connectionIds :c")
+                            .conditionExpression("contains(connectionIds, :id)")
+                            .expressionAttributeValues(Map.of(
+                                    ":c", AttributeValue.builder().ss(connectionId).build(),
+                                    ":id", AttributeValue.builder().s(connectionId).build())))
+                            .build(),
+                    TransactWriteItem.builder().update(updateTenantConnections(tenantId, -1)).build()));
+        } catch (TransactionCanceledException e) {
+            if (!isConditionFailure(e)) {
+                throw e;
+            }
+        }
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong((10L << Math.min(attempt, 10)) + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while removing expired connections", e);
+        }
+    }
+
+    @Override
+    public boolean releaseExpiredConnections(String tenantId, String expiryId, long connections) {
+        if (connections <= 0) {
+            return true;
+        }
+        // A marker item recording that the expiry has been counted is written in the same transaction as the count.
+        // It outlives the 24 hours for which the stream keeps records and is then removed by the limit table's TTL.
+        Map<String, AttributeValue> marker = new HashMap<>(limitKey(tenantId, tenantId + ":expired:" + expiryId));
+        marker.put("itemTTL", AttributeValue.builder().n(Long.toString(clock.millis() / 1000 + EXPIRY_MARKER_TTL_SECONDS)).build());
+        try {
+            clients.apply(tenantId).transactWriteItems(builder -> builder.transactItems(
+                    TransactWriteItem.builder().put(put -> put
+                            .tableName(limitTableName)
+                            .item(marker)
+                            .conditionExpression("attribute_not_exists(tenantId)"))
+                            .build(),
+                    TransactWriteItem.builder().update(updateTenantConnections(tenantId, -connections)).build()));
+            return true;
+        } catch (TransactionCanceledException e) {
+            if (!isConditionFailure(e)) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void revoke(String tenantId, String sessionId, long tokenTTL) {
+        long now = clock.millis() / 1000;
+        long until = now + tokenTTL;
+        Map<String, String> names = new HashMap<>(Map.of("#r", REVOKED_PREFIX + sessionId));
+        StringBuilder removed = new StringBuilder();
+        long itemTTL = until + 1;
+        // Revocations whose tokens have all expired are dropped by the same update so the item stays small
+        for (Map.Entry<String, AttributeValue> revocation : getRevocations(tenantId).entrySet()) {
+            if (revocation.getKey().equals(REVOKED_PREFIX + sessionId)) {
+                continue;
+            }
+            long revokedUntil = revocationTime(revocation.getValue(), "until");
+            if (revokedUntil < now && names.size() <= MAX_REMOVED_REVOCATIONS) {
+                String name = "#s" + names.size();
+                names.put(name, revocation.getKey());
+                removed.append(removed.length() == 0 ? " REMOVE " : ", ").append(name);
+            } else {
+                itemTTL = Math.max(itemTTL, revokedUntil + 1);
+            }
+        }
+        long expires = itemTTL;
+        clients.apply(tenantId).updateItem(builder -> builder
+                .tableName(limitTableName)
+                .key(revocationKey(tenantId))
+                .updateExpression("set #r = :revocation, itemTTL = :ttl" + removed)
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(Map.of(
+                        ":revocation", AttributeValue.builder().m(Map.of(
+                                "at", AttributeValue.builder().n(Long.toString(now)).build(),
+                                "until", AttributeValue.builder().n(Long.toString(until)).build())).build(),
+                        ":ttl", AttributeValue.builder().n(Long.toString(expires)).build())));
+    }
+
+    @Override
+    public Map<String, Long> getRevoked(String tenantId) {
+        long now = clock.millis() / 1000;
+        Map<String, Long> revoked = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> revocation : getRevocations(tenantId).entrySet()) {
+            if (revocationTime(revocation.getValue(), "until") >= now) {
+                revoked.put(revocation.getKey().substring(REVOKED_PREFIX.length()), revocationTime(revocation.getValue(), "at"));
+            }
+        }
+        return revoked;
+    }
+
+    private Map<String, AttributeValue> getRevocations(String tenantId) {
+        Map<String, AttributeValue> revocations = new HashMap<>();
+        clients.apply(tenantId).getItem(builder -> builder
+                        .tableName(limitTableName)
+                        .key(revocationKey(tenantId)))
+                .item()
+                .forEach((name, value) -> {
+                    if (name.startsWith(REVOKED_PREFIX) && value.hasM()) {
+                        revocations.put(name, value);
+                    }
+                });
+        return revocations;
+    }
+
+    private static long revocationTime(AttributeValue revocation, String name) {
+        AttributeValue time = revocation.m().get(name);
+        return time == null || time.n() == null ? 0 : Long.parseLong(time.n());
+    }
+
+    static Map<String, AttributeValue> revocationKey(String tenantId) {
+        return limitKey(tenantId, tenantId + ":revoked");
+    }
+
+    @Override
+    public long getTenantConnections(String tenantId) {
+        return tenantConnections.get(tenantId, tenantId);
+    }
+
+    private Update updateTenantConnections(String tenantId, long delta) {
+        int shards = limitShards.applyAsInt(tenantId);
+        String partition = ShardedLimitStore.partition(tenantId, shards <= 1 ? 0 : ThreadLocalRandom.current().nextInt(shards));
+        return Update.builder()
+                .tableName(limitTableName)
+                .key(limitKey(partition, tenantId))
+                .updateExpression("set itemCount = if_not_exists(itemCount, :zero) + :inc")
+                .expressionAttributeValues(Map.of(
+                        ":zero", AttributeValue.builder().n("0").build(),
+                        ":inc", AttributeValue.builder().n(Long.toString(delta)).build()))
+                .build();
+    }
+
+    // Whether a transaction was cancelled by one of its conditions rather than a conflicting write or throttling
+    private static boolean isConditionFailure(TransactionCanceledException e) {
+        return e.hasCancellationReasons() && e.cancellationReasons().stream()
+                .anyMatch(reason -> "ConditionalCheckFailed".equals(reason.code()));
+    }
+
+    // Whether the condition of the transaction's item at the index failed
+    private static boolean isConditionFailure(TransactionCanceledException e, int item) {
+        return e.hasCancellationReasons() && e.cancellationReasons().size() > item
+                && "ConditionalCheckFailed".equals(e.cancellationReasons().get(item).code());
+    }
+
+    private static long number(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value == null || value.n() == null ? 0 : Long.parseLong(value.n());
+    }
+
+    private AttributeValue expiry(long sessionTTL) {
+        return AttributeValue.builder().n(Long.toString(clock.millis() / 1000 + sessionTTL)).build();
+    }
+
+    static Map<String, AttributeValue> key(String tenantId, String sessionId) {
+        return Map.of(
+                "tenantId", AttributeValue.builder().s(tenantId).build(),
+                "sessionId", AttributeValue.builder().s(sessionId).build());
+    }
+
+    static String session(String tenantId, String sessionId) {
+        return tenantId + '#' + sessionId;
+    }
+
+    static Map<String, AttributeValue> connectionKey(String tenantId, String sessionId, String connectionId) {
+        return Map.of(
+                "session", AttributeValue.builder().s(session(tenantId, sessionId)).build(),
+                "connectionId", AttributeValue.builder().s(connectionId).build());
+    }
+
+    // The same row as TransactionalAdmission and WebsocketConnect.js add
+    public static Map<String, AttributeValue> connectionItem(String tenantId, String sessionId, String connectionId, long connectedAt) {
+        Map<String, AttributeValue> item = new HashMap<>(connectionKey(tenantId, sessionId, connectionId));
+        item.put("tenantId", AttributeValue.builder().s(tenantId).build());
+        item.put("connectedAt", AttributeValue.builder().n(Long.toString(connectedAt)).build());
+        item.put("itemTTL", AttributeValue.builder().n(Long.toString(connectedAt + CONNECTION_TTL_SECONDS)).build());
+        return item;
+    }
+
+    static Map<String, AttributeValue> limitKey(String partition, String key) {
+        return Map.of(
+                "tenantId", AttributeValue.builder().s(partition).build(),
+                "key", AttributeValue.builder().s(key).build());
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A process local store used by tests and benchmarks. Expired sessions are treated as missing, the same as the
+// session table once DynamoDB TTL has removed them, and so are revocations whose tokens have all expired.
+public class InMemorySessionStore implements SessionStore, RevocationStore {
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> tenantConnections = new ConcurrentHashMap<>();
+    private final Set<String> releasedExpiries = ConcurrentHashMap.newKeySet();
+    // The revokedAt and until times of each tenant's revoked sessions
+    private final ConcurrentMap<String, ConcurrentMap<String, long[]>> revocations = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public InMemorySessionStore() {
+        this(Clock.systemUTC());
+    }
+
+    public InMemorySessionStore(final Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void create(String tenantId, String sessionId, long sessionTTL) {
+        live(tenantId, sessionId).expiresAt = now() + sessionTTL;
+    }
+
+    @Override
+    public void delete(String tenantId, String sessionId) {
+        sessions.remove(id(tenantId, sessionId));
+    }
+
+    @Override
+    public List<String> getConnections(String tenantId, String sessionId) {
+        Session session = sessions.get(id(tenantId, sessionId));
+        return session == null || session.isExpired(now()) ? null : session.connectionIds();
+    }
+
+    @Override
+    public long getConnectionCount(String tenantId, String sessionId) {
+        Session session = sessions.get(id(tenantId, sessionId));
+        if (session == null || session.isExpired(now())) {
+            return 0;
+        }
+        synchronized (session) {
+            return session.connectionIds.size();
+        }
+    }
+
+    @Override
+    public List<String> touch(String tenantId, String sessionId, long sessionTTL) {
+        Session session = sessions.get(id(tenantId, sessionId));
+        if (session == null || session.isExpired(now())) {
+            return Collections.emptyList();
+        }
+        session.expiresAt = now() + sessionTTL;
+        return session.connectionIds();
+    }
+
+    @Override
+    public void addConnection(String tenantId, String sessionId, String connectionId, long sessionTTL) {
+        Session session = live(tenantId, sessionId);
+        session.expiresAt = now() + sessionTTL;
+        synchronized (session) {
+            session.connectionIds.add(connectionId);
+        }
+        tenantConnections(tenantId).incrementAndGet();
+    }
+
+    @Override
+    public void removeConnection(String tenantId, String sessionId, String connectionId) {
+        Session session = sessions.get(id(tenantId, sessionId));
+        if (session == null || session.isExpired(now())) {
+            return;
+        }
+        boolean removed;
+        synchronized (session) {
+            removed = session.connectionIds.remove(connectionId);
+        }
+        if (removed) {
+            tenantConnections(tenantId).decrementAndGet();
+        }
+    }
+
+    @Override
+    public void removeStaleConnections(String tenantId, String sessionId, Collection<String> connectionIds) {
+        Session session = sessions.get(id(tenantId, sessionId));
+        if (session == null || session.isExpired(now())) {
+            return;
+        }
+        long removed = 0;
+        synchronized (session) {
+            for (String connectionId : connectionIds) {
+                if (session.connectionIds.remove(connectionId)) {
+                    removed++;
+                }
+            }
+        }
+        tenantConnections(tenantId).addAndGet(-removed);
+    }
+
+    @Override
+    public boolean releaseExpiredConnections(String tenantId, String expiryId, long connections) {
+        if (!releasedExpiries.add(id(tenantId, expiryId))) {
+            return false;
+        }
+        tenantConnections(tenantId).addAndGet(-connections);
+        return true;
+    }
+
+    @Override
+    public void revoke(String tenantId, String sessionId, long tokenTTL) {
+        long now = now();
+        revocations.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>()).put(sessionId, new long[] { now, now + tokenTTL });
+    }
+
+    @Override
+    public Map<String, Long> getRevoked(String tenantId) {
+        Map<String, Long> revoked = new HashMap<>();
+        ConcurrentMap<String, long[]> tenant = revocations.get(tenantId);
+        if (tenant != null) {
+            long now = now();
+            tenant.values().removeIf(revocation -> revocation[1] < now);
+            tenant.forEach((sessionId, revocation) -> revoked.put(sessionId, revocation[0]));
+        }
+        return revoked;
+    }
+
+    @Override
+    public long getTenantConnections(String tenantId) {
+        AtomicLong count = tenantConnections.get(tenantId);
+        return count == null ? 0 : count.get();
+    }
+
+    private AtomicLong tenantConnections(String tenantId) {
+        return tenantConnections.computeIfAbsent(tenantId, id -> new AtomicLong());
+    }
+
+    private Session live(String tenantId, String sessionId) {
+        long now = now();
+        return sessions.compute(id(tenantId, sessionId), (id, existing) -> existing == null || existing.isExpired(now) ? new Session() : existing);
+    }
+
+    private long now() {
+        return clock.millis() / 1000;
+    }
+
+    private static String id(String tenantId, String sessionId) {
+        return tenantId + '\u0000' + sessionId;
+    }
+
+    private static final class Session {
+        private final Set<String> connectionIds = new LinkedHashSet<>();
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private synchronized List<String> connectionIds() {
+            return new ArrayList<>(connectionIds);
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt < now;
+        }
+    }
+}
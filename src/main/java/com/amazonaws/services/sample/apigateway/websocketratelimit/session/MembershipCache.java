@@ -0,0 +1,113 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.CacheStats;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// The connection Ids of recently used sessions, kept warm between invocations of a container so a session whose
+// membership has not changed is broadcast to without reading the connection table. Each entry is held with the
+// membership version of the session item it was read at, which every connect and disconnect increments in the same
+// transaction as its connection table write, so a lookup with the version a touch returned is a hit only if nothing
+// has joined or left since. Least recently used sessions are evicted once the cached connection Ids exceed
+// maxConnections, so a few very large sessions cannot take more memory than many small ones.
+public class MembershipCache {
+    public static final int DEFAULT_MAX_CONNECTIONS = 100_000;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxConnections;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long connections;
+
+    public MembershipCache() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public MembershipCache(final int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    // Returns the session's connection Ids if they were cached at the given version, or null
+    public List<String> get(String tenantId, String sessionId, long version) {
+        synchronized (entries) {
+            Entry entry = entries.get(key(tenantId, sessionId));
+            if (entry != null && entry.version == version) {
+                hits.increment();
+                return entry.connectionIds;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Caches the connection Ids read at the given version, unless a newer version is already cached
+    public void put(String tenantId, String sessionId, long version, List<String> connectionIds) {
+        if (connectionIds.size() > maxConnections) {
+            return;
+        }
+        String key = key(tenantId, sessionId);
+        synchronized (entries) {
+            loads.increment();
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                if (existing.version > version) {
+                    return;
+                }
+                connections -= existing.connectionIds.size();
+            }
+            entries.put(key, new Entry(version, Collections.unmodifiableList(connectionIds)));
+            connections += connectionIds.size();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (connections > maxConnections && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                connections -= evicted.connectionIds.size();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidate(String tenantId, String sessionId) {
+        synchronized (entries) {
+            Entry removed = entries.remove(key(tenantId, sessionId));
+            if (removed != null) {
+                connections -= removed.connectionIds.size();
+            }
+        }
+    }
+
+    // The number of connection Ids cached across all sessions
+    public long getConnections() {
+        synchronized (entries) {
+            return connections;
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), loads.sum(), evictions.sum());
+    }
+
+    private static String key(String tenantId, String sessionId) {
+        return tenantId + '#' + sessionId;
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final List<String> connectionIds;
+
+        private Entry(final long version, final List<String> connectionIds) {
+            this.version = version;
+            this.connectionIds = connectionIds;
+        }
+    }
+}
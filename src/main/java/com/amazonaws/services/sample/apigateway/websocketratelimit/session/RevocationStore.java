@@ -0,0 +1,18 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import java.util.Map;
+
+// The sessions deleted while tokens issued for them may still be unexpired, see SessionTokens. A tenant's revocations
+// are read together so the authorizer can cache them per tenant rather than check each session in the session table.
+public interface RevocationStore {
+    // Revokes the tokens issued for the session up to now. The revocation is kept for tokenTTL seconds, the longest
+    // any of those tokens can still be valid for, and then dropped.
+    void revoke(String tenantId, String sessionId, long tokenTTL);
+
+    // Returns the tenant's revoked sessions with the time, in seconds since the epoch, they were revoked.
+    // Tokens issued at or before that time are no longer valid.
+    Map<String, Long> getRevoked(String tenantId);
+}
@@ -0,0 +1,38 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// The checks of Authorizer.js, the tenant must exist and the session must have been created for the tenant
+public class SessionAuthorizer {
+    private final Function<String, TenantSettings> tenants;
+    private final SessionStore sessions;
+    private final Consumer<String> log;
+
+    public SessionAuthorizer(final Function<String, TenantSettings> tenants, final SessionStore sessions, final Consumer<String> log) {
+        this.tenants = tenants;
+        this.sessions = sessions;
+        this.log = log;
+    }
+
+    // Returns the tenant's settings to pass on in the authorizer context, or null if the connection is denied
+    public TenantSettings authorize(String tenantId, String sessionId) {
+        TenantSettings tenantSettings = tenants.apply(tenantId);
+        if (tenantSettings == null) {
+            log.accept(tenantId + " tenant not found");
+            return null;
+        }
+
+        // A session Id is short lived and is removed from DynamoDB via TTL. A sessionId must be created prior to trying to connect a websocket
+        if (sessions.getConnections(tenantId, sessionId) == null) {
+            log.accept("Tenant: " + tenantId + " Session: " + sessionId + " not found");
+            return null;
+        }
+        return tenantSettings;
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// Access to the sessions and the connection Ids of each session, and to the total number of connections per tenant in
+// the limit table which is kept in step with them
+public interface SessionStore {
+    // Creates the session, or extends it if it exists, to expire sessionTTL seconds from now
+    void create(String tenantId, String sessionId, long sessionTTL);
+
+    void delete(String tenantId, String sessionId);
+
+    // Returns the session's connection Ids, or null if the session does not exist
+    List<String> getConnections(String tenantId, String sessionId);
+
+    // Returns the number of the session's connections, 0 if the session does not exist
+    default long getConnectionCount(String tenantId, String sessionId) {
+        List<String> connectionIds = getConnections(tenantId, sessionId);
+        return connectionIds == null ? 0 : connectionIds.size();
+    }
+
+    // Keeps the session from expiring for a while yet, at most sessionTTL seconds from now, and returns the session's
+    // connection Ids. A store may only move the expiry once little of sessionTTL is left, see DynamoDBSessionStore.
+    // Returns an empty list if the session no longer exists.
+    List<String> touch(String tenantId, String sessionId, long sessionTTL);
+
+    // Adds the connection to the session, extending its expiry, and counts it against the tenant's total connections
+    void addConnection(String tenantId, String sessionId, String connectionId, long sessionTTL);
+
+    // Removes the connection from the session and from the tenant's total connections. Only a connection which is
+    // still in the session is counted off, so whichever of $disconnect, a broadcast finding it gone or the session
+    // expiring removes a connection first accounts for it and the others leave the total alone.
+    void removeConnection(String tenantId, String sessionId, String connectionId);
+
+    // Removes connections API Gateway reported as gone from the session in one update, counting off the tenant's
+    // total connections those which were still in the session
+    void removeStaleConnections(String tenantId, String sessionId, Collection<String> connectionIds);
+
+    // Counts off the tenant's total connections the connections of a session which DynamoDB TTL has deleted, as
+    // nothing else does once the session item is gone. expiryId identifies the deletion, the stream record's event
+    // Id, so a record which is processed again is not counted twice. Returns false if it had already been counted.
+    boolean releaseExpiredConnections(String tenantId, String expiryId, long connections);
+
+    // Returns the connections of a session which DynamoDB TTL has deleted, expiredAt being the sessionTTL of the
+    // deleted item, which a store keeping them apart from the session item still holds. A store which kept them in
+    // the session item has nothing more than the item's old image.
+    default List<String> getExpiredConnections(String tenantId, String sessionId, long expiredAt) {
+        return Collections.emptyList();
+    }
+
+    // Removes the connections of a session which DynamoDB TTL has deleted once they are closed and counted off
+    default void removeExpiredConnections(String tenantId, String sessionId, Collection<String> connectionIds) {
+    }
+
+    long getTenantConnections(String tenantId);
+}
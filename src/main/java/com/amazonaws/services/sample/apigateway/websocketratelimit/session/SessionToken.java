@@ -0,0 +1,35 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+// The claims of a verified session token, see SessionTokens. Times are in seconds since the epoch.
+public final class SessionToken {
+    private final String tenantId;
+    private final String sessionId;
+    private final long issuedAt;
+    private final long expiresAt;
+
+    public SessionToken(final String tenantId, final String sessionId, final long issuedAt, final long expiresAt) {
+        this.tenantId = tenantId;
+        this.sessionId = sessionId;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.LoadingCache;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// The checks of the authorizer for a verified session token, see SessionTokens. A connect with the session token
+// returned by Session is checked without reading the session table, while a connect without one is looked up in it by
+// the SessionAuthorizer, unless the stack requires tokens with SessionTokensRequired. The token already proves the
+// session was created for the tenant, so rather than reading the session table the tenant must exist and the session
+// must not have been deleted since the token was issued. A tenant's revocations are cached for revocationCacheTTL, so a
+// session deleted within that time of a connect can still be connected to, and each container reads them at most once
+// per TTL. The token's exp is the session's sessionTTL when it was issued, which messages keep moving forward, so once
+// a token has expired the session table is read as for a connect without a token.
+public class SessionTokenAuthorizer {
+    private static final int MAXIMUM_TENANTS = 1000;
+
+    private final Function<String, TenantSettings> tenants;
+    private final SessionStore sessions;
+    private final LoadingCache<String, Map<String, Long>> revocations;
+    private final Clock clock;
+    private final Consumer<String> log;
+
+    public SessionTokenAuthorizer(final Function<String, TenantSettings> tenants, final SessionStore sessions, final RevocationStore revocations,
+                                  final Duration revocationCacheTTL, final Consumer<String> log) {
+        this(tenants, sessions, revocations, revocationCacheTTL, Clock.systemUTC(), log);
+    }
+
+    public SessionTokenAuthorizer(final Function<String, TenantSettings> tenants, final SessionStore sessions, final RevocationStore revocations,
+                                  final Duration revocationCacheTTL, final Clock clock, final Consumer<String> log) {
+        this.tenants = tenants;
+        this.sessions = sessions;
+        this.revocations = new LoadingCache<>(MAXIMUM_TENANTS, revocationCacheTTL, revocationCacheTTL, clock, revocations::getRevoked);
+        this.clock = clock;
+        this.log = log;
+    }
+
+    // Returns the tenant's settings to pass on in the authorizer context, or null if the connection is denied. The token
+    // must have been verified with SessionTokens.verifySignature or SessionTokens.verify.
+    public TenantSettings authorize(SessionToken token) {
+        TenantSettings tenantSettings = tenants.apply(token.getTenantId());
+        if (tenantSettings == null) {
+            log.accept(token.getTenantId() + " tenant not found");
+            return null;
+        }
+        if (token.getExpiresAt() <= clock.millis() / 1000) {
+            if (sessions.getConnections(token.getTenantId(), token.getSessionId()) == null) {
+                log.accept("Tenant: " + token.getTenantId() + " Session: " + token.getSessionId() + " not found");
+                return null;
+            }
+            return tenantSettings;
+        }
+        Long revokedAt = revocations.get(token.getTenantId()).get(token.getSessionId());
+        if (revokedAt != null && token.getIssuedAt() <= revokedAt) {
+            log.accept("Tenant: " + token.getTenantId() + " Session: " + token.getSessionId() + " revoked");
+            return null;
+        }
+        return tenantSettings;
+    }
+}
@@ -0,0 +1,275 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Issues and verifies the signed session tokens which let the authorizer accept a session without reading the session
+// table. A token is a JSON Web Token signed with HMAC SHA-256 (HS256) whose claims bind the tenantId and sessionId to
+// the time it was issued (iat) and expires (exp), so any JWT library can read it:
+//   base64url({"alg":"HS256","typ":"JWT","kid":"<period>"}).base64url({"tenantId":..,"sessionId":..,"iat":..,"exp":..}).signature
+// The signing key rotates every keyPeriod without any coordination between functions: the key of period n is
+// HMAC-SHA256(secret, "session-token-key:" + n) and the token's kid names the period it was signed in. Tokens are
+// verified with the keys of the last acceptedPeriods periods, so a leaked period key stops working by itself and
+// replacing the secret invalidates every token issued with the old one. Lambda/Common.js derives the same keys.
+// Only the exact header issue writes is accepted, which rules out alg "none" and every other algorithm.
+public class SessionTokens {
+    public static final Duration DEFAULT_KEY_PERIOD = Duration.ofDays(1);
+    public static final int DEFAULT_ACCEPTED_PERIODS = 2;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String KEY_CONTEXT = "session-token-key:";
+    private static final Pattern HEADER = Pattern.compile("\\{\"alg\":\"HS256\",\"typ\":\"JWT\",\"kid\":\"(\\d{1,18})\"}");
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final byte[] secret;
+    private final Clock clock;
+    private final long keyPeriodSeconds;
+    private final int acceptedPeriods;
+    private final ConcurrentMap<Long, byte[]> keys = new ConcurrentHashMap<>();
+
+    public SessionTokens(final byte[] secret) {
+        this(secret, Clock.systemUTC(), DEFAULT_KEY_PERIOD, DEFAULT_ACCEPTED_PERIODS);
+    }
+
+    public SessionTokens(final byte[] secret, final Clock clock, final Duration keyPeriod, final int acceptedPeriods) {
+        this.secret = secret.clone();
+        this.clock = clock;
+        this.keyPeriodSeconds = keyPeriod.getSeconds();
+        this.acceptedPeriods = acceptedPeriods;
+    }
+
+    // Returns a token for the session which expires ttl seconds from now, the session's sessionTTL when it is created
+    public String issue(String tenantId, String sessionId, long ttl) {
+        long now = now();
+        long period = now / keyPeriodSeconds;
+        String signed = encode("{\"alg\":\"HS256\",\"typ\":\"JWT\",\"kid\":\"" + period + "\"}") + '.'
+                + encode("{\"tenantId\":" + EchoResponses.quote(tenantId) + ",\"sessionId\":" + EchoResponses.quote(sessionId)
+                + ",\"iat\":" + now + ",\"exp\":" + (now + ttl) + "}");
+        return signed + '.' + ENCODER.encodeToString(sign(period, signed));
+    }
+
+    // Returns the token's claims if it was signed with one of the accepted keys and has not expired, otherwise null
+    public SessionToken verify(String token) {
+        return verify(token, false);
+    }
+
+    // Returns the token's claims if it was signed with one of the accepted keys, whether or not it has expired, otherwise
+    // null. A session kept alive by its messages outlives the exp of the token it was created with, see SessionTokenAuthorizer.
+    public SessionToken verifySignature(String token) {
+        return verify(token, true);
+    }
+
+    // Whether the token's exp has passed
+    public boolean isExpired(SessionToken token) {
+        return token.getExpiresAt() <= now();
+    }
+
+    private SessionToken verify(String token, boolean expired) {
+        int payload = token == null ? -1 : token.indexOf('.');
+        int signature = payload < 0 ? -1 : token.indexOf('.', payload + 1);
+        if (signature < 0 || token.indexOf('.', signature + 1) >= 0) {
+            return null;
+        }
+        try {
+            Matcher header = HEADER.matcher(decode(token.substring(0, payload)));
+            if (!header.matches()) {
+                return null;
+            }
+            long now = now();
+            long period = Long.parseLong(header.group(1));
+            long current = now / keyPeriodSeconds;
+            // A function whose clock is slightly ahead may already sign with the next period's key
+            if (period > current + 1 || period <= current - acceptedPeriods) {
+                return null;
+            }
+            if (!MessageDigest.isEqual(sign(period, token.substring(0, signature)), DECODER.decode(token.substring(signature + 1)))) {
+                return null;
+            }
+            Map<String, Object> claims = new ClaimsReader(decode(token.substring(payload + 1, signature))).readObject();
+            Object tenantId = claims.get("tenantId");
+            Object sessionId = claims.get("sessionId");
+            Object issuedAt = claims.get("iat");
+            Object expiresAt = claims.get("exp");
+            if (!(tenantId instanceof String) || !(sessionId instanceof String) || !(issuedAt instanceof Long) || !(expiresAt instanceof Long)
+                    || (!expired && (Long) expiresAt <= now)) {
+                return null;
+            }
+            return new SessionToken((String) tenantId, (String) sessionId, (Long) issuedAt, (Long) expiresAt);
+        } catch (IllegalArgumentException e) {
+            // Not base64url or not the claims issue writes
+            return null;
+        }
+    }
+
+    private byte[] sign(long period, String signed) {
+        byte[] key = keys.get(period);
+        if (key == null) {
+            key = hmac(secret, KEY_CONTEXT + period);
+            keys.put(period, key);
+            // Only the keys which can still verify a token are kept
+            keys.keySet().removeIf(other -> other < period - acceptedPeriods);
+        }
+        return hmac(key, signed);
+    }
+
+    private long now() {
+        return clock.millis() / 1000;
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(String json) {
+        return ENCODER.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String base64) {
+        return new String(DECODER.decode(base64), StandardCharsets.UTF_8);
+    }
+
+    // Reads a JSON object whose values are strings or integers, the only claims a token carries.
+    // Throws IllegalArgumentException for anything else.
+    private static final class ClaimsReader {
+        private final String json;
+        private int pos;
+
+        private ClaimsReader(final String json) {
+            this.json = json;
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> claims = new HashMap<>();
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    String name = readString();
+                    expect(':');
+                    claims.put(name, peek() == '"' ? readString() : readLong());
+                } while (consume(','));
+                expect('}');
+            }
+            skipWhitespace();
+            if (pos != json.length()) {
+                throw new IllegalArgumentException("Unexpected content after the claims");
+            }
+            return claims;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                } else if (c < 0x20) {
+                    throw new IllegalArgumentException("Unescaped control character");
+                } else if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escaped);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw new IllegalArgumentException("Truncated escape");
+                        }
+                        value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid escape");
+                }
+            }
+        }
+
+        private long readLong() {
+            skipWhitespace();
+            int start = pos;
+            if (pos < json.length() && json.charAt(pos) == '-') {
+                pos++;
+            }
+            while (pos < json.length() && Character.isDigit(json.charAt(pos))) {
+                pos++;
+            }
+            return Long.parseLong(json.substring(start, pos));
+        }
+
+        private char next() {
+            if (pos >= json.length()) {
+                throw new IllegalArgumentException("Unexpected end of the claims");
+            }
+            return json.charAt(pos++);
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return pos < json.length() ? json.charAt(pos) : 0;
+        }
+
+        private boolean consume(char expected) {
+            if (peek() == expected) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char expected) {
+            if (!consume(expected)) {
+                throw new IllegalArgumentException("Expected " + expected);
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
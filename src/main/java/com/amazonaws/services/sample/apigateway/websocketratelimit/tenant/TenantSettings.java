@@ -0,0 +1,194 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.tenant;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Map;
+
+// The limits for a single tenant as stored in the tenant table.
+// Missing numeric settings are -1, the same value the Node.js authorizer passes for a denied request.
+public final class TenantSettings {
+    public static final String LIMIT_SHARDS_ATTRIBUTE = "limitShards";
+    // A BatchGetItem reads at most 100 items, enough to sum every shard of a counter at once
+    public static final int MAX_LIMIT_SHARDS = 100;
+    public static final String LEASE_SIZE_ATTRIBUTE = "leaseSize";
+
+    private final String tenantId;
+    private final long tenantPerMinute;
+    private final long sessionPerMinute;
+    private final long connectionsPerSession;
+    private final long tenantConnections;
+    private final long sessionTTL;
+    private final long messagesPerMinute;
+    private final RateLimitAlgorithm rateLimitAlgorithm;
+    private final int limitShards;
+    private final long leaseSize;
+    private final TenantTier tier;
+
+    private TenantSettings(final Builder builder) {
+        this.tenantId = builder.tenantId;
+        this.tenantPerMinute = builder.tenantPerMinute;
+        this.sessionPerMinute = builder.sessionPerMinute;
+        this.connectionsPerSession = builder.connectionsPerSession;
+        this.tenantConnections = builder.tenantConnections;
+        this.sessionTTL = builder.sessionTTL;
+        this.messagesPerMinute = builder.messagesPerMinute;
+        this.rateLimitAlgorithm = builder.rateLimitAlgorithm;
+        this.limitShards = Math.max(1, Math.min(MAX_LIMIT_SHARDS, builder.limitShards));
+        this.leaseSize = Math.max(0, builder.leaseSize);
+        this.tier = builder.tier;
+    }
+
+    // Settings which are not set are those of a tenant item without them
+    public static Builder builder(String tenantId) {
+        return new Builder(tenantId);
+    }
+
+    // Returns null if the item is missing or has no tenantId
+    public static TenantSettings fromItem(Map<String, AttributeValue> item) {
+        if (item == null || !item.containsKey("tenantId")) {
+            return null;
+        }
+        AttributeValue algorithm = item.get(RateLimitAlgorithm.TENANT_ATTRIBUTE);
+        AttributeValue tier = item.get(TenantTier.TENANT_ATTRIBUTE);
+        return builder(item.get("tenantId").s())
+                .tenantPerMinute(number(item, "tenantPerMinute"))
+                .sessionPerMinute(number(item, "sessionPerMinute"))
+                .connectionsPerSession(number(item, "connectionsPerSession"))
+                .tenantConnections(number(item, "tenantConnections"))
+                .sessionTTL(number(item, "sessionTTL"))
+                .messagesPerMinute(number(item, "messagesPerMinute"))
+                .rateLimitAlgorithm(RateLimitAlgorithm.fromTenantSetting(algorithm == null ? null : algorithm.s()))
+                .limitShards((int) number(item, LIMIT_SHARDS_ATTRIBUTE))
+                .leaseSize(number(item, LEASE_SIZE_ATTRIBUTE))
+                .tier(TenantTier.fromTenantSetting(tier == null ? null : tier.s()))
+                .build();
+    }
+
+    private static long number(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value == null || value.n() == null ? -1 : Long.parseLong(value.n());
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public long getTenantPerMinute() {
+        return tenantPerMinute;
+    }
+
+    public long getSessionPerMinute() {
+        return sessionPerMinute;
+    }
+
+    public long getConnectionsPerSession() {
+        return connectionsPerSession;
+    }
+
+    public long getTenantConnections() {
+        return tenantConnections;
+    }
+
+    public long getSessionTTL() {
+        return sessionTTL;
+    }
+
+    public long getMessagesPerMinute() {
+        return messagesPerMinute;
+    }
+
+    public RateLimitAlgorithm getRateLimitAlgorithm() {
+        return rateLimitAlgorithm;
+    }
+
+    // The number of partitions the tenant's counters are spread over, 1 when the tenant has no limitShards
+    public int getLimitShards() {
+        return limitShards;
+    }
+
+    // The size of each lease of the lease algorithm, 0 when the tenant has no leaseSize
+    public long getLeaseSize() {
+        return leaseSize;
+    }
+
+    // The tenant's share of the pooled queue's consumer, STANDARD when the tenant has no tier
+    public TenantTier getTier() {
+        return tier;
+    }
+
+    public static final class Builder {
+        private final String tenantId;
+        private long tenantPerMinute = -1;
+        private long sessionPerMinute = -1;
+        private long connectionsPerSession = -1;
+        private long tenantConnections = -1;
+        private long sessionTTL = -1;
+        private long messagesPerMinute = -1;
+        private RateLimitAlgorithm rateLimitAlgorithm = RateLimitAlgorithm.FIXED_WINDOW;
+        private int limitShards = 1;
+        private long leaseSize;
+        private TenantTier tier = TenantTier.STANDARD;
+
+        private Builder(final String tenantId) {
+            this.tenantId = tenantId;
+        }
+
+        public Builder tenantPerMinute(long tenantPerMinute) {
+            this.tenantPerMinute = tenantPerMinute;
+            return this;
+        }
+
+        public Builder sessionPerMinute(long sessionPerMinute) {
+            this.sessionPerMinute = sessionPerMinute;
+            return this;
+        }
+
+        public Builder connectionsPerSession(long connectionsPerSession) {
+            this.connectionsPerSession = connectionsPerSession;
+            return this;
+        }
+
+        public Builder tenantConnections(long tenantConnections) {
+            this.tenantConnections = tenantConnections;
+            return this;
+        }
+
+        public Builder sessionTTL(long sessionTTL) {
+            this.sessionTTL = sessionTTL;
+            return this;
+        }
+
+        public Builder messagesPerMinute(long messagesPerMinute) {
+            this.messagesPerMinute = messagesPerMinute;
+            return this;
+        }
+
+        public Builder rateLimitAlgorithm(RateLimitAlgorithm rateLimitAlgorithm) {
+            this.rateLimitAlgorithm = rateLimitAlgorithm;
+            return this;
+        }
+
+        public Builder limitShards(int limitShards) {
+            this.limitShards = limitShards;
+            return this;
+        }
+
+        public Builder leaseSize(long leaseSize) {
+            this.leaseSize = leaseSize;
+            return this;
+        }
+
+        public Builder tier(TenantTier tier) {
+            this.tier = tier;
+            return this;
+        }
+
+        public TenantSettings build() {
+            return new TenantSettings(this);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.tenant;
+
+// The service tiers a tenant can be given through the tier attribute of the tenant table. The weight is the share of
+// the pooled queue's consumer a tenant receives relative to the others while they all have messages waiting, see
+// FairScheduler.
+public enum TenantTier {
+    BASIC(1),
+    STANDARD(2),
+    PREMIUM(4);
+
+    public static final String TENANT_ATTRIBUTE = "tier";
+
+    private final int weight;
+
+    TenantTier(final int weight) {
+        this.weight = weight;
+    }
+
+    // Tenants without the attribute are STANDARD so a tenant can be moved below or above the rest
+    public static TenantTier fromTenantSetting(String value) {
+        if (value != null) {
+            for (TenantTier tier : values()) {
+                if (tier.name().equalsIgnoreCase(value.trim())) {
+                    return tier;
+                }
+            }
+        }
+        return STANDARD;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
@@ -6,11 +6,23 @@ package com.amazonaws.services.sample.apigateway.websocketratelimit;
 import org.junit.Assert;
 import org.junit.Test;
 import software.amazon.awscdk.App;
+import software.amazon.awscdk.cxapi.CloudAssembly;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 
 public class RateLimitTest {
@@ -26,4 +38,313 @@ public class RateLimitTest {
         JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
         Assert.assertNotNull(actual);
     }
+
+    @Test
+    public void testJavaAuthorizer() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.JAVA_HANDLERS_CONTEXT, "Authorizer",
+                        RateLimitStack.JAVA_HANDLER_JAR_CONTEXT, createHandlerJar().toString()))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
+        JsonNode authorizer = findFunction(actual, "AuthorizerHandler");
+        Assert.assertNotNull(authorizer);
+        Assert.assertEquals("java11", authorizer.path("Properties").path("Runtime").asText());
+        Assert.assertEquals("60", authorizer.path("Properties").path("Environment").path("Variables").path("TenantCacheTTLSeconds").asText());
+        Assert.assertNotNull(findFunction(actual, "WebSocketConnect.handler"));
+    }
+
+    @Test
+    public void testJavaSQSEcho() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.JAVA_HANDLERS_CONTEXT, "SQSEcho",
+                        RateLimitStack.JAVA_HANDLER_JAR_CONTEXT, createHandlerJar().toString()))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        CloudAssembly assembly = app.synth();
+        JsonNode actual = JSON.valueToTree(assembly.getStackArtifact(stack.getArtifactId()).getTemplate());
+        JsonNode sqsEcho = findFunction(actual, "SQSEchoHandler");
+        Assert.assertNotNull(sqsEcho);
+        Assert.assertEquals("java11", sqsEcho.path("Properties").path("Runtime").asText());
+        Assert.assertEquals("32", sqsEcho.path("Properties").path("Environment").path("Variables").path("MaxInFlightPosts").asText());
+        Assert.assertNull(findFunction(actual, "SQSEcho.handler"));
+
+        int eventSources = 0;
+        for (JsonNode resource : resources(assembly, stack)) {
+            if ("AWS::Lambda::EventSourceMapping".equals(resource.path("Type").asText())
+                    && resource.path("Properties").has("FunctionResponseTypes")) {
+                Assert.assertEquals("ReportBatchItemFailures", resource.path("Properties").path("FunctionResponseTypes").path(0).asText());
+                eventSources++;
+            }
+        }
+        // One queue per sample tenant, in a nested stack, and the pooled queue
+        Assert.assertEquals(4, eventSources);
+    }
+
+    @Test
+    public void testJavaWebSocketConnect() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.JAVA_HANDLERS_CONTEXT, "WebSocketConnect",
+                        RateLimitStack.JAVA_HANDLER_JAR_CONTEXT, createHandlerJar().toString()))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
+        JsonNode connect = findFunction(actual, "WebSocketConnectHandler");
+        Assert.assertNotNull(connect);
+        Assert.assertEquals("java11", connect.path("Properties").path("Runtime").asText());
+        Assert.assertNotNull(connect.path("Properties").path("Environment").path("Variables").get("LimitTableName"));
+        Assert.assertNull(findFunction(actual, "WebSocketConnect.handler"));
+    }
+
+    @Test
+    public void testJavaSessionTTL() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.JAVA_HANDLERS_CONTEXT, "SessionTTL",
+                        RateLimitStack.JAVA_HANDLER_JAR_CONTEXT, createHandlerJar().toString()))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
+        JsonNode sessionTTL = findFunction(actual, "SessionTTLHandler");
+        Assert.assertNotNull(sessionTTL);
+        Assert.assertEquals("java11", sessionTTL.path("Properties").path("Runtime").asText());
+        Assert.assertEquals("32", sessionTTL.path("Properties").path("Environment").path("Variables").path("MaxConcurrentDeletes").asText());
+        Assert.assertNull(findFunction(actual, "SessionTTL.handler"));
+
+        JsonNode eventSource = null;
+        Iterator<JsonNode> resources = actual.path("Resources").elements();
+        while (resources.hasNext()) {
+            JsonNode resource = resources.next();
+            if ("AWS::Lambda::EventSourceMapping".equals(resource.path("Type").asText())
+                    && resource.path("Properties").has("ParallelizationFactor")) {
+                eventSource = resource.path("Properties");
+            }
+        }
+        Assert.assertNotNull(eventSource);
+        Assert.assertEquals(100, eventSource.path("BatchSize").asInt());
+        Assert.assertEquals(1, eventSource.path("MaximumBatchingWindowInSeconds").asInt());
+        Assert.assertEquals(4, eventSource.path("ParallelizationFactor").asInt());
+        Assert.assertTrue(eventSource.path("BisectBatchOnFunctionError").asBoolean());
+        Assert.assertEquals("ReportBatchItemFailures", eventSource.path("FunctionResponseTypes").path(0).asText());
+        Assert.assertTrue(eventSource.path("FilterCriteria").path("Filters").path(0).path("Pattern").asText().contains("dynamodb.amazonaws.com"));
+    }
+
+    @Test
+    public void testAllJavaHandlersWithSnapStart() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.JAVA_HANDLERS_CONTEXT, "*",
+                        RateLimitStack.JAVA_HANDLER_JAR_CONTEXT, createHandlerJar().toString()))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        CloudAssembly assembly = app.synth();
+        JsonNode actual = JSON.valueToTree(assembly.getStackArtifact(stack.getArtifactId()).getTemplate());
+        for (String handler : new String[] { "AuthorizerHandler", "WebSocketConnectHandler", "WebSocketDisconnectHandler", "SessionHandler",
+                "TenantHandler", "SQSEchoHandler", "SessionTTLHandler" }) {
+            JsonNode function = findFunction(actual, handler);
+            Assert.assertNotNull(handler, function);
+            Assert.assertEquals("java11", function.path("Properties").path("Runtime").asText());
+            Assert.assertEquals("PublishedVersions", function.path("Properties").path("SnapStart").path("ApplyOn").asText());
+        }
+        // The sample client page is served from the lambda directory by Node.js
+        Assert.assertNotNull(findFunction(actual, "SampleClientGet.handler"));
+
+        // API Gateway and the event sources invoke the published versions through their aliases
+        int aliases = 0;
+        int aliasEventSources = 0;
+        for (JsonNode resource : resources(assembly, stack)) {
+            String type = resource.path("Type").asText();
+            if ("AWS::Lambda::Alias".equals(type)) {
+                Assert.assertEquals("live", resource.path("Properties").path("Name").asText());
+                aliases++;
+            } else if ("AWS::Lambda::EventSourceMapping".equals(type)) {
+                Assert.assertTrue(resource.path("Properties").path("FunctionName").toString().contains("LiveAlias"));
+                aliasEventSources++;
+            } else if ("AWS::ApiGatewayV2::Authorizer".equals(type)) {
+                Assert.assertTrue(resource.path("Properties").path("AuthorizerUri").toString().contains("AuthorizerLiveAlias"));
+            }
+        }
+        // Seven functions plus one SQSEcho function per sample tenant and the pooled queue
+        Assert.assertEquals(10, aliases);
+        Assert.assertEquals(5, aliasEventSources);
+    }
+
+    @Test
+    public void testJavaHandlersWithoutSnapStart() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.JAVA_HANDLERS_CONTEXT, "Authorizer",
+                        RateLimitStack.SNAP_START_CONTEXT, "false",
+                        RateLimitStack.JAVA_HANDLER_JAR_CONTEXT, createHandlerJar().toString()))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
+        Assert.assertTrue(findFunction(actual, "AuthorizerHandler").path("Properties").path("SnapStart").isMissingNode());
+        Iterator<JsonNode> resources = actual.path("Resources").elements();
+        while (resources.hasNext()) {
+            Assert.assertNotEquals("AWS::Lambda::Alias", resources.next().path("Type").asText());
+        }
+    }
+
+    @Test
+    public void testSessionTokensRequired() throws IOException {
+        App app = App.Builder.create()
+                .context(Map.of(RateLimitStack.SESSION_TOKENS_CONTEXT, RateLimitStack.SESSION_TOKENS_REQUIRED))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
+        int secrets = 0;
+        JsonNode authorizer = null;
+        Iterator<JsonNode> resources = actual.path("Resources").elements();
+        while (resources.hasNext()) {
+            JsonNode resource = resources.next();
+            if ("AWS::SecretsManager::Secret".equals(resource.path("Type").asText())) {
+                secrets++;
+            } else if ("AWS::ApiGatewayV2::Authorizer".equals(resource.path("Type").asText())) {
+                authorizer = resource;
+            }
+        }
+        Assert.assertEquals(1, secrets);
+        Assert.assertEquals("[\"route.request.querystring.token\"]", authorizer.path("Properties").path("IdentitySource").toString());
+        JsonNode environment = findFunction(actual, "Authorizer.handler").path("Properties").path("Environment").path("Variables");
+        Assert.assertEquals("true", environment.path("SessionTokensRequired").asText());
+        Assert.assertFalse(environment.path("SessionTokenSecretArn").isMissingNode());
+    }
+
+    @Test
+    public void testDashboardAndAlarms() throws IOException {
+        App app = new App();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        JsonNode actual = JSON.valueToTree(app.synth().getStackArtifact(stack.getArtifactId()).getTemplate());
+        int dashboards = 0;
+        int alarms = 0;
+        Iterator<JsonNode> resources = actual.path("Resources").elements();
+        while (resources.hasNext()) {
+            JsonNode resource = resources.next();
+            String type = resource.path("Type").asText();
+            if ("AWS::CloudWatch::Dashboard".equals(type)) {
+                String body = resource.path("Properties").path("DashboardBody").toString();
+                for (String metric : new String[] { "AuthorizerLatency", "DynamoDBLatency", "STSLatency", "PostToConnectionLatency",
+                        "TenantCacheHits", "Throttles", "TENANT_PER_MINUTE", "MESSAGES_PER_MINUTE", "TenantId" }) {
+                    Assert.assertTrue(metric, body.contains(metric));
+                }
+                dashboards++;
+            } else if ("AWS::CloudWatch::Alarm".equals(type)) {
+                Assert.assertEquals("notBreaching", resource.path("Properties").path("TreatMissingData").asText());
+                alarms++;
+            }
+        }
+        Assert.assertEquals(1, dashboards);
+        Assert.assertEquals(5, alarms);
+    }
+
+    @Test
+    public void testTenantCatalogIsSeededInBulkAndSiloTenantsAreSharded() throws IOException {
+        StringBuilder catalog = new StringBuilder("tenantId,tenantPerMinute,tier,silo\n");
+        for (int i = 0; i < 120; i++) {
+            catalog.append("silo-").append(i).append(",60,BASIC,true\n");
+            catalog.append("pooled-").append(i).append(",60,STANDARD,false\n");
+        }
+        Path catalogPath = TenantCatalogTest.catalog(".csv", catalog.toString());
+        App app = App.Builder.create()
+                .context(Map.of(
+                        RateLimitStack.TENANT_CATALOG_CONTEXT, catalogPath.toString(),
+                        RateLimitStack.TENANTS_PER_STACK_CONTEXT, "50"))
+                .build();
+        RateLimitStack stack = new RateLimitStack(app, "test");
+
+        CloudAssembly assembly = app.synth();
+        JsonNode actual = JSON.valueToTree(assembly.getStackArtifact(stack.getArtifactId()).getTemplate());
+        int nestedStacks = 0;
+        int seeds = 0;
+        Iterator<JsonNode> resources = actual.path("Resources").elements();
+        while (resources.hasNext()) {
+            JsonNode resource = resources.next();
+            String type = resource.path("Type").asText();
+            if ("AWS::CloudFormation::Stack".equals(type)) {
+                nestedStacks++;
+            } else if ("AWS::CloudFormation::CustomResource".equals(type)) {
+                Assert.assertFalse(resource.path("Properties").path("Key").isMissingNode());
+                seeds++;
+            } else if ("AWS::SQS::Queue".equals(type)) {
+                // Only the pooled queue is left in this stack
+                Assert.assertEquals("tenant-Pooled.fifo", resource.path("Properties").path("QueueName").asText());
+            }
+        }
+        Assert.assertEquals(3, nestedStacks);
+        Assert.assertEquals(1, seeds);
+        Assert.assertNotNull(findFunction(actual, "TenantCatalogSeed.handler"));
+
+        int queues = 0;
+        int maxResources = 0;
+        for (Path nested : nestedTemplates(assembly)) {
+            JsonNode template = JSON.readTree(nested.toFile());
+            maxResources = Math.max(maxResources, template.path("Resources").size());
+            queues += count(template, "AWS::SQS::Queue");
+        }
+        Assert.assertEquals(120, queues);
+        Assert.assertTrue(String.valueOf(maxResources), maxResources < 500);
+    }
+
+    static JsonNode findFunction(JsonNode template, String handler) {
+        Iterator<JsonNode> resources = template.path("Resources").elements();
+        while (resources.hasNext()) {
+            JsonNode resource = resources.next();
+            if ("AWS::Lambda::Function".equals(resource.path("Type").asText())
+                    && resource.path("Properties").path("Handler").asText().contains(handler)) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    // The resources of the stack and of its nested stacks
+    static List<JsonNode> resources(CloudAssembly assembly, RateLimitStack stack) throws IOException {
+        List<JsonNode> resources = new ArrayList<>();
+        JSON.valueToTree(assembly.getStackArtifact(stack.getArtifactId()).getTemplate()).path("Resources").elements().forEachRemaining(resources::add);
+        for (Path nested : nestedTemplates(assembly)) {
+            JSON.readTree(nested.toFile()).path("Resources").elements().forEachRemaining(resources::add);
+        }
+        return resources;
+    }
+
+    static List<Path> nestedTemplates(CloudAssembly assembly) throws IOException {
+        List<Path> templates = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Paths.get(assembly.getDirectory()))) {
+            files.filter(file -> file.getFileName().toString().endsWith(".nested.template.json")).forEach(templates::add);
+        }
+        return templates;
+    }
+
+    private static int count(JsonNode template, String type) {
+        int count = 0;
+        Iterator<JsonNode> resources = template.path("Resources").elements();
+        while (resources.hasNext()) {
+            if (type.equals(resources.next().path("Type").asText())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // The stack only needs a file to fingerprint, the handlers themselves are packaged by mvn package
+    static Path createHandlerJar() throws IOException {
+        Path jar = Files.createTempFile("websocket-rate-limit-lambda", ".jar");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar.toFile()))) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.closeEntry();
+        }
+        return jar;
+    }
 }
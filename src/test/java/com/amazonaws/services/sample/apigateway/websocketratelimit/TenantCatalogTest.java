@@ -0,0 +1,89 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TenantCatalogTest {
+    @Test
+    public void testCsvAndJsonLinesGiveTheSameItems() throws IOException {
+        Path csv = catalog(".csv",
+                "# tenants",
+                "tenantId,tenantPerMinute,sessionTTL,tier,silo",
+                "t1, 60, 200, BASIC, true",
+                "",
+                "t2,120,,PREMIUM,false");
+        Path jsonl = catalog(".jsonl",
+                "{\"tenantId\":\"t1\",\"tenantPerMinute\":60,\"sessionTTL\":\"200\",\"tier\":\"BASIC\",\"silo\":true}",
+                "{\"tenantId\":\"t2\",\"tenantPerMinute\":120,\"tier\":\"PREMIUM\",\"silo\":false}");
+        for (Path path : new Path[] { csv, jsonl }) {
+            try (TenantCatalog catalog = TenantCatalog.open(path)) {
+                TenantCatalog.Tenant t1 = catalog.next();
+                Assert.assertEquals("t1", t1.getTenantId());
+                Assert.assertTrue(t1.isSilo());
+                Assert.assertEquals("{\"tenantId\":{\"S\":\"t1\"},\"tenantPerMinute\":{\"N\":\"60\"},\"sessionTTL\":{\"N\":\"200\"},\"tier\":{\"S\":\"BASIC\"}}",
+                        t1.toItemJson());
+                TenantCatalog.Tenant t2 = catalog.next();
+                Assert.assertFalse(t2.isSilo());
+                Assert.assertEquals("{\"tenantId\":{\"S\":\"t2\"},\"tenantPerMinute\":{\"N\":\"120\"},\"tier\":{\"S\":\"PREMIUM\"}}", t2.toItemJson());
+                Assert.assertNull(catalog.next());
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidTenantsNameTheirLine() throws IOException {
+        assertInvalid("Line 2 of the tenant catalog", "repeats tenant t1",
+                "{\"tenantId\":\"t1\"}", "{\"tenantId\":\"t1\"}");
+        assertInvalid("Line 1 of the tenant catalog", "tenantPerMinute 1.5 which is not a whole number",
+                "{\"tenantId\":\"t1\",\"tenantPerMinute\":1.5}");
+        assertInvalid("Line 1 of the tenant catalog", "has no tenantId",
+                "{\"tier\":\"BASIC\"}");
+        // A silo tenant's Id names its queue, a pooled tenant's Id can be anything
+        assertInvalid("Line 1 of the tenant catalog", "silo tenantId",
+                "{\"tenantId\":\"tenant one\"}");
+        try (TenantCatalog catalog = TenantCatalog.open(catalog(".jsonl", "{\"tenantId\":\"tenant one\",\"silo\":false}"))) {
+            Assert.assertEquals("tenant one", catalog.next().getTenantId());
+        }
+    }
+
+    @Test
+    public void testTheSampleCatalog() throws IOException {
+        int tenants = 0;
+        try (TenantCatalog catalog = TenantCatalog.open(Paths.get("tenants.jsonl"))) {
+            for (TenantCatalog.Tenant tenant = catalog.next(); tenant != null; tenant = catalog.next()) {
+                Assert.assertTrue(tenant.isSilo());
+                Assert.assertTrue(tenant.toItemJson().contains("\"tier\":{\"S\":"));
+                tenants++;
+            }
+        }
+        Assert.assertEquals(3, tenants);
+    }
+
+    private static void assertInvalid(String line, String problem, String... lines) throws IOException {
+        try (TenantCatalog catalog = TenantCatalog.open(catalog(".jsonl", lines))) {
+            for (TenantCatalog.Tenant tenant = catalog.next(); tenant != null; tenant = catalog.next()) {
+                Assert.assertNotNull(tenant.getTenantId());
+            }
+            Assert.fail("Expected " + problem);
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(line));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(problem));
+        }
+    }
+
+    static Path catalog(String suffix, String... lines) throws IOException {
+        Path path = Files.createTempFile("tenants", suffix);
+        Files.write(path, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        path.toFile().deleteOnExit();
+        return path;
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.AuthorizerContext;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.QueuedMessages;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The cost of reading the authorizer context of a batch of queued messages with the original layout of one string
+// attribute per setting and with the single binary ctx attribute, through QueuedMessages.toEchoMessage as the
+// consumer reads them. The batch's messages come from sessions sessions, so with fewer sessions than messages the
+// compact decoder reuses the strings of the session it decoded before. The *FromJson benchmarks also read the records
+// from the JSON of the Lambda event, where most of the cost of the original layout's ten attributes is.
+// Add -Dbenchmark.options="-prof gc" to compare the allocation.
+// Run with
+// mvn -Pbenchmark test -Dbenchmark=AuthorizerContextBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthorizerContextBenchmark {
+    private static final int BATCH_SIZE = 10;
+    private static final ObjectMapper JSON = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Param({ "1", "10" })
+    public int sessions;
+
+    private SQSEvent.SQSMessage[] attributes;
+    private SQSEvent.SQSMessage[] compact;
+    private ByteBuffer[] encoded;
+    private String[] attributesJson;
+    private String[] compactJson;
+    private final AuthorizerContext context = new AuthorizerContext();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        attributes = new SQSEvent.SQSMessage[BATCH_SIZE];
+        compact = new SQSEvent.SQSMessage[BATCH_SIZE];
+        encoded = new ByteBuffer[BATCH_SIZE];
+        attributesJson = new String[BATCH_SIZE];
+        compactJson = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String sessionId = "session-" + (1_000_000 + i % sessions);
+            attributes[i] = record(i);
+            Map<String, SQSEvent.MessageAttribute> original = attributes[i].getMessageAttributes();
+            original.put("tenantId", stringAttribute("tenant-1234567890"));
+            original.put("sessionId", stringAttribute(sessionId));
+            original.put("requestId", stringAttribute("request-" + i));
+            original.put("sessionPerMinute", stringAttribute("60"));
+            original.put("tenantPerMinute", stringAttribute("6000"));
+            original.put("tenantConnections", stringAttribute("1000"));
+            original.put("connectionsPerSession", stringAttribute("2"));
+            original.put("sessionTTL", stringAttribute("3600"));
+            original.put("messagesPerMinute", stringAttribute("100000"));
+
+            // The ByteBuffer the Lambda runtime decodes the base64 binaryValue into
+            encoded[i] = ByteBuffer.wrap(Base64.getDecoder().decode(new AuthorizerContext()
+                    .set("tenant-1234567890", sessionId, 60, 6000, 1000, 2, 3600, 100000).encodeBase64()));
+            compact[i] = record(i);
+            SQSEvent.MessageAttribute ctx = new SQSEvent.MessageAttribute();
+            ctx.setDataType("Binary");
+            ctx.setBinaryValue(encoded[i]);
+            compact[i].getMessageAttributes().put(AuthorizerContext.ATTRIBUTE, ctx);
+            compact[i].getAttributes().put("MessageDeduplicationId", "request-" + i);
+            attributesJson[i] = JSON.writeValueAsString(attributes[i]);
+            compactJson[i] = JSON.writeValueAsString(compact[i]);
+            encoded[i].rewind();
+            for (String json : new String[] { attributesJson[i], compactJson[i] }) {
+                if (QueuedMessages.toEchoMessage(JSON.readValue(json, SQSEvent.SQSMessage.class), context) == null) {
+                    throw new IllegalStateException("The record does not read back from its JSON " + json);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void attributes(Blackhole blackhole) {
+        for (SQSEvent.SQSMessage record : attributes) {
+            blackhole.consume(QueuedMessages.toEchoMessage(record, context));
+        }
+    }
+
+    @Benchmark
+    public void compact(Blackhole blackhole) {
+        for (SQSEvent.SQSMessage record : compact) {
+            blackhole.consume(QueuedMessages.toEchoMessage(record, context));
+        }
+    }
+
+    @Benchmark
+    public void attributesFromJson(Blackhole blackhole) throws IOException {
+        for (String json : attributesJson) {
+            blackhole.consume(QueuedMessages.toEchoMessage(JSON.readValue(json, SQSEvent.SQSMessage.class), context));
+        }
+    }
+
+    @Benchmark
+    public void compactFromJson(Blackhole blackhole) throws IOException {
+        for (String json : compactJson) {
+            blackhole.consume(QueuedMessages.toEchoMessage(JSON.readValue(json, SQSEvent.SQSMessage.class), context));
+        }
+    }
+
+    // The decoding alone, without building the EchoMessage
+    @Benchmark
+    public void decodeOnly(Blackhole blackhole) {
+        for (ByteBuffer buffer : encoded) {
+            blackhole.consume(context.decode(buffer));
+            blackhole.consume(context.getSessionId());
+        }
+    }
+
+    private static SQSEvent.SQSMessage record(int i) {
+        SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+        record.setMessageId("message-" + i);
+        record.setBody("{\"message\":\"hello\"}");
+        record.setEventSourceArn("arn:aws:sqs:us-east-1:123456789012:tenant-Pooled.fifo");
+        Map<String, String> systemAttributes = new HashMap<>();
+        systemAttributes.put("MessageGroupId", "tenant-1234567890:session");
+        record.setAttributes(systemAttributes);
+        Map<String, SQSEvent.MessageAttribute> messageAttributes = new HashMap<>();
+        messageAttributes.put("connectionId", stringAttribute("Y2xpZW50LWNvbm5lY3Rpb24="));
+        record.setMessageAttributes(messageAttributes);
+        return record;
+    }
+
+    private static SQSEvent.MessageAttribute stringAttribute(String value) {
+        SQSEvent.MessageAttribute attribute = new SQSEvent.MessageAttribute();
+        attribute.setDataType("String");
+        attribute.setStringValue(value);
+        return attribute;
+    }
+}
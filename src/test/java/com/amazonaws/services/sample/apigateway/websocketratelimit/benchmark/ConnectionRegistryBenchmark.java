@@ -0,0 +1,105 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.MembershipCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The cost of preparing a broadcast, the touch which extends the session and returns its connections, for sessions of
+// connections connections through DynamoDBSessionStore and the SDK. The set layout is the session item's
+// connectionIds set which every touch reads back whole. The connectionTable layout reads the session's connection
+// table items with a query on every touch, as when every message follows a connect or disconnect, and cached only
+// reads them once and then uses the MembershipCache while the membership version stays the same.
+// DynamoDB is stood in for by StubDynamoDB, which also reports the capacity each touch would consume. The times
+// leave out the round trips to DynamoDB, which are one per touch for set and cached and one more per 1 MB page of
+// connections for connectionTable.
+// Run with
+// mvn -Pbenchmark test -Dbenchmark=ConnectionRegistryBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionRegistryBenchmark {
+    private static final String TENANT = "tenant-1234567890";
+    private static final String SESSION = "session-1234567890";
+
+    @Param({ "2", "100", "10000" })
+    public int connections;
+
+    @Param({ "set", "connectionTable", "cached" })
+    public String layout;
+
+    private StubDynamoDB dynamoDB;
+    private DynamoDbClient client;
+    private DynamoDBSessionStore sessions;
+    private long touches;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Connection Ids of the same length as API Gateway's
+        Random random = new Random(42);
+        List<String> connectionIds = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            byte[] id = new byte[10];
+            random.nextBytes(id);
+            connectionIds.add(Base64.getEncoder().encodeToString(id).substring(0, 14) + "=");
+        }
+        dynamoDB = new StubDynamoDB();
+        if ("set".equals(layout)) {
+            dynamoDB.setSessionWithSet(TENANT, SESSION, connectionIds);
+        } else if ("connectionTable".equals(layout) || "cached".equals(layout)) {
+            dynamoDB.setSessionWithConnectionTable(TENANT, SESSION, connectionIds);
+        } else {
+            throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        client = dynamoDB.client();
+        sessions = new DynamoDBSessionStore(tenantId -> client, StubDynamoDB.SESSION_TABLE, StubDynamoDB.CONNECTION_TABLE, "LimitTable",
+                tenantId -> 1, Clock.systemUTC(), new MembershipCache());
+        if (sessions.touch(TENANT, SESSION, 3600).size() != connections) {
+            throw new IllegalStateException("The touch did not return every connection");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        if (touches > 0) {
+            System.out.printf("%n%s with %d connections: %.2f requests, %.2f write units and %.2f read units per touch%n", layout, connections,
+                    (double) dynamoDB.getRequests() / (touches + 1), (double) dynamoDB.getWriteUnits() / (touches + 1),
+                    (double) dynamoDB.getReadUnits() / (touches + 1));
+        }
+        client.close();
+    }
+
+    @Benchmark
+    public List<String> touch() {
+        if ("connectionTable".equals(layout)) {
+            dynamoDB.changeMembership();
+        }
+        touches++;
+        return sessions.touch(TENANT, SESSION, 3600);
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Asks DynamoDB for the consumed capacity of every request and adds it up per operation.
+// The synchronous client calls interceptors on the calling thread, so a load driver thread sets the usage for the
+// operation it is about to run with attribute. Requests made on other threads, such as the echo processor's
+// executor, are added to the unattributed usage.
+public class ConsumedCapacityRecorder implements ExecutionInterceptor {
+    private final ThreadLocal<Usage> current = new ThreadLocal<>();
+    private final Usage unattributed = new Usage();
+
+    public void attribute(Usage usage) {
+        current.set(usage);
+    }
+
+    public Usage getUnattributed() {
+        return unattributed;
+    }
+
+    @Override
+    public SdkRequest modifyRequest(Context.ModifyRequest context, ExecutionAttributes executionAttributes) {
+        SdkRequest request = context.request();
+        if (request instanceof GetItemRequest) {
+            return ((GetItemRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        } else if (request instanceof UpdateItemRequest) {
+            return ((UpdateItemRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        } else if (request instanceof PutItemRequest) {
+            return ((PutItemRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        } else if (request instanceof DeleteItemRequest) {
+            return ((DeleteItemRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        } else if (request instanceof QueryRequest) {
+            return ((QueryRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        } else if (request instanceof TransactWriteItemsRequest) {
+            return ((TransactWriteItemsRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        } else if (request instanceof BatchWriteItemRequest) {
+            return ((BatchWriteItemRequest) request).toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build();
+        }
+        return request;
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        SdkResponse response = context.response();
+        Usage usage = current.get() != null ? current.get() : unattributed;
+        usage.requests.increment();
+        boolean read = response instanceof GetItemResponse || response instanceof QueryResponse
+                || response instanceof BatchGetItemResponse || response instanceof TransactGetItemsResponse;
+        response.getValueForField("ConsumedCapacity", Object.class).ifPresent(consumed -> {
+            if (consumed instanceof ConsumedCapacity) {
+                usage.add((ConsumedCapacity) consumed, read);
+            } else if (consumed instanceof List) {
+                for (Object capacity : (List<?>) consumed) {
+                    usage.add((ConsumedCapacity) capacity, read);
+                }
+            }
+        });
+    }
+
+    public static final class Usage {
+        private final LongAdder requests = new LongAdder();
+        private final DoubleAdder readUnits = new DoubleAdder();
+        private final DoubleAdder writeUnits = new DoubleAdder();
+
+        private void add(ConsumedCapacity capacity, boolean read) {
+            if (capacity.readCapacityUnits() != null || capacity.writeCapacityUnits() != null) {
+                readUnits.add(capacity.readCapacityUnits() != null ? capacity.readCapacityUnits() : 0);
+                writeUnits.add(capacity.writeCapacityUnits() != null ? capacity.writeCapacityUnits() : 0);
+            } else if (capacity.capacityUnits() != null) {
+                (read ? readUnits : writeUnits).add(capacity.capacityUnits());
+            }
+        }
+
+        public void add(Usage other) {
+            requests.add(other.requests.sum());
+            readUnits.add(other.readUnits.sum());
+            writeUnits.add(other.writeUnits.sum());
+        }
+
+        public void reset() {
+            requests.reset();
+            readUnits.reset();
+            writeUnits.reset();
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public double getReadUnits() {
+            return readUnits.sum();
+        }
+
+        public double getWriteUnits() {
+            return writeUnits.sum();
+        }
+    }
+}
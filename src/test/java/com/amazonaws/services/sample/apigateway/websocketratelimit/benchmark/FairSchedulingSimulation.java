@@ -0,0 +1,227 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.Broadcaster;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoProcessor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.FairScheduler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.Common;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyHistogram;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantTier;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Simulates the pooled queue's consumer with skewed tenant traffic and reports each tenant's echo latency with and
+// without a FairScheduler. Messages arrive at --rate per second for --seconds, a --skew fraction of them from
+// tenant-0 and the rest spread evenly over the other tenants, each from a random one of the tenant's --sessions
+// sessions of --connections connections. tenant-0 has the --chattyTier tier and the others --tier. The messages go
+// through a LocalQueue of --consumers consumers taking batches of up to --batch messages to an EchoProcessor with a
+// Broadcaster of --inflight posts, each taking --postLatencyMicros. With the fair mode at most --groups message
+// groups are processed at once and a tenant holds at most --share of them, each share given is run.
+// The latency is measured from enqueueing a message until its sender has been sent the echo, so a message which
+// waits behind another tenant's groups in the consumer counts the wait. Every mode in --modes, fifo and fair, is run.
+// Run with
+// mvn -Pfair test -Dfair.options="--rate 3000 --skew 0.8 --share 0.5,0.25"
+// Results are also appended to target/fair-result.csv.
+public final class FairSchedulingSimulation {
+    private static final String FIFO = "fifo";
+    private static final String FAIR = "fair";
+    private static final String[] DEFAULTS = {
+            "modes", FIFO + "," + FAIR,
+            "tenants", "5",
+            "skew", "0.8",
+            "chattyTier", TenantTier.BASIC.name(),
+            "tier", TenantTier.STANDARD.name(),
+            "sessions", "20",
+            "connections", "3",
+            "rate", "3000",
+            "seconds", "10",
+            "consumers", "16",
+            "batch", "10",
+            "inflight", "32",
+            "groups", "32",
+            "share", "0.5",
+            "postLatencyMicros", "2000",
+            "csv", "target/fair-result.csv"
+    };
+
+    private FairSchedulingSimulation() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int tenants = Integer.parseInt(options.get("tenants"));
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            if (header) {
+                out.println("mode,batch,share,rate,skew,tenant,tier,messages,p50Millis,p99Millis,maxMillis");
+            }
+            System.out.printf("%6s %6s %6s %10s %10s %10s %10s %10s%n", "mode", "batch", "share", "tenant", "messages", "p50(ms)", "p99(ms)", "max(ms)");
+            for (int batch : ints(options.get("batch"))) {
+                for (String mode : options.get("modes").split(",")) {
+                    // The share only applies to the fair mode
+                    for (String share : FAIR.equals(mode.trim()) ? options.get("share").split(",") : new String[] {"1"}) {
+                        Map<String, LatencyHistogram> latencies = run(options, mode.trim(), batch, Double.parseDouble(share));
+                        for (int t = 0; t < tenants; t++) {
+                            String tenantId = "tenant-" + t;
+                            LatencyHistogram latency = latencies.get(tenantId);
+                            System.out.printf("%6s %6d %6s %10s %10d %10.1f %10.1f %10.1f%n", mode, batch, share, tenantId, latency.getCount(),
+                                    latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getPercentileMillis(100));
+                            out.printf("%s,%d,%s,%s,%s,%s,%s,%d,%.1f,%.1f,%.1f%n", mode, batch, share, options.get("rate"), options.get("skew"), tenantId,
+                                    tier(options, t), latency.getCount(), latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+                                    latency.getPercentileMillis(100));
+                        }
+                        out.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, LatencyHistogram> run(Map<String, String> options, String mode, int batch, double share) throws Exception {
+        if (!FAIR.equals(mode) && !FIFO.equals(mode)) {
+            throw new IllegalArgumentException("Unknown mode " + mode + ", expected " + FIFO + " or " + FAIR);
+        }
+        int tenants = Integer.parseInt(options.get("tenants"));
+        int sessions = Integer.parseInt(options.get("sessions"));
+        int connections = Integer.parseInt(options.get("connections"));
+        int inflight = Integer.parseInt(options.get("inflight"));
+        double skew = Double.parseDouble(options.get("skew"));
+        long postLatencyNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.get("postLatencyMicros")));
+
+        InMemorySessionStore sessionStore = new InMemorySessionStore();
+        for (int t = 0; t < tenants; t++) {
+            for (int s = 0; s < sessions; s++) {
+                for (int c = 0; c < connections; c++) {
+                    sessionStore.addConnection("tenant-" + t, "session-" + s, connection(t, s, c), 3600);
+                }
+            }
+        }
+        Map<String, LatencyHistogram> latencies = new HashMap<>();
+        Map<Integer, TenantTier> tiers = new HashMap<>();
+        for (int t = 0; t < tenants; t++) {
+            latencies.put("tenant-" + t, new LatencyHistogram());
+            tiers.put(t, TenantTier.fromTenantSetting(tier(options, t)));
+        }
+        // The echo sent to the connection a message came from completes the message, its body is the message's Id
+        Map<String, Pending> pending = new ConcurrentHashMap<>();
+        ConnectionSender sender = (connectionId, data) -> {
+            LockSupport.parkNanos(postLatencyNanos);
+            String payload = data.asUtf8String();
+            if (payload.startsWith("{\"message\":{\"id\":\"")) {
+                String id = payload.substring(18, payload.indexOf('"', 18));
+                Pending message = pending.get(id);
+                if (message != null && message.connectionId.equals(connectionId)) {
+                    pending.remove(id);
+                    message.latency.record(System.nanoTime() - message.enqueued);
+                }
+            }
+            return SendResult.SENT;
+        };
+        ExecutorService executor = Common.newFixedThreadPool("fair", inflight);
+        FairScheduler scheduler = FAIR.equals(mode)
+                ? new FairScheduler(Integer.parseInt(options.get("groups")), share,
+                        tenantId -> tiers.get(Integer.parseInt(tenantId.substring("tenant-".length()))).getWeight())
+                : null;
+        EchoProcessor processor = new EchoProcessor(new RateLimiters(new InMemoryLimitStore()), tenantId -> RateLimitAlgorithm.FIXED_WINDOW,
+                sessionStore, new Broadcaster(sender, sessionStore, executor, inflight, (message, failure) -> { }), executor, (message, failure) -> { },
+                new MetricsLogger(line -> { }), scheduler);
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Long.parseLong(options.get("rate"));
+        long messages = Long.parseLong(options.get("seconds")) * Long.parseLong(options.get("rate"));
+        List<CompletableFuture<Void>> echoed = new ArrayList<>();
+        try (LocalQueue queue = new LocalQueue(processor, Integer.parseInt(options.get("consumers")), batch)) {
+            long start = System.nanoTime();
+            for (long i = 0; i < messages; i++) {
+                // Open loop, messages keep arriving at the rate however far behind the consumer is
+                long due = start + i * intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int t = tenants == 1 || random.nextDouble() < skew ? 0 : 1 + random.nextInt(tenants - 1);
+                int s = random.nextInt(sessions);
+                String tenantId = "tenant-" + t;
+                String connectionId = connection(t, s, random.nextInt(connections));
+                String id = Long.toString(i);
+                pending.put(id, new Pending(connectionId, System.nanoTime(), latencies.get(tenantId)));
+                echoed.add(queue.send(new EchoMessage(id, tenantId + ":session-" + s, tenantId, "session-" + s, connectionId, id,
+                        "{\"id\":\"" + id + "\"}", 1_000_000_000L, 3600, "tenant-Pooled.fifo")));
+            }
+            CompletableFuture.allOf(echoed.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        return latencies;
+    }
+
+    private static String connection(int tenant, int session, int connection) {
+        return "connection-" + tenant + "-" + session + "-" + connection;
+    }
+
+    private static String tier(Map<String, String> options, int tenant) {
+        return tenant == 0 ? options.get("chattyTier") : options.get("tier");
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static List<Integer> ints(String values) {
+        List<Integer> result = new ArrayList<>();
+        for (String value : values.split(",")) {
+            result.add(Integer.parseInt(value.trim()));
+        }
+        return result;
+    }
+
+    private static final class Pending {
+        private final String connectionId;
+        private final long enqueued;
+        private final LatencyHistogram latency;
+
+        private Pending(final String connectionId, final long enqueued, final LatencyHistogram latency) {
+            this.connectionId = connectionId;
+            this.enqueued = enqueued;
+            this.latency = latency;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Throughput and sampled latency of the authorizer, connect, disconnect and echo logic of the Java handlers.
+// The echo benchmark processes a batch of batchSize messages from random sessions, posting to every connection of
+// each session through a StubApiGateway, over HTTP or in process with -p apiGateway=memory. Run with
+// mvn -Pbenchmark test -Dbenchmark=HandlerBenchmark
+// and add -Dbenchmark.options="-p store=memory,dynamodb" with DynamoDB Local running to include DynamoDB.
+// The connect latency with the limits checked one after another and in a single transaction is compared under
+// concurrent connects to the same session with DynamoDB Local running and
+// -Dbenchmark.options="-p store=dynamodb -p connect=sequential,transactional -p connectionsPerSession=2 connectToOneSession"
+// The authorizer with session tokens, which reads no session item, is compared with the session table lookup with
+// -Dbenchmark.options="-p store=memory,dynamodb authorize"
+// The LoadDriver reports DynamoDB capacity units per operation for the same paths.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class HandlerBenchmark {
+    @Param({ "memory" })
+    public String store;
+
+    @Param({ "http" })
+    public String apiGateway;
+
+    @Param({ "10" })
+    public int tenants;
+
+    @Param({ "10" })
+    public int sessions;
+
+    @Param({ "2", "10", "100" })
+    public int connectionsPerSession;
+
+    @Param({ "10" })
+    public int batchSize;
+
+    // sequential or transactional, transactional needs the dynamodb store
+    @Param({ "sequential" })
+    public String connect;
+
+    private LocalEnvironment environment;
+    private List<LocalEnvironment.Session> population;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        environment = new LocalEnvironment(store, apiGateway, 32, "transactional".equals(connect));
+        population = environment.populate(tenants, sessions, connectionsPerSession, 8, RateLimitAlgorithm.FIXED_WINDOW);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        environment.close();
+    }
+
+    private LocalEnvironment.Session session() {
+        return population.get(ThreadLocalRandom.current().nextInt(population.size()));
+    }
+
+    @Benchmark
+    public boolean authorize() {
+        return environment.authorize(session());
+    }
+
+    @Benchmark
+    public boolean authorizeWithToken() {
+        return environment.authorizeWithToken(session());
+    }
+
+    // A connect followed by the disconnect of the same connection so the sessions keep their size
+    @Benchmark
+    public ConnectResult connectAndDisconnect() {
+        LocalEnvironment.Session session = session();
+        String connectionId = environment.nextConnectionId();
+        ConnectResult result = environment.connect(session, connectionId);
+        environment.disconnect(session, connectionId);
+        return result;
+    }
+
+    // Every thread connects to and disconnects from the first session, so the connects contend on its item and on
+    // the tenant's counters
+    @Benchmark
+    public ConnectResult connectToOneSession() {
+        LocalEnvironment.Session session = population.get(0);
+        String connectionId = environment.nextConnectionId();
+        ConnectResult result = environment.connect(session, connectionId);
+        environment.disconnect(session, connectionId);
+        return result;
+    }
+
+    @Benchmark
+    public List<String> echoBatch() {
+        List<EchoMessage> messages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            messages.add(environment.message(session()));
+        }
+        return environment.getEchoProcessor().process(messages);
+    }
+}
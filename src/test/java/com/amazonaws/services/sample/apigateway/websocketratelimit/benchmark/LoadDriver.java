@@ -0,0 +1,292 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyHistogram;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// A closed loop load driver for the authorize, connect, disconnect and echo paths, and the authorizer given the
+// session's token as tokenAuth. Every combination of the tenants, sessions and connections options is populated and
+// each path is driven by the given number of threads, each picking a random session per operation. For each operation it reports the throughput, the p50, p99 and
+// p99.9 latency and, with the dynamodb store, the DynamoDB requests and read and write capacity units per operation.
+// The echo latency is measured from enqueueing the message until every connection has been sent its echo.
+// With --apigateway http the posts go over HTTP to a StubApiGateway, with --apigateway memory they are answered in
+// process, and --postLatencyMicros adds a fixed delay to each post.
+// Run with
+// mvn -Pload test -Dload.options="--store memory --tenants 1,10 --sessions 1,10 --connections 2,10,100"
+// Results are also appended to target/load-result.csv.
+public final class LoadDriver {
+    private static final String[] DEFAULTS = {
+            "store", LocalEnvironment.MEMORY,
+            "apigateway", LocalEnvironment.HTTP,
+            "tenants", "1,10",
+            "sessions", "1,10",
+            "connections", "2,10,100",
+            "threads", "16",
+            "warmup", "2",
+            "seconds", "10",
+            "consumers", "4",
+            "batch", "10",
+            "inflight", "32",
+            "postLatencyMicros", "0",
+            "algorithm", RateLimitAlgorithm.FIXED_WINDOW.name(),
+            "csv", "target/load-result.csv"
+    };
+
+    private LoadDriver() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int threads = Integer.parseInt(options.get("threads"));
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        try (LocalEnvironment environment = new LocalEnvironment(options.get("store"), options.get("apigateway"), Integer.parseInt(options.get("inflight")));
+             PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            environment.getApiGateway().setLatencyMicros(Long.parseLong(options.get("postLatencyMicros")));
+            if (header) {
+                out.println("store,tenants,sessions,connections,threads,operation,ops,opsPerSecond,p50Millis,p99Millis,p999Millis,requestsPerOp,rcuPerOp,wcuPerOp");
+            }
+            for (int tenants : ints(options.get("tenants"))) {
+                for (int sessions : ints(options.get("sessions"))) {
+                    for (int connections : ints(options.get("connections"))) {
+                        String scenario = String.join(",", options.get("store"), Integer.toString(tenants), Integer.toString(sessions),
+                                Integer.toString(connections), Integer.toString(threads));
+                        System.out.printf("%nstore=%s tenants=%d sessions=%d connections=%d threads=%d%n",
+                                options.get("store"), tenants, sessions, connections, threads);
+                        System.out.printf("%-11s %12s %10s %10s %10s %12s %9s %9s%n",
+                                "operation", "ops/s", "p50(ms)", "p99(ms)", "p999(ms)", "requests/op", "RCU/op", "WCU/op");
+                        List<LocalEnvironment.Session> population = environment.populate(tenants, sessions, connections, threads,
+                                RateLimitAlgorithm.valueOf(options.get("algorithm")));
+                        for (Result result : run(environment, population, options)) {
+                            result.print(System.out::println);
+                            out.println(scenario + "," + result.toCsv());
+                        }
+                        out.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Result> run(LocalEnvironment environment, List<LocalEnvironment.Session> population, Map<String, String> options) throws InterruptedException {
+        int threads = Integer.parseInt(options.get("threads"));
+        long warmupSeconds = Long.parseLong(options.get("warmup"));
+        long seconds = Long.parseLong(options.get("seconds"));
+        List<Result> results = new ArrayList<>();
+
+        Result authorize = new Result("authorize", environment.getCapacity());
+        drive(threads, warmupSeconds, seconds, authorize, random -> {
+            LocalEnvironment.Session session = pick(population, random);
+            authorize.time(() -> {
+                if (!environment.authorize(session)) {
+                    throw new IllegalStateException("Session " + session.getSessionId() + " was not authorized");
+                }
+            });
+        });
+        results.add(authorize);
+
+        // The tenant settings and revocations are cached, so with tokens the authorizer reads no session item
+        Result tokenAuthorize = new Result("tokenAuth", environment.getCapacity());
+        drive(threads, warmupSeconds, seconds, tokenAuthorize, random -> {
+            LocalEnvironment.Session session = pick(population, random);
+            tokenAuthorize.time(() -> {
+                if (!environment.authorizeWithToken(session)) {
+                    throw new IllegalStateException("Session " + session.getSessionId() + " token was not authorized");
+                }
+            });
+        });
+        results.add(tokenAuthorize);
+
+        // Each connect is followed by a disconnect of the same connection so the sessions keep their size
+        Result connect = new Result("connect", environment.getCapacity());
+        Result disconnect = new Result("disconnect", environment.getCapacity());
+        drive(threads, warmupSeconds, seconds, connect, random -> {
+            LocalEnvironment.Session session = pick(population, random);
+            String connectionId = environment.nextConnectionId();
+            connect.time(() -> {
+                ConnectResult result = environment.connect(session, connectionId);
+                if (!result.isAdmitted()) {
+                    throw new IllegalStateException("Connection rejected, " + result.getDescription());
+                }
+            });
+            disconnect.time(() -> environment.disconnect(session, connectionId));
+        }, disconnect);
+        results.add(connect);
+        results.add(disconnect);
+
+        Result echo = new Result("echo", environment.getCapacity());
+        try (LocalQueue queue = new LocalQueue(environment.getEchoProcessor(), Integer.parseInt(options.get("consumers")), Integer.parseInt(options.get("batch")))) {
+            drive(threads, warmupSeconds, seconds, echo, random -> {
+                LocalEnvironment.Session session = pick(population, random);
+                echo.time(() -> queue.send(environment.message(session)).join());
+            });
+        }
+        // The echo processor reads and writes on its own threads
+        if (environment.getCapacity() != null) {
+            echo.usage.add(environment.getCapacity().getUnattributed());
+        }
+        results.add(echo);
+        return results;
+    }
+
+    private static LocalEnvironment.Session pick(List<LocalEnvironment.Session> population, ThreadLocalRandom random) {
+        return population.get(random.nextInt(population.size()));
+    }
+
+    // Runs the operation on every thread for the warm up and then for the measured seconds. The results are only
+    // recorded during the measurement.
+    private static void drive(int threads, long warmupSeconds, long seconds, Result primary, Operation operation, Result... others) throws InterruptedException {
+        List<Result> results = new ArrayList<>(List.of(others));
+        results.add(0, primary);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (running.get()) {
+                        operation.run(random);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                    running.set(false);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        if (primary.capacity != null) {
+            primary.capacity.getUnattributed().reset();
+        }
+        long start = System.nanoTime();
+        setMeasuring(results, true);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        setMeasuring(results, false);
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        done.await();
+        if (failure.get() != null) {
+            throw new IllegalStateException("Load failed", failure.get());
+        }
+        for (Result result : results) {
+            result.elapsedNanos = elapsed;
+        }
+    }
+
+    private static void setMeasuring(List<Result> results, boolean measuring) {
+        for (Result result : results) {
+            result.measuring = measuring;
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static List<Integer> ints(String values) {
+        List<Integer> result = new ArrayList<>();
+        for (String value : values.split(",")) {
+            result.add(Integer.parseInt(value.trim()));
+        }
+        return result;
+    }
+
+    private interface Operation {
+        void run(ThreadLocalRandom random) throws Exception;
+    }
+
+    private static final class Result {
+        private final String operation;
+        private final ConsumedCapacityRecorder capacity;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConsumedCapacityRecorder.Usage usage = new ConsumedCapacityRecorder.Usage();
+        private final ConsumedCapacityRecorder.Usage ignored = new ConsumedCapacityRecorder.Usage();
+        private volatile boolean measuring;
+        private long elapsedNanos;
+
+        private Result(final String operation, final ConsumedCapacityRecorder capacity) {
+            this.operation = operation;
+            this.capacity = capacity;
+        }
+
+        private void time(Runnable call) {
+            boolean measured = measuring;
+            if (capacity != null) {
+                capacity.attribute(measured ? usage : ignored);
+            }
+            long start = System.nanoTime();
+            try {
+                call.run();
+            } finally {
+                if (measured) {
+                    latency.record(System.nanoTime() - start);
+                }
+                if (capacity != null) {
+                    capacity.attribute(null);
+                }
+            }
+        }
+
+        private double perOp(double total) {
+            long ops = latency.getCount();
+            return ops == 0 ? 0 : total / ops;
+        }
+
+        private double opsPerSecond() {
+            return elapsedNanos == 0 ? 0 : latency.getCount() * 1e9 / elapsedNanos;
+        }
+
+        private void print(Consumer<String> out) {
+            out.accept(String.format("%-11s %12.1f %10.3f %10.3f %10.3f %12s %9s %9s", operation, opsPerSecond(),
+                    latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getPercentileMillis(99.9),
+                    capacity == null ? "-" : String.format("%.2f", perOp(usage.getRequests())),
+                    capacity == null ? "-" : String.format("%.2f", perOp(usage.getReadUnits())),
+                    capacity == null ? "-" : String.format("%.2f", perOp(usage.getWriteUnits()))));
+        }
+
+        private String toCsv() {
+            return String.format("%s,%d,%.1f,%.3f,%.3f,%.3f,%s,%s,%s", operation, latency.getCount(), opsPerSecond(),
+                    latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getPercentileMillis(99.9),
+                    capacity == null ? "" : String.format("%.2f", perOp(usage.getRequests())),
+                    capacity == null ? "" : String.format("%.2f", perOp(usage.getReadUnits())),
+                    capacity == null ? "" : String.format("%.2f", perOp(usage.getWriteUnits())));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ResourceInUseException;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+// Connects to a DynamoDB Local instance, for example one started with
+// docker run -p 8000:8000 amazon/dynamodb-local
+// and creates the sample tables with the same keys as RateLimitStack.
+// The endpoint is taken from the dynamodb.endpoint system property.
+public final class LocalDynamoDB {
+    public static final String ENDPOINT_PROPERTY = "dynamodb.endpoint";
+    public static final String TENANT_TABLE = "TenantTable";
+    public static final String SESSION_TABLE = "SessionTable";
+    public static final String CONNECTION_TABLE = "ConnectionTable";
+    public static final String LIMIT_TABLE = "LimitTable";
+
+    private LocalDynamoDB() {
+    }
+
+    public static DynamoDbClient connect(ExecutionInterceptor... interceptors) {
+        String endpoint = System.getProperty(ENDPOINT_PROPERTY, "http://localhost:8000");
+        DynamoDbClient dynamo = DynamoDbClient.builder()
+                .endpointOverride(URI.create(endpoint))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local")))
+                .overrideConfiguration(configuration -> {
+                    for (ExecutionInterceptor interceptor : interceptors) {
+                        configuration.addExecutionInterceptor(interceptor);
+                    }
+                })
+                .build();
+        createTable(dynamo, TENANT_TABLE, "tenantId", null);
+        createTable(dynamo, SESSION_TABLE, "tenantId", "sessionId");
+        createTable(dynamo, CONNECTION_TABLE, "session", "connectionId");
+        createTable(dynamo, LIMIT_TABLE, "tenantId", "key");
+        return dynamo;
+    }
+
+    private static void createTable(DynamoDbClient dynamo, String tableName, String partitionKey, String sortKey) {
+        List<AttributeDefinition> attributes = new ArrayList<>();
+        List<KeySchemaElement> keys = new ArrayList<>();
+        attributes.add(AttributeDefinition.builder().attributeName(partitionKey).attributeType(ScalarAttributeType.S).build());
+        keys.add(KeySchemaElement.builder().attributeName(partitionKey).keyType(KeyType.HASH).build());
+        if (sortKey != null) {
+            attributes.add(AttributeDefinition.builder().attributeName(sortKey).attributeType(ScalarAttributeType.S).build());
+            keys.add(KeySchemaElement.builder().attributeName(sortKey).keyType(KeyType.RANGE).build());
+        }
+        try {
+            dynamo.createTable(builder -> builder
+                    .tableName(tableName)
+                    .attributeDefinitions(attributes)
+                    .keySchema(keys)
+                    .billingMode(BillingMode.PAY_PER_REQUEST));
+        } catch (ResourceInUseException e) {
+            // Table already exists from a previous run
+        }
+    }
+}
@@ -0,0 +1,269 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ApiGatewayConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.Broadcaster;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.LoadingCache;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectionManager;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.TransactionalAdmission;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoProcessor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoResponses;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.Common;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.DynamoDBLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.RevocationStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionAuthorizer;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionToken;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokenAuthorizer;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionTokens;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// The authorizer, connect, disconnect and echo logic of the Java handlers wired up in process.
+// With the memory store the tables are the in-memory stores, with the dynamodb store they are tables in
+// DynamoDB Local, see LocalDynamoDB, and every request's consumed capacity is recorded. Posts to connections go
+// to a StubApiGateway, over HTTP through the management API client with the http API Gateway or in process with
+// the memory API Gateway. With transactionalConnect connects are admitted with a single transaction, see
+// TransactionalAdmission, which needs the dynamodb store. Every session is also issued a session token so the
+// authorizer can be measured with the table lookup and with tokens, see SessionTokens.
+public final class LocalEnvironment implements AutoCloseable {
+    public static final String MEMORY = "memory";
+    public static final String DYNAMODB = "dynamodb";
+    public static final String HTTP = "http";
+    // High enough that the rate limits never reject requests so only the cost of the checks is measured
+    private static final long UNLIMITED = 1_000_000_000L;
+
+    private final String runId = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong ids = new AtomicLong();
+    private final StubApiGateway apiGateway;
+    private final ExecutorService executor;
+    private final ConnectionSender sender;
+    private final Broadcaster broadcaster;
+    private final ConsumedCapacityRecorder capacity;
+    private final DynamoDbClient dynamo;
+    private final Map<String, TenantSettings> tenantSettings = new ConcurrentHashMap<>();
+    private final SessionStore sessions;
+    private final SessionAuthorizer authorizer;
+    private final SessionTokens sessionTokens = new SessionTokens(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+    private final SessionTokenAuthorizer tokenAuthorizer;
+    private final ConnectionManager connections;
+    private final EchoProcessor echo;
+
+    public LocalEnvironment(final String store, final String apiGatewayMode, final int maxInFlightPosts) throws IOException {
+        this(store, apiGatewayMode, maxInFlightPosts, false);
+    }
+
+    public LocalEnvironment(final String store, final String apiGatewayMode, final int maxInFlightPosts, final boolean transactionalConnect) throws IOException {
+        if (transactionalConnect && !DYNAMODB.equals(store)) {
+            throw new IllegalArgumentException("Transactional connects need the " + DYNAMODB + " store");
+        }
+        apiGateway = new StubApiGateway();
+        executor = Common.newFixedThreadPool("echo", maxInFlightPosts);
+        LimitStore limits;
+        Function<String, TenantSettings> tenants;
+        if (DYNAMODB.equals(store)) {
+            capacity = new ConsumedCapacityRecorder();
+            dynamo = LocalDynamoDB.connect(capacity);
+            limits = new DynamoDBLimitStore(dynamo, LocalDynamoDB.LIMIT_TABLE);
+            sessions = new DynamoDBSessionStore(tenantId -> dynamo, LocalDynamoDB.SESSION_TABLE, LocalDynamoDB.CONNECTION_TABLE,
+                    LocalDynamoDB.LIMIT_TABLE);
+            // The same cache settings as the Java handlers' defaults
+            LoadingCache<String, TenantSettings> cache = new LoadingCache<>(1000, Duration.ofSeconds(60), Duration.ofSeconds(10),
+                    tenantId -> TenantSettings.fromItem(dynamo.getItem(builder -> builder
+                            .tableName(LocalDynamoDB.TENANT_TABLE)
+                            .key(Map.of("tenantId", AttributeValue.builder().s(tenantId).build()))).item()));
+            tenants = cache::get;
+        } else if (MEMORY.equals(store)) {
+            capacity = null;
+            dynamo = null;
+            limits = new InMemoryLimitStore();
+            sessions = new InMemorySessionStore();
+            tenants = tenantSettings::get;
+        } else {
+            throw new IllegalArgumentException("Unknown store " + store + ", expected " + MEMORY + " or " + DYNAMODB);
+        }
+        RateLimiters limiters = new RateLimiters(limits);
+        sender = HTTP.equals(apiGatewayMode) ? new ApiGatewayConnectionSender(apiGateway.client()) : apiGateway.sender();
+        broadcaster = new Broadcaster(sender, sessions, executor, maxInFlightPosts, (message, failure) -> { });
+        authorizer = new SessionAuthorizer(tenants, sessions, message -> { });
+        // The same revocation cache TTL as the stack gives the authorizer
+        tokenAuthorizer = new SessionTokenAuthorizer(tenants, sessions, (RevocationStore) sessions, Duration.ofSeconds(5), message -> { });
+        connections = new ConnectionManager(limiters, sessions, transactionalConnect
+                ? new TransactionalAdmission(tenantId -> dynamo, LocalDynamoDB.SESSION_TABLE, LocalDynamoDB.CONNECTION_TABLE, LocalDynamoDB.LIMIT_TABLE)
+                : null);
+        echo = new EchoProcessor(limiters, tenantId -> {
+            TenantSettings settings = tenants.apply(tenantId);
+            return settings != null ? settings.getRateLimitAlgorithm() : RateLimitAlgorithm.FIXED_WINDOW;
+        }, sessions, broadcaster, executor, (message, failure) -> { }, new MetricsLogger(line -> { }));
+    }
+
+    // Creates tenants with sessions which each hold connectionsPerSession connections. The tenants allow up to
+    // spareConnections more connections per session so concurrent connects are not rejected.
+    public List<Session> populate(int tenants, int sessionsPerTenant, int connectionsPerSession, int spareConnections, RateLimitAlgorithm algorithm) {
+        List<Session> population = new ArrayList<>();
+        for (int t = 0; t < tenants; t++) {
+            TenantSettings tenant = TenantSettings.builder(runId + "-tenant-" + ids.incrementAndGet())
+                    .tenantPerMinute(UNLIMITED)
+                    .sessionPerMinute(UNLIMITED)
+                    .connectionsPerSession(connectionsPerSession + spareConnections)
+                    .tenantConnections(UNLIMITED)
+                    .sessionTTL(3600)
+                    .messagesPerMinute(UNLIMITED)
+                    .rateLimitAlgorithm(algorithm)
+                    .build();
+            addTenant(tenant);
+            for (int s = 0; s < sessionsPerTenant; s++) {
+                String sessionId = "session-" + ids.incrementAndGet();
+                Session session = new Session(tenant, sessionId, sessionTokens.issue(tenant.getTenantId(), sessionId, tenant.getSessionTTL()));
+                sessions.create(tenant.getTenantId(), session.sessionId, tenant.getSessionTTL());
+                for (int c = 0; c < connectionsPerSession; c++) {
+                    String connectionId = nextConnectionId();
+                    sessions.addConnection(tenant.getTenantId(), session.sessionId, connectionId, tenant.getSessionTTL());
+                    session.connectionIds.add(connectionId);
+                }
+                population.add(session);
+            }
+        }
+        return population;
+    }
+
+    private void addTenant(TenantSettings tenant) {
+        if (dynamo == null) {
+            tenantSettings.put(tenant.getTenantId(), tenant);
+            return;
+        }
+        dynamo.putItem(builder -> builder
+                .tableName(LocalDynamoDB.TENANT_TABLE)
+                .item(Map.of(
+                        "tenantId", AttributeValue.builder().s(tenant.getTenantId()).build(),
+                        "tenantPerMinute", number(tenant.getTenantPerMinute()),
+                        "sessionPerMinute", number(tenant.getSessionPerMinute()),
+                        "connectionsPerSession", number(tenant.getConnectionsPerSession()),
+                        "tenantConnections", number(tenant.getTenantConnections()),
+                        "sessionTTL", number(tenant.getSessionTTL()),
+                        "messagesPerMinute", number(tenant.getMessagesPerMinute()),
+                        RateLimitAlgorithm.TENANT_ATTRIBUTE, AttributeValue.builder().s(tenant.getRateLimitAlgorithm().name()).build())));
+    }
+
+    public String nextConnectionId() {
+        return runId + "-connection-" + ids.incrementAndGet();
+    }
+
+    public boolean authorize(Session session) {
+        return authorizer.authorize(session.tenant.getTenantId(), session.sessionId) != null;
+    }
+
+    // The authorizer given the session's token rather than its tenantId and sessionId, which reads the tenant's
+    // revocations at most once per revocation cache TTL instead of the session
+    public boolean authorizeWithToken(Session session) {
+        SessionToken token = sessionTokens.verify(session.token);
+        return token != null && tokenAuthorizer.authorize(token) != null;
+    }
+
+    // The read only paths the Java handlers prime before a SnapStart snapshot, see handler/Priming: the tenant settings
+    // and session read of the authorizer, an empty echo batch and a post to a connection which is gone
+    public void prime(Session session) {
+        authorize(session);
+        echo.process(Collections.emptyList());
+        String connectionId = "priming-" + nextConnectionId();
+        apiGateway.gone(connectionId);
+        sender.send(connectionId, EchoResponses.forConnection(EchoResponses.createEchoPayload("priming", "priming", "{}", null), connectionId));
+    }
+
+    public ConnectResult connect(Session session, String connectionId) {
+        return connections.connect(session.tenant, session.sessionId, connectionId);
+    }
+
+    public void disconnect(Session session, String connectionId) {
+        connections.disconnect(session.tenant.getTenantId(), session.sessionId, connectionId);
+    }
+
+    // A message sent from the session's first connection the way the SQS integration enqueues it
+    public EchoMessage message(Session session) {
+        long id = ids.incrementAndGet();
+        return new EchoMessage("message-" + id, session.tenant.getTenantId() + ":" + session.sessionId, session.tenant.getTenantId(),
+                session.sessionId, session.connectionIds.get(0), "request-" + id, "{\"message\":\"load " + id + "\"}",
+                session.tenant.getMessagesPerMinute(), session.tenant.getSessionTTL(), "tenant-Pooled.fifo");
+    }
+
+    public EchoProcessor getEchoProcessor() {
+        return echo;
+    }
+
+    public Broadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    public StubApiGateway getApiGateway() {
+        return apiGateway;
+    }
+
+    // Null for the memory store
+    public ConsumedCapacityRecorder getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        apiGateway.close();
+        if (dynamo != null) {
+            dynamo.close();
+        }
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+
+    public static final class Session {
+        private final TenantSettings tenant;
+        private final String sessionId;
+        private final String token;
+        private final List<String> connectionIds = new ArrayList<>();
+
+        private Session(final TenantSettings tenant, final String sessionId, final String token) {
+            this.tenant = tenant;
+            this.sessionId = sessionId;
+            this.token = token;
+        }
+
+        public String getTenantId() {
+            return tenant.getTenantId();
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public List<String> getConnectionIds() {
+            return connectionIds;
+        }
+    }
+}
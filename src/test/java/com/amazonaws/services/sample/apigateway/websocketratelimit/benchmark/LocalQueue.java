@@ -0,0 +1,105 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoProcessor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// An in process stand-in for a FIFO queue with a Lambda event source. Message groups are spread over consumers,
+// the equivalent of concurrent Lambda invocations, and each consumer receives batches of up to batchSize messages.
+// A group is only ever handled by one consumer so its messages stay in order. Messages the processor reports as
+// failed are redelivered at the front of the consumer's next batch, as the queue does once the batch returns.
+public class LocalQueue implements AutoCloseable {
+    private final List<BlockingQueue<Entry>> partitions = new ArrayList<>();
+    private final List<Thread> consumers = new ArrayList<>();
+    private final EchoProcessor processor;
+    private final int batchSize;
+    private volatile boolean running = true;
+
+    public LocalQueue(final EchoProcessor processor, final int consumerCount, final int batchSize) {
+        this.processor = processor;
+        this.batchSize = batchSize;
+        for (int i = 0; i < consumerCount; i++) {
+            BlockingQueue<Entry> partition = new LinkedBlockingQueue<>();
+            partitions.add(partition);
+            Thread consumer = new Thread(() -> consume(partition), "local-queue-" + i);
+            consumer.setDaemon(true);
+            consumers.add(consumer);
+            consumer.start();
+        }
+    }
+
+    // Completes once the message has been echoed
+    public CompletableFuture<Void> send(EchoMessage message) {
+        Entry entry = new Entry(message);
+        partitions.get(Math.floorMod(message.getMessageGroupId().hashCode(), partitions.size())).add(entry);
+        return entry.done;
+    }
+
+    private void consume(BlockingQueue<Entry> partition) {
+        ArrayDeque<Entry> redelivered = new ArrayDeque<>();
+        while (running) {
+            List<Entry> batch = new ArrayList<>(batchSize);
+            while (!redelivered.isEmpty() && batch.size() < batchSize) {
+                batch.add(redelivered.pollFirst());
+            }
+            try {
+                if (batch.isEmpty()) {
+                    Entry first = partition.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            partition.drainTo(batch, batchSize - batch.size());
+
+            List<EchoMessage> messages = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                messages.add(entry.message);
+            }
+            Set<String> failed = new HashSet<>(processor.process(messages));
+            List<Entry> retry = new ArrayList<>();
+            for (Entry entry : batch) {
+                if (failed.contains(entry.message.getMessageId())) {
+                    retry.add(entry);
+                } else {
+                    entry.done.complete(null);
+                }
+            }
+            for (int i = retry.size() - 1; i >= 0; i--) {
+                redelivered.addFirst(retry.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+        }
+    }
+
+    private static final class Entry {
+        private final EchoMessage message;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Entry(final EchoMessage message) {
+            this.message = message;
+        }
+    }
+}
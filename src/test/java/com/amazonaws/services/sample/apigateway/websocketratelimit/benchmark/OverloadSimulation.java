@@ -0,0 +1,256 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.Broadcaster;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.connection.ConnectionManager;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoMessage;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.echo.EchoProcessor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.Common;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyHistogram;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.overload.LoadShedder;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.SessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantTier;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Injects a DynamoDB slowdown under a steady load and reports the latency of each tier's requests with and without
+// load shedding. Requests arrive at --rate per second for --seconds, spread evenly over a BASIC, a STANDARD and a
+// PREMIUM tenant, and go to a SlowDynamoDB of --capacity concurrent requests taking --serviceMicros each. From
+// --faultStart seconds for --faultSeconds seconds every request takes --slowdown times as long.
+// The connect path runs the connects in --containers threads, each with its own ConnectionManager and LoadShedder as
+// every Lambda container has. The echo path sends the messages through a LocalQueue of --consumers consumers taking
+// batches of up to --batch messages to one EchoProcessor, whose posts complete at once.
+// The latency is measured from a request's arrival until it is answered, admitted or shed, so requests waiting for a
+// container or a consumer count the wait. Every path in --paths, connect and echo, is run with every shedding mode
+// in --modes, off and on.
+// Run with
+// mvn -Poverload test -Doverload.options="--rate 300 --slowdown 20 --paths connect,echo"
+// Results are also appended to target/overload-result.csv.
+public final class OverloadSimulation {
+    private static final String CONNECT = "connect";
+    private static final String ECHO = "echo";
+    private static final String OFF = "off";
+    private static final String ON = "on";
+    private static final long UNLIMITED = 1_000_000_000L;
+    private static final TenantTier[] TIERS = { TenantTier.BASIC, TenantTier.STANDARD, TenantTier.PREMIUM };
+    private static final String[] DEFAULTS = {
+            "paths", CONNECT + "," + ECHO,
+            "modes", OFF + "," + ON,
+            "rate", "300",
+            "seconds", "20",
+            "sessions", "50",
+            "capacity", "8",
+            "serviceMicros", "2000",
+            "faultStart", "5",
+            "faultSeconds", "10",
+            "slowdown", "20",
+            "containers", "32",
+            "consumers", "16",
+            "batch", "10",
+            "minTargetMillis", "20",
+            "maxTargetMillis", "200",
+            "recoverySeconds", "10",
+            "csv", "target/overload-result.csv"
+    };
+
+    private OverloadSimulation() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            if (header) {
+                out.println("path,shedding,rate,slowdown,tier,requests,shedPercent,p50Millis,p99Millis,maxMillis,dynamoDBRequests");
+            }
+            System.out.printf("%8s %8s %9s %9s %7s %10s %10s %10s %10s%n", "path", "shedding", "tier", "requests", "shed%", "p50(ms)", "p99(ms)",
+                    "max(ms)", "dynamoDB");
+            for (String path : options.get("paths").split(",")) {
+                for (String mode : options.get("modes").split(",")) {
+                    if (!ON.equals(mode.trim()) && !OFF.equals(mode.trim())) {
+                        throw new IllegalArgumentException("Unknown mode " + mode + ", expected " + OFF + " or " + ON);
+                    }
+                    SlowDynamoDB dynamoDB = new SlowDynamoDB(Integer.parseInt(options.get("capacity")), Long.parseLong(options.get("serviceMicros")));
+                    Map<TenantTier, Tally> tallies = run(options, path.trim(), ON.equals(mode.trim()), dynamoDB);
+                    for (TenantTier tier : TIERS) {
+                        Tally tally = tallies.get(tier);
+                        LatencyHistogram latency = tally.latency;
+                        double shed = 100.0 * tally.shed.get() / Math.max(1, latency.getCount());
+                        System.out.printf("%8s %8s %9s %9d %7.1f %10.1f %10.1f %10.1f %10d%n", path.trim(), mode.trim(), tier, latency.getCount(), shed,
+                                latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getPercentileMillis(100), dynamoDB.getRequests());
+                        out.printf("%s,%s,%s,%s,%s,%d,%.1f,%.1f,%.1f,%.1f,%d%n", path.trim(), mode.trim(), options.get("rate"), options.get("slowdown"), tier,
+                                latency.getCount(), shed, latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getPercentileMillis(100),
+                                dynamoDB.getRequests());
+                    }
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    private static Map<TenantTier, Tally> run(Map<String, String> options, String path, boolean shedding, SlowDynamoDB dynamoDB) throws Exception {
+        Map<String, TenantTier> tiers = new HashMap<>();
+        Map<TenantTier, Tally> tallies = new EnumMap<>(TenantTier.class);
+        for (TenantTier tier : TIERS) {
+            tiers.put("tenant-" + tier.name().toLowerCase(), tier);
+            tallies.put(tier, new Tally());
+        }
+        int sessions = Integer.parseInt(options.get("sessions"));
+        InMemorySessionStore sessionStore = new InMemorySessionStore();
+        for (String tenantId : tiers.keySet()) {
+            for (int s = 0; s < sessions; s++) {
+                sessionStore.addConnection(tenantId, "session-" + s, tenantId + "-connection-" + s, 3600);
+            }
+        }
+        RateLimiters limiters = new RateLimiters(dynamoDB.wrap(LimitStore.class, new InMemoryLimitStore()));
+        SessionStore slowSessions = dynamoDB.wrap(SessionStore.class, sessionStore);
+        Supplier<LoadShedder> shedders = () -> shedding
+                ? new LoadShedder(tiers::get, Duration.ofMillis(Long.parseLong(options.get("minTargetMillis"))),
+                        Duration.ofMillis(Long.parseLong(options.get("maxTargetMillis"))), Duration.ofSeconds(Long.parseLong(options.get("recoverySeconds"))))
+                : null;
+
+        Request request;
+        AutoCloseable close;
+        if (CONNECT.equals(path)) {
+            ThreadLocal<ConnectionManager> containers = ThreadLocal.withInitial(() -> new ConnectionManager(limiters, slowSessions, null, shedders.get()));
+            ExecutorService executor = Common.newFixedThreadPool("container", Integer.parseInt(options.get("containers")));
+            AtomicLong connections = new AtomicLong();
+            request = (tenantId, sessionId, id) -> CompletableFuture.supplyAsync(() -> {
+                TenantSettings tenant = TenantSettings.builder(tenantId)
+                        .tenantPerMinute(UNLIMITED)
+                        .sessionPerMinute(UNLIMITED)
+                        .connectionsPerSession(UNLIMITED)
+                        .tenantConnections(UNLIMITED)
+                        .sessionTTL(3600)
+                        .messagesPerMinute(UNLIMITED)
+                        .tier(tiers.get(tenantId))
+                        .build();
+                return containers.get().connect(tenant, sessionId, "connection-" + connections.incrementAndGet()) == ConnectResult.OVERLOADED;
+            }, executor);
+            close = executor::shutdownNow;
+        } else if (ECHO.equals(path)) {
+            // The sender of a shed message is sent a throttle response, with the message's Id as its request Id
+            Set<String> shed = ConcurrentHashMap.newKeySet();
+            ConnectionSender sender = (connectionId, data) -> {
+                String payload = data.asUtf8String();
+                if (payload.startsWith("{\"message\":\"Too Many Requests\"")) {
+                    int start = payload.indexOf("\"requestId\":\"") + 13;
+                    shed.add(payload.substring(start, payload.indexOf('"', start)));
+                }
+                return SendResult.SENT;
+            };
+            int consumers = Integer.parseInt(options.get("consumers"));
+            ExecutorService executor = Common.newFixedThreadPool("echo", consumers);
+            EchoProcessor processor = new EchoProcessor(limiters, tenantId -> RateLimitAlgorithm.FIXED_WINDOW, slowSessions,
+                    new Broadcaster(sender, sessionStore, executor, consumers, (message, failure) -> { }), executor, (message, failure) -> { }, new MetricsLogger(line -> { }),
+                    null, shedders.get(), null);
+            LocalQueue queue = new LocalQueue(processor, consumers, Integer.parseInt(options.get("batch")));
+            request = (tenantId, sessionId, id) -> queue.send(new EchoMessage(id, tenantId + ":" + sessionId, tenantId, sessionId,
+                    tenantId + "-connection-" + sessionId.substring("session-".length()), id, "{\"id\":\"" + id + "\"}", UNLIMITED, 3600,
+                    "tenant-Pooled.fifo")).thenApply(ignored -> shed.remove(id));
+            close = () -> {
+                queue.close();
+                executor.shutdownNow();
+            };
+        } else {
+            throw new IllegalArgumentException("Unknown path " + path + ", expected " + CONNECT + " or " + ECHO);
+        }
+
+        long serviceMicros = Long.parseLong(options.get("serviceMicros"));
+        long faultStart = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("faultStart")));
+        long faultEnd = faultStart + TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("faultSeconds")));
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Long.parseLong(options.get("rate"));
+        long requests = Long.parseLong(options.get("seconds")) * Long.parseLong(options.get("rate"));
+        List<CompletableFuture<Void>> answered = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            for (long i = 0; i < requests; i++) {
+                // Open loop, requests keep arriving at the rate however slow DynamoDB is
+                long due = start + i * intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long elapsed = due - start;
+                dynamoDB.setServiceMicros(elapsed >= faultStart && elapsed < faultEnd
+                        ? serviceMicros * Long.parseLong(options.get("slowdown"))
+                        : serviceMicros);
+                TenantTier tier = TIERS[(int) (i % TIERS.length)];
+                Tally tally = tallies.get(tier);
+                long arrived = System.nanoTime();
+                answered.add(request.send("tenant-" + tier.name().toLowerCase(), "session-" + ThreadLocalRandom.current().nextInt(sessions), Long.toString(i))
+                        .thenAccept(shed -> tally.record(System.nanoTime() - arrived, shed)));
+            }
+            CompletableFuture.allOf(answered.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.MINUTES);
+        } finally {
+            close.close();
+        }
+        return tallies;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    // Sends one request and completes with whether it was shed
+    private interface Request {
+        CompletableFuture<Boolean> send(String tenantId, String sessionId, String id);
+    }
+
+    private static final class Tally {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong shed = new AtomicLong();
+
+        private void record(long nanos, boolean wasShed) {
+            latency.record(nanos);
+            if (wasShed) {
+                shed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitRecord;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Models the throughput limit DynamoDB applies to each partition, 1,000 write units and 3,000 read units per
+// second, which neither the in-memory store nor DynamoDB Local simulate. Every partition has a next free time
+// per capacity type, each request reserves its share of that time and waits until its reservation starts, so
+// callers observe the sustained rate a single hot partition allows rather than a burst.
+// Eventually consistent reads of small items cost half a read unit, which is what the sharded reads use.
+public class PartitionThrottledLimitStore implements LimitStore {
+    public static final double WRITE_UNITS_PER_SECOND = 1000;
+    public static final double READ_UNITS_PER_SECOND = 3000;
+
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final LimitStore store;
+
+    public PartitionThrottledLimitStore(final LimitStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public long increment(String tenantId, String key, long delta, long expiresAt) {
+        partition(tenantId).write(1);
+        return store.increment(tenantId, key, delta, expiresAt);
+    }
+
+    @Override
+    public long get(String tenantId, String key) {
+        partition(tenantId).read(1);
+        return store.get(tenantId, key);
+    }
+
+    // The reads of a BatchGetItem are served by each partition independently, the slowest one decides
+    @Override
+    public long getTotal(List<String> tenantIds, String key) {
+        long waitUntil = 0;
+        for (String tenantId : tenantIds) {
+            waitUntil = Math.max(waitUntil, partition(tenantId).reserveRead(0.5));
+        }
+        waitUntil(waitUntil);
+        long total = 0;
+        for (String tenantId : tenantIds) {
+            total += store.get(tenantId, key);
+        }
+        return total;
+    }
+
+    @Override
+    public LimitRecord load(String tenantId, String key) {
+        partition(tenantId).read(1);
+        return store.load(tenantId, key);
+    }
+
+    @Override
+    public boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt) {
+        partition(tenantId).write(1);
+        return store.compareAndSet(tenantId, key, expected, values, expiresAt);
+    }
+
+    private Partition partition(String tenantId) {
+        return partitions.computeIfAbsent(tenantId, id -> new Partition());
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static final class Partition {
+        private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private long nextWrite = System.nanoTime();
+        private long nextRead = System.nanoTime();
+
+        private void write(double units) {
+            long start;
+            synchronized (this) {
+                start = Math.max(nextWrite, System.nanoTime());
+                nextWrite = start + (long) (units * SECOND / WRITE_UNITS_PER_SECOND);
+            }
+            waitUntil(start);
+        }
+
+        private void read(double units) {
+            waitUntil(reserveRead(units));
+        }
+
+        private synchronized long reserveRead(double units) {
+            long start = Math.max(nextRead, System.nanoTime());
+            nextRead = start + (long) (units * SECOND / READ_UNITS_PER_SECOND);
+            return start;
+        }
+    }
+}
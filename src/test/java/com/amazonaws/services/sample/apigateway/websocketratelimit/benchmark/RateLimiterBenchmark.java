@@ -0,0 +1,168 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.DynamoDBLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiter;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RedisConnection;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RedisConnectionPool;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RedisLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.StubRedis;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Compares throughput and accuracy of the rate limit algorithms.
+// Each thread acts as its own tenant with a simulated clock and bursty traffic: most requests arrive a few
+// milliseconds apart with occasional idle gaps of up to 30 seconds, so bursts land on every part of a window.
+// Accuracy is reported through the overLimit counter, the number of admitted requests which took the exact
+// count over the last window above the limit. Run with
+// mvn -Pbenchmark test -Dbenchmark=RateLimiterBenchmark
+// and add -Dbenchmark.options="-p store=memory,dynamodb -Ddynamodb.endpoint=http://localhost:8000" to include DynamoDB Local.
+// store=redis runs RedisLimitStore against the Redis server given by -jvmArgsAppend -Dredis.endpoint=localhost:6379,
+// for example one started with docker run -p 6379:6379 redis:7, or against a StubRedis without it. Every thread's
+// tenant has a connection of its own, as every Lambda container would. -bm sample reports the latency percentiles of a
+// check instead of the throughput.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+    private static final long WINDOW_SECONDS = 60;
+
+    @Param({ "FIXED_WINDOW", "SLIDING_WINDOW_LOG", "SLIDING_WINDOW_COUNTER", "TOKEN_BUCKET", "LEASE" })
+    public RateLimitAlgorithm algorithm;
+
+    @Param({ "memory" })
+    public String store;
+
+    @Param({ "100" })
+    public long limit;
+
+    // Only used by the lease algorithm
+    @Param({ "10" })
+    public long leaseSize;
+
+    private LimitStore limitStore;
+    private StubRedis stubRedis;
+    private RedisConnectionPool redisConnections;
+
+    @Setup(Level.Trial)
+    public void setupStore() throws IOException {
+        // The in-memory store and Redis expire items using the real clock, the simulated clocks only ever move forward
+        // from now so nothing is expired early
+        if ("dynamodb".equals(store)) {
+            limitStore = new DynamoDBLimitStore(LocalDynamoDB.connect(), LocalDynamoDB.LIMIT_TABLE);
+        } else if ("redis".equals(store)) {
+            String endpoint = System.getProperty("redis.endpoint");
+            if (endpoint == null) {
+                stubRedis = new StubRedis();
+                endpoint = "localhost:" + stubRedis.getPort();
+            }
+            String host = endpoint.split(":")[0];
+            int port = Integer.parseInt(endpoint.split(":")[1]);
+            redisConnections = new RedisConnectionPool(64, tenantId -> new RedisConnection(host, port, false, null, null, 5000));
+            limitStore = new RedisLimitStore(redisConnections::get);
+        } else {
+            limitStore = new InMemoryLimitStore();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeStore() throws IOException {
+        if (redisConnections != null) {
+            redisConnections.closeAll();
+        }
+        if (stubRedis != null) {
+            stubRedis.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Tenant {
+        private final Random random = new Random(42);
+        private final ArrayDeque<Long> admittedTimes = new ArrayDeque<>();
+        private ManualClock clock;
+        private RateLimiter limiter;
+        private String tenantId;
+        private String key;
+
+        @Setup(Level.Trial)
+        public void setup(RateLimiterBenchmark benchmark) {
+            clock = new ManualClock(System.currentTimeMillis());
+            limiter = benchmark.algorithm.create(benchmark.limitStore, clock, WINDOW_SECONDS, id -> benchmark.leaseSize);
+            tenantId = UUID.randomUUID().toString();
+            key = tenantId + ":minutemsg";
+        }
+
+        private void nextArrival() {
+            clock.advance(random.nextInt(50) == 0 ? random.nextInt(30_000) : random.nextInt(5));
+        }
+
+        // Tracks the true number of admitted requests in the trailing window
+        private boolean admitExceedsLimit(long limit) {
+            long now = clock.millis();
+            while (!admittedTimes.isEmpty() && admittedTimes.peekFirst() <= now - WINDOW_SECONDS * 1000) {
+                admittedTimes.pollFirst();
+            }
+            admittedTimes.addLast(now);
+            return admittedTimes.size() > limit;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Accuracy {
+        public long admitted;
+        public long rejected;
+        public long overLimit;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            admitted = 0;
+            rejected = 0;
+            overLimit = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean tryAcquire(Tenant tenant, Accuracy accuracy) {
+        tenant.nextArrival();
+        boolean allowed = tenant.limiter.tryAcquire(tenant.tenantId, tenant.key, limit);
+        if (allowed) {
+            accuracy.admitted++;
+            if (tenant.admitExceedsLimit(limit)) {
+                accuracy.overLimit++;
+            }
+        } else {
+            accuracy.rejected++;
+        }
+        return allowed;
+    }
+}
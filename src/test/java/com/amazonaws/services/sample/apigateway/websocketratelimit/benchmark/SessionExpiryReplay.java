@@ -0,0 +1,346 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue;
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.Identity;
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.StreamRecord;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ApiGatewayConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionCloser;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.expiry.ExpiredSession;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.expiry.SessionExpiryProcessor;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.Common;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.SessionTTLHandler;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.LatencyHistogram;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Replays DynamoDB stream batches of expired sessions through the SessionTTL handler's logic and measures how fast
+// the connections are drained. A recording holds one batch per line in the form Lambda passes it to the function,
+// {"Records":[...]}, for example copied from the function's logs. Without --records, --sessions sessions with
+// --connections connections each are generated into batches of --batch records, and --write saves them as a
+// recording. The sessions of the recording are added to an in-memory session store first so the tenants' total
+// connections can be checked to have drained to zero.
+// Every combination of --inflight, the DeleteConnection calls in flight per invocation, and --parallel, the
+// concurrent invocations per stream shard, is replayed. Each parallel invocation takes the next batch as soon as
+// it has finished its previous one. --inflight 1 --parallel 1 closes one connection at a time like SessionTTL.js
+// did. With --apigateway http the deletes go over HTTP to a StubApiGateway, with --apigateway memory they are
+// answered in process, --deleteLatencyMicros adds a fixed delay to each and --gone is the fraction of connections
+// which have already closed.
+// Run with
+// mvn -Preplay test -Dreplay.options="--sessions 2000 --connections 5 --inflight 1,8,32 --parallel 1,4 --deleteLatencyMicros 20000"
+// Results are also appended to target/replay-result.csv.
+public final class SessionExpiryReplay {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final String[] DEFAULTS = {
+            "records", "",
+            "write", "",
+            "apigateway", LocalEnvironment.MEMORY,
+            "tenants", "10",
+            "sessions", "2000",
+            "connections", "5",
+            "batch", "100",
+            "inflight", "1,8,32",
+            "parallel", "1,4",
+            "deleteLatencyMicros", "20000",
+            "gone", "0.1",
+            "csv", "target/replay-result.csv"
+    };
+
+    private SessionExpiryReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        List<DynamodbEvent> batches = options.get("records").isEmpty()
+                ? generate(Integer.parseInt(options.get("tenants")), Integer.parseInt(options.get("sessions")),
+                        Integer.parseInt(options.get("connections")), Integer.parseInt(options.get("batch")))
+                : read(Paths.get(options.get("records")));
+        if (!options.get("write").isEmpty()) {
+            write(batches, Paths.get(options.get("write")));
+        }
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        try (StubApiGateway apiGateway = new StubApiGateway();
+             PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            apiGateway.setLatencyMicros(Long.parseLong(options.get("deleteLatencyMicros")));
+            ConnectionCloser closer = LocalEnvironment.HTTP.equals(options.get("apigateway"))
+                    ? new ApiGatewayConnectionSender(apiGateway.client())
+                    : apiGateway.closer();
+            markGone(batches, Double.parseDouble(options.get("gone")), apiGateway);
+            if (header) {
+                out.println("batches,sessions,connections,inflight,parallel,deleteLatencyMicros,seconds,connectionsPerSecond,batchP50Millis,batchP99Millis,remainingConnections");
+            }
+            System.out.printf("%8s %8s %10s %12s %14s %10s %10s %10s%n",
+                    "inflight", "parallel", "seconds", "sessions/s", "connections/s", "p50(ms)", "p99(ms)", "remaining");
+            for (int inflight : ints(options.get("inflight"))) {
+                for (int parallel : ints(options.get("parallel"))) {
+                    Result result = replay(batches, closer, inflight, parallel);
+                    System.out.printf("%8d %8d %10.2f %12.1f %14.1f %10.1f %10.1f %10d%n", inflight, parallel, result.seconds(),
+                            result.sessions / result.seconds(), result.connections / result.seconds(),
+                            result.batchLatency.getPercentileMillis(50), result.batchLatency.getPercentileMillis(99), result.remaining);
+                    out.printf("%d,%d,%d,%d,%d,%s,%.3f,%.1f,%.1f,%.1f,%d%n", batches.size(), result.sessions, result.connections, inflight, parallel,
+                            options.get("deleteLatencyMicros"), result.seconds(), result.connections / result.seconds(),
+                            result.batchLatency.getPercentileMillis(50), result.batchLatency.getPercentileMillis(99), result.remaining);
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    // Each of the parallel invocations has its own processor and pool, the way separate Lambda containers would
+    private static Result replay(List<DynamodbEvent> batches, ConnectionCloser closer, int inflight, int parallel) throws Exception {
+        InMemorySessionStore sessions = new InMemorySessionStore();
+        Set<String> tenants = new HashSet<>();
+        Result result = new Result();
+        for (DynamodbEvent batch : batches) {
+            for (ExpiredSession session : expiredSessions(batch)) {
+                for (String connectionId : session.getConnectionIds()) {
+                    sessions.addConnection(session.getTenantId(), session.getSessionId(), connectionId, 3600);
+                }
+                sessions.delete(session.getTenantId(), session.getSessionId());
+                tenants.add(session.getTenantId());
+                result.sessions++;
+                result.connections += session.getConnectionIds().size();
+            }
+        }
+        Queue<DynamodbEvent> waiting = new ConcurrentLinkedQueue<>(batches);
+        ExecutorService invocations = Executors.newFixedThreadPool(parallel);
+        List<ExecutorService> pools = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < parallel; i++) {
+            ExecutorService pool = Common.newFixedThreadPool("replay", inflight);
+            pools.add(pool);
+            SessionExpiryProcessor processor = new SessionExpiryProcessor(closer, sessions, pool, (message, failure) -> { });
+            futures.add(invocations.submit(() -> {
+                for (DynamodbEvent batch = waiting.poll(); batch != null; batch = waiting.poll()) {
+                    long batchStart = System.nanoTime();
+                    List<String> failed = processor.process(expiredSessions(batch));
+                    if (!failed.isEmpty()) {
+                        throw new IllegalStateException("Sessions " + failed + " were not closed");
+                    }
+                    result.batchLatency.record(System.nanoTime() - batchStart);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+        } finally {
+            invocations.shutdownNow();
+            pools.forEach(ExecutorService::shutdownNow);
+        }
+        for (String tenantId : tenants) {
+            result.remaining += sessions.getTenantConnections(tenantId);
+        }
+        return result;
+    }
+
+    private static List<ExpiredSession> expiredSessions(DynamodbEvent batch) {
+        List<ExpiredSession> expired = new ArrayList<>();
+        for (DynamodbEvent.DynamodbStreamRecord record : batch.getRecords()) {
+            ExpiredSession session = SessionTTLHandler.toExpiredSession(record);
+            if (session != null) {
+                expired.add(session);
+            }
+        }
+        return expired;
+    }
+
+    private static void markGone(List<DynamodbEvent> batches, double fraction, StubApiGateway apiGateway) {
+        for (DynamodbEvent batch : batches) {
+            for (DynamodbEvent.DynamodbStreamRecord record : batch.getRecords()) {
+                AttributeValue connectionIds = record.getDynamodb().getOldImage() != null ? record.getDynamodb().getOldImage().get("connectionIds") : null;
+                if (connectionIds != null && connectionIds.getSS() != null) {
+                    for (String connectionId : connectionIds.getSS()) {
+                        if (ThreadLocalRandom.current().nextDouble() < fraction) {
+                            apiGateway.gone(connectionId);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<DynamodbEvent> generate(int tenants, int sessions, int connections, int batchSize) {
+        List<DynamodbEvent> batches = new ArrayList<>();
+        List<DynamodbEvent.DynamodbStreamRecord> records = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            List<String> connectionIds = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                connectionIds.add("connection-" + s + "-" + c);
+            }
+            Map<String, AttributeValue> oldImage = new HashMap<>();
+            oldImage.put("tenantId", new AttributeValue().withS("tenant-" + s % tenants));
+            oldImage.put("sessionId", new AttributeValue().withS("session-" + s));
+            oldImage.put("sessionTTL", new AttributeValue().withN("1700000000"));
+            oldImage.put("connectionIds", new AttributeValue().withSS(connectionIds));
+            records.add(record("event-" + s, String.format("%021d", s), oldImage));
+            if (records.size() == batchSize || s == sessions - 1) {
+                DynamodbEvent batch = new DynamodbEvent();
+                batch.setRecords(records);
+                batches.add(batch);
+                records = new ArrayList<>();
+            }
+        }
+        return batches;
+    }
+
+    private static DynamodbEvent.DynamodbStreamRecord record(String eventId, String sequenceNumber, Map<String, AttributeValue> oldImage) {
+        DynamodbEvent.DynamodbStreamRecord record = new DynamodbEvent.DynamodbStreamRecord();
+        record.setEventID(eventId);
+        record.setEventName("REMOVE");
+        record.setEventSource("aws:dynamodb");
+        record.setUserIdentity(new Identity().withType("Service").withPrincipalId("dynamodb.amazonaws.com"));
+        record.setDynamodb(new StreamRecord().withSequenceNumber(sequenceNumber).withOldImage(oldImage));
+        return record;
+    }
+
+    private static List<DynamodbEvent> read(Path path) throws IOException {
+        List<DynamodbEvent> batches = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<DynamodbEvent.DynamodbStreamRecord> records = new ArrayList<>();
+                for (JsonNode node : JSON.readTree(line).path("Records")) {
+                    Map<String, AttributeValue> oldImage = new HashMap<>();
+                    Iterator<Map.Entry<String, JsonNode>> attributes = node.path("dynamodb").path("OldImage").fields();
+                    while (attributes.hasNext()) {
+                        Map.Entry<String, JsonNode> attribute = attributes.next();
+                        oldImage.put(attribute.getKey(), attributeValue(attribute.getValue()));
+                    }
+                    DynamodbEvent.DynamodbStreamRecord record = record(node.path("eventID").asText(),
+                            node.path("dynamodb").path("SequenceNumber").asText(), oldImage.isEmpty() ? null : oldImage);
+                    record.setEventName(node.path("eventName").asText());
+                    JsonNode identity = node.path("userIdentity");
+                    record.setUserIdentity(identity.isMissingNode() ? null
+                            : new Identity().withType(identity.path("type").asText()).withPrincipalId(identity.path("principalId").asText()));
+                    records.add(record);
+                }
+                DynamodbEvent batch = new DynamodbEvent();
+                batch.setRecords(records);
+                batches.add(batch);
+            }
+        }
+        return batches;
+    }
+
+    // Only the attribute types the session table uses
+    private static AttributeValue attributeValue(JsonNode value) {
+        if (value.has("SS")) {
+            List<String> values = new ArrayList<>();
+            value.path("SS").forEach(item -> values.add(item.asText()));
+            return new AttributeValue().withSS(values);
+        }
+        if (value.has("N")) {
+            return new AttributeValue().withN(value.path("N").asText());
+        }
+        return new AttributeValue().withS(value.path("S").asText());
+    }
+
+    private static void write(List<DynamodbEvent> batches, Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (DynamodbEvent batch : batches) {
+                ObjectNode event = JSON.createObjectNode();
+                ArrayNode records = event.putArray("Records");
+                for (DynamodbEvent.DynamodbStreamRecord record : batch.getRecords()) {
+                    ObjectNode node = records.addObject();
+                    node.put("eventID", record.getEventID());
+                    node.put("eventName", record.getEventName());
+                    node.put("eventSource", record.getEventSource());
+                    node.putObject("userIdentity")
+                            .put("type", record.getUserIdentity().getType())
+                            .put("principalId", record.getUserIdentity().getPrincipalId());
+                    ObjectNode dynamodb = node.putObject("dynamodb");
+                    dynamodb.put("SequenceNumber", record.getDynamodb().getSequenceNumber());
+                    dynamodb.put("StreamViewType", "NEW_AND_OLD_IMAGES");
+                    ObjectNode oldImage = dynamodb.putObject("OldImage");
+                    for (Map.Entry<String, AttributeValue> attribute : record.getDynamodb().getOldImage().entrySet()) {
+                        AttributeValue value = attribute.getValue();
+                        if (value.getSS() != null) {
+                            ArrayNode values = oldImage.putObject(attribute.getKey()).putArray("SS");
+                            value.getSS().forEach(values::add);
+                        } else if (value.getN() != null) {
+                            oldImage.putObject(attribute.getKey()).put("N", value.getN());
+                        } else {
+                            oldImage.putObject(attribute.getKey()).put("S", value.getS());
+                        }
+                    }
+                }
+                out.println(JSON.writeValueAsString(event));
+            }
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static List<Integer> ints(String values) {
+        List<Integer> result = new ArrayList<>();
+        for (String value : values.split(",")) {
+            result.add(Integer.parseInt(value.trim()));
+        }
+        return result;
+    }
+
+    private static final class Result {
+        private final LatencyHistogram batchLatency = new LatencyHistogram();
+        private long sessions;
+        private long connections;
+        private long remaining;
+        private long elapsedNanos;
+
+        private double seconds() {
+            return elapsedNanos / 1e9;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.DynamoDBSessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.MembershipCache;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Measures the session table capacity and stream volume the session touches of echoed messages take, per 1,000
+// messages, for a range of refresh percentages and message rates. The messages of one session are touched through
+// DynamoDBSessionStore against a StubDynamoDB by --consumers threads at once, like the consumers of a queue whose
+// message groups are the session's connections. Each message carries the time it arrived, --messagesPerSecond apart,
+// so a run covers minutes of a session in moments. --refresh 100 writes the sessionTTL for every message as the store
+// did before, returning the old item, the others read the item and only write the sessionTTL once less than that
+// percentage of it is left. A refresh which another consumer made first fails its condition, which DynamoDB still
+// charges a write unit for but which adds no stream record.
+// Run with
+// mvn -Prefresh test -Drefresh.options="--refresh 100,90,80,50 --messagesPerSecond 0.2,1,10 --sessionTTL 300"
+// Results are also appended to target/refresh-result.csv.
+public final class SessionRefreshBenchmark {
+    private static final String TENANT = "tenant";
+    private static final String SESSION = "session";
+    private static final String[] DEFAULTS = {
+            "refresh", "100,90,80,50",
+            "messagesPerSecond", "0.2,1,10",
+            "sessionTTL", "300",
+            "messages", "10000",
+            "consumers", "4",
+            "connections", "2",
+            "csv", "target/refresh-result.csv"
+    };
+
+    private SessionRefreshBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int messages = Integer.parseInt(options.get("messages"));
+        int consumers = Integer.parseInt(options.get("consumers"));
+        int connections = Integer.parseInt(options.get("connections"));
+        long sessionTTL = Long.parseLong(options.get("sessionTTL"));
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            if (header) {
+                out.println("refreshPercent,messagesPerSecond,sessionTTL,messages,consumers,requests,readUnits,writeUnits,failedWrites,streamRecords,streamKB");
+            }
+            System.out.printf("Per 1,000 messages of %d, sessionTTL %ds, %d consumers%n", messages, sessionTTL, consumers);
+            System.out.printf("%8s %10s %10s %10s %10s %10s %10s %10s%n", "refresh", "msg/s", "requests", "readUnits", "writeUnits",
+                    "failed", "records", "stream(KB)");
+            for (String refresh : options.get("refresh").split(",")) {
+                for (String rate : options.get("messagesPerSecond").split(",")) {
+                    StubDynamoDB dynamoDB = run(Integer.parseInt(refresh.trim()) / 100.0, Double.parseDouble(rate.trim()), sessionTTL, messages,
+                            consumers, connections);
+                    double per = 1000.0 / messages;
+                    System.out.printf("%7s%% %10s %10.0f %10.0f %10.0f %10.1f %10.1f %10.1f%n", refresh.trim(), rate.trim(), dynamoDB.getRequests() * per,
+                            dynamoDB.getReadUnits() * per, dynamoDB.getWriteUnits() * per, dynamoDB.getFailedWrites() * per,
+                            dynamoDB.getStreamRecords() * per, dynamoDB.getStreamBytes() * per / 1024);
+                    out.printf("%s,%s,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.2f%n", refresh.trim(), rate.trim(), sessionTTL, messages, consumers,
+                            dynamoDB.getRequests() * per, dynamoDB.getReadUnits() * per, dynamoDB.getWriteUnits() * per,
+                            dynamoDB.getFailedWrites() * per, dynamoDB.getStreamRecords() * per, dynamoDB.getStreamBytes() * per / 1024);
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    private static StubDynamoDB run(double refreshFraction, double messagesPerSecond, long sessionTTL, int messages, int consumers,
+                                    int connections) throws Exception {
+        List<String> connectionIds = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            connectionIds.add(String.format("Connection%05d=", c));
+        }
+        StubDynamoDB dynamoDB = new StubDynamoDB();
+        dynamoDB.setSessionWithConnectionTable(TENANT, SESSION, connectionIds);
+        long start = System.currentTimeMillis();
+        dynamoDB.setSessionTTL(start / 1000 + sessionTTL);
+        MessageClock clock = new MessageClock();
+        ExecutorService executor = Executors.newFixedThreadPool(consumers);
+        try (DynamoDbClient client = dynamoDB.client()) {
+            DynamoDBSessionStore sessions = new DynamoDBSessionStore(tenantId -> client, StubDynamoDB.SESSION_TABLE, StubDynamoDB.CONNECTION_TABLE,
+                    "LimitTable", tenantId -> 1, clock, new MembershipCache(), refreshFraction);
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < consumers; c++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < messages; i = next.getAndIncrement()) {
+                        clock.arrived(start + (long) (i * 1000 / messagesPerSecond));
+                        if (sessions.touch(TENANT, SESSION, sessionTTL).size() != connections) {
+                            throw new IllegalStateException("The touch did not return every connection");
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return dynamoDB;
+    }
+
+    // The time the message the calling thread is touching the session for arrived
+    private static final class MessageClock extends Clock {
+        private final ThreadLocal<Long> millis = ThreadLocal.withInitial(System::currentTimeMillis);
+
+        void arrived(long arrivedMillis) {
+            millis.set(arrivedMillis);
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
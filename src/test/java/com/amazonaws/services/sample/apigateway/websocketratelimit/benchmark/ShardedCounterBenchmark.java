@@ -0,0 +1,56 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ShardedLimitStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The maximum sustained rate of increments to a single tenant's message counter with and without sharding.
+// Partition throughput is modelled by PartitionThrottledLimitStore as DynamoDB Local does not enforce it, so the
+// result shows the ceiling the layout allows rather than the latency of a real table. One shard tops out at the
+// 1,000 writes per second of a single partition, more shards raise that until the reads of the other shards,
+// half a read unit each, become the limit. Run with
+// mvn -Pbenchmark test -Dbenchmark=ShardedCounterBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ShardedCounterBenchmark {
+    private static final String TENANT = "tenant";
+    private static final String KEY = TENANT + ":minutemsg";
+
+    @Param({ "1", "2", "4", "8", "16" })
+    public int shards;
+
+    private LimitStore store;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        store = new ShardedLimitStore(new PartitionThrottledLimitStore(new InMemoryLimitStore()), tenantId -> shards);
+    }
+
+    @Benchmark
+    public long increment() {
+        return store.increment(TENANT, KEY, 1, System.currentTimeMillis() / 1000 + 120);
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// A stand-in for DynamoDB which can be slowed down while it is in use. Every call to a store it wraps is one request,
+// which takes the service time, and at most capacity requests are served at once while the rest wait their turn, so
+// once requests arrive faster than capacity / service time they queue and their latency grows without bound, as
+// they do in front of a table at its throughput limit. Raising the service time injects the fault.
+public class SlowDynamoDB {
+    private final Semaphore slots;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long serviceNanos;
+
+    public SlowDynamoDB(final int capacity, final long serviceMicros) {
+        this.slots = new Semaphore(capacity, true);
+        setServiceMicros(serviceMicros);
+    }
+
+    public void setServiceMicros(long serviceMicros) {
+        serviceNanos = TimeUnit.MICROSECONDS.toNanos(serviceMicros);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    // Returns the store with every call made as a request, for example a SessionStore or a LimitStore
+    public <T> T wrap(Class<T> type, T store) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(store, args);
+            }
+            request();
+            try {
+                return method.invoke(store, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    private void request() {
+        requests.incrementAndGet();
+        slots.acquireUninterruptibly();
+        try {
+            LockSupport.parkNanos(serviceNanos);
+        } finally {
+            slots.release();
+        }
+    }
+}
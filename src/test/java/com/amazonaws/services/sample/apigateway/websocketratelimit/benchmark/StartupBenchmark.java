@@ -0,0 +1,177 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Measures the time to the first response of the Java handlers' logic in a new JVM, with and without the priming
+// the handlers run before a SnapStart snapshot, see handler/Priming. Every run starts a separate JVM which
+// initializes a LocalEnvironment and, with priming on, runs the same read only paths as the handlers' primers, see
+// LocalEnvironment.prime. The snapshot would be taken after this initialization. The JVM then authorizes, connects, echoes one message from and disconnects a session
+// it has not used yet, the way the first requests after a restore would, and reports how long each took.
+// Restoring a snapshot is not modelled: the init column is what SnapStart takes off a cold start, and priming moves
+// work from the first response into it.
+// Run with
+// mvn -Pstartup test -Dstartup.options="--runs 10 --store memory --apigateway http"
+// and with --store dynamodb with DynamoDB Local running. Results are also appended to target/startup-result.csv.
+public final class StartupBenchmark {
+    private static final String RESULT = "startup-result";
+    private static final String[] DEFAULTS = {
+            "runs", "10",
+            "priming", "off,on",
+            "store", LocalEnvironment.MEMORY,
+            "apigateway", LocalEnvironment.HTTP,
+            "csv", "target/startup-result.csv",
+            "child", ""
+    };
+    private static final String[] COLUMNS = { "jvmMillis", "initMillis", "authorizeMillis", "connectMillis", "echoMillis", "disconnectMillis", "firstResponseMillis" };
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        if (!options.get("child").isEmpty()) {
+            child("on".equals(options.get("child")), options.get("store"), options.get("apigateway"));
+            return;
+        }
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        int runs = Integer.parseInt(options.get("runs"));
+        try (PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            if (header) {
+                out.println("store,apigateway,priming,runs," + String.join(",", COLUMNS));
+            }
+            System.out.printf("%8s %6s %10s %10s %10s %10s %10s %10s %14s%n",
+                    "priming", "runs", "jvm(ms)", "init(ms)", "auth(ms)", "conn(ms)", "echo(ms)", "disc(ms)", "response(ms)");
+            for (String priming : options.get("priming").split(",")) {
+                List<double[]> results = new ArrayList<>();
+                for (int run = 0; run < runs; run++) {
+                    results.add(fork(priming.trim(), options.get("store"), options.get("apigateway")));
+                }
+                double[] medians = new double[COLUMNS.length];
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    double[] values = new double[results.size()];
+                    for (int run = 0; run < values.length; run++) {
+                        values[run] = results.get(run)[column];
+                    }
+                    Arrays.sort(values);
+                    medians[column] = values[values.length / 2];
+                }
+                System.out.printf("%8s %6d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %14.1f%n", priming.trim(), runs,
+                        medians[0], medians[1], medians[2], medians[3], medians[4], medians[5], medians[6]);
+                StringBuilder line = new StringBuilder(options.get("store") + "," + options.get("apigateway") + "," + priming.trim() + "," + runs);
+                for (double median : medians) {
+                    line.append(',').append(String.format("%.1f", median));
+                }
+                out.println(line);
+                out.flush();
+            }
+        }
+    }
+
+    // Runs one measurement in a new JVM with the same class path and returns its timings
+    private static double[] fork(String priming, String store, String apiGateway) throws Exception {
+        List<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path")));
+        String endpoint = System.getProperty("dynamodb.endpoint");
+        if (endpoint != null) {
+            command.add("-Ddynamodb.endpoint=" + endpoint);
+        }
+        command.addAll(List.of(StartupBenchmark.class.getName(), "--child", priming, "--store", store, "--apigateway", apiGateway));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith(RESULT)) {
+                    result = line;
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("The startup run exited with " + process.exitValue() + " without a result");
+        }
+        String[] fields = result.split(" ");
+        double[] timings = new double[fields.length - 1];
+        for (int i = 1; i < fields.length; i++) {
+            timings[i - 1] = Double.parseDouble(fields[i]);
+        }
+        return timings;
+    }
+
+    private static void child(boolean priming, String store, String apiGateway) throws Exception {
+        // The time the JVM took to start and reach main, which SnapStart also takes off a cold start
+        double jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        long start = System.nanoTime();
+        try (LocalEnvironment environment = new LocalEnvironment(store, apiGateway, 8)) {
+            List<LocalEnvironment.Session> population = environment.populate(1, 2, 1, 8, RateLimitAlgorithm.FIXED_WINDOW);
+            if (priming) {
+                environment.prime(population.get(0));
+            }
+            double initMillis = millisSince(start);
+
+            LocalEnvironment.Session session = population.get(1);
+            String connectionId = environment.nextConnectionId();
+            long first = System.nanoTime();
+            long step = first;
+            if (!environment.authorize(session)) {
+                throw new IllegalStateException("The session was not authorized");
+            }
+            double authorizeMillis = millisSince(step);
+            step = System.nanoTime();
+            if (!environment.connect(session, connectionId).isAdmitted()) {
+                throw new IllegalStateException("The connection was not admitted");
+            }
+            double connectMillis = millisSince(step);
+            step = System.nanoTime();
+            if (!environment.getEchoProcessor().process(List.of(environment.message(session))).isEmpty()) {
+                throw new IllegalStateException("The message was not echoed");
+            }
+            double echoMillis = millisSince(step);
+            step = System.nanoTime();
+            environment.disconnect(session, connectionId);
+            double disconnectMillis = millisSince(step);
+            double firstResponseMillis = millisSince(first);
+            System.out.println(RESULT + " " + jvmMillis + " " + initMillis + " " + authorizeMillis + " " + connectMillis + " " + echoMillis
+                    + " " + disconnectMillis + " " + firstResponseMillis);
+        }
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,133 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionCloser;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.sun.net.httpserver.HttpServer;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// A local HTTP endpoint answering the API Gateway management API so posts and deletes to connections can be
+// measured without a deployed websocket API. Connections added with gone answer 410 Gone like a closed connection,
+// and every call waits latencyMicros to stand in for the round trip to API Gateway. The sender and the closer answer
+// the same way in process.
+public class StubApiGateway implements AutoCloseable {
+    private static final String CONNECTIONS_PATH = "/@connections/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-apigateway");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<String> goneConnections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong posts = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+    private volatile long latencyMicros;
+
+    public StubApiGateway() throws IOException {
+        // Without TCP_NODELAY small responses wait on delayed acknowledgements and every post takes about 40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.readAllBytes();
+            }
+            pause();
+            String path = exchange.getRequestURI().getPath();
+            String connectionId = path.startsWith(CONNECTIONS_PATH) ? path.substring(CONNECTIONS_PATH.length()) : "";
+            if ("DELETE".equals(exchange.getRequestMethod())) {
+                deletes.incrementAndGet();
+            } else {
+                posts.incrementAndGet();
+            }
+            if (goneConnections.contains(connectionId)) {
+                exchange.getResponseHeaders().add("x-amzn-ErrorType", "GoneException");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                byte[] body = "{\"message\":\"Gone\"}".getBytes();
+                exchange.sendResponseHeaders(410, body.length);
+                exchange.getResponseBody().write(body);
+            } else {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    public ApiGatewayManagementApiClient client() {
+        return ApiGatewayManagementApiClient.builder()
+                .endpointOverride(URI.create("http://localhost:" + server.getAddress().getPort()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stub", "stub")))
+                .httpClient(UrlConnectionHttpClient.create())
+                .overrideConfiguration(builder -> builder.retryStrategy(AwsRetryStrategy.doNotRetry()))
+                .build();
+    }
+
+    // Answers in process rather than over HTTP, to measure the echo logic without the SDK and network costs
+    public ConnectionSender sender() {
+        return (connectionId, data) -> {
+            pause();
+            posts.incrementAndGet();
+            return goneConnections.contains(connectionId) ? SendResult.GONE : SendResult.SENT;
+        };
+    }
+
+    // Deletes connections in process the same way as sender()
+    public ConnectionCloser closer() {
+        return connectionId -> {
+            pause();
+            deletes.incrementAndGet();
+            return goneConnections.contains(connectionId) ? SendResult.GONE : SendResult.SENT;
+        };
+    }
+
+    private void pause() {
+        if (latencyMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+        }
+    }
+
+    public void gone(String connectionId) {
+        goneConnections.add(connectionId);
+    }
+
+    public long getPosts() {
+        return posts.get();
+    }
+
+    public long getDeletes() {
+        return deletes.get();
+    }
+
+    public void setLatencyMicros(long latencyMicros) {
+        this.latencyMicros = latencyMicros;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
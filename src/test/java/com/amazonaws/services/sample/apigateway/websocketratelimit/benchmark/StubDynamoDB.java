@@ -0,0 +1,287 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Answers the GetItem, UpdateItem and Query calls a touch makes for one session, so the cost of reading a session's
+// connections through the SDK can be measured where DynamoDB Local is not available. The answers come from the
+// client's own SdkHttpClient, so the SDK still marshals every request and parses every response, but without a
+// socket whose round trip would hide the difference. The session either holds its connections in the connectionIds
+// set of the session item or, with the connection table, has a membershipVersion and one connection table item per
+// connection. Queries return pages of at most 1 MB of items, as DynamoDB does. Every response carries the capacity
+// DynamoDB would have consumed: a write unit per KB of the larger of the item before and after an update, and a read
+// unit per 4 KB of the items a strongly consistent read or query reads, with item sizes counted the way DynamoDB documents them.
+// An update whose sessionTTL condition fails still consumes its write units, as in DynamoDB, but only an update which
+// changes the item adds a record to the session table's stream, which carries both the old and the new image.
+public class StubDynamoDB {
+    public static final String SESSION_TABLE = "SessionTable";
+    public static final String CONNECTION_TABLE = "ConnectionTable";
+    private static final int MAX_PAGE_BYTES = 1024 * 1024;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final AtomicLong membershipVersion = new AtomicLong(1);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder readUnits = new LongAdder();
+    private final LongAdder writeUnits = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder streamRecords = new LongAdder();
+    private final LongAdder streamBytes = new LongAdder();
+    private volatile Session session;
+
+    public DynamoDbClient client() {
+        return DynamoDbClient.builder()
+                .endpointOverride(URI.create("http://localhost"))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stub", "stub")))
+                .httpClient(new SdkHttpClient() {
+                    @Override
+                    public ExecutableHttpRequest prepareRequest(HttpExecuteRequest request) {
+                        return new ExecutableHttpRequest() {
+                            @Override
+                            public HttpExecuteResponse call() throws IOException {
+                                return answer(request);
+                            }
+
+                            @Override
+                            public void abort() {
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                })
+                .overrideConfiguration(builder -> builder.retryStrategy(AwsRetryStrategy.doNotRetry()))
+                .build();
+    }
+
+    // Holds the connections in the connectionIds set of the session item
+    public void setSessionWithSet(String tenantId, String sessionId, List<String> connectionIds) {
+        session = new Session(tenantId, sessionId, connectionIds, false);
+    }
+
+    // Holds the connections in the connection table, with the session item's membershipVersion
+    public void setSessionWithConnectionTable(String tenantId, String sessionId, List<String> connectionIds) {
+        session = new Session(tenantId, sessionId, connectionIds, true);
+    }
+
+    // Increments the membershipVersion the session item returns, as a connect or disconnect does
+    public void changeMembership() {
+        membershipVersion.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getReadUnits() {
+        return readUnits.sum();
+    }
+
+    public long getWriteUnits() {
+        return writeUnits.sum();
+    }
+
+    // Updates which failed their condition
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    public long getStreamRecords() {
+        return streamRecords.sum();
+    }
+
+    public long getStreamBytes() {
+        return streamBytes.sum();
+    }
+
+    // Sets the sessionTTL of the session item, in seconds since the epoch
+    public void setSessionTTL(long sessionTTL) {
+        session.setSessionTTL(sessionTTL);
+    }
+
+    private HttpExecuteResponse answer(HttpExecuteRequest request) throws IOException {
+        byte[] body = new byte[0];
+        if (request.contentStreamProvider().isPresent()) {
+            try (InputStream in = request.contentStreamProvider().get().newStream()) {
+                body = in.readAllBytes();
+            }
+        }
+        requests.increment();
+        String target = request.httpRequest().firstMatchingHeader("X-Amz-Target").orElse("");
+        int status = 200;
+        String response;
+        if (target.endsWith(".UpdateItem")) {
+            response = session.update(JSON.readTree(body));
+            if (response == null) {
+                status = 400;
+                response = "{\"__type\":\"com.amazonaws.dynamodb.v20120810#ConditionalCheckFailedException\",\"message\":\"The conditional request failed\"}";
+            }
+        } else if (target.endsWith(".GetItem")) {
+            response = session.get();
+        } else if (target.endsWith(".Query")) {
+            JsonNode startKey = JSON.readTree(body).path("ExclusiveStartKey").path("connectionId").path("S");
+            response = session.query(startKey.isMissingNode() ? null : startKey.asText());
+        } else {
+            status = 400;
+            response = "{\"__type\":\"com.amazon.coral.validate#ValidationException\",\"message\":\"Unsupported " + target + "\"}";
+        }
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        return HttpExecuteResponse.builder()
+                .response(SdkHttpResponse.builder()
+                        .statusCode(status)
+                        .putHeader("Content-Type", "application/x-amz-json-1.0")
+                        .putHeader("Content-Length", Integer.toString(bytes.length))
+                        .build())
+                .responseBody(AbortableInputStream.create(new ByteArrayInputStream(bytes)))
+                .build();
+    }
+
+    private static String string(String value) {
+        return "{\"S\":\"" + value + "\"}";
+    }
+
+    private static int size(String name, String value) {
+        return name.length() + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // The size of a number is about one byte per two significant digits plus one
+    private static int size(String name, long value) {
+        return name.length() + (Long.toString(value).length() + 1) / 2 + 1;
+    }
+
+    private static long units(long bytes, int unitBytes) {
+        return Math.max(1, (bytes + unitBytes - 1) / unitBytes);
+    }
+
+    private final class Session {
+        private final String itemPrefix;
+        private final boolean connectionTable;
+        private final int itemBytes;
+        private final String[] connectionIds;
+        private final int[] rowBytes;
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final String partition;
+        private long sessionTTL;
+
+        private Session(final String tenantId, final String sessionId, final List<String> connectionIds, final boolean connectionTable) {
+            long expiry = System.currentTimeMillis() / 1000 + 3600;
+            this.connectionTable = connectionTable;
+            this.connectionIds = connectionIds.toArray(new String[0]);
+            this.partition = tenantId + "#" + sessionId;
+            this.sessionTTL = expiry;
+            StringBuilder item = new StringBuilder("{\"tenantId\":").append(string(tenantId))
+                    .append(",\"sessionId\":").append(string(sessionId));
+            int bytes = size("tenantId", tenantId) + size("sessionId", sessionId) + size("sessionTTL", expiry);
+            if (connectionTable) {
+                item.append(",\"connectionCount\":{\"N\":\"").append(connectionIds.size()).append("\"}");
+                bytes += size("connectionCount", connectionIds.size()) + size("membershipVersion", Long.MAX_VALUE);
+            } else {
+                item.append(",\"connectionIds\":{\"SS\":[");
+                bytes += "connectionIds".length();
+                for (int i = 0; i < connectionIds.size(); i++) {
+                    item.append(i == 0 ? "" : ",").append('"').append(connectionIds.get(i)).append('"');
+                    bytes += connectionIds.get(i).length();
+                }
+                item.append("]}");
+            }
+            this.itemPrefix = item.toString();
+            this.itemBytes = bytes;
+            this.rowBytes = new int[connectionIds.size()];
+            for (int i = 0; i < rowBytes.length; i++) {
+                positions.put(connectionIds.get(i), i);
+                rowBytes[i] = size("session", partition) + size("connectionId", connectionIds.get(i)) + size("tenantId", tenantId)
+                        + size("connectedAt", expiry) + size("itemTTL", expiry);
+            }
+        }
+
+        private synchronized void setSessionTTL(long sessionTTL) {
+            this.sessionTTL = sessionTTL;
+        }
+
+        // An update of the sessionTTL, which returns the old item with ALL_OLD, or null if its condition failed
+        private synchronized String update(JsonNode request) {
+            long units = units(itemBytes, 1024);
+            writeUnits.add(units);
+            JsonNode values = request.path("ExpressionAttributeValues");
+            JsonNode refreshBefore = values.path(":refreshBefore").path("N");
+            if (!refreshBefore.isMissingNode() && sessionTTL >= Long.parseLong(refreshBefore.asText())) {
+                failedWrites.increment();
+                return null;
+            }
+            String old = item();
+            long ttl = Long.parseLong(values.path(":ttl").path("N").asText());
+            if (ttl != sessionTTL) {
+                sessionTTL = ttl;
+                streamRecords.increment();
+                streamBytes.add(2L * itemBytes);
+            }
+            String attributes = "ALL_OLD".equals(request.path("ReturnValues").asText()) ? "\"Attributes\":" + old + "," : "";
+            return "{" + attributes + "\"ConsumedCapacity\":{\"TableName\":\"" + SESSION_TABLE + "\",\"CapacityUnits\":" + units + "}}";
+        }
+
+        // A strongly consistent read of the session item
+        private synchronized String get() {
+            long units = units(itemBytes, 4096);
+            readUnits.add(units);
+            return "{\"Item\":" + item() + ",\"ConsumedCapacity\":{\"TableName\":\"" + SESSION_TABLE + "\",\"CapacityUnits\":" + units + "}}";
+        }
+
+        private String item() {
+            String item = itemPrefix + ",\"sessionTTL\":{\"N\":\"" + sessionTTL + "\"}";
+            return connectionTable ? item + ",\"membershipVersion\":{\"N\":\"" + membershipVersion.get() + "\"}}" : item + "}";
+        }
+
+        // A page of connection table items from after startKey, projected to their connectionId
+        private String query(String startKey) {
+            int from = 0;
+            if (startKey != null) {
+                Integer position = positions.get(startKey);
+                from = position == null ? connectionIds.length : position + 1;
+            }
+            StringBuilder items = new StringBuilder();
+            int bytes = 0;
+            int to = from;
+            while (to < connectionIds.length && bytes + rowBytes[to] <= MAX_PAGE_BYTES) {
+                items.append(to == from ? "" : ",").append("{\"connectionId\":").append(string(connectionIds[to])).append('}');
+                bytes += rowBytes[to++];
+            }
+            long units = units(bytes, 4096);
+            readUnits.add(units);
+            StringBuilder response = new StringBuilder("{\"Items\":[").append(items).append("],\"Count\":").append(to - from)
+                    .append(",\"ScannedCount\":").append(to - from);
+            if (to < connectionIds.length) {
+                response.append(",\"LastEvaluatedKey\":{\"session\":").append(string(partition))
+                        .append(",\"connectionId\":").append(string(connectionIds[to - 1])).append('}');
+            }
+            return response.append(",\"ConsumedCapacity\":{\"TableName\":\"").append(CONNECTION_TABLE).append("\",\"CapacityUnits\":")
+                    .append(units).append("}}").toString();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.RateLimitStack;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awscdk.App;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Measures how long it takes to build and synthesize the stack for a generated tenant catalog and how much memory it
+// takes, for a range of catalog sizes and tenants per nested stack. Every run starts a separate JVM, which reads the
+// catalog, builds the stack through the CDK's jsii Node.js process and synthesizes the cloud assembly into a temporary
+// directory. The memory is the peak heap of the JVM and the peak resident set of the jsii process, which holds the
+// construct tree. tenantsPerStack 0 puts every silo tenant in the main stack, which the CDK rejects once the stack has
+// more than 500 resources; those runs are reported with the number of resources instead.
+// Run with
+// mvn -Psynth test -Dsynth.options="--tenants 10,1000,10000 --tenantsPerStack 50,0 --runs 1"
+// Results are also appended to target/synth-result.csv.
+public final class SynthBenchmark {
+    private static final String RESULT = "synth-result";
+    private static final String REJECTED = "synth-rejected";
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Pattern TOO_MANY_RESOURCES = Pattern.compile("Number of resources in stack '[^']*': (\\d+) is greater than allowed maximum");
+    private static final String[] DEFAULTS = {
+            "tenants", "10,1000,10000",
+            "tenantsPerStack", "50",
+            // The share of the tenants which are silo tenants, the rest are pooled
+            "silo", "1.0",
+            "runs", "1",
+            // The V8 heap limit of the jsii process, whose default is too small for the construct tree of 10,000 tenants
+            "nodeHeapMB", "4096",
+            "csv", "target/synth-result.csv",
+            "child", ""
+    };
+    private static final String[] COLUMNS = { "buildMillis", "synthMillis", "totalMillis", "jvmHeapMB", "jsiiRssMB", "stacks",
+            "maxStackResources", "templateKB" };
+
+    private SynthBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        double silo = Double.parseDouble(options.get("silo"));
+        if (!options.get("child").isEmpty()) {
+            String[] child = options.get("child").split(":");
+            child(Integer.parseInt(child[0]), child[1], silo);
+            return;
+        }
+        Path csv = Paths.get(options.get("csv"));
+        boolean header = !Files.exists(csv);
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        int runs = Integer.parseInt(options.get("runs"));
+        try (PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            if (header) {
+                out.println("tenants,tenantsPerStack,silo,runs," + String.join(",", COLUMNS));
+            }
+            System.out.printf("%8s %8s %6s %10s %10s %10s %10s %10s %7s %10s %12s%n", "tenants", "perStack", "runs", "build(ms)", "synth(ms)",
+                    "total(ms)", "heap(MB)", "jsii(MB)", "stacks", "maxRes", "template(KB)");
+            for (String tenants : options.get("tenants").split(",")) {
+                for (String tenantsPerStack : options.get("tenantsPerStack").split(",")) {
+                    List<double[]> results = new ArrayList<>();
+                    String rejected = null;
+                    for (int run = 0; run < runs && rejected == null; run++) {
+                        Object result = fork(Integer.parseInt(tenants.trim()), tenantsPerStack.trim(), options.get("silo"), options.get("nodeHeapMB"));
+                        if (result instanceof String) {
+                            rejected = (String) result;
+                        } else {
+                            results.add((double[]) result);
+                        }
+                    }
+                    if (rejected != null) {
+                        System.out.printf("%8s %8s %6d %s%n", tenants.trim(), tenantsPerStack.trim(), runs, rejected);
+                        out.println(tenants.trim() + "," + tenantsPerStack.trim() + "," + silo + "," + runs + ",\"" + rejected + "\"");
+                        out.flush();
+                        continue;
+                    }
+                    double[] medians = new double[COLUMNS.length];
+                    for (int column = 0; column < COLUMNS.length; column++) {
+                        double[] values = new double[results.size()];
+                        for (int run = 0; run < values.length; run++) {
+                            values[run] = results.get(run)[column];
+                        }
+                        Arrays.sort(values);
+                        medians[column] = values[values.length / 2];
+                    }
+                    System.out.printf("%8s %8s %6d %10.0f %10.0f %10.0f %10.0f %10.0f %7.0f %10.0f %12.0f%n", tenants.trim(), tenantsPerStack.trim(), runs,
+                            medians[0], medians[1], medians[2], medians[3], medians[4], medians[5], medians[6], medians[7]);
+                    StringBuilder line = new StringBuilder(tenants.trim() + "," + tenantsPerStack.trim() + "," + silo + "," + runs);
+                    for (double median : medians) {
+                        line.append(',').append(String.format("%.0f", median));
+                    }
+                    out.println(line);
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    // Runs one synth in a new JVM with the same class path and returns its measurements, or why the CDK rejected the stack
+    private static Object fork(int tenants, String tenantsPerStack, String silo, String nodeHeapMB) throws Exception {
+        List<String> command = List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                SynthBenchmark.class.getName(), "--child", tenants + ":" + tenantsPerStack, "--silo", silo);
+        ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+        builder.environment().put("NODE_OPTIONS", "--max-old-space-size=" + nodeHeapMB);
+        Process process = builder.start();
+        String result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith(RESULT) || line.startsWith(REJECTED)) {
+                    result = line;
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("The synth run exited with " + process.exitValue() + " without a result");
+        }
+        if (result.startsWith(REJECTED)) {
+            return result.substring(REJECTED.length() + 1);
+        }
+        String[] fields = result.split(" ");
+        double[] measurements = new double[fields.length - 1];
+        for (int i = 1; i < fields.length; i++) {
+            measurements[i - 1] = Double.parseDouble(fields[i]);
+        }
+        return measurements;
+    }
+
+    private static void child(int tenants, String tenantsPerStack, double silo) throws Exception {
+        Path directory = Files.createTempDirectory("synth-benchmark");
+        Path catalog = directory.resolve("tenants.csv");
+        try (BufferedWriter out = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+            out.write("tenantId,tenantPerMinute,sessionPerMinute,connectionsPerSession,tenantConnections,sessionTTL,messagesPerMinute,tier,silo\n");
+            for (int i = 0; i < tenants; i++) {
+                // Spread the silo tenants evenly through the catalog
+                boolean siloTenant = Math.floor((i + 1) * silo) > Math.floor(i * silo);
+                out.write(String.format("tenant-%06d,60,10,5,100,300,600,STANDARD,%s%n", i, siloTenant));
+            }
+        }
+        Path outdir = directory.resolve("cdk.out");
+        long start = System.nanoTime();
+        App app = App.Builder.create()
+                .outdir(outdir.toString())
+                .context(Map.of(
+                        RateLimitStack.TENANT_CATALOG_CONTEXT, catalog.toString(),
+                        RateLimitStack.TENANTS_PER_STACK_CONTEXT, tenantsPerStack))
+                .build();
+        new RateLimitStack(app, "SynthBenchmark");
+        double buildMillis = millisSince(start);
+        long synthStart = System.nanoTime();
+        try {
+            app.synth();
+        } catch (RuntimeException e) {
+            Matcher resources = TOO_MANY_RESOURCES.matcher(String.valueOf(e.getMessage()));
+            if (!resources.find()) {
+                throw e;
+            }
+            System.out.println(REJECTED + " rejected, the main stack has " + resources.group(1) + " resources");
+            System.exit(0);
+        }
+        double synthMillis = millisSince(synthStart);
+        double totalMillis = millisSince(start);
+
+        long heap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heap += pool.getPeakUsage().getUsed();
+            }
+        }
+        int stacks = 0;
+        int maxResources = 0;
+        long templateBytes = 0;
+        try (Stream<Path> files = Files.list(outdir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".template.json")) {
+                    JsonNode template = JSON.readTree(file.toFile());
+                    stacks++;
+                    maxResources = Math.max(maxResources, template.path("Resources").size());
+                    templateBytes += Files.size(file);
+                }
+            }
+        }
+        System.out.println(RESULT + " " + buildMillis + " " + synthMillis + " " + totalMillis + " " + heap / 1e6 + " " + jsiiPeakRss() / 1e6
+                + " " + stacks + " " + maxResources + " " + templateBytes / 1e3);
+        System.exit(0);
+    }
+
+    // The largest peak resident set of the JVM's child processes, the jsii runtime, or 0 where /proc is not available
+    private static long jsiiPeakRss() {
+        long peak = 0;
+        for (ProcessHandle process : (Iterable<ProcessHandle>) ProcessHandle.current().descendants()::iterator) {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(process.pid()), "status"))) {
+                    if (line.startsWith("VmHWM:")) {
+                        peak = Math.max(peak, Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // The process has exited or this is not Linux
+            }
+        }
+        return peak;
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < DEFAULTS.length; i += 2) {
+            options.put(DEFAULTS[i], DEFAULTS[i + 1]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
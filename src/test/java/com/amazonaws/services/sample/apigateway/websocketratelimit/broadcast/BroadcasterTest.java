@@ -0,0 +1,184 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BroadcasterTest {
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_IN_FLIGHT);
+    private final ScriptedSender sender = new ScriptedSender();
+    private final RecordingSessions sessions = new RecordingSessions();
+    private final AdaptiveConcurrencyLimit concurrency = new AdaptiveConcurrencyLimit(1, MAX_IN_FLIGHT, MAX_IN_FLIGHT);
+    private final Broadcaster broadcaster = new Broadcaster(sender, sessions, executor, concurrency, 4,
+            Duration.ofMillis(1), Duration.ofMillis(5), (message, failure) -> { });
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEachConnectionReceivesItsPayloadsInOrder() {
+        List<String> connectionIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            connectionIds.add("c" + i);
+        }
+        SdkBytes shared = SdkBytes.fromUtf8String("shared");
+        ConnectionPayload echo = new ConnectionPayload("{\"connectionId\":\"", "\"}");
+
+        BroadcastResult result = broadcaster.broadcast("tenant", "session", connectionIds,
+                connectionId -> List.of(shared, echo.forValue(connectionId))).join();
+
+        Assert.assertEquals(20, result.getConnections());
+        Assert.assertEquals(Collections.emptyList(), result.getGoneConnectionIds());
+        Assert.assertTrue(sender.maxInFlight.get() <= MAX_IN_FLIGHT);
+        for (String connectionId : connectionIds) {
+            Assert.assertEquals(List.of("shared", "{\"connectionId\":\"" + connectionId + "\"}"), sender.received(connectionId));
+        }
+        Assert.assertEquals(1, broadcaster.getStats().getBroadcastCount());
+        Assert.assertEquals(40, broadcaster.getStats().getSendCount());
+        Assert.assertEquals(1, broadcaster.getStats().getFanOutLatency().getCount());
+    }
+
+    @Test
+    public void testGoneConnectionsAreRemovedInOneUpdate() {
+        sender.gone.add("c1");
+        sender.gone.add("c3");
+
+        BroadcastResult result = broadcaster.broadcast("tenant", "session", List.of("c0", "c1", "c2", "c3"),
+                connectionId -> List.of(SdkBytes.fromUtf8String("body"), SdkBytes.fromUtf8String("echo"))).join();
+
+        Assert.assertEquals(List.of("c1", "c3"), sorted(result.getGoneConnectionIds()));
+        Assert.assertEquals(1, sessions.removals.size());
+        Assert.assertEquals(List.of("c1", "c3"), sorted(sessions.removals.get(0)));
+        // The echo is not sent once the body found the connection gone
+        Assert.assertEquals(1, sender.received("c1").size());
+        Assert.assertEquals(2, sender.received("c2").size());
+        Assert.assertEquals(2, broadcaster.getStats().getGoneCount());
+    }
+
+    @Test
+    public void testThrottledSendsAreRetriedAndLowerTheConcurrency() {
+        sender.throttleTimes = 2;
+
+        broadcaster.broadcast("tenant", "session", List.of("c0", "c1", "c2", "c3"),
+                connectionId -> List.of(SdkBytes.fromUtf8String("body"))).join();
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(List.of("body"), sender.received("c" + i));
+        }
+        Assert.assertEquals(8, broadcaster.getStats().getRetryCount());
+        Assert.assertEquals(12, broadcaster.getStats().getSendCount());
+        Assert.assertTrue(concurrency.getLimit() < MAX_IN_FLIGHT);
+        Assert.assertEquals(0, concurrency.getInFlight());
+    }
+
+    @Test
+    public void testBroadcastFailsOnceAttemptsAreUsedUp() {
+        sender.throttleTimes = 10;
+
+        try {
+            broadcaster.broadcast("tenant", "session", List.of("c0"), connectionId -> List.of(SdkBytes.fromUtf8String("body"))).join();
+            Assert.fail("Expected the broadcast to fail");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(4, broadcaster.getStats().getSendCount());
+        Assert.assertEquals(1, broadcaster.getStats().getFailureCount());
+    }
+
+    @Test
+    public void testAdditiveIncreaseMultiplicativeDecrease() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 16, 32);
+        for (int i = 0; i < 16; i++) {
+            Assert.assertTrue(limit.tryAcquire());
+        }
+        Assert.assertFalse(limit.tryAcquire());
+
+        // Every call in flight is pushed back but the limit is only halved once for them
+        for (int i = 0; i < 16; i++) {
+            limit.release(true);
+        }
+        Assert.assertEquals(8, limit.getLimit());
+
+        // A limit's worth of successes adds one
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(limit.tryAcquire());
+            limit.release(false);
+        }
+        Assert.assertEquals(9, limit.getLimit());
+
+        for (int round = 0; round < 10; round++) {
+            Assert.assertTrue(limit.tryAcquire());
+            limit.release(true);
+        }
+        Assert.assertEquals(2, limit.getLimit());
+    }
+
+    private static List<String> sorted(Collection<String> values) {
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    // Records what each connection received. Connections in gone answer 410, and every connection is throttled
+    // throttleTimes times before a send succeeds.
+    private static final class ScriptedSender implements ConnectionSender {
+        private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> throttled = new ConcurrentHashMap<>();
+        private final List<String> gone = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile int throttleTimes;
+
+        @Override
+        public SendResult send(String connectionId, SdkBytes data) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+                if (throttled.computeIfAbsent(connectionId, id -> new AtomicInteger()).incrementAndGet() <= throttleTimes) {
+                    return SendResult.RETRY;
+                }
+                received(connectionId).add(data.asUtf8String());
+                return gone.contains(connectionId) ? SendResult.GONE : SendResult.SENT;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private List<String> received(String connectionId) {
+            return received.computeIfAbsent(connectionId, id -> Collections.synchronizedList(new ArrayList<>()));
+        }
+    }
+
+    private static final class RecordingSessions extends InMemorySessionStore {
+        private final List<Collection<String>> removals = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void removeStaleConnections(String tenantId, String sessionId, Collection<String> connectionIds) {
+            removals.add(new ArrayList<>(connectionIds));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.cache;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadingCacheTest {
+    private final ManualClock clock = new ManualClock(0);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private LoadingCache<String, String> cache(int maximumSize) {
+        return new LoadingCache<>(maximumSize, Duration.ofSeconds(60), Duration.ofSeconds(10), clock, key -> {
+            loads.incrementAndGet();
+            return key.startsWith("missing") ? null : key.toUpperCase();
+        });
+    }
+
+    @Test
+    public void testEntriesExpireAfterTTL() {
+        LoadingCache<String, String> cache = cache(10);
+        Assert.assertEquals("A", cache.get("a"));
+        clock.advance(59_999);
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals(1, loads.get());
+        clock.advance(1);
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(1, cache.stats().getHitCount());
+        Assert.assertEquals(2, cache.stats().getMissCount());
+    }
+
+    @Test
+    public void testMissingKeysAreNegativelyCached() {
+        LoadingCache<String, String> cache = cache(10);
+        Assert.assertNull(cache.get("missing"));
+        Assert.assertNull(cache.get("missing"));
+        Assert.assertEquals(1, loads.get());
+        clock.advance(10_000);
+        Assert.assertNull(cache.get("missing"));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        LoadingCache<String, String> cache = cache(2);
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.stats().getEvictionCount());
+        cache.get("a");
+        Assert.assertEquals(3, loads.get());
+        cache.get("b");
+        Assert.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LoadingCache<String, String> cache = new LoadingCache<>(10, Duration.ofSeconds(60), Duration.ofSeconds(10), clock, key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key.toUpperCase();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("a")));
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 7; i++) {
+                results.add(executor.submit(() -> cache.get("a")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("A", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.stats().getLoadCount());
+    }
+
+    @Test
+    public void testLoaderFailuresAreNotCached() {
+        AtomicInteger attempts = new AtomicInteger();
+        LoadingCache<String, String> cache = new LoadingCache<>(10, Duration.ofSeconds(60), Duration.ofSeconds(10), clock, key -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("throttled");
+            }
+            return key;
+        });
+        Assert.assertThrows(IllegalStateException.class, () -> cache.get("a"));
+        Assert.assertEquals("a", cache.get("a"));
+    }
+}
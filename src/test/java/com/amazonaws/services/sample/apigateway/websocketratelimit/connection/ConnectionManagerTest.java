@@ -0,0 +1,71 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.connection;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ConnectionManagerTest {
+    private final ManualClock clock = new ManualClock(1_700_000_000_000L);
+    private final InMemorySessionStore sessions = new InMemorySessionStore(clock);
+    private final ConnectionManager connections = new ConnectionManager(new RateLimiters(new InMemoryLimitStore(clock), clock, 60), sessions);
+
+    @Test
+    public void testConnectionsAreCountedPerSessionAndTenant() {
+        TenantSettings tenant = tenant(100, 100, 2, 3);
+        sessions.create("tenant", "s1", 300);
+        sessions.create("tenant", "s2", 300);
+
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s1", "c1"));
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s1", "c2"));
+        Assert.assertEquals(ConnectResult.SESSION_CONNECTIONS, connections.connect(tenant, "s1", "c3"));
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s2", "c4"));
+        Assert.assertEquals(ConnectResult.TENANT_CONNECTIONS, connections.connect(tenant, "s2", "c5"));
+        Assert.assertEquals(List.of("c1", "c2"), sessions.getConnections("tenant", "s1"));
+        Assert.assertEquals(3, sessions.getTenantConnections("tenant"));
+
+        connections.disconnect("tenant", "s1", "c1");
+        Assert.assertEquals(List.of("c2"), sessions.getConnections("tenant", "s1"));
+        Assert.assertEquals(2, sessions.getTenantConnections("tenant"));
+        // A connection already removed, for example by a broadcast which found it gone, is not counted off again
+        connections.disconnect("tenant", "s1", "c1");
+        Assert.assertEquals(2, sessions.getTenantConnections("tenant"));
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s2", "c5"));
+    }
+
+    @Test
+    public void testConnectionRatesArePerMinute() {
+        TenantSettings tenant = tenant(3, 2, 100, 100);
+        for (String sessionId : List.of("s1", "s2")) {
+            sessions.create("tenant", sessionId, 300);
+        }
+
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s1", "c1"));
+        connections.disconnect("tenant", "s1", "c1");
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s1", "c2"));
+        Assert.assertEquals(ConnectResult.SESSION_PER_MINUTE, connections.connect(tenant, "s1", "c3"));
+        Assert.assertEquals(ConnectResult.TENANT_PER_MINUTE, connections.connect(tenant, "s2", "c4"));
+
+        clock.advance(60_000);
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant, "s2", "c4"));
+    }
+
+    private static TenantSettings tenant(long tenantPerMinute, long sessionPerMinute, long connectionsPerSession, long tenantConnections) {
+        return TenantSettings.builder("tenant")
+                .tenantPerMinute(tenantPerMinute)
+                .sessionPerMinute(sessionPerMinute)
+                .connectionsPerSession(connectionsPerSession)
+                .tenantConnections(tenantConnections)
+                .sessionTTL(300)
+                .messagesPerMinute(100)
+                .build();
+    }
+}
@@ -0,0 +1,161 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.connection;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+public class TransactionalAdmissionTest {
+    private static final String NONE = "None";
+    private static final String FAILED = "ConditionalCheckFailed";
+
+    private final ManualClock clock = new ManualClock(1_700_000_010_000L);
+    private final ScriptedDynamoDb dynamo = new ScriptedDynamoDb();
+    private final TransactionalAdmission admission = new TransactionalAdmission(tenantId -> dynamo, "SessionTable", "ConnectionTable", "LimitTable",
+            clock, 3, Duration.ofMillis(1));
+
+    @Test
+    public void testChecksEveryLimitInOneTransaction() {
+        Assert.assertEquals(ConnectResult.ADMITTED, admission.connect(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1), "s1", "c1"));
+
+        Assert.assertEquals(1, dynamo.requests.size());
+        List<TransactWriteItem> items = dynamo.requests.get(0).transactItems();
+        Assert.assertEquals(5, items.size());
+        Assert.assertEquals("tenant", items.get(0).update().key().get("key").s());
+        Assert.assertEquals("5", items.get(0).update().expressionAttributeValues().get(":max").n());
+        Assert.assertEquals("SessionTable", items.get(1).update().tableName());
+        Assert.assertTrue(items.get(1).update().updateExpression().contains("ADD connectionCount :one, membershipVersion :one"));
+        Assert.assertEquals("2", items.get(1).update().expressionAttributeValues().get(":max").n());
+        // The same per minute items as incrementLimitTablePerMinute in Common.js
+        Assert.assertEquals("tenant:minute:1699999980", items.get(2).update().key().get("key").s());
+        Assert.assertEquals("4", items.get(2).update().expressionAttributeValues().get(":max").n());
+        Assert.assertEquals("tenant:s1:minute:1699999980", items.get(3).update().key().get("key").s());
+        Assert.assertEquals("3", items.get(3).update().expressionAttributeValues().get(":max").n());
+        Assert.assertEquals("1700000041", items.get(3).update().expressionAttributeValues().get(":ttl").n());
+        for (TransactWriteItem item : items.subList(0, 4)) {
+            Assert.assertNotNull(item.update().conditionExpression());
+        }
+        // The connection is added to the connection table with the same item as WebsocketConnect.js adds
+        Assert.assertEquals("ConnectionTable", items.get(4).put().tableName());
+        Assert.assertEquals("tenant#s1", items.get(4).put().item().get("session").s());
+        Assert.assertEquals("c1", items.get(4).put().item().get("connectionId").s());
+        Assert.assertEquals("1700000010", items.get(4).put().item().get("connectedAt").n());
+    }
+
+    @Test
+    public void testReportsTheLimitWhichWasHit() {
+        ConnectResult[] expected = {
+                ConnectResult.TENANT_CONNECTIONS,
+                ConnectResult.SESSION_CONNECTIONS,
+                ConnectResult.TENANT_PER_MINUTE,
+                ConnectResult.SESSION_PER_MINUTE
+        };
+        for (int i = 0; i < expected.length; i++) {
+            String[] reasons = { NONE, NONE, NONE, NONE };
+            reasons[i] = FAILED;
+            dynamo.script.add(reasons);
+            Assert.assertEquals(expected[i], admission.connect(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1), "s1", "c1"));
+        }
+        // The first limit in the order the Node.js handler checks them wins
+        dynamo.script.add(new String[] { NONE, NONE, FAILED, FAILED });
+        Assert.assertEquals(ConnectResult.TENANT_PER_MINUTE, admission.connect(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1), "s1", "c1"));
+        Assert.assertEquals(0, admission.getRetryCount());
+    }
+
+    @Test
+    public void testConflictsAreRetried() {
+        dynamo.script.add(new String[] { NONE, "TransactionConflict", NONE, NONE });
+        dynamo.script.add(new String[] { NONE, "TransactionConflict", NONE, NONE });
+        Assert.assertEquals(ConnectResult.ADMITTED, admission.connect(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1), "s1", "c1"));
+        Assert.assertEquals(3, dynamo.requests.size());
+        Assert.assertEquals(2, admission.getRetryCount());
+
+        for (int i = 0; i < 3; i++) {
+            dynamo.script.add(new String[] { NONE, "TransactionConflict", NONE, NONE });
+        }
+        try {
+            admission.connect(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1), "s1", "c2");
+            Assert.fail("Expected the transaction to fail once its attempts are used up");
+        } catch (TransactionCanceledException e) {
+            Assert.assertEquals(6, dynamo.requests.size());
+        }
+    }
+
+    @Test
+    public void testOtherTenantsUseSeparateChecks() {
+        Assert.assertTrue(admission.supports(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1)));
+        Assert.assertFalse(admission.supports(tenant(RateLimitAlgorithm.FIXED_WINDOW, 4)));
+        Assert.assertFalse(admission.supports(tenant(RateLimitAlgorithm.TOKEN_BUCKET, 1)));
+
+        InMemorySessionStore sessions = new InMemorySessionStore(clock);
+        ConnectionManager connections = new ConnectionManager(new RateLimiters(new InMemoryLimitStore(clock), clock, 60), sessions, admission);
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant(RateLimitAlgorithm.TOKEN_BUCKET, 1), "s1", "c1"));
+        Assert.assertEquals(Collections.emptyList(), dynamo.requests);
+        Assert.assertEquals(List.of("c1"), sessions.getConnections("tenant", "s1"));
+        Assert.assertEquals(ConnectResult.ADMITTED, connections.connect(tenant(RateLimitAlgorithm.FIXED_WINDOW, 1), "s1", "c2"));
+        Assert.assertEquals(1, dynamo.requests.size());
+    }
+
+    private static TenantSettings tenant(RateLimitAlgorithm algorithm, int limitShards) {
+        return TenantSettings.builder("tenant")
+                .tenantPerMinute(4)
+                .sessionPerMinute(3)
+                .connectionsPerSession(2)
+                .tenantConnections(5)
+                .sessionTTL(300)
+                .messagesPerMinute(100)
+                .rateLimitAlgorithm(algorithm)
+                .limitShards(limitShards)
+                .build();
+    }
+
+    // Records the transactions and cancels them with the scripted cancellation reasons, one set per call, until the
+    // script is used up
+    private static final class ScriptedDynamoDb implements DynamoDbClient {
+        private final List<TransactWriteItemsRequest> requests = Collections.synchronizedList(new ArrayList<>());
+        private final Deque<String[]> script = new ConcurrentLinkedDeque<>();
+
+        @Override
+        public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+            requests.add(request);
+            String[] reasons = script.poll();
+            if (reasons == null) {
+                return TransactWriteItemsResponse.builder().build();
+            }
+            List<CancellationReason> cancellationReasons = new ArrayList<>();
+            for (String reason : reasons) {
+                cancellationReasons.add(CancellationReason.builder().code(reason).build());
+            }
+            throw TransactionCanceledException.builder().message("Transaction cancelled").cancellationReasons(cancellationReasons).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
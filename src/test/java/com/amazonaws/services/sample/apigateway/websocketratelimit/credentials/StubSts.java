@@ -0,0 +1,98 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.credentials;
+
+import com.sun.net.httpserver.HttpServer;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+// A local HTTP endpoint answering sts:AssumeRole with generated credentials so the credential pool can be tested
+// without AWS. Every request body is recorded for assertions on the role and session tags.
+public class StubSts implements AutoCloseable {
+    private final HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger issued = new AtomicInteger();
+    private volatile LongSupplier expiration;
+    private volatile long latencyMillis;
+
+    public StubSts(LongSupplier expiration) throws IOException {
+        this.expiration = expiration;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                requests.add(URLDecoder.decode(new String(in.readAllBytes(), StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+            }
+            sleep(latencyMillis);
+            int id = issued.incrementAndGet();
+            byte[] response = ("<AssumeRoleResponse xmlns=\"https://sts.amazonaws.com/doc/2011-06-15/\"><AssumeRoleResult>"
+                    + "<Credentials><AccessKeyId>ASIASTUB" + id + "</AccessKeyId><SecretAccessKey>secret" + id + "</SecretAccessKey>"
+                    + "<SessionToken>token" + id + "</SessionToken><Expiration>" + Instant.ofEpochMilli(this.expiration.getAsLong()) + "</Expiration></Credentials>"
+                    + "<AssumedRoleUser><Arn>arn:aws:sts::123456789012:assumed-role/TableRole/stub</Arn><AssumedRoleId>AROASTUB:stub</AssumedRoleId></AssumedRoleUser>"
+                    + "</AssumeRoleResult><ResponseMetadata><RequestId>stub-" + id + "</RequestId></ResponseMetadata></AssumeRoleResponse>")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    public StsClient client() {
+        return StsClient.builder()
+                .endpointOverride(URI.create("http://localhost:" + server.getAddress().getPort()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stub", "stub")))
+                .httpClient(UrlConnectionHttpClient.create())
+                .build();
+    }
+
+    public List<String> getRequests() {
+        return requests;
+    }
+
+    public int getAssumeRoleCount() {
+        return issued.get();
+    }
+
+    public void setExpiration(LongSupplier expiration) {
+        this.expiration = expiration;
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,94 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.credentials;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+public class TenantClientPoolTest {
+    private static final String ROLE_ARN = "arn:aws:iam::123456789012:role/TableRole";
+    private static final long MINUTE = 60_000;
+
+    private final ManualClock clock = new ManualClock(System.currentTimeMillis());
+    private StubSts sts;
+    private TenantClientPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        sts = new StubSts(() -> clock.millis() + 15 * MINUTE);
+        pool = new TenantClientPool(sts.client(), ROLE_ARN, 10, Duration.ofMinutes(5), Duration.ofMinutes(1), clock, credentials -> null);
+    }
+
+    @After
+    public void teardown() {
+        sts.close();
+    }
+
+    @Test
+    public void testCredentialsAreReusedAcrossInvocations() {
+        AwsCredentials first = pool.credentials("tenantA").resolveCredentials();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(first, pool.credentials("tenantA").resolveCredentials());
+        }
+        Assert.assertEquals(1, sts.getAssumeRoleCount());
+        Assert.assertEquals(100, pool.getPoolStats().getHitCount());
+        Assert.assertEquals(1, pool.getRefreshStats().getBlockingRefreshCount());
+        Assert.assertEquals(1, pool.getRefreshStats().getRefreshLatency().getCount());
+    }
+
+    @Test
+    public void testEachTenantAssumesRoleWithItsOwnTag() {
+        AwsCredentials tenantA = pool.credentials("tenantA").resolveCredentials();
+        AwsCredentials tenantB = pool.credentials("tenantB").resolveCredentials();
+        Assert.assertNotEquals(tenantA.accessKeyId(), tenantB.accessKeyId());
+        Assert.assertEquals(2, sts.getRequests().size());
+        for (int i = 0; i < 2; i++) {
+            String request = sts.getRequests().get(i);
+            String tenantId = i == 0 ? "tenantA" : "tenantB";
+            Assert.assertTrue(request, request.contains("Action=AssumeRole"));
+            Assert.assertTrue(request, request.contains("RoleArn=" + ROLE_ARN));
+            Assert.assertTrue(request, request.contains("Tags.member.1.Key=tenantId"));
+            Assert.assertTrue(request, request.contains("Tags.member.1.Value=" + tenantId));
+            Assert.assertTrue(request, request.contains("TransitiveTagKeys.member.1=tenantId"));
+        }
+    }
+
+    @Test
+    public void testCredentialsRefreshInBackgroundBeforeExpiry() throws Exception {
+        AwsCredentials first = pool.credentials("tenantA").resolveCredentials();
+        clock.advance(11 * MINUTE);
+        sts.setLatencyMillis(200);
+        // Inside the prefetch window callers keep the current credentials while a single refresh runs
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(first, pool.credentials("tenantA").resolveCredentials());
+        }
+        waitFor(() -> pool.getRefreshStats().getAsyncRefreshCount() == 1);
+        Assert.assertEquals(2, sts.getAssumeRoleCount());
+        Assert.assertNotEquals(first.accessKeyId(), pool.credentials("tenantA").resolveCredentials().accessKeyId());
+        Assert.assertEquals(1, pool.getRefreshStats().getBlockingRefreshCount());
+    }
+
+    @Test
+    public void testStaleCredentialsBlockForRefresh() {
+        AwsCredentials first = pool.credentials("tenantA").resolveCredentials();
+        clock.advance(14 * MINUTE);
+        Assert.assertNotEquals(first.accessKeyId(), pool.credentials("tenantA").resolveCredentials().accessKeyId());
+        Assert.assertEquals(2, pool.getRefreshStats().getBlockingRefreshCount());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.handler.QueuedMessages;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class AuthorizerContextTest {
+    private static final long[] EDGES = { 0, -1, 1, 63, 64, -64, -65, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+
+    @Test
+    public void testRandomContextsRoundTrip() {
+        Random random = new Random(42);
+        AuthorizerContext encoder = new AuthorizerContext();
+        // One decoder for every context, as the consumer reuses it for a batch
+        AuthorizerContext decoder = new AuthorizerContext();
+        for (int i = 0; i < 10_000; i++) {
+            String tenantId = randomString(random);
+            String sessionId = i % 3 == 0 ? tenantId : randomString(random);
+            long[] numbers = new long[6];
+            for (int n = 0; n < numbers.length; n++) {
+                numbers[n] = randomLong(random);
+            }
+            encoder.set(tenantId, sessionId, numbers[0], numbers[1], numbers[2], numbers[3], numbers[4], numbers[5]);
+            // Encoded after other bytes and followed by more, as part of a larger buffer
+            ByteBuffer buffer = ByteBuffer.allocate(encoder.maxEncodedLength() + 8);
+            buffer.put((byte) 7);
+            int written = encoder.encode(buffer);
+            Assert.assertEquals(buffer.position() - 1, written);
+            buffer.limit(1 + written).position(1);
+
+            Assert.assertTrue(decoder.decode(buffer));
+            Assert.assertEquals("Decoding does not move the position", 1, buffer.position());
+            assertDecoded(decoder, tenantId, sessionId, numbers);
+            ByteBuffer direct = ByteBuffer.allocateDirect(written).put(buffer.duplicate());
+            direct.flip();
+            Assert.assertTrue(decoder.decode(direct));
+            assertDecoded(decoder, tenantId, sessionId, numbers);
+            Assert.assertTrue(decoder.decodeBase64(encoder.encodeBase64()));
+            assertDecoded(decoder, tenantId, sessionId, numbers);
+        }
+    }
+
+    @Test
+    public void testRepeatedSessionsKeepTheirStrings() {
+        AuthorizerContext context = new AuthorizerContext();
+        String encoded = new AuthorizerContext().set("tenant", "session", 1, 2, 3, 4, 5, 6).encodeBase64();
+        Assert.assertTrue(context.decodeBase64(encoded));
+        String tenantId = context.getTenantId();
+        String sessionId = context.getSessionId();
+        Assert.assertTrue(context.decodeBase64(encoded));
+        Assert.assertSame(tenantId, context.getTenantId());
+        Assert.assertSame(sessionId, context.getSessionId());
+
+        // A different session of the same length is not mistaken for the previous one
+        Assert.assertTrue(context.decodeBase64(new AuthorizerContext().set("tenant", "sessioN", 1, 2, 3, 4, 5, 6).encodeBase64()));
+        Assert.assertSame(tenantId, context.getTenantId());
+        Assert.assertEquals("sessioN", context.getSessionId());
+    }
+
+    @Test
+    public void testInvalidContextsAreRejected() {
+        byte[] valid = Base64.getDecoder().decode(new AuthorizerContext().set("tenant", "session", 60, 600, 10, 2, 3600, Long.MAX_VALUE).encodeBase64());
+        AuthorizerContext context = new AuthorizerContext();
+        for (int length = 0; length < valid.length; length++) {
+            Assert.assertFalse("Truncated to " + length, context.decode(ByteBuffer.wrap(Arrays.copyOf(valid, length))));
+        }
+        byte[] otherVersion = valid.clone();
+        otherVersion[0] = AuthorizerContext.VERSION + 1;
+        Assert.assertFalse(context.decode(ByteBuffer.wrap(otherVersion)));
+        // A string longer than the bytes left and a varint longer than a long
+        Assert.assertFalse(context.decode(ByteBuffer.wrap(new byte[] { AuthorizerContext.VERSION, 100, 'a' })));
+        byte[] longVarint = new byte[16];
+        longVarint[0] = AuthorizerContext.VERSION;
+        Arrays.fill(longVarint, 3, longVarint.length, (byte) 0x80);
+        Assert.assertFalse(context.decode(ByteBuffer.wrap(longVarint)));
+        Assert.assertFalse(context.decodeBase64("not base64!"));
+
+        // Random bytes are either rejected or decoded without an exception
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] garbage = new byte[random.nextInt(40)];
+            random.nextBytes(garbage);
+            if (garbage.length > 0 && random.nextBoolean()) {
+                garbage[0] = AuthorizerContext.VERSION;
+            }
+            context.decode(ByteBuffer.wrap(garbage));
+        }
+
+        // Fields appended by a later encoder are ignored
+        byte[] extended = Arrays.copyOf(valid, valid.length + 3);
+        Assert.assertTrue(context.decode(ByteBuffer.wrap(extended)));
+        Assert.assertEquals(Long.MAX_VALUE, context.getMessagesPerMinute());
+    }
+
+    @Test
+    public void testContextsEncodedByNodeAreDecoded() {
+        // Encoded by Common.encodeAuthorizerContext in lambda/Common.js
+        AuthorizerContext context = new AuthorizerContext();
+        Assert.assertTrue(context.decodeBase64("AQh0ZW5hbnQtMQhzZXNzw69vbniwCQEEoDjQDw=="));
+        assertDecoded(context, "tenant-1", "sessïon", new long[] { 60, 600, -1, 2, 3600, 1000 });
+        Assert.assertEquals("AQh0ZW5hbnQtMQhzZXNzw69vbniwCQEEoDjQDw==",
+                new AuthorizerContext().set("tenant-1", "sessïon", 60, 600, -1, 2, 3600, 1000).encodeBase64());
+    }
+
+    @Test
+    public void testConsumerAcceptsBothAttributeLayouts() {
+        SQSEvent.SQSMessage compact = record("tenant-Pooled.fifo");
+        compact.getMessageAttributes().put(AuthorizerContext.ATTRIBUTE, binaryAttribute(new AuthorizerContext()
+                .set("tenant", "session", 60, 600, 10, 2, 3600, 100).encodeBase64()));
+        compact.getAttributes().put("MessageDeduplicationId", "request");
+
+        SQSEvent.SQSMessage original = record("tenant-Pooled.fifo");
+        Map<String, SQSEvent.MessageAttribute> attributes = original.getMessageAttributes();
+        attributes.put("tenantId", stringAttribute("tenant"));
+        attributes.put("sessionId", stringAttribute("session"));
+        attributes.put("requestId", stringAttribute("request"));
+        attributes.put("messagesPerMinute", stringAttribute("100"));
+        attributes.put("sessionTTL", stringAttribute("3600"));
+
+        AuthorizerContext context = new AuthorizerContext();
+        for (SQSEvent.SQSMessage record : new SQSEvent.SQSMessage[] { compact, original }) {
+            EchoMessage message = QueuedMessages.toEchoMessage(record, context);
+            Assert.assertEquals("tenant", message.getTenantId());
+            Assert.assertEquals("session", message.getSessionId());
+            Assert.assertEquals("connection", message.getConnectionId());
+            Assert.assertEquals("request", message.getRequestId());
+            Assert.assertEquals(100, message.getMessagesPerMinute());
+            Assert.assertEquals(3600, message.getSessionTTL());
+        }
+
+        SQSEvent.SQSMessage invalid = record("tenant-Pooled.fifo");
+        invalid.getMessageAttributes().put(AuthorizerContext.ATTRIBUTE, binaryAttribute("AA=="));
+        Assert.assertNull(QueuedMessages.toEchoMessage(invalid, context));
+    }
+
+    private static void assertDecoded(AuthorizerContext context, String tenantId, String sessionId, long[] numbers) {
+        Assert.assertEquals(tenantId, context.getTenantId());
+        Assert.assertEquals(sessionId, context.getSessionId());
+        Assert.assertArrayEquals(numbers, new long[] { context.getSessionPerMinute(), context.getTenantPerMinute(), context.getTenantConnections(),
+                context.getConnectionsPerSession(), context.getSessionTTL(), context.getMessagesPerMinute() });
+    }
+
+    // Strings of ASCII, accented, CJK and supplementary characters, sometimes empty
+    private static String randomString(Random random) {
+        StringBuilder value = new StringBuilder();
+        int length = random.nextInt(4) == 0 ? 0 : random.nextInt(200);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    value.append((char) (0x20 + random.nextInt(0x5F)));
+                    break;
+                case 1:
+                    value.append((char) (0xA0 + random.nextInt(0x700)));
+                    break;
+                case 2:
+                    value.append((char) (0x4E00 + random.nextInt(0x5000)));
+                    break;
+                default:
+                    value.appendCodePoint(0x1F300 + random.nextInt(0x300));
+            }
+        }
+        return value.toString();
+    }
+
+    private static long randomLong(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return EDGES[random.nextInt(EDGES.length)];
+            case 1:
+                return random.nextInt(100_000);
+            default:
+                return random.nextLong() >> random.nextInt(64);
+        }
+    }
+
+    private static SQSEvent.SQSMessage record(String queue) {
+        SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+        record.setMessageId("message");
+        record.setBody("{}");
+        record.setEventSourceArn("arn:aws:sqs:us-east-1:123456789012:" + queue);
+        record.setAttributes(new HashMap<>(Map.of("MessageGroupId", "tenant:session")));
+        record.setMessageAttributes(new HashMap<>(Map.of("connectionId", stringAttribute("connection"))));
+        return record;
+    }
+
+    private static SQSEvent.MessageAttribute stringAttribute(String value) {
+        SQSEvent.MessageAttribute attribute = new SQSEvent.MessageAttribute();
+        attribute.setDataType("String");
+        attribute.setStringValue(value);
+        return attribute;
+    }
+
+    // The Lambda runtime decodes the base64 binaryValue of the event into the ByteBuffer
+    private static SQSEvent.MessageAttribute binaryAttribute(String base64) {
+        SQSEvent.MessageAttribute attribute = new SQSEvent.MessageAttribute();
+        attribute.setDataType("Binary");
+        attribute.setBinaryValue(ByteBuffer.wrap(Base64.getDecoder().decode(base64)));
+        return attribute;
+    }
+}
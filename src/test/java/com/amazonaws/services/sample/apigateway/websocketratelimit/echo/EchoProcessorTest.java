@@ -0,0 +1,265 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.Broadcaster;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionSender;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.InMemoryLimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitRecord;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.LimitStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimitAlgorithm;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.RateLimiters;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.metrics.MetricsLogger;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.overload.LoadShedder;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantTier;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EchoProcessorTest {
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final ManualClock clock = new ManualClock(1_700_000_000_000L);
+    private final CountingStore store = new CountingStore(new InMemoryLimitStore(clock));
+    private final FakeSessions sessions = new FakeSessions();
+    private final RecordingSender sender = new RecordingSender();
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_IN_FLIGHT);
+    private final List<String> metricLines = new ArrayList<>();
+    private final MetricsLogger metrics = new MetricsLogger(metricLines::add);
+    private final EchoProcessor processor = new EchoProcessor(new RateLimiters(store, clock, 60),
+            tenantId -> RateLimitAlgorithm.FIXED_WINDOW, sessions, new Broadcaster(sender, sessions, executor, MAX_IN_FLIGHT, (message, failure) -> { }),
+            executor, (message, failure) -> { }, metrics);
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEachGroupIncrementsOnceAndKeepsOrderPerConnection() {
+        sessions.connections.put("sessionA", List.of("a1", "a2", "a3"));
+        sessions.connections.put("sessionB", List.of("b1", "b2"));
+        List<EchoMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(message("A" + i, "sessionA", "a1", "{\"n\":" + i + "}", 100));
+            messages.add(message("B" + i, "sessionB", "b2", "{\"n\":" + i + "}", 100));
+        }
+
+        Assert.assertEquals(Collections.emptyList(), processor.process(messages));
+        Assert.assertEquals(2, store.increments.get());
+        Assert.assertEquals(2, sessions.touches.get());
+        Assert.assertTrue(sender.maxInFlight.get() <= MAX_IN_FLIGHT);
+
+        // The sender only receives its echo, the other connections receive the body followed by the echo
+        Assert.assertEquals(5, sender.received("a1").size());
+        Assert.assertEquals(10, sender.received("a2").size());
+        Assert.assertEquals(10, sender.received("b1").size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(sender.received("a1").get(i).startsWith("{\"message\":{\"n\":" + i + "}"));
+            Assert.assertEquals("{\"n\":" + i + "}", sender.received("a3").get(2 * i));
+            Assert.assertEquals("{\"message\":{\"n\":" + i + "},\"tenantId\":\"tenant\",\"sessionId\":\"sessionA\",\"connectionId\":\"a3\",\"queue\":\"tenant-Pooled.fifo\"}",
+                    sender.received("a3").get(2 * i + 1));
+        }
+    }
+
+    @Test
+    public void testMessagesOverTheLimitAreThrottled() throws Exception {
+        sessions.connections.put("sessionA", List.of("a1", "a2"));
+        List<EchoMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(message("A" + i, "sessionA", "a1", "{\"n\":" + i + "}", 2));
+        }
+
+        Assert.assertEquals(Collections.emptyList(), processor.process(messages));
+        Assert.assertEquals(1, store.increments.get());
+        List<String> received = sender.received("a1");
+        Assert.assertEquals(3, received.size());
+        Assert.assertEquals("{\"message\":\"Too Many Requests\",\"connectionId\":\"a1\",\"requestId\":\"request-A2\"}", received.get(2));
+        Assert.assertEquals(4, sender.received("a2").size());
+
+        metrics.flush("SQSEcho");
+        Assert.assertEquals(1, metricLines.size());
+        JsonNode line = new ObjectMapper().readTree(metricLines.get(0));
+        Assert.assertEquals("tenant", line.get(MetricsLogger.TENANT_ID).asText());
+        Assert.assertEquals(EchoProcessor.MESSAGES_PER_MINUTE, line.get(MetricsLogger.LIMIT_TYPE).asText());
+        Assert.assertEquals(1, line.get(MetricsLogger.THROTTLES).asLong());
+    }
+
+    @Test
+    public void testGroupsAreShedWithoutTheirChecksWhileDynamoDBIsSlow() throws Exception {
+        sessions.connections.put("sessionA", List.of("a1", "a2"));
+        LoadShedder dynamoDB = new LoadShedder(tenantId -> TenantTier.BASIC, Duration.ofMillis(10), Duration.ofMillis(100), Duration.ofSeconds(10), clock);
+        EchoProcessor shedding = new EchoProcessor(new RateLimiters(store, clock, 60), tenantId -> RateLimitAlgorithm.FIXED_WINDOW, sessions,
+                new Broadcaster(sender, sessions, executor, MAX_IN_FLIGHT, (message, failure) -> { }), executor, (message, failure) -> { }, metrics, null, dynamoDB, null);
+        dynamoDB.record(null, 0, false);
+        dynamoDB.record(null, 500_000_000L, false);
+
+        Assert.assertEquals(Collections.emptyList(), shedding.process(List.of(message("A0", "sessionA", "a1", "{\"n\":0}", 100),
+                message("A1", "sessionA", "a1", "{\"n\":1}", 100))));
+        Assert.assertEquals(0, store.increments.get());
+        Assert.assertEquals(0, sessions.touches.get());
+        Assert.assertEquals(List.of("{\"message\":\"Too Many Requests\",\"connectionId\":\"a1\",\"requestId\":\"request-A0\"}",
+                "{\"message\":\"Too Many Requests\",\"connectionId\":\"a1\",\"requestId\":\"request-A1\"}"), sender.received("a1"));
+        Assert.assertEquals(0, sender.received("a2").size());
+
+        metrics.flush("SQSEcho");
+        JsonNode line = new ObjectMapper().readTree(metricLines.get(0));
+        Assert.assertEquals(LoadShedder.OVERLOADED, line.get(MetricsLogger.LIMIT_TYPE).asText());
+        Assert.assertEquals(2, line.get(MetricsLogger.THROTTLES).asLong());
+    }
+
+    @Test
+    public void testFailedMessageAndTheRestOfItsGroupAreRetried() {
+        sessions.connections.put("sessionA", List.of("a1", "a2"));
+        sessions.connections.put("sessionB", List.of("b1", "b2"));
+        sender.failOn = "{\"fail\":true}";
+        List<EchoMessage> messages = new ArrayList<>();
+        messages.add(message("A0", "sessionA", "a1", "{\"n\":0}", 100));
+        messages.add(message("B0", "sessionB", "b1", "{\"n\":0}", 100));
+        messages.add(message("A1", "sessionA", "a1", sender.failOn, 100));
+        messages.add(message("B1", "sessionB", "b1", "{\"n\":1}", 100));
+        messages.add(message("A2", "sessionA", "a1", "{\"n\":2}", 100));
+
+        Assert.assertEquals(List.of("A1", "A2"), processor.process(messages));
+        Assert.assertEquals(4, sender.received("b2").size());
+    }
+
+    @Test
+    public void testFairSchedulingKeepsOrderPerGroup() {
+        EchoProcessor fair = new EchoProcessor(new RateLimiters(store, clock, 60), tenantId -> RateLimitAlgorithm.FIXED_WINDOW, sessions,
+                new Broadcaster(sender, sessions, executor, MAX_IN_FLIGHT, (message, failure) -> { }), executor, (message, failure) -> { }, metrics,
+                new FairScheduler(2, 0.5, tenantId -> 1));
+        sessions.connections.put("sessionA", List.of("a1", "a2"));
+        sessions.connections.put("sessionB", List.of("b1", "b2"));
+        sessions.connections.put("sessionC", List.of("c1", "c2"));
+        List<EchoMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            messages.add(message("A" + i, "sessionA", "a1", "{\"n\":" + i + "}", 100));
+            messages.add(message("B" + i, "sessionB", "b1", "{\"n\":" + i + "}", 100));
+            messages.add(message("C" + i, "sessionC", "c1", "{\"n\":" + i + "}", 100));
+        }
+
+        Assert.assertEquals(Collections.emptyList(), fair.process(messages));
+        Assert.assertEquals(3, store.increments.get());
+        for (String connectionId : List.of("a2", "b2", "c2")) {
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals("{\"n\":" + i + "}", sender.received(connectionId).get(2 * i));
+            }
+        }
+    }
+
+    @Test
+    public void testGoneConnectionsAreSkipped() {
+        sessions.connections.put("sessionA", List.of("a1", "gone", "a2"));
+        List<EchoMessage> messages = List.of(message("A0", "sessionA", "a1", "{\"n\":0}", 100));
+
+        Assert.assertEquals(Collections.emptyList(), processor.process(messages));
+        Assert.assertEquals(1, sender.received("gone").size());
+        Assert.assertEquals(2, sender.received("a2").size());
+        Assert.assertEquals(List.of("a1", "a2"), sessions.connections.get("sessionA"));
+    }
+
+    private static EchoMessage message(String messageId, String sessionId, String connectionId, String body, long messagesPerMinute) {
+        return new EchoMessage(messageId, "tenant:" + sessionId, "tenant", sessionId, connectionId, "request-" + messageId, body,
+                messagesPerMinute, 300, "tenant-Pooled.fifo");
+    }
+
+    private static final class CountingStore implements LimitStore {
+        private final LimitStore store;
+        private final AtomicInteger increments = new AtomicInteger();
+
+        private CountingStore(final LimitStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public long increment(String tenantId, String key, long delta, long expiresAt) {
+            increments.incrementAndGet();
+            return store.increment(tenantId, key, delta, expiresAt);
+        }
+
+        @Override
+        public long get(String tenantId, String key) {
+            return store.get(tenantId, key);
+        }
+
+        @Override
+        public LimitRecord load(String tenantId, String key) {
+            return store.load(tenantId, key);
+        }
+
+        @Override
+        public boolean compareAndSet(String tenantId, String key, LimitRecord expected, long[] values, long expiresAt) {
+            return store.compareAndSet(tenantId, key, expected, values, expiresAt);
+        }
+    }
+
+    // Sessions are keyed by session Id alone, the tests use a single tenant
+    private static final class FakeSessions extends InMemorySessionStore {
+        private final Map<String, List<String>> connections = new ConcurrentHashMap<>();
+        private final AtomicInteger touches = new AtomicInteger();
+
+        @Override
+        public List<String> touch(String tenantId, String sessionId, long sessionTTL) {
+            touches.incrementAndGet();
+            return connections.getOrDefault(sessionId, Collections.emptyList());
+        }
+
+        @Override
+        public void removeStaleConnections(String tenantId, String sessionId, Collection<String> connectionIds) {
+            List<String> remaining = new ArrayList<>(connections.get(sessionId));
+            remaining.removeAll(connectionIds);
+            connections.put(sessionId, remaining);
+        }
+    }
+
+    // Records what each connection received. The connection named gone behaves like a closed connection.
+    private static final class RecordingSender implements ConnectionSender {
+        private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile String failOn;
+
+        @Override
+        public SendResult send(String connectionId, SdkBytes bytes) {
+            String data = bytes.asUtf8String();
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(2);
+                received(connectionId).add(data);
+                if (data.equals(failOn)) {
+                    throw new IllegalStateException("post failed");
+                }
+                return connectionId.equals("gone") ? SendResult.GONE : SendResult.SENT;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private List<String> received(String connectionId) {
+            return received.computeIfAbsent(connectionId, id -> Collections.synchronizedList(new ArrayList<>()));
+        }
+    }
+}
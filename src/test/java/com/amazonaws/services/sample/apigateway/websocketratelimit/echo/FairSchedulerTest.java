@@ -0,0 +1,98 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.echo;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class FairSchedulerTest {
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final List<CompletableFuture<String>> running = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testTenantsTakeTurnsWeightedByTier() {
+        FairScheduler scheduler = new FairScheduler(1, 1.0, 1, Map.of("premium", 2, "basic", 1)::get);
+        for (int i = 0; i < 6; i++) {
+            submit(scheduler, "basic", "b" + i, 1);
+        }
+        for (int i = 0; i < 6; i++) {
+            submit(scheduler, "premium", "p" + i, 1);
+        }
+        completeAll();
+
+        // The first basic task started as soon as it was submitted, then the tenants alternate one against two
+        Assert.assertEquals(List.of("b0", "b1", "p0", "p1", "b2", "p2", "p3", "b3", "p4", "p5", "b4", "b5"), started);
+    }
+
+    @Test
+    public void testCostIsPaidFromTheDeficit() {
+        FairScheduler scheduler = new FairScheduler(1, 1.0, 2, tenantId -> 1);
+        submit(scheduler, "hold", "h", 1);
+        submit(scheduler, "large", "l0", 4);
+        submit(scheduler, "large", "l1", 4);
+        for (int i = 0; i < 4; i++) {
+            submit(scheduler, "small", "s" + i, 1);
+        }
+        completeAll();
+
+        // A four message group waits two turns for its deficit while the single messages go ahead
+        Assert.assertEquals(List.of("h", "s0", "s1", "l0", "s2", "s3", "l1"), started);
+    }
+
+    @Test
+    public void testATenantHoldsAtMostItsShare() {
+        FairScheduler scheduler = new FairScheduler(4, 0.5, tenantId -> 1);
+        Assert.assertEquals(2, scheduler.getMaxTenantInFlight());
+        for (int i = 0; i < 5; i++) {
+            submit(scheduler, "chatty", "c" + i, 1);
+        }
+        Assert.assertEquals(List.of("c0", "c1"), started);
+
+        // Another tenant's messages start at once even though the chatty tenant was first
+        submit(scheduler, "quiet", "q0", 1);
+        Assert.assertEquals(List.of("c0", "c1", "q0"), started);
+        Assert.assertEquals(3, scheduler.getInFlight());
+
+        running.get(0).complete("c0");
+        Assert.assertEquals(List.of("c0", "c1", "q0", "c2"), started);
+        completeAll();
+        Assert.assertEquals(List.of("c0", "c1", "q0", "c2", "c3", "c4"), started);
+        Assert.assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testFailedWorkReleasesItsSlot() {
+        FairScheduler scheduler = new FairScheduler(1, 1.0, tenantId -> 1);
+        CompletableFuture<String> failed = scheduler.submit("tenant", 1, () -> {
+            throw new IllegalStateException("failed");
+        });
+        CompletableFuture<String> next = scheduler.submit("tenant", 1, () -> CompletableFuture.completedFuture("next"));
+
+        Assert.assertTrue(failed.isCompletedExceptionally());
+        Assert.assertEquals("next", next.join());
+        Assert.assertEquals(0, scheduler.getInFlight());
+    }
+
+    private CompletableFuture<String> submit(FairScheduler scheduler, String tenantId, String name, int cost) {
+        return scheduler.submit(tenantId, cost, () -> {
+            started.add(name);
+            CompletableFuture<String> task = new CompletableFuture<>();
+            running.add(task);
+            return task;
+        });
+    }
+
+    // Completes the running tasks one at a time, in the order they started
+    private void completeAll() {
+        for (int i = 0; i < running.size(); i++) {
+            running.get(i).complete(started.get(i));
+        }
+    }
+}
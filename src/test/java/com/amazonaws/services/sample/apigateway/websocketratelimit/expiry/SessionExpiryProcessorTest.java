@@ -0,0 +1,140 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.expiry;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.ConnectionCloser;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.broadcast.SendResult;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.session.InMemorySessionStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SessionExpiryProcessorTest {
+    private static final int MAX_CONCURRENT_DELETES = 4;
+    private static final String TENANT = "tenant";
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_DELETES);
+    private final ScriptedCloser closer = new ScriptedCloser();
+    private final InMemorySessionStore sessions = new InMemorySessionStore();
+    private final SessionExpiryProcessor processor = new SessionExpiryProcessor(closer, sessions, executor, 3,
+            Duration.ofMillis(1), Duration.ofMillis(5), (message, failure) -> { });
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testClosesEveryConnectionAndCountsThemOffOnce() {
+        List<ExpiredSession> expired = new ArrayList<>();
+        for (int s = 0; s < 10; s++) {
+            expired.add(expire("event-" + s, "session-" + s, 5));
+        }
+        Assert.assertEquals(50, sessions.getTenantConnections(TENANT));
+
+        Assert.assertEquals(Collections.emptyList(), processor.process(expired));
+        Assert.assertEquals(50, closer.closed.size());
+        Assert.assertTrue(closer.maxInFlight.get() <= MAX_CONCURRENT_DELETES);
+        Assert.assertEquals(0, sessions.getTenantConnections(TENANT));
+
+        // Lambda retrying the batch closes the connections again but does not count them off twice
+        Assert.assertEquals(Collections.emptyList(), processor.process(expired));
+        Assert.assertEquals(0, sessions.getTenantConnections(TENANT));
+        Assert.assertEquals(50, processor.getStats().getReleasedCount());
+        Assert.assertEquals(20, processor.getStats().getSessionCount());
+    }
+
+    @Test
+    public void testGoneConnectionsAreCountedOff() {
+        ExpiredSession session = expire("event-1", "session-1", 3);
+        closer.gone.add(session.getConnectionIds().get(1));
+
+        Assert.assertEquals(Collections.emptyList(), processor.process(List.of(session)));
+        Assert.assertEquals(0, sessions.getTenantConnections(TENANT));
+        Assert.assertEquals(1, processor.getStats().getGoneCount());
+    }
+
+    @Test
+    public void testThrottledDeletesAreRetried() {
+        closer.throttleTimes = 2;
+        ExpiredSession session = expire("event-1", "session-1", 4);
+
+        Assert.assertEquals(Collections.emptyList(), processor.process(List.of(session)));
+        Assert.assertEquals(4, closer.closed.size());
+        Assert.assertEquals(12, processor.getStats().getDeleteCount());
+        Assert.assertEquals(8, processor.getStats().getRetryCount());
+        Assert.assertEquals(0, sessions.getTenantConnections(TENANT));
+    }
+
+    @Test
+    public void testSessionWithOpenConnectionsIsNotCountedOff() {
+        ExpiredSession failing = expire("event-1", "session-1", 2);
+        ExpiredSession succeeding = expire("event-2", "session-2", 2);
+        closer.failing.add(failing.getConnectionIds().get(0));
+
+        Assert.assertEquals(List.of("event-1"), processor.process(List.of(failing, succeeding)));
+        Assert.assertEquals(2, sessions.getTenantConnections(TENANT));
+        Assert.assertEquals(1, processor.getStats().getFailureCount());
+
+        closer.failing.clear();
+        Assert.assertEquals(Collections.emptyList(), processor.process(List.of(failing, succeeding)));
+        Assert.assertEquals(0, sessions.getTenantConnections(TENANT));
+    }
+
+    // Adds a session with the given number of connections and returns it as DynamoDB TTL would have deleted it
+    private ExpiredSession expire(String eventId, String sessionId, int connections) {
+        List<String> connectionIds = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            String connectionId = sessionId + "-connection-" + c;
+            sessions.addConnection(TENANT, sessionId, connectionId, 3600);
+            connectionIds.add(connectionId);
+        }
+        sessions.delete(TENANT, sessionId);
+        return new ExpiredSession(eventId, TENANT, sessionId, connectionIds);
+    }
+
+    // Records the connections closed. Connections in gone answer 410, connections in failing fail with an error which
+    // is not retried, and every connection is throttled throttleTimes times before it is closed.
+    private static final class ScriptedCloser implements ConnectionCloser {
+        private final Set<String> closed = ConcurrentHashMap.newKeySet();
+        private final Set<String> gone = ConcurrentHashMap.newKeySet();
+        private final Set<String> failing = ConcurrentHashMap.newKeySet();
+        private final Map<String, AtomicInteger> throttled = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile int throttleTimes;
+
+        @Override
+        public SendResult close(String connectionId) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+                if (failing.contains(connectionId)) {
+                    throw new IllegalStateException("Forbidden");
+                }
+                if (throttled.computeIfAbsent(connectionId, id -> new AtomicInteger()).incrementAndGet() <= throttleTimes) {
+                    return SendResult.RETRY;
+                }
+                closed.add(connectionId);
+                return gone.contains(connectionId) ? SendResult.GONE : SendResult.SENT;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ItemJsonTest {
+    @Test
+    public void testItemsAreWrittenLikeTheDocumentClient() {
+        Map<String, AttributeValue> item = new LinkedHashMap<>();
+        item.put("tenantId", AttributeValue.builder().s("a\"b").build());
+        item.put("sessionTTL", AttributeValue.builder().n("300").build());
+        item.put("connectionIds", AttributeValue.builder().ss("c1", "c2").build());
+        item.put("active", AttributeValue.builder().bool(true).build());
+        item.put("tiers", AttributeValue.builder().l(AttributeValue.builder().n("1").build(),
+                AttributeValue.builder().m(Map.of("name", AttributeValue.builder().s("gold").build())).build()).build());
+        item.put("missing", AttributeValue.builder().nul(true).build());
+
+        Assert.assertEquals("{\"tenantId\":\"a\\\"b\",\"sessionTTL\":300,\"connectionIds\":[\"c1\",\"c2\"],\"active\":true,"
+                + "\"tiers\":[1,{\"name\":\"gold\"}],\"missing\":null}", ItemJson.item(item));
+        Assert.assertEquals("[{\"sessionTTL\":300},{}]", ItemJson.items(List.of(Map.of("sessionTTL", AttributeValue.builder().n("300").build()), Map.of())));
+    }
+}
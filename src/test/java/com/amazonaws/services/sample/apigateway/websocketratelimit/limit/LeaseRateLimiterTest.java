@@ -0,0 +1,136 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LeaseRateLimiterTest {
+    private static final String TENANT = "tenant";
+    private static final String KEY = "tenant:minutemsg";
+    private static final long WINDOW_START = 1_700_000_040L;
+
+    private final ManualClock clock = new ManualClock(WINDOW_START * 1000);
+    private final AtomicLong writes = new AtomicLong();
+    private final InMemoryLimitStore store = new InMemoryLimitStore(clock) {
+        @Override
+        public long increment(String tenantId, String key, long delta, long expiresAt) {
+            writes.incrementAndGet();
+            return super.increment(tenantId, key, delta, expiresAt);
+        }
+
+        @Override
+        public long claim(String tenantId, String key, long amount, long max, long expiresAt) {
+            writes.incrementAndGet();
+            return super.claim(tenantId, key, amount, max, expiresAt);
+        }
+    };
+
+    @Test
+    public void testGrantsFromLocalAllowance() {
+        LeaseRateLimiter limiter = new LeaseRateLimiter(store, clock, 60, tenantId -> 10);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.tryAcquire(TENANT, KEY, 100));
+        }
+        Assert.assertEquals(1, writes.get());
+        Assert.assertEquals(0, limiter.getAllowance(TENANT, KEY));
+        Assert.assertTrue(limiter.tryAcquire(TENANT, KEY, 100));
+        Assert.assertEquals(2, writes.get());
+        Assert.assertEquals(9, limiter.getAllowance(TENANT, KEY));
+    }
+
+    @Test
+    public void testUnusedLeaseIsGivenBackWhenWindowEnds() {
+        LeaseRateLimiter limiter = new LeaseRateLimiter(store, clock, 60, tenantId -> 10);
+        Assert.assertEquals(3, limiter.tryAcquire(TENANT, KEY, 3, 100));
+        Assert.assertEquals(10, store.get(TENANT, KEY + ":" + WINDOW_START));
+        clock.advance(60_000);
+        limiter.releaseExpired();
+        Assert.assertEquals(3, store.get(TENANT, KEY + ":" + WINDOW_START));
+        Assert.assertEquals(0, limiter.getAllowance(TENANT, KEY));
+    }
+
+    @Test
+    public void testWithoutLeaseSizeEnforcesExactLimit() {
+        List<LeaseRateLimiter> limiters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            limiters.add(new LeaseRateLimiter(store, clock, 60, tenantId -> 0));
+        }
+        long granted = 0;
+        for (int i = 0; i < 100; i++) {
+            granted += limiters.get(i % limiters.size()).tryAcquire(TENANT, KEY, 1, 50);
+        }
+        Assert.assertEquals(50, granted);
+    }
+
+    // A consumer with no other lease holders is granted exactly the limit in every window, the lease size is not a raise
+    @Test
+    public void testSingleConsumerIsGrantedExactlyTheLimit() {
+        LeaseRateLimiter limiter = new LeaseRateLimiter(store, clock, 60, tenantId -> 10);
+        for (int window = 0; window < 3; window++) {
+            long granted = 0;
+            for (int i = 0; i < 20; i++) {
+                granted += limiter.tryAcquire(TENANT, KEY, 3, 25);
+            }
+            Assert.assertEquals(25, granted);
+            clock.advance(60_000);
+        }
+    }
+
+    // Many consumers, each with its own limiter as separate Lambda containers would have, draw on the same tenant
+    // budget concurrently with batches of random size over several windows. However the claims interleave, no window
+    // may grant more than the limit, and no less than the limit minus a lease per consumer while demand exceeds it,
+    // and the counter must match the requests granted once the leases have been given back.
+    @Test
+    public void testConcurrentConsumersStayWithinLimit() throws Exception {
+        int consumers = 32;
+        long limit = 1000;
+        long leaseSize = 25;
+        List<LeaseRateLimiter> limiters = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            limiters.add(new LeaseRateLimiter(store, clock, 60, tenantId -> leaseSize));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(consumers);
+        try {
+            for (int window = 0; window < 5; window++) {
+                long windowStart = WINDOW_START + window * 60;
+                clock.set(windowStart * 1000 + 1_000);
+                AtomicLong granted = new AtomicLong();
+                AtomicLong requested = new AtomicLong();
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < consumers; i++) {
+                    LeaseRateLimiter limiter = limiters.get(i);
+                    Random random = new Random(window * consumers + i);
+                    futures.add(CompletableFuture.runAsync(() -> {
+                        for (int request = 0; request < 200; request++) {
+                            long permits = 1 + random.nextInt(10);
+                            requested.addAndGet(permits);
+                            granted.addAndGet(limiter.tryAcquire(TENANT, KEY, permits, limit));
+                        }
+                    }, executor));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+                Assert.assertTrue(requested.get() > limit);
+                Assert.assertTrue("window " + window + " granted " + granted.get(), granted.get() <= limit);
+                Assert.assertTrue("window " + window + " granted " + granted.get(), granted.get() >= limit - consumers * leaseSize);
+
+                clock.set((windowStart + 60) * 1000);
+                for (LeaseRateLimiter limiter : limiters) {
+                    limiter.releaseExpired();
+                }
+                Assert.assertEquals(granted.get(), store.get(TENANT, KEY + ":" + windowStart));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+// A clock which only moves when told to so window boundaries can be tested deterministically
+public class ManualClock extends Clock {
+    private volatile long millis;
+
+    public ManualClock(long millis) {
+        this.millis = millis;
+    }
+
+    public void advance(long deltaMillis) {
+        millis += deltaMillis;
+    }
+
+    public void set(long millis) {
+        this.millis = millis;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return this;
+    }
+}
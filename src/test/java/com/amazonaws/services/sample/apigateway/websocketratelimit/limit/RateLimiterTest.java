@@ -0,0 +1,99 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+    private static final String TENANT = "tenant";
+    private static final String KEY = "tenant:minutemsg";
+
+    // Start a few seconds before a minute boundary
+    private final ManualClock clock = new ManualClock(1_700_000_040_000L);
+    private final InMemoryLimitStore store = new InMemoryLimitStore(clock);
+
+    @Test
+    public void testEveryAlgorithmEnforcesLimitWithinWindow() {
+        for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+            RateLimiter limiter = algorithm.create(new InMemoryLimitStore(clock), clock, 60);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(algorithm + " request " + i, limiter.tryAcquire(TENANT, KEY, 10));
+            }
+            Assert.assertFalse(algorithm.toString(), limiter.tryAcquire(TENANT, KEY, 10));
+        }
+    }
+
+    @Test
+    public void testEveryAlgorithmGrantsPartOfABatch() {
+        for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+            RateLimiter limiter = algorithm.create(new InMemoryLimitStore(clock), clock, 60);
+            Assert.assertEquals(algorithm.toString(), 4, limiter.tryAcquire(TENANT, KEY, 4, 10));
+            Assert.assertEquals(algorithm.toString(), 6, limiter.tryAcquire(TENANT, KEY, 15, 10));
+            Assert.assertEquals(algorithm.toString(), 0, limiter.tryAcquire(TENANT, KEY, 5, 10));
+            Assert.assertFalse(algorithm.toString(), limiter.tryAcquire(TENANT, KEY, 10));
+        }
+    }
+
+    @Test
+    public void testFixedWindowAllowsBurstAcrossBoundary() {
+        RateLimiter limiter = RateLimitAlgorithm.FIXED_WINDOW.create(store, clock, 60);
+        clock.set(1_700_000_099_000L);
+        Assert.assertEquals(10, acquire(limiter, 20, 10));
+        clock.advance(1_000);
+        Assert.assertEquals(10, acquire(limiter, 20, 10));
+    }
+
+    @Test
+    public void testSlidingAlgorithmsLimitBurstAcrossBoundary() {
+        for (RateLimitAlgorithm algorithm : new RateLimitAlgorithm[] { RateLimitAlgorithm.SLIDING_WINDOW_LOG, RateLimitAlgorithm.SLIDING_WINDOW_COUNTER }) {
+            RateLimiter limiter = algorithm.create(new InMemoryLimitStore(clock), clock, 60);
+            clock.set(1_700_000_099_000L);
+            Assert.assertEquals(algorithm.toString(), 10, acquire(limiter, 20, 10));
+            clock.advance(1_000);
+            Assert.assertEquals(algorithm.toString(), 0, acquire(limiter, 20, 10));
+        }
+    }
+
+    @Test
+    public void testSlidingWindowLogReleasesAfterWindow() {
+        RateLimiter limiter = RateLimitAlgorithm.SLIDING_WINDOW_LOG.create(store, clock, 60);
+        Assert.assertEquals(5, acquire(limiter, 5, 5));
+        clock.advance(30_000);
+        Assert.assertEquals(0, acquire(limiter, 5, 5));
+        clock.advance(30_001);
+        Assert.assertEquals(5, acquire(limiter, 5, 5));
+    }
+
+    @Test
+    public void testTokenBucketRefillsGradually() {
+        RateLimiter limiter = RateLimitAlgorithm.TOKEN_BUCKET.create(store, clock, 60);
+        Assert.assertEquals(60, acquire(limiter, 60, 60));
+        Assert.assertFalse(limiter.tryAcquire(TENANT, KEY, 60));
+        clock.advance(1_000);
+        Assert.assertTrue(limiter.tryAcquire(TENANT, KEY, 60));
+        Assert.assertFalse(limiter.tryAcquire(TENANT, KEY, 60));
+        clock.advance(10_000);
+        Assert.assertEquals(10, acquire(limiter, 60, 60));
+    }
+
+    @Test
+    public void testTenantSettingSelectsAlgorithm() {
+        Assert.assertEquals(RateLimitAlgorithm.TOKEN_BUCKET, RateLimitAlgorithm.fromTenantSetting("token_bucket"));
+        Assert.assertEquals(RateLimitAlgorithm.FIXED_WINDOW, RateLimitAlgorithm.fromTenantSetting(null));
+        Assert.assertEquals(RateLimitAlgorithm.FIXED_WINDOW, RateLimitAlgorithm.fromTenantSetting("unknown"));
+        RateLimiters limiters = new RateLimiters(store, clock, 60);
+        Assert.assertTrue(limiters.forTenantSetting("SLIDING_WINDOW_LOG") instanceof SlidingWindowLogRateLimiter);
+    }
+
+    private int acquire(RateLimiter limiter, int attempts, long limit) {
+        int allowed = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (limiter.tryAcquire(TENANT, KEY, limit)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+}
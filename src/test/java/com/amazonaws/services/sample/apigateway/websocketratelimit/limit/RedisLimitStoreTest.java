@@ -0,0 +1,198 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.benchmark.LocalDynamoDB;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.credentials.ElastiCacheAuthToken;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs the rate limiters over RedisLimitStore against a StubRedis, or the Redis server at -Dredis.endpoint=host:port,
+// and, with -Ddynamodb.endpoint, over DynamoDBLimitStore against DynamoDB Local so both stores are held to the same
+// results. Keys are unique per test since a real server keeps them between runs.
+public class RedisLimitStoreTest {
+    private static final String REDIS_ENDPOINT_PROPERTY = "redis.endpoint";
+
+    private final StubRedis redis;
+    private final List<RedisConnection> connections = new ArrayList<>();
+    // Expiry is by the server's clock so the limiters' clock starts from now
+    private final ManualClock clock = new ManualClock(System.currentTimeMillis());
+    private final String tenantId = "tenant-" + UUID.randomUUID();
+
+    public RedisLimitStoreTest() throws IOException {
+        redis = new StubRedis();
+    }
+
+    @After
+    public void close() throws IOException {
+        connections.forEach(RedisConnection::close);
+        redis.close();
+    }
+
+    @Test
+    public void testEveryAlgorithmEnforcesLimitWithinWindow() {
+        for (Map.Entry<String, LimitStore> store : stores().entrySet()) {
+            for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+                RateLimiter limiter = algorithm.create(store.getValue(), clock, 60);
+                String key = tenantId + ":" + algorithm + ":minute";
+                for (int i = 0; i < 10; i++) {
+                    Assert.assertTrue(store.getKey() + " " + algorithm + " request " + i, limiter.tryAcquire(tenantId, key, 10));
+                }
+                Assert.assertFalse(store.getKey() + " " + algorithm, limiter.tryAcquire(tenantId, key, 10));
+            }
+        }
+    }
+
+    @Test
+    public void testEveryAlgorithmGrantsPartOfABatch() {
+        for (Map.Entry<String, LimitStore> store : stores().entrySet()) {
+            for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+                RateLimiter limiter = algorithm.create(store.getValue(), clock, 60);
+                String key = tenantId + ":" + algorithm + ":minutemsg";
+                Assert.assertEquals(store.getKey() + " " + algorithm, 4, limiter.tryAcquire(tenantId, key, 4, 10));
+                Assert.assertEquals(store.getKey() + " " + algorithm, 6, limiter.tryAcquire(tenantId, key, 15, 10));
+                Assert.assertEquals(store.getKey() + " " + algorithm, 0, limiter.tryAcquire(tenantId, key, 5, 10));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentClaimsNeverGoOverMax() throws Exception {
+        LimitStore store = new RedisLimitStore(connection());
+        long expiresAt = clock.millis() / 1000 + 60;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Long>> claims = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                // A connection of its own per thread, as each container has
+                RedisLimitStore threadStore = new RedisLimitStore(connection());
+                claims.add(executor.submit(() -> {
+                    long claimed = 0;
+                    for (int j = 0; j < 50; j++) {
+                        claimed += threadStore.claim(tenantId, "claims", 3, 100, expiresAt);
+                    }
+                    return claimed;
+                }));
+            }
+            long claimed = 0;
+            for (Future<Long> claim : claims) {
+                claimed += claim.get();
+            }
+            Assert.assertEquals(100, claimed);
+            Assert.assertEquals(100, store.get(tenantId, "claims"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecordsAreOnlyReplacedFromTheVersionLoaded() {
+        LimitStore store = new RedisLimitStore(connection());
+        long expiresAt = clock.millis() / 1000 + 60;
+        Assert.assertTrue(store.load(tenantId, "record").isEmpty());
+        Assert.assertTrue(store.compareAndSet(tenantId, "record", LimitRecord.EMPTY, new long[] { 1, 2 }, expiresAt));
+        Assert.assertFalse(store.compareAndSet(tenantId, "record", LimitRecord.EMPTY, new long[] { 3 }, expiresAt));
+        LimitRecord record = store.load(tenantId, "record");
+        Assert.assertEquals(1, record.getVersion());
+        Assert.assertArrayEquals(new long[] { 1, 2 }, record.getValues());
+        Assert.assertTrue(store.compareAndSet(tenantId, "record", record, new long[0], expiresAt));
+        Assert.assertFalse(store.compareAndSet(tenantId, "record", record, new long[] { 4 }, expiresAt));
+        Assert.assertEquals(2, store.load(tenantId, "record").getVersion());
+        Assert.assertEquals(0, store.load(tenantId, "record").getValues().length);
+    }
+
+    @Test
+    public void testCountersExpireWhenTheirItemTTLWould() {
+        LimitStore store = new RedisLimitStore(connection());
+        long now = clock.millis() / 1000;
+        Assert.assertEquals(5, store.increment(tenantId, "current", 5, now + 60));
+        Assert.assertEquals(5, store.get(tenantId, "current"));
+        store.increment(tenantId, "expired", 5, now - 1);
+        Assert.assertEquals(0, store.get(tenantId, "expired"));
+    }
+
+    // The first call sends the script, every later one only its hash
+    @Test
+    public void testScriptsAreSentOnceAndThenRunByTheirHash() {
+        LimitStore store = new RedisLimitStore(redis.connect());
+        long expiresAt = clock.millis() / 1000 + 60;
+        store.increment(tenantId, "counter", 1, expiresAt);
+        Assert.assertEquals(2, redis.getCommands());
+        store.increment(tenantId, "counter", 1, expiresAt);
+        store.increment(tenantId, "counter", 1, expiresAt);
+        Assert.assertEquals(4, redis.getCommands());
+        Assert.assertEquals(3, store.get(tenantId, "counter"));
+    }
+
+    @Test
+    public void testTenantsOnlyReachTheirOwnKeys() {
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "secret"));
+        for (String tenant : List.of("a", "b")) {
+            String userId = "rl-" + tenant;
+            redis.addUser(userId, token -> token.startsWith("limits/?") && token.contains("Action=connect") && token.contains("User=" + userId + "&")
+                    && token.contains("X-Amz-Expires=900") && token.contains("X-Amz-Signature="), tenant + "/");
+        }
+        RedisConnectionPool pool = new RedisConnectionPool(10, tenant -> redis.connect("rl-" + tenant,
+                ElastiCacheAuthToken.generate("limits", "rl-" + tenant, "us-east-1", credentials)));
+        LimitStore store = new RedisLimitStore(pool::get);
+        long expiresAt = clock.millis() / 1000 + 60;
+        Assert.assertEquals(1, store.increment("a", "a:minute", 1, expiresAt));
+        Assert.assertEquals(2, store.increment("b", "b:minute", 2, expiresAt));
+        Assert.assertEquals(2, pool.size());
+
+        // A connection authenticated as a only reaches a's keys
+        LimitStore crossed = new RedisLimitStore(tenant -> pool.get("a"));
+        try {
+            crossed.increment("b", "b:minute", 1, expiresAt);
+            Assert.fail("a incremented b's counter");
+        } catch (RedisConnection.RedisException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("NOPERM"));
+        }
+        Assert.assertEquals(2, store.get("b", "b:minute"));
+
+        // and a's token does not authenticate as b, nor does no token at all
+        for (RedisConnection connection : List.of(redis.connect("rl-b", ElastiCacheAuthToken.generate("limits", "rl-a", "us-east-1", credentials)), redis.connect())) {
+            connections.add(connection);
+            try {
+                new RedisLimitStore(connection).get("b", "b:minute");
+                Assert.fail("Connected without b's token");
+            } catch (RedisConnection.RedisException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("WRONGPASS") || e.getMessage().startsWith("NOAUTH"));
+            }
+        }
+        pool.closeAll();
+        Assert.assertEquals(0, pool.size());
+    }
+
+    private RedisConnection connection() {
+        String endpoint = System.getProperty(REDIS_ENDPOINT_PROPERTY);
+        RedisConnection connection = endpoint == null
+                ? redis.connect()
+                : new RedisConnection(endpoint.split(":")[0], Integer.parseInt(endpoint.split(":")[1]), false, null, null, 5000);
+        connections.add(connection);
+        return connection;
+    }
+
+    private Map<String, LimitStore> stores() {
+        Map<String, LimitStore> stores = new LinkedHashMap<>();
+        stores.put("redis", new RedisLimitStore(connection()));
+        if (System.getProperty(LocalDynamoDB.ENDPOINT_PROPERTY) != null) {
+            stores.put("dynamodb", new DynamoDBLimitStore(LocalDynamoDB.connect(), LocalDynamoDB.LIMIT_TABLE));
+        }
+        return stores;
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ShardedLimitStoreTest {
+    private static final String TENANT = "tenant";
+    private static final String KEY = "tenant:minutemsg";
+
+    private final ManualClock clock = new ManualClock(1_700_000_040_000L);
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+    private final InMemoryLimitStore store = new InMemoryLimitStore(clock) {
+        @Override
+        public long increment(String tenantId, String key, long delta, long expiresAt) {
+            written.add(tenantId);
+            return super.increment(tenantId, key, delta, expiresAt);
+        }
+    };
+
+    @Test
+    public void testIncrementsAreSpreadAndSummedOverShards() {
+        ShardedLimitStore sharded = new ShardedLimitStore(store, tenantId -> 4);
+        for (int i = 1; i <= 200; i++) {
+            Assert.assertEquals(i, sharded.increment(TENANT, KEY, 1, 1_700_000_200L));
+        }
+        Assert.assertEquals(200, sharded.get(TENANT, KEY));
+        Assert.assertEquals(Set.of("tenant", "tenant#1", "tenant#2", "tenant#3"), written);
+        Assert.assertEquals(200, store.getTotal(ShardedLimitStore.partitions(TENANT, 4), KEY));
+        Assert.assertTrue(store.get(TENANT, KEY) < 200);
+    }
+
+    @Test
+    public void testSingleShardKeepsTheUnshardedLayout() {
+        ShardedLimitStore sharded = new ShardedLimitStore(store, tenantId -> 1);
+        sharded.increment(TENANT, KEY, 3, 1_700_000_200L);
+        Assert.assertEquals(Set.of(TENANT), written);
+        Assert.assertEquals(3, store.get(TENANT, KEY));
+    }
+
+    @Test
+    public void testEveryAlgorithmEnforcesLimitWithShards() {
+        for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+            RateLimiter limiter = algorithm.create(new ShardedLimitStore(new InMemoryLimitStore(clock), tenantId -> 8), clock, 60);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(algorithm + " request " + i, limiter.tryAcquire(TENANT, KEY, 10));
+            }
+            Assert.assertFalse(algorithm.toString(), limiter.tryAcquire(TENANT, KEY, 10));
+        }
+    }
+
+    @Test
+    public void testShardPartitionsBelongToTheirTenant() {
+        Assert.assertEquals(List.of("tenant", "tenant#1", "tenant#2"), ShardedLimitStore.partitions(TENANT, 3));
+        Assert.assertEquals(TENANT, ShardedLimitStore.tenantOf("tenant#2"));
+        Assert.assertEquals(TENANT, ShardedLimitStore.tenantOf(TENANT));
+    }
+
+    @Test
+    public void testTenantSettingSelectsShards() {
+        Map<String, AttributeValue> item = Map.of(
+                "tenantId", AttributeValue.builder().s(TENANT).build(),
+                TenantSettings.LIMIT_SHARDS_ATTRIBUTE, AttributeValue.builder().n("16").build());
+        Assert.assertEquals(16, TenantSettings.fromItem(item).getLimitShards());
+        Assert.assertEquals(1, TenantSettings.fromItem(Map.of("tenantId", AttributeValue.builder().s(TENANT).build())).getLimitShards());
+        Assert.assertEquals(TenantSettings.MAX_LIMIT_SHARDS, TenantSettings.builder(TENANT).limitShards(1000).build().getLimitShards());
+    }
+}
@@ -0,0 +1,261 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.limit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// An embedded Redis protocol server on a local port, enough to run RedisLimitStore without a Redis server: the string
+// commands GET, SET with EXAT, INCRBY and EXPIREAT, keys expiring by the real clock, and EVAL and EVALSHA of the
+// store's scripts, which run as their Java equivalents. Commands, scripts included, run one at a time like on a
+// Redis server. Users added with addUser must AUTH before any other command and may only use keys starting with
+// their prefix, other keys are rejected with NOPERM like the access strings of the stack's ElastiCache users.
+public class StubRedis implements AutoCloseable {
+    private final ServerSocket server;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final AtomicLong commands = new AtomicLong();
+
+    public StubRedis() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "stub-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    // Once a user is added every connection has to authenticate as one
+    public void addUser(String user, Predicate<String> password, String keyPrefix) {
+        users.put(user, new User(password, keyPrefix));
+    }
+
+    public RedisConnection connect() {
+        return connect(null, null);
+    }
+
+    public RedisConnection connect(String user, String password) {
+        return new RedisConnection("localhost", getPort(), false, user, () -> password, 5000);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(socket), "stub-redis-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             InputStream in = new BufferedInputStream(connection.getInputStream());
+             OutputStream out = new BufferedOutputStream(connection.getOutputStream())) {
+            User user = users.isEmpty() ? new User(password -> true, "") : null;
+            for (String[] command = readCommand(in); command != null; command = readCommand(in)) {
+                commands.incrementAndGet();
+                String reply;
+                if (command[0].equalsIgnoreCase("AUTH")) {
+                    User authenticated = command.length == 3 ? users.get(command[1]) : null;
+                    if (authenticated != null && authenticated.password.test(command[2])) {
+                        user = authenticated;
+                        reply = "+OK\r\n";
+                    } else {
+                        reply = "-WRONGPASS invalid username-password pair or user is disabled.\r\n";
+                    }
+                } else if (user == null) {
+                    reply = "-NOAUTH Authentication required.\r\n";
+                } else {
+                    reply = execute(user, command);
+                }
+                out.write(reply.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away
+        }
+    }
+
+    private synchronized String execute(User user, String[] command) {
+        String name = command[0].toUpperCase();
+        if (name.equals("PING")) {
+            return "+PONG\r\n";
+        }
+        String script = null;
+        String[] args = command;
+        if (name.equals("EVAL") || name.equals("EVALSHA")) {
+            script = name.equals("EVAL") ? command[1] : scripts.get(command[1]);
+            if (script == null) {
+                return "-NOSCRIPT No matching script. Please use EVAL.\r\n";
+            }
+            if (name.equals("EVAL")) {
+                scripts.put(RedisLimitStore.sha1(script), script);
+            }
+            args = new String[command.length - 2];
+            args[0] = command[3];
+            System.arraycopy(command, 4, args, 1, command.length - 4);
+        }
+        String key = script != null ? args[0] : args.length > 1 ? args[1] : null;
+        if (key == null) {
+            return "-ERR wrong number of arguments for '" + name.toLowerCase() + "' command\r\n";
+        }
+        if (!key.startsWith(user.keyPrefix)) {
+            return "-NOPERM No permissions to access a key\r\n";
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAtMillis <= now) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (script != null) {
+            return integer(evaluate(script, key, entry, args));
+        }
+        switch (name) {
+            case "GET":
+                return entry == null ? "$-1\r\n" : bulk(entry.value);
+            case "SET":
+                entries.put(key, new Entry(args[2], args.length == 5 && args[3].equalsIgnoreCase("EXAT") ? Long.parseLong(args[4]) * 1000 : Long.MAX_VALUE));
+                return "+OK\r\n";
+            case "INCRBY":
+                return integer(incrementBy(key, entry, Long.parseLong(args[2])));
+            case "EXPIREAT":
+                return integer(expireAt(key, entry, Long.parseLong(args[2])));
+            default:
+                return "-ERR unknown command '" + name.toLowerCase() + "'\r\n";
+        }
+    }
+
+    // The store's scripts, args holds the key followed by the script's ARGV
+    private long evaluate(String script, String key, Entry entry, String[] args) {
+        if (script.equals(RedisLimitStore.INCREMENT)) {
+            long count = incrementBy(key, entry, Long.parseLong(args[1]));
+            expireAt(key, entries.get(key), Long.parseLong(args[2]));
+            return count;
+        }
+        if (script.equals(RedisLimitStore.CLAIM)) {
+            long count = entry == null ? 0 : Long.parseLong(entry.value);
+            long claim = Math.min(Long.parseLong(args[1]), Long.parseLong(args[2]) - count);
+            if (claim <= 0) {
+                return 0;
+            }
+            incrementBy(key, entry, claim);
+            expireAt(key, entries.get(key), Long.parseLong(args[3]));
+            return claim;
+        }
+        if (script.equals(RedisLimitStore.COMPARE_AND_SET)) {
+            long version = entry == null ? 0 : Long.parseLong(entry.value.split(" ")[0]);
+            if (version != Long.parseLong(args[1])) {
+                return 0;
+            }
+            entries.put(key, new Entry(args[2], Long.parseLong(args[3]) * 1000));
+            return 1;
+        }
+        throw new IllegalArgumentException("StubRedis cannot run the script " + script);
+    }
+
+    private long incrementBy(String key, Entry entry, long delta) {
+        long value = (entry == null ? 0 : Long.parseLong(entry.value)) + delta;
+        entries.put(key, new Entry(Long.toString(value), entry == null ? Long.MAX_VALUE : entry.expiresAtMillis));
+        return value;
+    }
+
+    private long expireAt(String key, Entry entry, long epochSeconds) {
+        if (entry == null) {
+            return 0;
+        }
+        if (epochSeconds * 1000 <= System.currentTimeMillis()) {
+            entries.remove(key);
+        } else {
+            entries.put(key, new Entry(entry.value, epochSeconds * 1000));
+        }
+        return 1;
+    }
+
+    private static String integer(long value) {
+        return ":" + value + "\r\n";
+    }
+
+    private static String bulk(String value) {
+        return "$" + value.getBytes(StandardCharsets.UTF_8).length + "\r\n" + value + "\r\n";
+    }
+
+    private static String[] readCommand(InputStream in) throws IOException {
+        String count = readLine(in);
+        if (count == null) {
+            return null;
+        }
+        String[] command = new String[Integer.parseInt(count.substring(1))];
+        for (int i = 0; i < command.length; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length + 2];
+            if (in.readNBytes(bytes, 0, bytes.length) < bytes.length) {
+                return null;
+            }
+            command[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\r'; c = in.read()) {
+            if (c == -1) {
+                return null;
+            }
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long expiresAtMillis;
+
+        private Entry(final String value, final long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private static final class User {
+        private final Predicate<String> password;
+        private final String keyPrefix;
+
+        private User(final Predicate<String> password, final String keyPrefix) {
+            this.password = password;
+            this.keyPrefix = keyPrefix;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEveryValueFallsInABucketWhichHoldsIt() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            long value = i < 1000 ? i : random.nextLong() >>> 1 + random.nextInt(63);
+            int index = LatencyHistogram.index(value);
+            Assert.assertTrue(value <= LatencyHistogram.highestValue(index));
+            Assert.assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+        }
+        Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentilesAreWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        Assert.assertEquals(10_000, histogram.getCount());
+        assertWithin(5_000_000, histogram.getPercentileNanos(50));
+        assertWithin(9_900_000, histogram.getPercentileNanos(99));
+        assertWithin(9_990_000, histogram.getPercentileNanos(99.9));
+        assertWithin(10_000_000, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testAddAndReset() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(100);
+        second.record(1_000_000);
+        second.record(1_000_000);
+        first.add(second);
+        Assert.assertEquals(3, first.getCount());
+        assertWithin(1_000_000, first.getPercentileNanos(50));
+        first.reset();
+        Assert.assertEquals(0, first.getCount());
+        Assert.assertEquals(0, first.getPercentileNanos(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(expected + " " + actual, actual >= expected && actual <= expected * 1.016);
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.metrics;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.cache.CacheStats;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetricsLoggerTest {
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final List<String> lines = new ArrayList<>();
+    private final MetricsLogger metrics = new MetricsLogger(MetricsLogger.NAMESPACE, lines::add, new ManualClock(1_700_000_000_000L));
+
+    @Test
+    public void testTenantMetricsAreWrittenAsEmbeddedMetricFormat() throws Exception {
+        metrics.putLatency("tenant", "AuthorizerLatency", 1_500_000);
+        metrics.putLatency("tenant", "AuthorizerLatency", 2_250_000);
+        metrics.putCount("tenant", "AuthorizerAllowed", 1);
+        metrics.putCount("tenant", "AuthorizerAllowed", 1);
+        metrics.flush("Authorizer");
+
+        Assert.assertEquals(1, lines.size());
+        JsonNode line = JSON.readTree(lines.get(0));
+        JsonNode aws = line.get("_aws");
+        Assert.assertEquals(1_700_000_000_000L, aws.get("Timestamp").asLong());
+        JsonNode directive = aws.get("CloudWatchMetrics").get(0);
+        Assert.assertEquals("WebSocketRateLimit", directive.get("Namespace").asText());
+        // Published per tenant and as a total for the function
+        Assert.assertEquals("[[\"Function\",\"TenantId\"],[\"Function\"]]", directive.get("Dimensions").toString());
+        Map<String, String> units = new HashMap<>();
+        for (JsonNode metric : directive.get("Metrics")) {
+            units.put(metric.get("Name").asText(), metric.get("Unit").asText());
+        }
+        Assert.assertEquals(Map.of("AuthorizerLatency", "Milliseconds", "AuthorizerAllowed", "Count"), units);
+        Assert.assertEquals("Authorizer", line.get("Function").asText());
+        Assert.assertEquals("tenant", line.get("TenantId").asText());
+        Assert.assertEquals("[1.5,2.25]", line.get("AuthorizerLatency").toString());
+        Assert.assertEquals(2, line.get("AuthorizerAllowed").asLong());
+
+        // Flushing again writes nothing until something new is recorded
+        metrics.flush("Authorizer");
+        Assert.assertEquals(1, lines.size());
+    }
+
+    @Test
+    public void testThrottlesAndFunctionMetricsHaveTheirOwnDimensions() throws Exception {
+        metrics.putThrottles("tenant", "TENANT_PER_MINUTE", 2);
+        metrics.putThrottles("tenant", "SESSION_CONNECTIONS", 1);
+        metrics.putLatency(null, "DynamoDBLatency", 4_000_000);
+        new CacheMetrics("TenantCache").record(metrics, new CacheStats(9, 1, 1, 0));
+        metrics.flush("WebSocketConnect");
+
+        Assert.assertEquals(3, lines.size());
+        Map<String, JsonNode> byLimitType = new HashMap<>();
+        for (String text : lines) {
+            JsonNode line = JSON.readTree(text);
+            JsonNode dimensions = line.get("_aws").get("CloudWatchMetrics").get(0).get("Dimensions");
+            if (line.has("LimitType")) {
+                Assert.assertEquals("[[\"Function\",\"TenantId\",\"LimitType\"],[\"Function\",\"LimitType\"]]", dimensions.toString());
+                byLimitType.put(line.get("LimitType").asText(), line);
+            } else {
+                Assert.assertEquals("[[\"Function\"]]", dimensions.toString());
+                Assert.assertFalse(line.has("TenantId"));
+                Assert.assertEquals("[4.0]", line.get("DynamoDBLatency").toString());
+                Assert.assertEquals(9, line.get("TenantCacheHits").asLong());
+                Assert.assertEquals(1, line.get("TenantCacheMisses").asLong());
+            }
+        }
+        Assert.assertEquals(2, byLimitType.get("TENANT_PER_MINUTE").get("Throttles").asLong());
+        Assert.assertEquals(1, byLimitType.get("SESSION_CONNECTIONS").get("Throttles").asLong());
+    }
+
+    @Test
+    public void testLatenciesAreSplitAcrossLinesOfAtMostOneHundredValues() throws Exception {
+        for (int i = 0; i < 250; i++) {
+            metrics.putLatency("tenant", "PostToConnectionLatency", 1_000_000);
+        }
+        metrics.putCount("tenant", "Messages", 250);
+        metrics.flush("SQSEcho");
+
+        Assert.assertEquals(3, lines.size());
+        int values = 0;
+        long counted = 0;
+        for (String text : lines) {
+            JsonNode line = JSON.readTree(text);
+            Assert.assertTrue(line.get("PostToConnectionLatency").size() <= MetricsLogger.MAX_VALUES);
+            values += line.get("PostToConnectionLatency").size();
+            counted += line.has("Messages") ? line.get("Messages").asLong() : 0;
+        }
+        Assert.assertEquals(250, values);
+        Assert.assertEquals(250, counted);
+    }
+
+    @Test
+    public void testValuesAreEscapedAndClearDropsThem() throws Exception {
+        metrics.putCount("tenant \"quoted\"\n", "Count", 1);
+        metrics.flush("Session");
+        Assert.assertEquals("tenant \"quoted\"\n", JSON.readTree(lines.get(0)).get("TenantId").asText());
+
+        metrics.putCount("tenant", "Count", 1);
+        metrics.clear();
+        metrics.flush("Session");
+        Assert.assertEquals(1, lines.size());
+    }
+}
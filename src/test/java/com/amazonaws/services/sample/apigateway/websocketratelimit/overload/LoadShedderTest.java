@@ -0,0 +1,94 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.overload;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantTier;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+public class LoadShedderTest {
+    private static final long MILLIS = 1_000_000;
+
+    private final ManualClock clock = new ManualClock(1_700_000_000_000L);
+    private final Map<String, TenantTier> tiers = Map.of("basic", TenantTier.BASIC, "standard", TenantTier.STANDARD, "premium", TenantTier.PREMIUM,
+            "other", TenantTier.STANDARD);
+    private final LoadShedder shedder = new LoadShedder(tiers::get, Duration.ofMillis(10), Duration.ofMillis(100), Duration.ofSeconds(10), clock);
+
+    @Test
+    public void testSlowCallsShedTheLowestTiersFirst() {
+        healthy();
+        Assert.assertEquals(10, admitted("basic", 10));
+        Assert.assertEquals(10, admitted("standard", 10));
+
+        // Slower than twice the usual 5ms, from two tenants, halves the share
+        shedder.record("basic", 15 * MILLIS, false);
+        shedder.record("standard", 15 * MILLIS, false);
+        Assert.assertEquals(0.5, shedder.getShare("premium"), 0.001);
+        Assert.assertEquals(0, admitted("basic", 10));
+        Assert.assertEquals(10, admitted("standard", 10));
+        Assert.assertEquals(10, admitted("premium", 10));
+
+        // Calls which were in flight before the share was halved do not halve it again
+        shedder.record("premium", 15 * MILLIS, false);
+        Assert.assertEquals(0.5, shedder.getShare("premium"), 0.001);
+
+        clock.advance(20);
+        shedder.record("basic", 15 * MILLIS, true);
+        Assert.assertEquals(0.251, shedder.getShare("premium"), 0.001);
+        int standard = admitted("standard", 100);
+        Assert.assertTrue(standard + " admitted", standard > 10 && standard < 25);
+        Assert.assertEquals(100, admitted("premium", 100));
+
+        // Without slow calls the share grows back over the recovery time
+        clock.advance(10_000);
+        Assert.assertEquals(1, shedder.getShare("premium"), 0.001);
+        Assert.assertEquals(10, admitted("basic", 10));
+    }
+
+    @Test
+    public void testOneSlowTenantIsShedWithoutTheOthers() {
+        healthy();
+        for (int i = 0; i < 5; i++) {
+            clock.advance(100);
+            shedder.record("standard", 50 * MILLIS, false);
+            shedder.record("other", 5 * MILLIS, false);
+        }
+        Assert.assertTrue(shedder.getShare("standard") < 0.05);
+        Assert.assertEquals(1, shedder.getShare("other"), 0.01);
+        Assert.assertEquals(0, admitted("standard", 10));
+        Assert.assertEquals(10, admitted("other", 10));
+    }
+
+    @Test
+    public void testTheLowestShareStillAdmitsSomePremiumRequests() {
+        Assert.assertEquals(0.1, LoadShedder.admitted(TenantTier.PREMIUM, LoadShedder.MIN_SHARE), 0.001);
+        Assert.assertEquals(0, LoadShedder.admitted(TenantTier.STANDARD, 0.2), 0.001);
+        Assert.assertEquals(1, LoadShedder.admitted(TenantTier.STANDARD, 0.5), 0.001);
+        Assert.assertEquals(0.5, LoadShedder.admitted(TenantTier.BASIC, 0.75), 0.001);
+    }
+
+    // The first call of a container is left out, the rest set the usual latency to 5ms
+    private void healthy() {
+        shedder.record(null, 500 * MILLIS, false);
+        for (int i = 0; i < 20; i++) {
+            for (String tenantId : tiers.keySet()) {
+                shedder.record(tenantId, 5 * MILLIS, false);
+            }
+        }
+    }
+
+    private int admitted(String tenantId, int requests) {
+        int admitted = 0;
+        for (int i = 0; i < requests; i++) {
+            if (shedder.tryAdmit(tenantId)) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+}
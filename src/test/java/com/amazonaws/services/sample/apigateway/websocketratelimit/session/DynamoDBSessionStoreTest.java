@@ -0,0 +1,317 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import org.junit.Assert;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class DynamoDBSessionStoreTest {
+    private static final String TENANT = "tenant";
+    private static final int PAGE_SIZE = 3;
+
+    private final ManualClock clock = new ManualClock(1_700_000_000_000L);
+    private final ConnectionTableDynamoDb dynamo = new ConnectionTableDynamoDb();
+    private final DynamoDBSessionStore sessions = new DynamoDBSessionStore(tenantId -> dynamo, "SessionTable", "ConnectionTable", "LimitTable",
+            tenantId -> 1, clock, new MembershipCache());
+
+    @Test
+    public void testConnectionsAreReadAgainOnlyWhenTheMembershipChanges() {
+        for (int c = 0; c < 10; c++) {
+            sessions.addConnection(TENANT, "s1", "c" + c, 3600);
+        }
+        Assert.assertEquals(10, dynamo.tenantConnections);
+        Assert.assertEquals(10, sessions.touch(TENANT, "s1", 3600).size());
+        // Every page of the session's connections is read
+        Assert.assertEquals(4, dynamo.queries);
+
+        Assert.assertEquals(10, sessions.touch(TENANT, "s1", 3600).size());
+        Assert.assertEquals(4, dynamo.queries);
+
+        sessions.addConnection(TENANT, "s1", "c10", 3600);
+        Assert.assertEquals(11, sessions.touch(TENANT, "s1", 3600).size());
+        Assert.assertEquals(8, dynamo.queries);
+        sessions.removeConnection(TENANT, "s1", "c3");
+        List<String> connectionIds = sessions.touch(TENANT, "s1", 3600);
+        Assert.assertEquals(10, connectionIds.size());
+        Assert.assertFalse(connectionIds.contains("c3"));
+        Assert.assertEquals(10, sessions.getConnectionCount(TENANT, "s1"));
+
+        // A session to which nothing was ever added is not looked up in the connection table
+        sessions.create(TENANT, "s2", 3600);
+        Assert.assertEquals(List.of(), sessions.touch(TENANT, "s2", 3600));
+        Assert.assertEquals(List.of(), sessions.touch(TENANT, "missing", 3600));
+        Assert.assertEquals(12, dynamo.queries);
+        Assert.assertFalse(dynamo.sessions.containsKey("missing"));
+    }
+
+    @Test
+    public void testTheSessionIsOnlyRefreshedOnceLittleOfItsTTLIsLeft() {
+        sessions.addConnection(TENANT, "s1", "c1", 100);
+        long connectedAt = clock.millis() / 1000;
+        Assert.assertEquals(List.of("c1"), sessions.touch(TENANT, "s1", 100));
+        clock.advance(19_000);
+        sessions.touch(TENANT, "s1", 100);
+        Assert.assertEquals(0, dynamo.sessionWrites);
+
+        // Less than 80 of the 100 seconds left
+        clock.advance(2_000);
+        Assert.assertEquals(List.of("c1"), sessions.touch(TENANT, "s1", 100));
+        sessions.touch(TENANT, "s1", 100);
+        Assert.assertEquals(1, dynamo.sessionWrites);
+        Assert.assertEquals(connectedAt + 121, sessionTTL("s1"));
+
+        // Another consumer refreshes the session between the read and the write, which then leaves it alone
+        clock.advance(21_000);
+        dynamo.beforeUpdate = () -> dynamo.session("s1").put("sessionTTL", AttributeValue.builder().n(Long.toString(connectedAt + 141)).build());
+        Assert.assertEquals(List.of("c1"), sessions.touch(TENANT, "s1", 100));
+        Assert.assertEquals(1, dynamo.sessionWrites);
+        Assert.assertEquals(connectedAt + 141, sessionTTL("s1"));
+
+        DynamoDBSessionStore everyTime = new DynamoDBSessionStore(tenantId -> dynamo, "SessionTable", "ConnectionTable", "LimitTable",
+                tenantId -> 1, clock, new MembershipCache(), 1);
+        everyTime.touch(TENANT, "s1", 100);
+        everyTime.touch(TENANT, "s1", 100);
+        Assert.assertEquals(3, dynamo.sessionWrites);
+    }
+
+    @Test
+    public void testConnectionsAreCountedOffOnce() {
+        sessions.addConnection(TENANT, "s1", "c1", 3600);
+        sessions.addConnection(TENANT, "s1", "c2", 3600);
+        sessions.removeConnection(TENANT, "s1", "c1");
+        sessions.removeStaleConnections(TENANT, "s1", List.of("c1", "c2", "c2"));
+        Assert.assertEquals(0, dynamo.tenantConnections);
+        Assert.assertEquals(0, sessions.getConnectionCount(TENANT, "s1"));
+
+        // Connections of a session created before the connection table are still removed from its set
+        dynamo.session("s3").put("connectionIds", AttributeValue.builder().ss("old1", "old2").build());
+        dynamo.tenantConnections = 2;
+        Assert.assertEquals(List.of("old1", "old2"), sessions.getConnections(TENANT, "s3"));
+        sessions.removeConnection(TENANT, "s3", "old1");
+        sessions.removeConnection(TENANT, "s3", "old1");
+        Assert.assertEquals(List.of("old2"), sessions.getConnections(TENANT, "s3"));
+        Assert.assertEquals(1, dynamo.tenantConnections);
+    }
+
+    @Test
+    public void testExpiredConnectionsAreThoseConnectedByTheExpiry() {
+        for (int c = 0; c < 30; c++) {
+            sessions.addConnection(TENANT, "s1", "c" + c, 60);
+        }
+        long expiredAt = clock.millis() / 1000 + 60;
+        clock.advance(120_000);
+        // Connected once DynamoDB TTL had deleted the session item, to the session item it created again
+        sessions.addConnection(TENANT, "s1", "late", 60);
+
+        List<String> expired = sessions.getExpiredConnections(TENANT, "s1", expiredAt);
+        Assert.assertEquals(30, expired.size());
+        Assert.assertFalse(expired.contains("late"));
+
+        dynamo.unprocessedOnce = true;
+        sessions.removeExpiredConnections(TENANT, "s1", expired);
+        Assert.assertEquals(Set.of("late"), dynamo.connections.get("tenant#s1").keySet());
+        // Two batches of at most 25, the first sent again for the item it left unprocessed
+        Assert.assertEquals(3, dynamo.batchWrites);
+    }
+
+    private long sessionTTL(String sessionId) {
+        return Long.parseLong(dynamo.sessions.get(sessionId).get("sessionTTL").n());
+    }
+
+    // A session table, connection table and tenant connection count answering the requests the store makes. Queries
+    // return PAGE_SIZE connections per page and the first batch write after unprocessedOnce is set leaves one item.
+    private static final class ConnectionTableDynamoDb implements DynamoDbClient {
+        private final Map<String, Map<String, AttributeValue>> sessions = new HashMap<>();
+        private final Map<String, TreeMap<String, Long>> connections = new HashMap<>();
+        private long tenantConnections;
+        private int queries;
+        private int batchWrites;
+        private int sessionWrites;
+        private boolean unprocessedOnce;
+        private Runnable beforeUpdate;
+
+        @Override
+        public synchronized UpdateItemResponse updateItem(UpdateItemRequest request) {
+            if (beforeUpdate != null) {
+                beforeUpdate.run();
+                beforeUpdate = null;
+            }
+            String sessionId = request.key().get("sessionId").s();
+            Map<String, AttributeValue> item = sessions.get(sessionId);
+            AttributeValue refreshBefore = request.expressionAttributeValues().get(":refreshBefore");
+            if (request.conditionExpression() != null && (item == null
+                    || refreshBefore != null && number(item, "sessionTTL") >= Long.parseLong(refreshBefore.n()))) {
+                throw ConditionalCheckFailedException.builder().build();
+            }
+            sessionWrites++;
+            Map<String, AttributeValue> old = item == null ? Map.of() : new HashMap<>(item);
+            session(sessionId).put("sessionTTL", request.expressionAttributeValues().get(":ttl"));
+            return UpdateItemResponse.builder().attributes(old).build();
+        }
+
+        @Override
+        public synchronized GetItemResponse getItem(GetItemRequest request) {
+            Map<String, AttributeValue> item = sessions.get(request.key().get("sessionId").s());
+            return GetItemResponse.builder().item(item).build();
+        }
+
+        @Override
+        public synchronized QueryResponse query(QueryRequest request) {
+            queries++;
+            AttributeValue expiredAt = request.expressionAttributeValues().get(":expiredAt");
+            String start = request.hasExclusiveStartKey() ? request.exclusiveStartKey().get("connectionId").s() : "";
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            TreeMap<String, Long> rows = connections.getOrDefault(request.expressionAttributeValues().get(":session").s(), new TreeMap<>());
+            String last = null;
+            for (Map.Entry<String, Long> row : rows.tailMap(start, false).entrySet()) {
+                if (items.size() == PAGE_SIZE) {
+                    break;
+                }
+                last = row.getKey();
+                if (expiredAt == null || row.getValue() <= Long.parseLong(expiredAt.n())) {
+                    items.add(Map.of("connectionId", AttributeValue.builder().s(row.getKey()).build()));
+                }
+            }
+            QueryResponse.Builder response = QueryResponse.builder().items(items);
+            if (last != null && rows.higherKey(last) != null) {
+                response.lastEvaluatedKey(Map.of("connectionId", AttributeValue.builder().s(last).build()));
+            }
+            return response.build();
+        }
+
+        @Override
+        public synchronized TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+            List<String> reasons = new ArrayList<>();
+            for (TransactWriteItem item : request.transactItems()) {
+                reasons.add(passes(item) ? "None" : "ConditionalCheckFailed");
+            }
+            if (reasons.contains("ConditionalCheckFailed")) {
+                List<CancellationReason> cancellationReasons = new ArrayList<>();
+                reasons.forEach(reason -> cancellationReasons.add(CancellationReason.builder().code(reason).build()));
+                throw TransactionCanceledException.builder().cancellationReasons(cancellationReasons).build();
+            }
+            for (TransactWriteItem item : request.transactItems()) {
+                apply(item);
+            }
+            return TransactWriteItemsResponse.builder().build();
+        }
+
+        @Override
+        public synchronized BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            batchWrites++;
+            List<WriteRequest> unprocessed = new ArrayList<>();
+            for (WriteRequest write : request.requestItems().get("ConnectionTable")) {
+                if (unprocessedOnce) {
+                    unprocessedOnce = false;
+                    unprocessed.add(write);
+                    continue;
+                }
+                Map<String, AttributeValue> key = write.deleteRequest().key();
+                connections.get(key.get("session").s()).remove(key.get("connectionId").s());
+            }
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(unprocessed.isEmpty() ? Map.of() : Map.of("ConnectionTable", unprocessed))
+                    .build();
+        }
+
+        private boolean passes(TransactWriteItem item) {
+            if (item.delete() != null) {
+                Map<String, AttributeValue> key = item.delete().key();
+                return connections.getOrDefault(key.get("session").s(), new TreeMap<>()).containsKey(key.get("connectionId").s());
+            }
+            Update update = item.update();
+            if (update == null || update.conditionExpression() == null || !"SessionTable".equals(update.tableName())) {
+                return true;
+            }
+            Map<String, AttributeValue> session = sessions.get(update.key().get("sessionId").s());
+            if (update.conditionExpression().startsWith("contains")) {
+                return session != null && session.containsKey("connectionIds")
+                        && session.get("connectionIds").ss().contains(update.expressionAttributeValues().get(":id").s());
+            }
+            return session != null && number(session, "connectionCount") > 0;
+        }
+
+        private void apply(TransactWriteItem item) {
+            if (item.put() != null) {
+                Put put = item.put();
+                connections.computeIfAbsent(put.item().get("session").s(), session -> new TreeMap<>())
+                        .put(put.item().get("connectionId").s(), Long.parseLong(put.item().get("connectedAt").n()));
+                return;
+            }
+            if (item.delete() != null) {
+                Delete delete = item.delete();
+                connections.get(delete.key().get("session").s()).remove(delete.key().get("connectionId").s());
+                return;
+            }
+            Update update = item.update();
+            Map<String, AttributeValue> values = update.expressionAttributeValues();
+            if ("LimitTable".equals(update.tableName())) {
+                tenantConnections += Long.parseLong(values.get(":inc").n());
+                return;
+            }
+            Map<String, AttributeValue> session = session(update.key().get("sessionId").s());
+            if (update.updateExpression().startsWith("DELETE connectionIds")) {
+                Set<String> remaining = new LinkedHashSet<>(session.get("connectionIds").ss());
+                remaining.remove(values.get(":id").s());
+                session.put("connectionIds", AttributeValue.builder().ss(remaining).build());
+                return;
+            }
+            long delta = values.containsKey(":minus") ? -1 : 1;
+            session.put("connectionCount", AttributeValue.builder().n(Long.toString(number(session, "connectionCount") + delta)).build());
+            session.put("membershipVersion", AttributeValue.builder().n(Long.toString(number(session, "membershipVersion") + 1)).build());
+            if (values.containsKey(":ttl")) {
+                session.put("sessionTTL", values.get(":ttl"));
+            }
+        }
+
+        private Map<String, AttributeValue> session(String sessionId) {
+            return sessions.computeIfAbsent(sessionId, id -> new HashMap<>(Map.of(
+                    "tenantId", AttributeValue.builder().s(TENANT).build(),
+                    "sessionId", AttributeValue.builder().s(id).build())));
+        }
+
+        private static long number(Map<String, AttributeValue> item, String name) {
+            AttributeValue value = item.get(name);
+            return value == null ? 0 : Long.parseLong(value.n());
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class MembershipCacheTest {
+    @Test
+    public void testOnlyTheCachedVersionIsAHit() {
+        MembershipCache cache = new MembershipCache(10);
+        cache.put("tenant", "s1", 3, List.of("c1", "c2"));
+        Assert.assertEquals(List.of("c1", "c2"), cache.get("tenant", "s1", 3));
+        Assert.assertNull(cache.get("tenant", "s1", 4));
+        Assert.assertNull(cache.get("tenant", "s2", 3));
+
+        // A slower reader of an older version does not replace a newer one
+        cache.put("tenant", "s1", 2, List.of("c1"));
+        Assert.assertEquals(List.of("c1", "c2"), cache.get("tenant", "s1", 3));
+        cache.invalidate("tenant", "s1");
+        Assert.assertNull(cache.get("tenant", "s1", 3));
+        Assert.assertEquals(0, cache.getConnections());
+        Assert.assertEquals(2, cache.stats().getHitCount());
+        Assert.assertEquals(3, cache.stats().getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSessionsAreEvictedByConnections() {
+        MembershipCache cache = new MembershipCache(5);
+        cache.put("tenant", "s1", 1, List.of("c1", "c2"));
+        cache.put("tenant", "s2", 1, List.of("c3", "c4"));
+        cache.get("tenant", "s1", 1);
+        cache.put("tenant", "s3", 1, List.of("c5", "c6"));
+
+        Assert.assertNotNull(cache.get("tenant", "s1", 1));
+        Assert.assertNull(cache.get("tenant", "s2", 1));
+        Assert.assertNotNull(cache.get("tenant", "s3", 1));
+        Assert.assertEquals(4, cache.getConnections());
+        Assert.assertEquals(1, cache.stats().getEvictionCount());
+
+        // A session larger than the whole cache is not cached and does not evict the others
+        cache.put("tenant", "s4", 1, List.of("c7", "c8", "c9", "c10", "c11", "c12"));
+        Assert.assertNull(cache.get("tenant", "s4", 1));
+        Assert.assertEquals(4, cache.getConnections());
+    }
+}
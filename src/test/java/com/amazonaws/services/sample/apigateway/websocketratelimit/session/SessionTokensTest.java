@@ -0,0 +1,155 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazonaws.services.sample.apigateway.websocketratelimit.session;
+
+import com.amazonaws.services.sample.apigateway.websocketratelimit.limit.ManualClock;
+import com.amazonaws.services.sample.apigateway.websocketratelimit.tenant.TenantSettings;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+public class SessionTokensTest {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final byte[] SECRET = "secret-value".getBytes(StandardCharsets.UTF_8);
+    private static final long NOW = 1_792_212_235_000L;
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    private final ManualClock clock = new ManualClock(NOW);
+    private final SessionTokens tokens = new SessionTokens(SECRET, clock, SessionTokens.DEFAULT_KEY_PERIOD, SessionTokens.DEFAULT_ACCEPTED_PERIODS);
+
+    @Test
+    public void testTokensAreJsonWebTokensBindingTheSession() throws Exception {
+        String token = tokens.issue("tenant \"quoted\"", "session\n", 300);
+        String[] parts = token.split("\\.");
+        Assert.assertEquals(3, parts.length);
+        JsonNode header = JSON.readTree(Base64.getUrlDecoder().decode(parts[0]));
+        Assert.assertEquals("HS256", header.get("alg").asText());
+        Assert.assertEquals(Long.toString(NOW / DAY), header.get("kid").asText());
+        JsonNode claims = JSON.readTree(Base64.getUrlDecoder().decode(parts[1]));
+        Assert.assertEquals("tenant \"quoted\"", claims.get("tenantId").asText());
+        Assert.assertEquals(NOW / 1000 + 300, claims.get("exp").asLong());
+
+        SessionToken verified = tokens.verify(token);
+        Assert.assertEquals("tenant \"quoted\"", verified.getTenantId());
+        Assert.assertEquals("session\n", verified.getSessionId());
+        Assert.assertEquals(NOW / 1000, verified.getIssuedAt());
+        Assert.assertEquals(NOW / 1000 + 300, verified.getExpiresAt());
+    }
+
+    @Test
+    public void testTokensIssuedByNodeAreAccepted() {
+        // Issued by Common.issueSessionToken in lambda/Common.js with the same secret at NOW
+        String token = "eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCIsImtpZCI6IjIwNzQzIn0"
+                + ".eyJ0ZW5hbnRJZCI6InQxIiwic2Vzc2lvbklkIjoiczEiLCJpYXQiOjE3OTIyMTIyMzUsImV4cCI6MTc5MjIxMjMzNX0"
+                + ".okwQdBqNE6ZtLK6GsSizT-8Awm7R0UFfqjLl6llMxL0";
+        SessionToken verified = tokens.verify(token);
+        Assert.assertNotNull(verified);
+        Assert.assertEquals("t1", verified.getTenantId());
+        Assert.assertEquals("s1", verified.getSessionId());
+        Assert.assertEquals(1_792_212_335L, verified.getExpiresAt());
+    }
+
+    @Test
+    public void testTamperedForgedAndExpiredTokensAreRejected() {
+        String token = tokens.issue("tenant", "session", 300);
+        String[] parts = token.split("\\.");
+        String otherClaims = encode("{\"tenantId\":\"other\",\"sessionId\":\"session\",\"iat\":1,\"exp\":9999999999}");
+        Assert.assertNull(tokens.verify(parts[0] + "." + otherClaims + "." + parts[2]));
+        Assert.assertNull(tokens.verify(parts[0] + "." + parts[1] + "." + parts[2].substring(1)));
+        Assert.assertNull(tokens.verify(encode("{\"alg\":\"none\",\"typ\":\"JWT\"}") + "." + parts[1] + "."));
+        Assert.assertNull(new SessionTokens("other".getBytes(StandardCharsets.UTF_8), clock, SessionTokens.DEFAULT_KEY_PERIOD, 2).verify(token));
+        Assert.assertNull(tokens.verify(token + ".extra"));
+        Assert.assertNull(tokens.verify("not a token"));
+        Assert.assertNull(tokens.verify(null));
+
+        clock.advance(300_000);
+        Assert.assertNull(tokens.verify(token));
+    }
+
+    @Test
+    public void testKeysRotateEveryPeriodAndThePreviousKeyIsAccepted() {
+        String token = tokens.issue("tenant", "session", Duration.ofDays(3).getSeconds());
+        clock.advance(DAY);
+        String next = tokens.issue("tenant", "session", 300);
+        Assert.assertNotEquals(token.split("\\.")[0], next.split("\\.")[0]);
+        Assert.assertNotNull(tokens.verify(token));
+        Assert.assertNotNull(tokens.verify(next));
+
+        // Two periods on the first key is no longer accepted even though the token has not expired
+        clock.advance(DAY);
+        Assert.assertNull(tokens.verify(token));
+    }
+
+    @Test
+    public void testRevokedSessionsAreDeniedOnceTheCacheExpires() {
+        InMemorySessionStore store = new InMemorySessionStore(clock);
+        TenantSettings tenant = tenant();
+        SessionTokenAuthorizer authorizer = new SessionTokenAuthorizer(tenantId -> "tenant".equals(tenantId) ? tenant : null, store,
+                store, Duration.ofSeconds(5), clock, message -> { });
+        SessionToken token = tokens.verify(tokens.issue("tenant", "session", 300));
+        Assert.assertSame(tenant, authorizer.authorize(token));
+        Assert.assertNull(authorizer.authorize(tokens.verify(tokens.issue("unknown", "session", 300))));
+
+        clock.advance(1_000);
+        store.revoke("tenant", "session", 300);
+        // Cached for the revocation cache TTL
+        Assert.assertSame(tenant, authorizer.authorize(token));
+        clock.advance(5_000);
+        Assert.assertNull(authorizer.authorize(token));
+
+        // A token issued after the session was created again is accepted
+        clock.advance(1_000);
+        Assert.assertSame(tenant, authorizer.authorize(tokens.verify(tokens.issue("tenant", "session", 300))));
+        // Revocations are dropped once every token they cover has expired
+        clock.advance(300_000);
+        Assert.assertTrue(store.getRevoked("tenant").isEmpty());
+    }
+
+    // A session whose sessionTTL its messages kept moving forward is still connected to after its token's exp, by
+    // reading the session table, until the session is deleted
+    @Test
+    public void testExpiredTokenOfALiveSessionFallsBackToTheSessionTable() {
+        InMemorySessionStore store = new InMemorySessionStore(clock);
+        TenantSettings tenant = tenant();
+        SessionTokenAuthorizer authorizer = new SessionTokenAuthorizer(tenantId -> "tenant".equals(tenantId) ? tenant : null, store,
+                store, Duration.ofSeconds(5), clock, message -> { });
+        store.create("tenant", "session", 300);
+        String token = tokens.issue("tenant", "session", 300);
+
+        clock.advance(200_000);
+        store.touch("tenant", "session", 300);
+        clock.advance(200_000);
+        Assert.assertNull(tokens.verify(token));
+        SessionToken expired = tokens.verifySignature(token);
+        Assert.assertTrue(tokens.isExpired(expired));
+        Assert.assertSame(tenant, authorizer.authorize(expired));
+
+        // A forged token is not verified whether or not it has expired
+        String[] parts = token.split("\\.");
+        Assert.assertNull(tokens.verifySignature(parts[0] + "." + parts[1] + "." + parts[2].substring(1)));
+
+        store.delete("tenant", "session");
+        Assert.assertNull(authorizer.authorize(expired));
+    }
+
+    private static TenantSettings tenant() {
+        return TenantSettings.builder("tenant")
+                .tenantPerMinute(60)
+                .sessionPerMinute(10)
+                .connectionsPerSession(2)
+                .tenantConnections(10)
+                .sessionTTL(300)
+                .messagesPerMinute(60)
+                .build();
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}